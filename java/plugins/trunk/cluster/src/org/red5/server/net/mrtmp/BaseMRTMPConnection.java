@@ -18,6 +18,7 @@
 
 package org.red5.server.net.mrtmp;
 
+import org.apache.mina.core.buffer.IoBuffer;
 import org.apache.mina.core.session.IoSession;
 import org.red5.server.net.rtmp.message.Packet;
 
@@ -65,6 +66,45 @@ public class BaseMRTMPConnection implements IMRTMPConnection {
 		ioSession.write(mrtmpPacket);		
 	}
 
+	public void subscribe(int streamId, String path, String name) {
+		IoBuffer buf = IoBuffer.allocate(64);
+		buf.setAutoExpand(true);
+		MRTMPPacket.putString(buf, path);
+		MRTMPPacket.putString(buf, name);
+		buf.flip();
+		writeRelay(MRTMPPacket.SUBSCRIBE, streamId, buf);
+	}
+	
+	public void unsubscribe(int streamId) {
+		writeRelay(MRTMPPacket.UNSUBSCRIBE, streamId, null);
+	}
+	
+	public void writeStream(int streamId, byte dataType, int timestamp, IoBuffer data) {
+		IoBuffer buf = IoBuffer.allocate(MRTMPPacket.STREAM_BODY_HEADER_LENGTH + data.remaining());
+		buf.put(dataType);
+		buf.putInt(timestamp);
+		buf.put(data.asReadOnlyBuffer());
+		buf.flip();
+		writeRelay(MRTMPPacket.STREAM, streamId, buf);
+	}
+	
+	private void writeRelay(short type, int streamId, IoBuffer raw) {
+		MRTMPPacket mrtmpPacket = new MRTMPPacket();
+		MRTMPPacket.Header header = new MRTMPPacket.Header();
+		MRTMPPacket.Body body = new MRTMPPacket.Body();
+		mrtmpPacket.setHeader(header);
+		mrtmpPacket.setBody(body);
+		header.setType(type);
+		header.setClientId(streamId);
+		body.setRawBuf(raw);
+		// header and body length will be filled in the protocol codec
+		ioSession.write(mrtmpPacket);
+	}
+	
+	public long getScheduledWriteBytes() {
+		return ioSession.getScheduledWriteBytes();
+	}
+
 	public void close() {
 		ioSession.close(true);
 	}
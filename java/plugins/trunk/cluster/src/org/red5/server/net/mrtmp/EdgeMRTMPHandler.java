@@ -44,6 +44,7 @@ public class EdgeMRTMPHandler extends IoHandlerAdapter implements Constants {
 	private IRTMPConnManager rtmpConnManager;
 	private IMRTMPEdgeManager mrtmpManager;
 	private ProtocolCodecFactory codecFactory;
+	private EdgeStreamRelay streamRelay;
 	
 	public void setCodecFactory(ProtocolCodecFactory codecFactory) {
 		this.codecFactory = codecFactory;
@@ -57,9 +58,23 @@ public class EdgeMRTMPHandler extends IoHandlerAdapter implements Constants {
 		this.rtmpConnManager = rtmpConnManager;
 	}
 
+	public void setStreamRelay(EdgeStreamRelay streamRelay) {
+		this.streamRelay = streamRelay;
+	}
+
 	@Override
 	public void messageReceived(IoSession session, Object message) throws Exception {
 		MRTMPPacket mrtmpPacket = (MRTMPPacket) message;
+		switch (mrtmpPacket.getHeader().getType()) {
+			case MRTMPPacket.STREAM:
+			case MRTMPPacket.UNSUBSCRIBE:
+				// relayed streams are not bound to a client connection
+				if (streamRelay != null) {
+					streamRelay.packetReceived(mrtmpPacket);
+				}
+				return;
+			default:
+		}
 		int clientId = mrtmpPacket.getHeader().getClientId();
 		RTMPConnection conn = rtmpConnManager.getConnection(clientId);
 		if (conn == null) {
@@ -124,6 +139,9 @@ public class EdgeMRTMPHandler extends IoHandlerAdapter implements Constants {
 	public void sessionClosed(IoSession session) throws Exception {
 		MRTMPEdgeConnection conn = (MRTMPEdgeConnection) session.getAttribute(MRTMPEdgeConnection.EDGE_CONNECTION_KEY);
 		mrtmpManager.unregisterConnection(conn);
+		if (streamRelay != null) {
+			streamRelay.connectionClosed(conn);
+		}
 		conn.close();
 		log.debug("Closed MRTMP Edge Connection " + conn);
 	}
@@ -139,6 +157,9 @@ public class EdgeMRTMPHandler extends IoHandlerAdapter implements Constants {
 		if (log.isDebugEnabled()) {
 			session.getFilterChain().addLast("logger", new LoggingFilter());
 		}
+		if (streamRelay != null) {
+			streamRelay.connectionOpened(conn);
+		}
 		log.debug("Created MRTMP Edge Connection {}", conn);
 	}
 }
@@ -0,0 +1,393 @@
+/*
+ * RED5 Open Source Flash Server - http://code.google.com/p/red5/
+ *
+ * Copyright 2006-2012 by respective authors (see below). All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.red5.server.net.mrtmp;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.mina.core.buffer.IoBuffer;
+import org.red5.server.api.scheduling.IScheduledJob;
+import org.red5.server.api.scheduling.ISchedulingService;
+import org.red5.server.api.scope.IBroadcastScope;
+import org.red5.server.api.scope.IScope;
+import org.red5.server.api.stream.IStreamPlaybackSecurity;
+import org.red5.server.net.rtmp.event.Aggregate;
+import org.red5.server.net.rtmp.event.AudioData;
+import org.red5.server.net.rtmp.event.IRTMPEvent;
+import org.red5.server.net.rtmp.event.Notify;
+import org.red5.server.net.rtmp.event.VideoData;
+import org.red5.server.net.rtmp.message.Constants;
+import org.red5.server.net.rtmp.message.Header;
+import org.red5.server.stream.IProviderService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Edge side of the stream relay. The first local subscriber of a live stream makes the edge subscribe to it
+ * on the origin; the relayed tags are published into the edge scope as a {@link RelayBroadcastStream} that
+ * every further subscriber of the edge shares, so the link carries each stream once. The relay is dropped
+ * again once the stream has had no local subscribers for <tt>idleTimeout</tt> milliseconds; idleness is checked
+ * every <tt>idleCheckInterval</tt> milliseconds by the scheduling service, or on every relayed packet if there is
+ * none.
+ * <br />
+ * Applications on the edge register this bean as their playback security handler; it never denies playback.
+ * When the MRTMP link is re-established all relays are requested again and resume at the next keyframe.
+ *
+ * @author The Red5 Project
+ */
+public class EdgeStreamRelay implements IStreamPlaybackSecurity {
+
+	private static final Logger log = LoggerFactory.getLogger(EdgeStreamRelay.class);
+
+	/**
+	 * Link to the origin, null while disconnected
+	 */
+	private volatile IMRTMPConnection connection;
+
+	/**
+	 * Time in milliseconds a relay without subscribers is kept alive
+	 */
+	private long idleTimeout = 30000;
+
+	/**
+	 * Interval in milliseconds at which relays are checked for idleness
+	 */
+	private int idleCheckInterval = 5000;
+
+	private ISchedulingService schedulingService;
+
+	/**
+	 * Name of the idle check job, null if not scheduled
+	 */
+	private String idleJobName;
+
+	private final AtomicInteger nextId = new AtomicInteger();
+
+	/**
+	 * Relays by scope path and stream name
+	 */
+	private final ConcurrentMap<String, Relay> relaysByName = new ConcurrentHashMap<String, Relay>();
+
+	/**
+	 * Relays by relay id
+	 */
+	private final ConcurrentMap<Integer, Relay> relaysById = new ConcurrentHashMap<Integer, Relay>();
+
+	public void setIdleTimeout(long idleTimeout) {
+		this.idleTimeout = idleTimeout;
+	}
+
+	public void setIdleCheckInterval(int idleCheckInterval) {
+		this.idleCheckInterval = idleCheckInterval;
+	}
+
+	public void setSchedulingService(ISchedulingService schedulingService) {
+		this.schedulingService = schedulingService;
+	}
+
+	/**
+	 * Schedules the idle check.
+	 */
+	public void init() {
+		if (schedulingService != null && idleJobName == null) {
+			idleJobName = schedulingService.addScheduledJob(idleCheckInterval, new IScheduledJob() {
+				public void execute(ISchedulingService service) {
+					checkIdle();
+				}
+			});
+		}
+	}
+
+	/**
+	 * Cancels the idle check.
+	 */
+	public void destroy() {
+		if (idleJobName != null) {
+			schedulingService.removeScheduledJob(idleJobName);
+			idleJobName = null;
+		}
+	}
+
+	/** {@inheritDoc} */
+	public boolean isPlaybackAllowed(IScope scope, String name, int start, int length, boolean flushPlaylist) {
+		// only live playback is relayed
+		if (start != 0 && start != -1 && start != -2) {
+			return true;
+		}
+		IProviderService providerService = (IProviderService) scope.getContext().getBean(IProviderService.BEAN_NAME);
+		IBroadcastScope broadcastScope = scope.getBroadcastScope(name);
+		if (broadcastScope != null && broadcastScope.getClientBroadcastStream() != null
+				&& !(broadcastScope.getClientBroadcastStream() instanceof RelayBroadcastStream)) {
+			// published on this edge
+			return true;
+		}
+		// live-only playback is always relayed, even if a file of that name exists
+		if (start >= 0 && providerService.getVODProviderFile(scope, name) != null) {
+			return true;
+		}
+		subscribe(scope, name);
+		return true;
+	}
+
+	/**
+	 * Starts relaying a stream unless it is relayed already.
+	 *
+	 * @param scope scope the stream is played in
+	 * @param name stream name
+	 */
+	public void subscribe(IScope scope, String name) {
+		String key = getKey(scope, name);
+		Relay relay = relaysByName.get(key);
+		if (relay != null) {
+			relay.idleSince = 0;
+			return;
+		}
+		relay = new Relay(nextId.incrementAndGet(), scope, name);
+		if (relaysByName.putIfAbsent(key, relay) != null) {
+			// someone else was quicker
+			return;
+		}
+		relaysById.put(relay.id, relay);
+		relay.start();
+		IMRTMPConnection conn = connection;
+		if (conn != null) {
+			conn.subscribe(relay.id, relay.path, name);
+		} else {
+			log.debug("Origin not connected, {} will be requested on connect", key);
+		}
+	}
+
+	/**
+	 * Handles a relay packet received from the origin.
+	 *
+	 * @param packet stream or unsubscribe packet
+	 */
+	public void packetReceived(MRTMPPacket packet) {
+		int id = packet.getHeader().getClientId();
+		Relay relay = relaysById.get(id);
+		if (relay == null) {
+			if (packet.getHeader().getType() == MRTMPPacket.STREAM) {
+				// stale relay, tell the origin to stop sending
+				IMRTMPConnection conn = connection;
+				if (conn != null) {
+					conn.unsubscribe(id);
+				}
+			}
+			return;
+		}
+		switch (packet.getHeader().getType()) {
+			case MRTMPPacket.STREAM:
+				relay.dispatch(packet.getBody().getRawBuf());
+				break;
+			case MRTMPPacket.UNSUBSCRIBE:
+				log.debug("Origin closed relay {}", relay.key);
+				close(relay);
+				break;
+			default:
+		}
+	}
+
+	/**
+	 * Requests all relays from a new link to the origin.
+	 *
+	 * @param conn link
+	 */
+	public void connectionOpened(IMRTMPConnection conn) {
+		connection = conn;
+		for (Relay relay : relaysById.values()) {
+			relay.waitKeyFrame = true;
+			conn.subscribe(relay.id, relay.path, relay.name);
+		}
+	}
+
+	/**
+	 * Holds all relays until the link to the origin is back.
+	 *
+	 * @param conn link
+	 */
+	public void connectionClosed(IMRTMPConnection conn) {
+		if (connection == conn) {
+			connection = null;
+		}
+		for (Relay relay : relaysById.values()) {
+			relay.waitKeyFrame = true;
+		}
+	}
+
+	/**
+	 * Closes all relays which have had no local subscribers for longer than the idle timeout.
+	 */
+	public void checkIdle() {
+		for (Relay relay : relaysById.values()) {
+			relay.checkIdle();
+		}
+	}
+
+	/**
+	 * @return number of streams currently relayed
+	 */
+	public int getRelayCount() {
+		return relaysById.size();
+	}
+
+	private void close(Relay relay) {
+		if (relaysByName.remove(relay.key, relay)) {
+			relaysById.remove(relay.id);
+			relay.stop();
+		}
+	}
+
+	private static String getKey(IScope scope, String name) {
+		return getPath(scope) + '/' + name;
+	}
+
+	/**
+	 * Returns the path of a scope as sent to the origin.
+	 */
+	private static String getPath(IScope scope) {
+		return scope.getPath() + '/' + scope.getName();
+	}
+
+	/**
+	 * One relayed stream.
+	 */
+	private class Relay {
+
+		final int id;
+
+		final IScope scope;
+
+		final String name;
+
+		/**
+		 * Path of the scope on the origin
+		 */
+		final String path;
+
+		final String key;
+
+		final RelayBroadcastStream stream = new RelayBroadcastStream();
+
+		/**
+		 * Whether interframes are dropped until the next keyframe
+		 */
+		volatile boolean waitKeyFrame = true;
+
+		/**
+		 * Time the last local subscriber left, 0 while subscribed
+		 */
+		volatile long idleSince;
+
+		Relay(int id, IScope scope, String name) {
+			this.id = id;
+			this.scope = scope;
+			this.name = name;
+			this.path = getPath(scope);
+			this.key = path + '/' + name;
+		}
+
+		void start() {
+			IProviderService providerService = (IProviderService) scope.getContext().getBean(IProviderService.BEAN_NAME);
+			stream.setScope(scope);
+			stream.setName(name);
+			stream.setPublishedName(name);
+			stream.start();
+			providerService.registerBroadcastStream(scope, name, stream);
+			IBroadcastScope broadcastScope = (IBroadcastScope) providerService.getLiveProviderInput(scope, name, true);
+			broadcastScope.setClientBroadcastStream(stream);
+			stream.startPublishing();
+		}
+
+		void stop() {
+			IProviderService providerService = (IProviderService) scope.getContext().getBean(IProviderService.BEAN_NAME);
+			stream.stop();
+			// the broadcast scope removes itself once its last component is gone
+			if (scope.getBroadcastScope(name) != null) {
+				providerService.unregisterBroadcastStream(scope, name, stream);
+			}
+		}
+
+		void dispatch(IoBuffer body) {
+			if (idleJobName == null && checkIdle()) {
+				return;
+			}
+			byte dataType = body.get();
+			int timestamp = body.getInt();
+			IoBuffer data = body.slice();
+			IRTMPEvent event;
+			switch (dataType) {
+				case Constants.TYPE_AUDIO_DATA:
+					event = new AudioData(data);
+					break;
+				case Constants.TYPE_VIDEO_DATA:
+					VideoData video = new VideoData(data);
+					if (video.getFrameType() == VideoData.FrameType.KEYFRAME) {
+						waitKeyFrame = false;
+					} else if (waitKeyFrame) {
+						return;
+					}
+					event = video;
+					break;
+				case Constants.TYPE_NOTIFY:
+					event = new Notify(data);
+					break;
+				case Constants.TYPE_AGGREGATE:
+					event = new Aggregate(data);
+					break;
+				default:
+					return;
+			}
+			Header header = new Header();
+			header.setDataType(dataType);
+			header.setTimer(timestamp);
+			event.setHeader(header);
+			event.setTimestamp(timestamp);
+			stream.dispatchEvent(event);
+		}
+
+		/**
+		 * Closes the relay if nobody played it for too long.
+		 *
+		 * @return true if the relay was closed
+		 */
+		boolean checkIdle() {
+			IBroadcastScope broadcastScope = scope.getBroadcastScope(name);
+			if (broadcastScope != null && !broadcastScope.getConsumers().isEmpty()) {
+				idleSince = 0;
+				return false;
+			}
+			long now = System.currentTimeMillis();
+			if (idleSince == 0) {
+				idleSince = now;
+			} else if (now - idleSince > idleTimeout) {
+				log.debug("Relay {} idle, unsubscribing", key);
+				IMRTMPConnection conn = connection;
+				if (conn != null) {
+					conn.unsubscribe(id);
+				}
+				close(this);
+				return true;
+			}
+			return false;
+		}
+
+	}
+
+}
@@ -18,6 +18,7 @@
 
 package org.red5.server.net.mrtmp;
 
+import org.apache.mina.core.buffer.IoBuffer;
 import org.red5.server.net.rtmp.message.Packet;
 
 /**
@@ -43,5 +44,34 @@ public interface IMRTMPConnection {
 	 */
 	void disconnect(int clientId);
 	
+	/**
+	 * Ask the other side to relay a live stream
+	 * @param streamId relay id chosen by the subscribing side
+	 * @param path scope path
+	 * @param name stream name
+	 */
+	void subscribe(int streamId, String path, String name);
+	
+	/**
+	 * Stop relaying a live stream
+	 * @param streamId
+	 */
+	void unsubscribe(int streamId);
+	
+	/**
+	 * Send a tag of a relayed stream
+	 * @param streamId
+	 * @param dataType
+	 * @param timestamp
+	 * @param data
+	 */
+	void writeStream(int streamId, byte dataType, int timestamp, IoBuffer data);
+	
+	/**
+	 * Get the number of bytes queued for writing
+	 * @return bytes
+	 */
+	long getScheduledWriteBytes();
+	
 	void close();
 }
@@ -113,7 +113,8 @@ public class MRTMPClient implements Runnable {
 
 		public void exceptionCaught(IoSession session, Throwable cause) throws Exception {
 			wrapped.exceptionCaught(session, cause);
-			MRTMPClient.this.reconnect();
+			// reconnect once the session is closed
+			session.close(true);
 		}
 
 		public void messageReceived(IoSession session, Object message) throws Exception {
@@ -126,6 +127,7 @@ public class MRTMPClient implements Runnable {
 
 		public void sessionClosed(IoSession session) throws Exception {
 			wrapped.sessionClosed(session);
+			MRTMPClient.this.reconnect();
 		}
 
 		public void sessionCreated(IoSession session) throws Exception {
@@ -18,6 +18,8 @@
 
 package org.red5.server.net.mrtmp;
 
+import java.nio.charset.Charset;
+
 import org.apache.mina.core.buffer.IoBuffer;
 import org.red5.server.net.rtmp.message.Packet;
 
@@ -28,12 +30,31 @@ public class MRTMPPacket {
 	public static final short CONNECT = 0;
 	public static final short CLOSE = 1;
 	public static final short RTMP = 2;
+	/**
+	 * Relay: edge asks origin for a stream, body is scope path and stream name
+	 */
+	public static final short SUBSCRIBE = 3;
+	/**
+	 * Relay: edge no longer needs a stream, or origin stream was unpublished
+	 */
+	public static final short UNSUBSCRIBE = 4;
+	/**
+	 * Relay: stream data from origin, body is data type, timestamp and payload
+	 */
+	public static final short STREAM = 5;
 	
 	public static final short JAVA_ENCODING = 0;
 	
 	public static final int COMMON_HEADER_LENGTH = 20;
 	public static final int RTMP_HEADER_LENGTH = COMMON_HEADER_LENGTH + 4;
 	
+	/**
+	 * Length of the data type and timestamp preceding the payload of a stream packet
+	 */
+	public static final int STREAM_BODY_HEADER_LENGTH = 5;
+	
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	
 	private Header header;
 	private Body body;
 	
@@ -162,6 +183,15 @@ public class MRTMPPacket {
 			case RTMP:
 				buf.append("RTMP");
 				break;
+			case SUBSCRIBE:
+				buf.append("SUBSCRIBE");
+				break;
+			case UNSUBSCRIBE:
+				buf.append("UNSUBSCRIBE");
+				break;
+			case STREAM:
+				buf.append("STREAM");
+				break;
 			default:
 				break;
 		}
@@ -176,4 +206,22 @@ public class MRTMPPacket {
 
 		return buf.toString();
 	}
+	
+	/**
+	 * Writes a length prefixed UTF-8 string.
+	 */
+	public static void putString(IoBuffer buf, String value) {
+		byte[] bytes = value.getBytes(UTF8);
+		buf.putShort((short) bytes.length);
+		buf.put(bytes);
+	}
+	
+	/**
+	 * Reads a length prefixed UTF-8 string.
+	 */
+	public static String getString(IoBuffer buf) {
+		byte[] bytes = new byte[buf.getUnsignedShort()];
+		buf.get(bytes);
+		return new String(bytes, UTF8);
+	}
 }
@@ -44,6 +44,7 @@ public class OriginMRTMPHandler extends IoHandlerAdapter {
 	private IMRTMPOriginManager mrtmpManager;
 	private ProtocolCodecFactory codecFactory;
 	private IRTMPHandler handler;
+	private OriginStreamRelay streamRelay;
 	private Map<Integer, RTMPOriginConnection> dynConnMap =
 		new HashMap<Integer, RTMPOriginConnection>();
 	private Map<StaticConnId, RTMPOriginConnection> statConnMap =
@@ -63,6 +64,10 @@ public class OriginMRTMPHandler extends IoHandlerAdapter {
 		this.codecFactory = codecFactory;
 	}
 
+	public void setStreamRelay(OriginStreamRelay streamRelay) {
+		this.streamRelay = streamRelay;
+	}
+
 	@Override
 	public void messageReceived(IoSession session, Object message) throws Exception {
 		MRTMPPacket packet = (MRTMPPacket) message;
@@ -139,6 +144,18 @@ public class OriginMRTMPHandler extends IoHandlerAdapter {
 					log.warn("Handle on a non-existent origin connection!");
 				}
 				break;
+			case MRTMPPacket.SUBSCRIBE:
+			case MRTMPPacket.UNSUBSCRIBE:
+				if (streamRelay != null) {
+					if (header.getType() == MRTMPPacket.SUBSCRIBE) {
+						streamRelay.subscribe(mrtmpConn, clientId, body.getRawBuf());
+					} else {
+						streamRelay.unsubscribe(mrtmpConn, clientId);
+					}
+				} else {
+					log.warn("Stream relay requested but not configured!");
+				}
+				break;
 			default:
 				log.warn("Unknown mrtmp packet received!");
 				break;
@@ -193,6 +210,9 @@ public class OriginMRTMPHandler extends IoHandlerAdapter {
 		MRTMPOriginConnection conn = (MRTMPOriginConnection) session.getAttribute(MRTMPOriginConnection.ORIGIN_CONNECTION_KEY);
 		// TODO we need to handle the case when all MRTMP connection is broken.
 		mrtmpManager.unregisterConnection(conn);
+		if (streamRelay != null) {
+			streamRelay.connectionClosed(conn);
+		}
 		conn.close();
 		log.debug("Closed MRTMP Origin Connection " + conn);
 	}
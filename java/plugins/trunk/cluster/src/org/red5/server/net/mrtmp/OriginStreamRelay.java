@@ -0,0 +1,295 @@
+/*
+ * RED5 Open Source Flash Server - http://code.google.com/p/red5/
+ *
+ * Copyright 2006-2012 by respective authors (see below). All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.red5.server.net.mrtmp;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.mina.core.buffer.IoBuffer;
+import org.red5.codec.IAudioStreamCodec;
+import org.red5.codec.IStreamCodecInfo;
+import org.red5.codec.IVideoStreamCodec;
+import org.red5.server.api.IServer;
+import org.red5.server.api.scope.IBroadcastScope;
+import org.red5.server.api.scope.IGlobalScope;
+import org.red5.server.api.scope.IScope;
+import org.red5.server.api.statistics.IStreamStatistics;
+import org.red5.server.api.stream.IBroadcastStream;
+import org.red5.server.messaging.IMessage;
+import org.red5.server.messaging.IMessageComponent;
+import org.red5.server.messaging.IMessageInput;
+import org.red5.server.messaging.IPipe;
+import org.red5.server.messaging.IPipeConnectionListener;
+import org.red5.server.messaging.IPushableConsumer;
+import org.red5.server.messaging.OOBControlMessage;
+import org.red5.server.messaging.PipeConnectionEvent;
+import org.red5.server.net.rtmp.event.IRTMPEvent;
+import org.red5.server.net.rtmp.event.Notify;
+import org.red5.server.net.rtmp.event.VideoData;
+import org.red5.server.net.rtmp.message.Constants;
+import org.red5.server.stream.IProviderService;
+import org.red5.server.stream.IStreamData;
+import org.red5.server.stream.message.RTMPMessage;
+import org.red5.server.util.ScopeUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Origin side of the stream relay. Each edge subscribes to a live stream once over its MRTMP link, no matter
+ * how many viewers it serves, and the origin pushes the tags of that stream over the link tagged with the
+ * relay id the edge chose.
+ * <br />
+ * On subscribe, and whenever the stream is republished, the edge is primed with the metadata, the decoder
+ * configurations and the last keyframe; after that interframes are held back until the next keyframe so the
+ * edge always resumes on a clean GOP. The same happens when the link backs up beyond
+ * <tt>maxQueuedBytes</tt>.
+ *
+ * @author The Red5 Project
+ */
+public class OriginStreamRelay {
+
+	private static final Logger log = LoggerFactory.getLogger(OriginStreamRelay.class);
+
+	private IServer server;
+
+	/**
+	 * Bytes queued on a link above which video is dropped up to the next keyframe
+	 */
+	private long maxQueuedBytes = 4 * 1024 * 1024;
+
+	/**
+	 * Relays by link and relay id
+	 */
+	private final ConcurrentMap<IMRTMPConnection, ConcurrentMap<Integer, RelayConsumer>> relays = new ConcurrentHashMap<IMRTMPConnection, ConcurrentMap<Integer, RelayConsumer>>();
+
+	public void setServer(IServer server) {
+		this.server = server;
+	}
+
+	public void setMaxQueuedBytes(long maxQueuedBytes) {
+		this.maxQueuedBytes = maxQueuedBytes;
+	}
+
+	/**
+	 * Handles a subscribe request from an edge.
+	 *
+	 * @param conn link the request came in on
+	 * @param streamId relay id chosen by the edge
+	 * @param body scope path and stream name
+	 */
+	public void subscribe(IMRTMPConnection conn, int streamId, IoBuffer body) {
+		String path = MRTMPPacket.getString(body);
+		String name = MRTMPPacket.getString(body);
+		log.debug("Relay subscribe - id: {} path: {} name: {}", new Object[] { streamId, path, name });
+		IScope scope = lookupScope(path);
+		if (scope == null) {
+			log.info("Relay scope not found: {}", path);
+			conn.unsubscribe(streamId);
+			return;
+		}
+		ConcurrentMap<Integer, RelayConsumer> map = relays.get(conn);
+		if (map == null) {
+			map = new ConcurrentHashMap<Integer, RelayConsumer>();
+			ConcurrentMap<Integer, RelayConsumer> existing = relays.putIfAbsent(conn, map);
+			if (existing != null) {
+				map = existing;
+			}
+		}
+		RelayConsumer consumer = new RelayConsumer(conn, streamId);
+		RelayConsumer previous = map.put(streamId, consumer);
+		if (previous != null) {
+			// edge resubscribed, most likely after a reconnect
+			previous.stop();
+		}
+		consumer.start(scope, name);
+	}
+
+	/**
+	 * Handles an unsubscribe request from an edge.
+	 *
+	 * @param conn link the request came in on
+	 * @param streamId relay id
+	 */
+	public void unsubscribe(IMRTMPConnection conn, int streamId) {
+		log.debug("Relay unsubscribe - id: {}", streamId);
+		ConcurrentMap<Integer, RelayConsumer> map = relays.get(conn);
+		if (map != null) {
+			RelayConsumer consumer = map.remove(streamId);
+			if (consumer != null) {
+				consumer.stop();
+			}
+		}
+	}
+
+	/**
+	 * Drops all relays of a closed link.
+	 *
+	 * @param conn link
+	 */
+	public void connectionClosed(IMRTMPConnection conn) {
+		ConcurrentMap<Integer, RelayConsumer> map = relays.remove(conn);
+		if (map != null) {
+			for (RelayConsumer consumer : map.values()) {
+				consumer.stop();
+			}
+		}
+	}
+
+	/**
+	 * Resolves a scope path of the form <tt>/global/app/room</tt>.
+	 */
+	private IScope lookupScope(String path) {
+		String[] parts = path.substring(1).split("/", 2);
+		IGlobalScope global = server.getGlobal(parts[0]);
+		if (global == null || parts.length == 1) {
+			return global;
+		}
+		return ScopeUtils.resolveScope(global, parts[1]);
+	}
+
+	/**
+	 * Feeds one live stream into one edge link.
+	 */
+	private class RelayConsumer implements IPushableConsumer, IPipeConnectionListener {
+
+		private final IMRTMPConnection conn;
+
+		private final int streamId;
+
+		private IScope scope;
+
+		private String name;
+
+		private IMessageInput input;
+
+		/**
+		 * Whether video is held back until the next keyframe
+		 */
+		private boolean waitKeyFrame = true;
+
+		RelayConsumer(IMRTMPConnection conn, int streamId) {
+			this.conn = conn;
+			this.streamId = streamId;
+		}
+
+		void start(IScope scope, String name) {
+			this.scope = scope;
+			this.name = name;
+			IProviderService providerService = (IProviderService) scope.getContext().getBean(IProviderService.BEAN_NAME);
+			// create the broadcast scope if needed so the edge is fed as soon as the stream is published
+			input = providerService.getLiveProviderInput(scope, name, true);
+			input.subscribe(this, null);
+			prime();
+		}
+
+		void stop() {
+			if (input != null) {
+				input.unsubscribe(this);
+				input = null;
+			}
+		}
+
+		/**
+		 * Sends metadata, decoder configurations and the last keyframe of the stream.
+		 */
+		private void prime() {
+			IBroadcastScope broadcastScope = scope.getBroadcastScope(name);
+			IBroadcastStream stream = broadcastScope != null ? broadcastScope.getClientBroadcastStream() : null;
+			if (stream == null) {
+				return;
+			}
+			int timestamp = stream instanceof IStreamStatistics ? Math.max(((IStreamStatistics) stream).getCurrentTimestamp(), 0) : 0;
+			Notify metaData = stream.getMetaData();
+			if (metaData != null) {
+				conn.writeStream(streamId, Constants.TYPE_STREAM_METADATA, timestamp, metaData.getData());
+			}
+			IStreamCodecInfo codecInfo = stream.getCodecInfo();
+			if (codecInfo != null) {
+				IVideoStreamCodec videoCodec = codecInfo.getVideoCodec();
+				if (videoCodec != null) {
+					IoBuffer config = videoCodec.getDecoderConfiguration();
+					if (config != null) {
+						conn.writeStream(streamId, Constants.TYPE_VIDEO_DATA, timestamp, config);
+					}
+					IoBuffer keyFrame = videoCodec.getKeyframe();
+					if (keyFrame != null) {
+						conn.writeStream(streamId, Constants.TYPE_VIDEO_DATA, timestamp, keyFrame);
+					}
+				}
+				IAudioStreamCodec audioCodec = codecInfo.getAudioCodec();
+				if (audioCodec != null) {
+					IoBuffer config = audioCodec.getDecoderConfiguration();
+					if (config != null) {
+						conn.writeStream(streamId, Constants.TYPE_AUDIO_DATA, timestamp, config);
+					}
+				}
+			}
+			waitKeyFrame = true;
+		}
+
+		public void pushMessage(IPipe pipe, IMessage message) {
+			if (!(message instanceof RTMPMessage)) {
+				return;
+			}
+			IRTMPEvent body = ((RTMPMessage) message).getBody();
+			if (!(body instanceof IStreamData)) {
+				return;
+			}
+			if (body instanceof VideoData) {
+				boolean keyFrame = ((VideoData) body).getFrameType() == VideoData.FrameType.KEYFRAME;
+				if (conn.getScheduledWriteBytes() > maxQueuedBytes) {
+					// the link can not keep up, resume at the next keyframe
+					waitKeyFrame = true;
+					return;
+				}
+				if (waitKeyFrame) {
+					if (!keyFrame) {
+						return;
+					}
+					waitKeyFrame = false;
+				}
+			}
+			IoBuffer data = ((IStreamData<?>) body).getData();
+			if (data != null) {
+				conn.writeStream(streamId, body.getDataType(), body.getTimestamp(), data);
+			}
+		}
+
+		public void onPipeConnectionEvent(PipeConnectionEvent event) {
+			switch (event.getType()) {
+				case PipeConnectionEvent.PROVIDER_CONNECT_PUSH:
+					log.debug("Relayed stream {} published", name);
+					prime();
+					break;
+				case PipeConnectionEvent.PROVIDER_DISCONNECT:
+					log.debug("Relayed stream {} unpublished", name);
+					// let the edge close its copy
+					conn.unsubscribe(streamId);
+					unsubscribe(conn, streamId);
+					break;
+				default:
+			}
+		}
+
+		public void onOOBControlMessage(IMessageComponent source, IPipe pipe, OOBControlMessage oobCtrlMsg) {
+		}
+
+	}
+
+}
@@ -0,0 +1,60 @@
+/*
+ * RED5 Open Source Flash Server - http://code.google.com/p/red5/
+ *
+ * Copyright 2006-2012 by respective authors (see below). All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.red5.server.net.mrtmp;
+
+import org.red5.codec.StreamCodecInfo;
+import org.red5.server.stream.ClientBroadcastStream;
+import org.red5.server.stream.message.StatusMessage;
+
+/**
+ * Broadcast stream on an edge fed by the origin instead of a publishing client. Local subscribers play it like
+ * any other live stream.
+ *
+ * @author The Red5 Project
+ */
+public class RelayBroadcastStream extends ClientBroadcastStream {
+
+	public RelayBroadcastStream() {
+		// there is no publisher to notify and no handler callback to make
+		sendStartNotification = false;
+		setRegisterJMX(false);
+	}
+
+	/**
+	 * Starts the stream without a publishing connection.
+	 */
+	@Override
+	public void start() {
+		checkVideoCodec = true;
+		checkAudioCodec = true;
+		firstPacketTime = -1;
+		latestTimeStamp = -1;
+		bytesReceived = 0;
+		setCodecInfo(new StreamCodecInfo());
+		creationTime = System.currentTimeMillis();
+		closed = false;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	protected void pushMessage(StatusMessage msg) {
+		// status messages are meant for the publisher
+	}
+
+}
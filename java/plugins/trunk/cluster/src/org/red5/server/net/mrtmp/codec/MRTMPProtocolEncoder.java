@@ -40,6 +40,7 @@ public class MRTMPProtocolEncoder implements ProtocolEncoder {
 		MRTMPPacket packet = (MRTMPPacket) message;
 		MRTMPPacket.Header header = packet.getHeader();
 		IoBuffer buf = null;
+		IoBuffer raw = null;
 		switch (header.getType()) {
 			case MRTMPPacket.CONNECT:
 			case MRTMPPacket.CLOSE:
@@ -50,6 +51,12 @@ public class MRTMPProtocolEncoder implements ProtocolEncoder {
 				buf = IoBuffer.allocate(MRTMPPacket.RTMP_HEADER_LENGTH);
 				buf.setAutoExpand(true);
 				break;
+			case MRTMPPacket.SUBSCRIBE:
+			case MRTMPPacket.UNSUBSCRIBE:
+			case MRTMPPacket.STREAM:
+				raw = packet.getBody().getRawBuf();
+				buf = IoBuffer.allocate(MRTMPPacket.COMMON_HEADER_LENGTH + (raw != null ? raw.remaining() : 0));
+				break;
 			default:
 				break;
 		}
@@ -79,6 +86,15 @@ public class MRTMPProtocolEncoder implements ProtocolEncoder {
 			buf.put(baos.toByteArray());
 			// substract the 8-byte body length field and rtmp type field
 			buf.putInt(bodyLengthPos, buf.position() - bodyLengthPos - 8);
+		} else {
+			// relay packets carry their body as is
+			buf.putInt(MRTMPPacket.COMMON_HEADER_LENGTH);
+			if (raw != null) {
+				buf.putInt(raw.remaining());
+				buf.put(raw);
+			} else {
+				buf.putInt(0);
+			}
 		}
 		buf.flip();
 		out.write(buf);
@@ -0,0 +1,216 @@
+/*
+ * RED5 Open Source Flash Server - http://code.google.com/p/red5/
+ *
+ * Copyright 2006-2012 by respective authors (see below). All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.red5.server.net.mrtmp;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.mina.core.buffer.IoBuffer;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.red5.server.Context;
+import org.red5.server.api.scope.IBroadcastScope;
+import org.red5.server.api.scope.IScope;
+import org.red5.server.api.scope.ScopeType;
+import org.red5.server.messaging.IMessage;
+import org.red5.server.messaging.IMessageComponent;
+import org.red5.server.messaging.IPipe;
+import org.red5.server.messaging.IPushableConsumer;
+import org.red5.server.messaging.OOBControlMessage;
+import org.red5.server.net.rtmp.message.Constants;
+import org.red5.server.net.rtmp.message.Packet;
+import org.red5.server.scope.Scope;
+import org.red5.server.stream.IProviderService;
+import org.red5.server.stream.ProviderService;
+import org.red5.server.stream.message.RTMPMessage;
+
+public class EdgeStreamRelayTest {
+
+	private Scope scope;
+
+	private OriginLink link;
+
+	private EdgeStreamRelay relay;
+
+	@Before
+	public void setUp() {
+		final IProviderService providerService = new ProviderService() {
+			@Override
+			public File getVODProviderFile(IScope scope, String name) {
+				// a recording of "cam" exists on the edge
+				return "cam".equals(name) ? new File("cam.flv") : null;
+			}
+		};
+		scope = new Scope.Builder(null, ScopeType.APPLICATION, "live", false).build();
+		scope.setContext(new Context() {
+			@Override
+			public Object getBean(String beanId) {
+				return IProviderService.BEAN_NAME.equals(beanId) ? providerService : null;
+			}
+		});
+		link = new OriginLink();
+		relay = new EdgeStreamRelay();
+		relay.setIdleTimeout(50);
+		relay.connectionOpened(link);
+	}
+
+	@After
+	public void tearDown() {
+		relay.destroy();
+	}
+
+	@Test
+	public void testSubscribeOnce() {
+		Assert.assertTrue(relay.isPlaybackAllowed(scope, "folder/stream", -2, -1, true));
+		Assert.assertTrue(relay.isPlaybackAllowed(scope, "folder/stream", -2, -1, true));
+		Assert.assertEquals(1, relay.getRelayCount());
+		Assert.assertEquals(1, link.subscribed.size());
+		// the path is the scope, not the part of the name before a slash
+		Assert.assertEquals("/live folder/stream", link.subscribed.get(0));
+		Assert.assertNotNull(scope.getBroadcastScope("folder/stream"));
+	}
+
+	@Test
+	public void testLiveOnlyIgnoresFile() {
+		// vod start is served from the local file
+		relay.isPlaybackAllowed(scope, "cam", 0, -1, true);
+		Assert.assertEquals(0, relay.getRelayCount());
+		// live-only start is relayed even though the file exists
+		relay.isPlaybackAllowed(scope, "cam", -1, -1, true);
+		Assert.assertEquals(1, relay.getRelayCount());
+	}
+
+	@Test
+	public void testFanOut() {
+		relay.isPlaybackAllowed(scope, "stream", -1, -1, true);
+		IBroadcastScope broadcastScope = scope.getBroadcastScope("stream");
+		Subscriber first = new Subscriber();
+		Subscriber second = new Subscriber();
+		broadcastScope.subscribe(first, null);
+		broadcastScope.subscribe(second, null);
+		// interframes are dropped until the first keyframe
+		relay.packetReceived(stream(1, Constants.TYPE_VIDEO_DATA, 0, new byte[] { 0x22, 0x00 }));
+		relay.packetReceived(stream(1, Constants.TYPE_VIDEO_DATA, 40, new byte[] { 0x12, 0x00 }));
+		relay.packetReceived(stream(1, Constants.TYPE_AUDIO_DATA, 50, new byte[] { 0x2f, 0x00 }));
+		Assert.assertEquals(2, first.received.size());
+		Assert.assertEquals(2, second.received.size());
+		Assert.assertEquals(40, ((RTMPMessage) first.received.get(0)).getBody().getTimestamp());
+		// packets of unknown relays make the edge stop them at the origin
+		relay.packetReceived(stream(7, Constants.TYPE_AUDIO_DATA, 60, new byte[] { 0x2f, 0x00 }));
+		Assert.assertEquals(Integer.valueOf(7), link.unsubscribed.get(0));
+	}
+
+	@Test
+	public void testIdleTeardown() throws Exception {
+		relay.isPlaybackAllowed(scope, "stream", -1, -1, true);
+		IBroadcastScope broadcastScope = scope.getBroadcastScope("stream");
+		Subscriber subscriber = new Subscriber();
+		broadcastScope.subscribe(subscriber, null);
+		relay.checkIdle();
+		Thread.sleep(100);
+		relay.checkIdle();
+		Assert.assertEquals(1, relay.getRelayCount());
+		// the last subscriber leaves
+		broadcastScope.unsubscribe(subscriber);
+		relay.checkIdle();
+		Thread.sleep(100);
+		relay.checkIdle();
+		Assert.assertEquals(0, relay.getRelayCount());
+		Assert.assertEquals(Integer.valueOf(1), link.unsubscribed.get(0));
+		Assert.assertNull(scope.getBroadcastScope("stream"));
+	}
+
+	@Test
+	public void testIdleTeardownOnAudio() throws Exception {
+		// without a scheduling service idleness is checked on every packet, audio included
+		relay.isPlaybackAllowed(scope, "radio", -1, -1, true);
+		relay.packetReceived(stream(1, Constants.TYPE_AUDIO_DATA, 0, new byte[] { 0x2f, 0x00 }));
+		Thread.sleep(100);
+		relay.packetReceived(stream(1, Constants.TYPE_AUDIO_DATA, 20, new byte[] { 0x2f, 0x00 }));
+		Assert.assertEquals(0, relay.getRelayCount());
+		Assert.assertEquals(Integer.valueOf(1), link.unsubscribed.get(0));
+	}
+
+	private static MRTMPPacket stream(int id, byte dataType, int timestamp, byte[] data) {
+		MRTMPPacket packet = new MRTMPPacket();
+		MRTMPPacket.Header header = new MRTMPPacket.Header();
+		header.setType(MRTMPPacket.STREAM);
+		header.setClientId(id);
+		packet.setHeader(header);
+		IoBuffer buf = IoBuffer.allocate(MRTMPPacket.STREAM_BODY_HEADER_LENGTH + data.length);
+		buf.put(dataType).putInt(timestamp).put(data).flip();
+		MRTMPPacket.Body body = new MRTMPPacket.Body();
+		body.setRawBuf(buf);
+		packet.setBody(body);
+		return packet;
+	}
+
+	private static class OriginLink implements IMRTMPConnection {
+
+		final List<String> subscribed = new ArrayList<String>();
+
+		final List<Integer> unsubscribed = new ArrayList<Integer>();
+
+		public void write(int clientId, Packet packet) {
+		}
+
+		public void connect(int clientId) {
+		}
+
+		public void disconnect(int clientId) {
+		}
+
+		public void subscribe(int streamId, String path, String name) {
+			subscribed.add(path + ' ' + name);
+		}
+
+		public void unsubscribe(int streamId) {
+			unsubscribed.add(streamId);
+		}
+
+		public void writeStream(int streamId, byte dataType, int timestamp, IoBuffer data) {
+		}
+
+		public long getScheduledWriteBytes() {
+			return 0;
+		}
+
+		public void close() {
+		}
+
+	}
+
+	private static class Subscriber implements IPushableConsumer {
+
+		final List<IMessage> received = new ArrayList<IMessage>();
+
+		public void pushMessage(IPipe pipe, IMessage message) {
+			received.add(message);
+		}
+
+		public void onOOBControlMessage(IMessageComponent source, IPipe pipe, OOBControlMessage oobCtrlMsg) {
+		}
+
+	}
+
+}
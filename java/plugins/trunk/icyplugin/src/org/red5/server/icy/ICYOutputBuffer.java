@@ -0,0 +1,321 @@
+/*
+ * RED5 Open Source Flash Server - http://code.google.com/p/red5/
+ *
+ * Copyright 2006-2012 by respective authors (see below). All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.red5.server.icy;
+
+import java.nio.charset.Charset;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.mina.core.buffer.IoBuffer;
+import org.apache.mina.core.session.IoSession;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Audio of one ICY mount point, shared by all of its listeners. The audio is cut into blocks of
+ * <tt>metaInterval</tt> bytes, each followed by the current <tt>StreamTitle</tt> metadata, and the last
+ * <tt>capacity</tt> blocks are kept in a ring. Every listener keeps its own position in the ring and is sent
+ * read-only views of the blocks, so the audio is written into the buffer once no matter how many listeners there
+ * are. Listeners that did not ask for metadata are sent the audio part of the blocks only.
+ * <br />
+ * A listener has at most one block in flight; the next one is written when the previous one was sent. Listeners
+ * falling out of the ring skip ahead to the newest blocks.
+ *
+ * @author The Red5 Project
+ */
+public class ICYOutputBuffer {
+
+	private static Logger log = LoggerFactory.getLogger(ICYOutputBuffer.class);
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	/**
+	 * Metadata block of length zero
+	 */
+	private static final byte[] NO_METADATA = new byte[1];
+
+	/**
+	 * Audio bytes between two metadata blocks
+	 */
+	private final int metaInterval;
+
+	/**
+	 * Published blocks by sequence number modulo capacity
+	 */
+	private final Block[] blocks;
+
+	private final int mask;
+
+	/**
+	 * Sequence number of the newest published block, -1 before the first
+	 */
+	private volatile long sequence = -1;
+
+	/**
+	 * Block being filled
+	 */
+	private IoBuffer pending;
+
+	private volatile byte[] metadata = NO_METADATA;
+
+	private volatile String contentType;
+
+	/**
+	 * Blocks a new listener starts behind the newest one
+	 */
+	private int burst = 2;
+
+	private final Set<Listener> listeners = Collections.newSetFromMap(new ConcurrentHashMap<Listener, Boolean>());
+
+	private final AtomicLong skippedBlocks = new AtomicLong();
+
+	/**
+	 * @param metaInterval audio bytes between metadata blocks
+	 * @param capacity blocks kept, rounded up to a power of two
+	 */
+	public ICYOutputBuffer(int metaInterval, int capacity) {
+		this.metaInterval = metaInterval;
+		int size = Integer.highestOneBit(Math.max(capacity, 4) - 1) << 1;
+		blocks = new Block[size];
+		mask = size - 1;
+	}
+
+	public int getMetaInterval() {
+		return metaInterval;
+	}
+
+	/**
+	 * @param burst blocks a new listener starts behind the newest one, so its player can fill its buffer at once
+	 */
+	public void setBurst(int burst) {
+		this.burst = Math.max(1, Math.min(burst, mask));
+	}
+
+	/**
+	 * @return content type of the audio, null until known
+	 */
+	public String getContentType() {
+		return contentType;
+	}
+
+	public void setContentType(String contentType) {
+		this.contentType = contentType;
+	}
+
+	/**
+	 * Sets the title sent in the metadata of the following blocks.
+	 *
+	 * @param title stream title, null for none
+	 */
+	public void setTitle(String title) {
+		if (title == null) {
+			metadata = NO_METADATA;
+			return;
+		}
+		byte[] text = ("StreamTitle='" + title.replace('\'', '`') + "';").getBytes(UTF8);
+		// the length byte counts blocks of 16 bytes, 255 at most
+		int length = Math.min((text.length + 15) / 16, 255);
+		byte[] data = new byte[1 + length * 16];
+		data[0] = (byte) length;
+		System.arraycopy(text, 0, data, 1, Math.min(text.length, length * 16));
+		metadata = data;
+	}
+
+	/**
+	 * Appends audio and sends the blocks it completes to the listeners.
+	 *
+	 * @param in audio, read up to its limit
+	 */
+	public void write(IoBuffer in) {
+		boolean published = false;
+		synchronized (this) {
+			while (in.hasRemaining()) {
+				if (pending == null) {
+					// direct so the socket writes of all listeners read it without a temporary copy
+					pending = IoBuffer.allocate(metaInterval + 1 + 255 * 16, true);
+				}
+				int length = Math.min(in.remaining(), metaInterval - pending.position());
+				int limit = in.limit();
+				in.limit(in.position() + length);
+				pending.put(in);
+				in.limit(limit);
+				if (pending.position() == metaInterval) {
+					pending.put(metadata);
+					pending.flip();
+					long next = sequence + 1;
+					blocks[(int) (next & mask)] = new Block(next, pending);
+					sequence = next;
+					pending = null;
+					published = true;
+				}
+			}
+		}
+		if (published) {
+			for (Listener listener : listeners) {
+				listener.pump();
+			}
+		}
+	}
+
+	/**
+	 * Adds a listener; the response headers have to be written already.
+	 *
+	 * @param session listener connection
+	 * @param withMetadata whether the listener asked for metadata
+	 * @return listener, to be notified when its writes are sent
+	 */
+	public Listener addListener(IoSession session, boolean withMetadata) {
+		Listener listener = new Listener(session, withMetadata);
+		listeners.add(listener);
+		listener.pump();
+		return listener;
+	}
+
+	public void removeListener(Listener listener) {
+		listeners.remove(listener);
+	}
+
+	/**
+	 * Disconnects all listeners.
+	 */
+	public void close() {
+		for (Listener listener : listeners) {
+			listener.session.close(true);
+		}
+		listeners.clear();
+	}
+
+	public int getListenerCount() {
+		return listeners.size();
+	}
+
+	/**
+	 * @return blocks skipped by listeners that fell behind
+	 */
+	public long getSkippedBlocks() {
+		return skippedBlocks.get();
+	}
+
+	/**
+	 * Published audio block and the metadata following it.
+	 */
+	private static final class Block {
+
+		final long sequence;
+
+		final IoBuffer data;
+
+		Block(long sequence, IoBuffer data) {
+			this.sequence = sequence;
+			this.data = data;
+		}
+
+	}
+
+	/**
+	 * Position of one listener in the ring.
+	 */
+	public final class Listener {
+
+		private final IoSession session;
+
+		private final boolean withMetadata;
+
+		/**
+		 * Sequence number of the next block to send, -1 until the first block is known
+		 */
+		private long next = -1;
+
+		/**
+		 * Whether a block is in flight or being written
+		 */
+		private final AtomicBoolean writing = new AtomicBoolean();
+
+		Listener(IoSession session, boolean withMetadata) {
+			this.session = session;
+			this.withMetadata = withMetadata;
+		}
+
+		/**
+		 * Called once the last block written was sent.
+		 */
+		public void messageSent() {
+			writing.set(false);
+			pump();
+		}
+
+		/**
+		 * Stops sending to the listener.
+		 */
+		public void close() {
+			removeListener(this);
+		}
+
+		/**
+		 * Writes the next block unless one is in flight or none is available.
+		 */
+		void pump() {
+			while (writing.compareAndSet(false, true)) {
+				long newest = sequence;
+				if (newest < 0 || next > newest) {
+					writing.set(false);
+					// a block may have been published in between
+					if (newest == sequence) {
+						return;
+					}
+					continue;
+				}
+				if (next < 0) {
+					next = Math.max(0, newest - burst + 1);
+				} else if (newest - next > mask) {
+					skip(newest);
+				}
+				Block block = blocks[(int) (next & mask)];
+				if (block.sequence != next) {
+					// replaced while we looked
+					skip(sequence);
+					writing.set(false);
+					continue;
+				}
+				next++;
+				IoBuffer data = block.data.duplicate();
+				if (!withMetadata) {
+					data.limit(metaInterval);
+				}
+				session.write(data);
+				return;
+			}
+		}
+
+		/**
+		 * Moves a listener that fell out of the ring to the newest blocks.
+		 */
+		private void skip(long newest) {
+			long resume = Math.max(next, newest - burst + 1);
+			skippedBlocks.addAndGet(resume - next);
+			log.debug("Listener {} fell behind by {} blocks", session.getRemoteAddress(), newest - next);
+			next = resume;
+		}
+
+	}
+
+}
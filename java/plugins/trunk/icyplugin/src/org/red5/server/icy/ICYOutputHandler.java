@@ -0,0 +1,253 @@
+/*
+ * RED5 Open Source Flash Server - http://code.google.com/p/red5/
+ *
+ * Copyright 2006-2012 by respective authors (see below). All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.red5.server.icy;
+
+import java.net.InetSocketAddress;
+import java.nio.charset.Charset;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.mina.core.buffer.IoBuffer;
+import org.apache.mina.core.service.IoHandlerAdapter;
+import org.apache.mina.core.session.AttributeKey;
+import org.apache.mina.core.session.IdleStatus;
+import org.apache.mina.core.session.IoSession;
+import org.apache.mina.transport.socket.nio.NioSocketAcceptor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Serves the mount points of ICY outputs to SHOUTcast / Icecast compatible players over HTTP. A player requests
+ * <tt>GET /mount</tt>, optionally with <tt>Icy-MetaData: 1</tt>, and is answered with an endless audio stream read
+ * from the {@link ICYOutputBuffer} of the mount.
+ *
+ * @author The Red5 Project
+ */
+public class ICYOutputHandler extends IoHandlerAdapter {
+
+	private static Logger log = LoggerFactory.getLogger(ICYOutputHandler.class);
+
+	private static final Charset ASCII = Charset.forName("US-ASCII");
+
+	private static final AttributeKey REQUEST_KEY = new AttributeKey(ICYOutputHandler.class, "request");
+
+	private static final AttributeKey LISTENER_KEY = new AttributeKey(ICYOutputHandler.class, "listener");
+
+	private static final AttributeKey HEADER_KEY = new AttributeKey(ICYOutputHandler.class, "header");
+
+	/**
+	 * Largest accepted request
+	 */
+	private static final int MAX_REQUEST_SIZE = 8192;
+
+	private String host = "";
+
+	private int port = 8002;
+
+	/**
+	 * Seconds a request may take to arrive
+	 */
+	private int requestTimeout = 10;
+
+	private NioSocketAcceptor acceptor;
+
+	/**
+	 * Buffers by mount point
+	 */
+	private final ConcurrentMap<String, ICYOutputBuffer> mounts = new ConcurrentHashMap<String, ICYOutputBuffer>();
+
+	/**
+	 * Names of the mount points, sent as <tt>icy-name</tt>
+	 */
+	private final ConcurrentMap<String, String> names = new ConcurrentHashMap<String, String>();
+
+	public void start() throws Exception {
+		acceptor = new NioSocketAcceptor();
+		acceptor.setReuseAddress(true);
+		acceptor.setHandler(this);
+		acceptor.getSessionConfig().setReadBufferSize(1024);
+		acceptor.getSessionConfig().setTcpNoDelay(true);
+		acceptor.getSessionConfig().setIdleTime(IdleStatus.READER_IDLE, requestTimeout);
+		if ("".equals(host)) {
+			acceptor.bind(new InetSocketAddress(port));
+		} else {
+			acceptor.bind(new InetSocketAddress(host, port));
+		}
+		log.info("icy output listening on port {}", port);
+	}
+
+	public void stop() {
+		if (acceptor != null) {
+			acceptor.unbind();
+			acceptor.dispose();
+			acceptor = null;
+		}
+		for (ICYOutputBuffer buffer : mounts.values()) {
+			buffer.close();
+		}
+	}
+
+	/**
+	 * Makes a buffer available to listeners.
+	 *
+	 * @param mount mount point, starting with a slash
+	 * @param name name shown by players
+	 * @param buffer audio of the mount point
+	 */
+	public void addMount(String mount, String name, ICYOutputBuffer buffer) {
+		log.debug("Add mount: {}", mount);
+		names.put(mount, name != null ? name : mount);
+		mounts.put(mount, buffer);
+	}
+
+	/**
+	 * Removes a mount point and disconnects its listeners.
+	 *
+	 * @param mount mount point
+	 */
+	public void removeMount(String mount) {
+		log.debug("Remove mount: {}", mount);
+		ICYOutputBuffer buffer = mounts.remove(mount);
+		names.remove(mount);
+		if (buffer != null) {
+			buffer.close();
+		}
+	}
+
+	@Override
+	public void messageReceived(IoSession session, Object message) throws Exception {
+		if (session.containsAttribute(LISTENER_KEY)) {
+			// players have nothing more to say
+			return;
+		}
+		IoBuffer in = (IoBuffer) message;
+		StringBuilder request = (StringBuilder) session.getAttribute(REQUEST_KEY);
+		if (request == null) {
+			request = new StringBuilder();
+			session.setAttribute(REQUEST_KEY, request);
+		}
+		request.append(ASCII.decode(in.buf()));
+		int end = request.indexOf("\r\n\r\n");
+		if (end < 0) {
+			end = request.indexOf("\n\n");
+		}
+		if (end < 0) {
+			if (request.length() > MAX_REQUEST_SIZE) {
+				session.close(true);
+			}
+			return;
+		}
+		session.removeAttribute(REQUEST_KEY);
+		String[] lines = request.substring(0, end).split("\r?\n");
+		String[] requestLine = lines[0].split(" ");
+		if (requestLine.length < 2 || !"GET".equals(requestLine[0])) {
+			respond(session, "HTTP/1.0 400 Bad Request");
+			return;
+		}
+		String mount = requestLine[1];
+		int query = mount.indexOf('?');
+		if (query > 0) {
+			mount = mount.substring(0, query);
+		}
+		ICYOutputBuffer buffer = mounts.get(mount);
+		if (buffer == null || buffer.getContentType() == null) {
+			log.debug("Mount not available: {}", mount);
+			respond(session, "HTTP/1.0 404 Not Found");
+			return;
+		}
+		boolean withMetadata = false;
+		for (int i = 1; i < lines.length; i++) {
+			if (lines[i].toLowerCase().startsWith("icy-metadata:") && "1".equals(lines[i].substring(13).trim())) {
+				withMetadata = true;
+			}
+		}
+		StringBuilder response = new StringBuilder("ICY 200 OK\r\n");
+		response.append("Content-Type: ").append(buffer.getContentType()).append("\r\n");
+		response.append("icy-name: ").append(names.get(mount)).append("\r\n");
+		response.append("icy-pub: 0\r\n");
+		if (withMetadata) {
+			response.append("icy-metaint: ").append(buffer.getMetaInterval()).append("\r\n");
+		}
+		response.append("\r\n");
+		// the listener is only told about the blocks it wrote
+		IoBuffer header = IoBuffer.wrap(response.toString().getBytes(ASCII));
+		session.setAttribute(HEADER_KEY, header);
+		session.write(header);
+		// no read timeout once listening
+		session.getConfig().setIdleTime(IdleStatus.READER_IDLE, 0);
+		log.debug("Listener {} on {}, metadata: {}", new Object[] { session.getRemoteAddress(), mount, withMetadata });
+		session.setAttribute(LISTENER_KEY, buffer.addListener(session, withMetadata));
+	}
+
+	@Override
+	public void messageSent(IoSession session, Object message) throws Exception {
+		if (message == session.getAttribute(HEADER_KEY)) {
+			session.removeAttribute(HEADER_KEY);
+			return;
+		}
+		ICYOutputBuffer.Listener listener = (ICYOutputBuffer.Listener) session.getAttribute(LISTENER_KEY);
+		if (listener != null) {
+			listener.messageSent();
+		}
+	}
+
+	@Override
+	public void sessionIdle(IoSession session, IdleStatus status) throws Exception {
+		if (!session.containsAttribute(LISTENER_KEY)) {
+			log.debug("No request from {}", session.getRemoteAddress());
+			session.close(true);
+		}
+	}
+
+	@Override
+	public void sessionClosed(IoSession session) throws Exception {
+		ICYOutputBuffer.Listener listener = (ICYOutputBuffer.Listener) session.removeAttribute(LISTENER_KEY);
+		if (listener != null) {
+			listener.close();
+		}
+	}
+
+	@Override
+	public void exceptionCaught(IoSession session, Throwable ex) throws Exception {
+		log.debug("Exception occurred {}", session.getRemoteAddress(), ex);
+		session.close(true);
+	}
+
+	private void respond(IoSession session, String status) {
+		session.write(IoBuffer.wrap((status + "\r\n\r\n").getBytes(ASCII)));
+		session.close(false);
+	}
+
+	public void setHost(String host) {
+		this.host = host;
+	}
+
+	public void setPort(int port) {
+		this.port = port;
+	}
+
+	public int getPort() {
+		return port;
+	}
+
+	public void setRequestTimeout(int requestTimeout) {
+		this.requestTimeout = requestTimeout;
+	}
+
+}
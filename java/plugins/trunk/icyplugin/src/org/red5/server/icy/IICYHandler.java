@@ -38,9 +38,9 @@ public interface IICYHandler {
 
 	public void onAuxData(String fourCC, IoBuffer buffer);
 
-	public void onAudioData(byte[] data);
+	public void onAudioData(IoBuffer data);
 
-	public void onVideoData(byte[] data);
+	public void onVideoData(IoBuffer data);
 
 	public void onMetaData(Map<String, Object> metaData);
 
@@ -19,20 +19,19 @@ package org.red5.server.icy.codec;
  * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA 
  */
 
-import java.nio.ByteBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.regex.Pattern;
-import java.util.regex.PatternSyntaxException;
 
 import org.apache.mina.core.buffer.IoBuffer;
 import org.apache.mina.core.session.IoSession;
-import org.apache.mina.filter.codec.CumulativeProtocolDecoder;
+import org.apache.mina.filter.codec.ProtocolDecoderAdapter;
 import org.apache.mina.filter.codec.ProtocolDecoderOutput;
-import org.red5.server.icy.BitStream;
 import org.red5.server.icy.ICYStreamUtil;
 import org.red5.server.icy.message.AACFrame;
-import org.red5.server.icy.message.Frame;
 import org.red5.server.icy.message.MP3Frame;
 import org.red5.server.icy.message.NSVFrame;
 import org.red5.server.icy.nsv.NSVStreamConfig;
@@ -41,11 +40,19 @@ import org.slf4j.LoggerFactory;
 
 /**
  * Decoder for data coming from a source.
+ * <br />
+ * The decoder is an incremental state machine working directly on the received buffers: frames are emitted as
+ * slices of the buffer they were read from, so the payload of a frame is never copied. Only the bytes of a frame
+ * that is still incomplete at the end of a read are kept; they are put in a buffer large enough for the whole
+ * frame, which the following reads are appended to. Emitted slices stay valid because a buffer is never written
+ * in front of its limit once it has been parsed.
+ * <br />
+ * The decoder holds no state itself, everything is kept in session attributes.
  * 
  * @author Paul Gregoire (mondain@gmail.com)
  * @author Andy Shaules (bowljoman@hotmail.com)
  */
-public class ICYDecoder extends CumulativeProtocolDecoder {
+public class ICYDecoder extends ProtocolDecoderAdapter {
 
 	/**
 	 * State enumerator that indicates the reached state in the message
@@ -72,731 +79,341 @@ public class ICYDecoder extends CumulativeProtocolDecoder {
 	
 	private static final byte[] BAD_PASSWD_MESSAGE = "invalid password\r\n".getBytes();
 	
-	private static final Pattern PATTERN_CRLF = Pattern.compile("[\\r|\\n|\u0085|\u2028]{1,2}");
-
 	private static final Pattern PATTERN_HEADER = Pattern.compile("(icy-|content-).{1,}[:]{1}.{1,}", Pattern.DOTALL);
+
+	private static final Charset ASCII = Charset.forName("US-ASCII");
 	
-	private ThreadLocal<Frame> frameLocal = new ThreadLocal<Frame>();
-	
+	/** Longest password or header line accepted */
+	private static final int MAX_LINE_LENGTH = 8192;
+
+	/** 'NSVs', video and audio type, width, height, frame rate, a/v offset and the lengths */
+	private static final int NSV_SYNC_HEADER_LENGTH = (int) ICYStreamUtil.NSV_SYNC_HEADERLEN_BITS / 8;
+
+	/** 0xef 0xbe and the lengths */
+	private static final int NSV_NONSYNC_HEADER_LENGTH = (int) ICYStreamUtil.NSV_NONSYNC_HEADERLEN_BITS / 8;
+
+	/** Decoding went on, try the next step */
+	private static final int CONTINUE = -1;
+
+	public void decode(IoSession session, IoBuffer in, ProtocolDecoderOutput out) throws Exception {
+		if (log.isTraceEnabled()) {
+			log.trace("decode dump: {}", in.getHexDump());
+		}
+		IoBuffer buffer = (IoBuffer) session.removeAttribute("prev");
+		if (buffer == null) {
+			buffer = in;
+		} else if (buffer.capacity() - buffer.limit() >= in.remaining()) {
+			//room was reserved for the frame being read, append behind the unparsed bytes
+			int position = buffer.position();
+			buffer.position(buffer.limit());
+			buffer.limit(buffer.capacity());
+			buffer.put(in);
+			buffer.limit(buffer.position());
+			buffer.position(position);
+		} else {
+			IoBuffer joined = IoBuffer.allocate(buffer.remaining() + in.remaining());
+			joined.put(buffer);
+			joined.put(in);
+			joined.flip();
+			buffer = joined;
+		}
+		//bytes needed to go on, 0 if unknown
+		int needed = 0;
+		while (buffer.hasRemaining()) {
+			needed = decodeNext(session, buffer, out);
+			if (needed != CONTINUE) {
+				break;
+			}
+		}
+		if (buffer.hasRemaining()) {
+			if (buffer == in || buffer.capacity() - buffer.position() < needed) {
+				//keep the unparsed bytes, with room for the rest of the frame
+				IoBuffer prev = IoBuffer.allocate(Math.max(needed, buffer.remaining()));
+				prev.put(buffer);
+				prev.flip();
+				buffer = prev;
+			}
+			session.setAttribute("prev", buffer);
+		}
+	}
+
 	@Override
-	protected boolean doDecode(IoSession session, IoBuffer in, ProtocolDecoderOutput out) throws Exception {
-		String hex = in.getHexDump();
-		log.debug("doDecode dump: {}", hex);
-		
-		boolean result = false;
-		
-		//check state
+	public void dispose(IoSession session) throws Exception {
+		session.removeAttribute("prev");
+	}
+
+	/**
+	 * Decodes whatever the current state expects at the position of the buffer.
+	 * 
+	 * @param session
+	 * @param buffer
+	 * @param out
+	 * @return CONTINUE if something was consumed, otherwise the number of bytes needed or 0 if unknown
+	 */
+	private int decodeNext(IoSession session, IoBuffer buffer, ProtocolDecoderOutput out) throws CharacterCodingException {
 		ReadState state = (ReadState) session.getAttribute("state");
 		if (state == null) {
 			state = ReadState.Notvalidated;
 		}
-
-		//collect the current incoming bytes
-		IoBuffer curBuffer = IoBuffer.wrap(in.buf());
-
-		//index of the line-feed in the byte stream
-		int lfIndex = -1;
-		
-		//get any previously read / unused bytes and put them in the front
-		byte[] prevBuffer = (byte[]) session.removeAttribute("prev");
-		if (prevBuffer != null) {
-			//wrap previous bytes
-			IoBuffer tmp = IoBuffer.wrap(prevBuffer);
-			tmp.setAutoExpand(true);
-			//jump to the end
-			tmp.position(tmp.limit());
-			//add current buffer to the end
-			tmp.put(curBuffer);
-			//flip
-			tmp.flip();
-			//free the current buffer we are replacing
-			curBuffer.free();
-			//replace with our new buffer
-			curBuffer = tmp;
-			log.debug("Current buffer dump (prep): {}", curBuffer.getHexDump());
-		}
-		
 		//most common action should live at the top of the switch!
 		switch (state) {
 			case Packet:
-				//do normal media packet handling here
-				log.trace("Hex (pkt): {}", curBuffer.getHexDump());
-				//we need at least 7 bytes to build a frame
-				if (curBuffer.remaining() >= 7) { 
-    				byte[] prefix = new byte[2];
-    				curBuffer.get(prefix);
-    				//log.trace("Prefix: {}", new String(prefix));
-    				//looking for 0xef, 0xbe bytes
-    				if (prefix[0] == (byte) 0xef && prefix[1] == (byte) 0xbe) {
-    					int position = curBuffer.position();
-    					//read data for the stream
-    					if (chnkFrame(session, curBuffer)) {
-    						Frame frame = frameLocal.get();
-    						if (frame != null) {
-    	    					//write frame as decoder output
-    	    					out.write(frame);
-    	    					//clear thread local
-    	    					frameLocal.remove();
-    						}						
-    					} else {
-    						//rewind back to original position + prefix length
-    						log.trace("Frame creation failed");
-    						curBuffer.position(position - 2);						
-    					}
-    				} else if (prefix[0] == (byte) 0xff && prefix[1] == (byte) 0xfb) { 
-    					//look for MP3 sync FF FB
-    					log.debug("MP3 sync frame found");
-    					int position = curBuffer.position();
-    					//read all the configuration info for the stream
-    					if (syncFrameMP3(session, curBuffer)) {
-    						Frame frame = frameLocal.get();
-    						if (frame != null) {
-    	    					//write frame as decoder output
-    	    					out.write(frame);
-    	    					//clear thread local
-    	    					frameLocal.remove();
-    						} else {
-    							//let the handler know it should handle the "ready" stuff
-    							out.write(Boolean.TRUE);
-    						}
-    					} else {
-    						//rewind back to original position + sync dword length
-    						log.trace("MP3 Sync frame creation failed");
-    						curBuffer.position(position - 2);						
-    					}						
-    				} else if (prefix[0] == (byte) 0xff && prefix[1] == (byte) 0xf9) { 
-    					//look for AAC sync FF F9 5C 80 or FF F9 50 40
-    					log.debug("AAC sync frame found");
-    					int position = curBuffer.position();
-    					//read all the configuration info for the stream
-    					if (syncFrameAAC(session, curBuffer)) {
-    						Frame frame = frameLocal.get();
-    						if (frame != null) {
-    	    					//write frame as decoder output
-    	    					out.write(frame);
-    	    					//clear thread local
-    	    					frameLocal.remove();
-    						} else {
-    							//let the handler know it should handle the "ready" stuff
-    							out.write(Boolean.TRUE);
-    						}
-    					} else {
-    						//rewind back to original position + sync dword length
-    						log.trace("AAC Sync frame creation failed");
-    						curBuffer.position(position - 2);						
-    					}							
-    				} else {
-    					//rewind it back 2
-    					log.trace("Data frame prefix not found - 0: {} 1: {}", prefix[0], prefix[1]);
-    					curBuffer.position(curBuffer.position() - 2);
-    					
-        				//look for sync frame
-        				byte[] sync = new byte[4];
-        				curBuffer.get(sync);
-        				log.trace("Sync: {}", new String(sync));
-        				int nsvSync = (sync[0] | (sync[1] << 8) | (sync[2] << 16) | (sync[3] << 24));
-        				//we need at least 20 bytes
-        				if (curBuffer.remaining() >= 20 && nsvSync == ICYStreamUtil.NSV_SYNC_DWORD) {
-        					int position = curBuffer.position();
-        					//read all the configuration info for the stream
-        					if (syncFrame(session, curBuffer)) {
-        						Frame frame = frameLocal.get();
-        						if (frame != null) {
-        	    					//write frame as decoder output
-        	    					out.write(frame);
-        	    					//clear thread local
-        	    					frameLocal.remove();
-        						} else {
-        							//let the handler know it should handle the "ready" stuff
-        							out.write(Boolean.TRUE);
-        						}						
-        					} else {
-        						//rewind back to original position + sync dword length
-        						log.trace("Sync frame creation failed");
-        						curBuffer.position(position - 4);						
-        					}
-        				} else {
-        					//rewind it back 4 
-        					log.trace("Not enough data available for sync frame or wrong frame type");
-        					curBuffer.position(curBuffer.position() - 4);
-        				}
-        				
-    				}    				
-				} else {
-					log.trace("Not enough data available for framing");
-				}
-				break;			
 			case Ready:
-				//look for NSV prefix
-				log.trace("Hex (rdy): {}", curBuffer.getHexDump());
-				
-				//do nsv handling, magic bytes = 4E 53 56 73
-
-				//consume bytes
-				byte[] sync = new byte[4];
-				curBuffer.get(sync);
-				log.trace("Sync: {}", new String(sync));
-				int nsvSync = (sync[0] | (sync[1] << 8) | (sync[2] << 16) | (sync[3] << 24));
-				log.trace("Sync: {} Dword: {}", nsvSync, ICYStreamUtil.NSV_SYNC_DWORD);
-				//we need at least 20 bytes
-				if (curBuffer.remaining() >= 20 && nsvSync == ICYStreamUtil.NSV_SYNC_DWORD) {
-					int position = curBuffer.position();
-					//read all the configuration info for the stream
-					if (syncFrame(session, curBuffer)) {
-						Frame frame = frameLocal.get();
-						if (frame != null) {
-	    					//write frame as decoder output
-	    					out.write(frame);
-	    					//clear thread local
-	    					frameLocal.remove();
-						} else {
-							//let the handler know it should handle the "ready" stuff
-							out.write(Boolean.TRUE);
-						}						
-					} else {
-						//rewind back to original position + sync dword length
-						log.trace("Sync frame creation failed");
-						curBuffer.position(position - 4);						
-					}
-				} else if (sync[0] == (byte) 0xef && sync[1] == (byte) 0xbe) {
-					//if we get a "data" frame here fail
-					log.debug("Data frame found while awaiting initial sync frame, failing out");
-					state = ReadState.Failed;
-				} else if (sync[0] == (byte) 0xff && sync[1] == (byte) 0xfb) { 
-					//look for MP3 sync FF FB
-					log.debug("MP3 sync frame found");
-					int position = curBuffer.position();
-					//read all the configuration info for the stream
-					if (syncFrameMP3(session, curBuffer)) {
-						Frame frame = frameLocal.get();
-						if (frame != null) {
-	    					//write frame as decoder output
-	    					out.write(frame);
-	    					//clear thread local
-	    					frameLocal.remove();
-						} else {
-							//let the handler know it should handle the "ready" stuff
-							out.write(Boolean.TRUE);
-						}
-					} else {
-						//rewind back to original position + sync dword length
-						log.trace("MP3 Sync frame creation failed");
-						curBuffer.position(position - 4);						
-					}						
-				} else if (sync[0] == (byte) 0xff && sync[1] == (byte) 0xf9) { 
-					//look for AAC sync FF F9 5C 80 or FF F9 50 40
-					log.debug("AAC sync frame found");
-					int position = curBuffer.position();
-					//read all the configuration info for the stream
-					if (syncFrameAAC(session, curBuffer)) {
-						Frame frame = frameLocal.get();
-						if (frame != null) {
-	    					//write frame as decoder output
-	    					out.write(frame);
-	    					//clear thread local
-	    					frameLocal.remove();
-						} else {
-							//let the handler know it should handle the "ready" stuff
-							out.write(Boolean.TRUE);
-						}
-					} else {
-						//rewind back to original position + sync dword length
-						log.trace("AAC Sync frame creation failed");
-						curBuffer.position(position - 4);						
-					}							
-				} else {
-					//rewind it back 4 
-					log.trace("Not enough data available for sync frame or wrong frame type");
-					curBuffer.position(curBuffer.position() - 4);
-				}
-				
-				//drop any remaining current buffer data into the session
-				if (curBuffer.hasRemaining()) {
-					log.debug("Had left over bytes after sync, adding to session");
-					//get the buffer info
-					int pos = curBuffer.position();
-					int len = curBuffer.limit();
-					log.trace("Current pos: {} len: {} size: {}", new Object[]{pos, len, (len - pos)});
-					//consume bytes
-					byte[] bf = new byte[(len - pos)];
-					curBuffer.get(bf);
-					//put bytes into the session
-					session.setAttribute("prev", bf);
-				}	
-				
-				break;
-			case Notvalidated: 
-				//need to check password
-				lfIndex = curBuffer.indexOf((byte) 0x0a);
-				if (lfIndex > 0) {
-					//get data as a string
-					byte[] buf = new byte[lfIndex + 1];
-					curBuffer.get(buf);
-					String msg = new String(buf, "US-ASCII");
-					log.debug("Not validated, check password {}", msg);
-					//pull password from session
-					String password = (String) session.getAttribute("password");
-					log.debug("Password from session: {}", password);
-					String[] arr = null;
-					try {
-						arr = PATTERN_CRLF.split(msg);
-						log.debug("Password data count: {}", arr.length);
-					} catch (PatternSyntaxException ex) {
-						log.warn("", ex);
-					}
-					if (password.equals(arr[0])) {
-						log.debug("Passwords match!");
-						state = ReadState.Header;
-						out.write(OK_MESSAGE);
-						//check for remaining data
-						if (curBuffer.hasRemaining()) {
-							log.debug("Had left over bytes, adding to session");
-							//get the buffer info
-							int pos = curBuffer.position();
-							int len = curBuffer.limit();
-							log.trace("Current pos: {} len: {} size: {}", new Object[]{pos, len, (len - pos)});
-							//consume bytes
-							byte[] bf = new byte[(len - pos)];
-							curBuffer.get(bf);
-							//put bytes into the session
-							session.setAttribute("prev", bf);			
-						}
-					} else {
-						log.info("Invalid password {}, reset and close", arr[0]);
-						state = ReadState.Failed;
-						out.write(BAD_PASSWD_MESSAGE);
-					}			
-					//
-					result = true;
-				}
-				break;
+				return decodeMedia(session, buffer, out, state);
 			case Header:
-				//max bytes to read when looking for LF
-				int maxSearchBytes = 128;
-				//search count
-				int searched = 0;
-				//buffer for storing bytes which may be headers
-				IoBuffer headerBuf = IoBuffer.allocate(maxSearchBytes);
-				//nio bytebuffer seems to work better for locating LF
-				ByteBuffer byteBuffer = curBuffer.buf();
-				while (true) {
-					//read a byte
-					byte b = byteBuffer.get();
-					searched++;
-					log.trace("Byte: {} searched: {}", b, searched);
-					//make sure we dont search too far
-					if (searched > maxSearchBytes) {
-						log.debug("Searched past maximum range");						
-						//add to prev bytes (outside this loop)
-						break;
-					}
-					//store our byte for header checking
-					headerBuf.put(b);
-					//LF found
-					if (b == 0x0a) {
-						//flip so we can do some reading
-    					headerBuf.flip();
-    					//get the buffer info
-    					log.trace("Current pos: {} len: {}", curBuffer.position(), curBuffer.limit());
-    					log.trace("ByteBuffer pos: {} len: {}", byteBuffer.position(), byteBuffer.limit());
-    					log.trace("Hex: {}", curBuffer.getHexDump());
-    
-    					//get data as a string
-    					byte[] buf = null;
-    					
-    					//look for the end of the header marker
-    					hex = headerBuf.getHexDump();
-						log.trace("Buffer head1: {}", hex);
-    					state = detectEndOfHeader(hex, state);
-    					if (state != ReadState.Ready) {
-    						//size our array
-    						buf = new byte[headerBuf.limit()];
-    						//consume bytes
-    						headerBuf.get(buf);
-    						log.trace("Buffer head2: {}", headerBuf.getHexDump());
-    						String header = new String(buf, "US-ASCII");					
-    						log.debug("Message {}", header);
-    						//pull out the headers and put into meta data
-    						parseHeader(session, header);			
-    						//set result to true
-    						result = true;
-    						//check if theres remaining data to parse in current buffer
-    						if (curBuffer.hasRemaining()) {
-    							//clear already read data
-    							headerBuf.clear();    							
-    						} else {
-    							//no more to read for now
-    							break;
-    						}
-    					} else if (state == ReadState.Ready) {
-    						log.debug("End of header found during header parse");
-    						//consume the EOH bytes
-    						buf = hex.startsWith("0D 0A") ? new byte[2] : new byte[1];
-    						headerBuf.get(buf);
-    						//set result to true just in-case no headers were read
-    						result = true;
-    						//drop any remaining current buffer data into the session
-    						if (curBuffer.hasRemaining()) {
-        						log.debug("Had left over bytes after EOH, adding to session");
-        						//get the buffer info
-        						int pos = curBuffer.position();
-        						int len = curBuffer.limit();
-        						log.trace("Current pos: {} len: {} size: {}", new Object[]{pos, len, (len - pos)});
-        						//consume bytes
-        						byte[] bf = new byte[(len - pos)];
-        						curBuffer.get(bf);
-        						//put bytes into the session
-        						session.setAttribute("prev", bf);
-    						}
-    						//exit header read loop
-    						break;
-    					}
-    					//reset searched counter
-    					searched = 0;
-    				}					
-				}
-				
-				if (headerBuf.hasRemaining()) {
-					log.debug("Had left over bytes, adding to session");
-					//get the buffer info
-					int pos = headerBuf.position();
-					int len = headerBuf.limit();
-					log.trace("Header buffer pos: {} len: {} size: {}", new Object[]{pos, len, (len - pos)});
-					//consume bytes
-					byte[] bf = new byte[(len - pos)];
-					headerBuf.get(bf);
-					//put bytes into the session
-					session.setAttribute("prev", bf);
-				}
-				
-				break;
-			case Failed:
-				log.info("Stream error, closing");
-        		session.close(true);
-        		break;
+				return decodeHeader(session, buffer);
+			case Notvalidated:
+				return decodePassword(session, buffer, out);
 			default:
-				log.warn("Unhandled state: {}", state);
+				//nothing more is accepted from this source
+				log.trace("Discarding {} bytes in state {}", buffer.remaining(), state);
+				buffer.position(buffer.limit());
+				return 0;
 		}
-		
-		// save attributes in session
-		session.setAttribute("state", state);
-
-		return result;
 	}
 
 	/**
-	 * Look for the end of the header block. This is different depending on the
-	 * client.
-	 * <br />
-	 * Winamp dsp sends (0A 0A)
-	 * <br />
-	 * NSVCAP sends (0D 0D 0A 0D 0D 0A 0D 0A)
-	 * <br />
-	 * 
-	 * @param hex
-	 * @param state
-	 * @return
+	 * Checks the password sent by the source on the first line.
 	 */
-	private ReadState detectEndOfHeader(String hex, ReadState state) {
-		if (hex.indexOf("0A") == 0 || hex.indexOf("0D 0A") == 0) {
-			log.debug("End of header detected");
-			//set to ready state
-			state = ReadState.Ready;
-		} else if (hex.indexOf("4E 53 56") == 0) {
-			//check also for NSV
-			log.debug("End of header detected, found NSV");
-			//set to ready state
-			state = ReadState.Ready;
+	private int decodePassword(IoSession session, IoBuffer buffer, ProtocolDecoderOutput out) throws CharacterCodingException {
+		String line = readLine(buffer);
+		if (line == null) {
+			return checkLineLength(session, buffer);
 		}
-		return state;
+		if (line.equals(session.getAttribute("password"))) {
+			log.debug("Password accepted");
+			out.write(OK_MESSAGE);
+			session.setAttribute("state", ReadState.Header);
+		} else {
+			log.info("Invalid password");
+			out.write(BAD_PASSWD_MESSAGE);
+			session.setAttribute("state", ReadState.Failed);
+		}
+		return CONTINUE;
 	}
 
-	@SuppressWarnings("unchecked")
-	private void parseHeader(IoSession session, String header) {
-		//lookup the metadata in the session
-		Map<String, Object> metaData = (Map<String, Object>) session.getAttribute("meta");
-		if (metaData == null) {
-			metaData = new HashMap<String, Object>();
-			session.setAttribute("meta", metaData);
+	/**
+	 * Reads the headers following the password, up to an empty line or the first NSV frame.
+	 */
+	private int decodeHeader(IoSession session, IoBuffer buffer) throws CharacterCodingException {
+		int start = buffer.position();
+		if (buffer.remaining() >= 3 && buffer.get(start) == 'N' && buffer.get(start + 1) == 'S' && buffer.get(start + 2) == 'V') {
+			log.debug("NSV data found, end of headers");
+			session.setAttribute("state", ReadState.Ready);
+			return CONTINUE;
 		}
-		//log.trace("Header length: {}", header.length());
-		if (header.length() > 0 && PATTERN_HEADER.matcher(header).matches()) {
-			String key = header.substring(header.indexOf('-') + 1, header.indexOf(':'));
-			String value = header.substring(header.indexOf(':') + 1);
-			log.debug("Meta: {}={}", key, value);
-			metaData.put(key, value.trim());
+		String line = readLine(buffer);
+		if (line == null) {
+			return checkLineLength(session, buffer);
+		}
+		if (line.length() == 0) {
+			log.debug("End of headers");
+			session.setAttribute("state", ReadState.Ready);
 		} else {
-			//ignore 0 length headers 
-			if (header.length() > 0) {
-				log.trace("Unrecognized header: {}", header);			
+			parseHeader(session, line);
+		}
+		return CONTINUE;
+	}
+
+	/**
+	 * Reads NSV frames or raw AAC / MP3 data.
+	 */
+	private int decodeMedia(IoSession session, IoBuffer buffer, ProtocolDecoderOutput out, ReadState state) {
+		int start = buffer.position();
+		String rawAudio = (String) session.getAttribute("rawAudio");
+		if (rawAudio != null) {
+			//raw audio is handed on as it comes, the framer looks for the frame boundaries
+			IoBuffer payload = buffer.getSlice(start, buffer.remaining());
+			buffer.position(buffer.limit());
+			out.write("aac".equals(rawAudio) ? new AACFrame(payload) : new MP3Frame(payload));
+			return CONTINUE;
+		}
+		if (buffer.remaining() < 4) {
+			return 4;
+		}
+		byte b0 = buffer.get(start);
+		byte b1 = buffer.get(start + 1);
+		if (b0 == (byte) 0xef && b1 == (byte) 0xbe) {
+			if (state == ReadState.Ready) {
+				log.debug("Data frame received before a sync frame");
 			}
+			return decodeNSV(session, buffer, out, false);
 		}
-	}	
-	
-	@SuppressWarnings({ "unchecked", "unused" })
-	private void parseHeaders(IoSession session, String[] headers) {
-		//lookup the metadata in the session
-		Map<String, Object> metaData = (Map<String, Object>) session.getAttribute("meta");
-		if (metaData == null) {
-			metaData = new HashMap<String, Object>();
-			session.setAttribute("meta", metaData);
+		if (b0 == 'N' && b1 == 'S' && buffer.get(start + 2) == 'V' && buffer.get(start + 3) == 's') {
+			return decodeNSV(session, buffer, out, true);
 		}
-		for (String header : headers) {
-			parseHeader(session, header);
+		if (state == ReadState.Ready && b0 == (byte) 0xff) {
+			//0xfff with layer 0 is adts, anything else with 11 sync bits mpeg audio
+			if ((b1 & 0xf6) == 0xf0) {
+				log.debug("AAC data found");
+				session.setAttribute("rawAudio", "aac");
+				return CONTINUE;
+			} else if ((b1 & 0xe0) == 0xe0) {
+				log.debug("MP3 data found");
+				session.setAttribute("rawAudio", "mp3");
+				return CONTINUE;
+			}
 		}
-	}	
-    
+		//lost sync, skip up to the next possible frame start
+		int position = start + 1;
+		int limit = buffer.limit();
+		while (position < limit) {
+			byte b = buffer.get(position);
+			if (b == 'N' || b == (byte) 0xef || (state == ReadState.Ready && b == (byte) 0xff)) {
+				break;
+			}
+			position++;
+		}
+		log.trace("Skipping {} bytes to resync", position - start);
+		buffer.position(position);
+		return CONTINUE;
+	}
+
 	/**
-	 * Called when sync frame header is found. This may occur more than once during streaming.
-	 * The first 136 bits / 17 bytes should not change but the remaining 16 bits / 2 bytes may
-	 * change.
-	 * 
-	 * @param session
-	 * @param ioBuffer contains nsv bitstream
-	 * @return true if frame create is successful, false otherwise
+	 * Reads an NSV sync or data frame. Video, audio and aux data are slices of the buffer.
 	 */
-	private boolean syncFrame(IoSession session, IoBuffer ioBuffer) {
-		boolean result = false;
-		
-		//get the buffer info
-		int pos = ioBuffer.position();
-		int len = ioBuffer.limit();
-		int remain = ioBuffer.remaining();
-		log.trace("Buffer pos: {} len: {} size: {} remaining: {}", new Object[]{pos, len, (len - pos), remain});
-		
-		//byte holders
-		byte[] twoBytes = new byte[2];
-		byte[] fourBytes = new byte[4];
+	private int decodeNSV(IoSession session, IoBuffer buffer, ProtocolDecoderOutput out, boolean sync) {
+		int start = buffer.position();
+		int headerLength = sync ? NSV_SYNC_HEADER_LENGTH : NSV_NONSYNC_HEADER_LENGTH;
+		if (buffer.remaining() < headerLength) {
+			return headerLength;
+		}
+		//4 bits aux count, 20 bits video and aux length, 16 bits audio length; least significant bits first
+		int lengths = start + headerLength - 5;
+		int b0 = buffer.get(lengths) & 0xff;
+		int numAux = b0 & 0x0f;
+		int videoAndAuxLen = (b0 >> 4) | ((buffer.get(lengths + 1) & 0xff) << 4) | ((buffer.get(lengths + 2) & 0xff) << 12);
+		int audioLen = getShort(buffer, lengths + 3);
+		if (videoAndAuxLen > ICYStreamUtil.NSV_MAX_VIDEO_LEN + numAux * (ICYStreamUtil.NSV_MAX_AUX_LEN + 6) || audioLen > ICYStreamUtil.NSV_MAX_AUDIO_LEN) {
+			log.debug("Video or audio length exceeds max allowed");
+			buffer.skip(1);
+			return CONTINUE;
+		}
+		int frameLength = headerLength + videoAndAuxLen + audioLen;
+		log.trace("Lengths - audio: {} video+aux: {} frame: {}", new Object[]{audioLen, videoAndAuxLen, frameLength});
+		if (buffer.remaining() < frameLength) {
+			return frameLength;
+		}
 		//stream configuration data
 		NSVStreamConfig config = (NSVStreamConfig) session.getAttribute("nsvconfig");
+		if (sync && config == null) {
+			//first frame with full data
+			String videoType = getFourCC(buffer, start + 4);
+			String audioType = getFourCC(buffer, start + 8);
+			int width = getShort(buffer, start + 12);
+			int height = getShort(buffer, start + 14);
+			int frameRateEncoded = buffer.get(start + 16);
+			//convert the fps
+			double frameRate = ICYStreamUtil.framerateToDouble(frameRateEncoded);
+			log.debug("Types - video: {} audio: {}", videoType, audioType);
+			log.debug("Width: {} Height: {} Framerate: {}", new Object[]{width, height, frameRate});
+			config = ICYStreamUtil.createStreamConfig(videoType, audioType, width, height, frameRate);
+			config.frameRateEncoded = frameRateEncoded;
+			session.setAttribute("nsvconfig", config);
+		}
 		if (config == null) {
-    		//first frame with full data
-    		ioBuffer.get(fourBytes);
-    		String videoType = new String(fourBytes);
-    		ioBuffer.get(fourBytes);
-    		String audioType = new String(fourBytes);
-    		log.debug("Types - video: {} audio: {}", videoType, audioType);
-    		//get dimensions
-    		ioBuffer.get(twoBytes);
-    		int width = (twoBytes[0] & 0xff) | ((twoBytes[1] & 0xff) << 8);
-    		ioBuffer.get(twoBytes);
-    		int height = (twoBytes[0] & 0xff) | ((twoBytes[1] & 0xff) << 8);
-    		int frameRateEncoded = ioBuffer.get();
-    		//convert the fps
-    		double frameRate = ICYStreamUtil.framerateToDouble(frameRateEncoded);
-    		log.debug("Width: {} Height: {} Framerate: {}", new Object[]{width, height, frameRate});
-    		//create a stream config
-    		config = ICYStreamUtil.createStreamConfig(videoType, audioType, width, height, frameRate);
-    		config.frameRateEncoded = frameRateEncoded;
-    		//add stream config to the session
-    		session.setAttribute("nsvconfig", config);
-		} else {
-			//read the first 13 bytes / 'N','S','V','s' already consumed
-			ioBuffer.get(new byte[13]);
+			log.debug("Dropping data frame without stream configuration");
+			buffer.position(start + frameLength);
+			return CONTINUE;
 		}
-		
-		//create a sync frame
-		NSVFrame frame = new NSVFrame(config, ICYStreamUtil.NSV_SYNC_DWORD);
-		ioBuffer.get(twoBytes);
-		//the a/v sync offset (number of milliseconds ahead of the video the audio is at this frame)
-		//(treat as signed)
-		frame.offsetCurrent = (twoBytes[0] & 0xff) | ((twoBytes[1] & 0xff) << 8);
-		log.trace("a/v sync offset: {}", frame.offsetCurrent);
-
-		//build the frames payload
-		result = framePayload(session, ioBuffer, frame);
-		
-		return result;
+		NSVFrame frame = new NSVFrame(config, sync ? ICYStreamUtil.NSV_SYNC_DWORD : ICYStreamUtil.NSV_NONSYNC_WORD);
+		if (sync) {
+			//the a/v sync offset (number of milliseconds ahead of the video the audio is at this frame)
+			frame.offsetCurrent = getShort(buffer, start + 17);
+		}
+		int position = start + headerLength;
+		int totalAuxUsed = 0;
+		if (numAux > 0) {
+			log.debug("Number of aux: {}", numAux);
+			Map<String, IoBuffer> aux = new HashMap<String, IoBuffer>(numAux);
+			for (int a = 0; a < numAux; a++) {
+				//aux length. maximum allowed 32768
+				int auxLen = getShort(buffer, position);
+				totalAuxUsed += auxLen + 6;
+				if (totalAuxUsed > videoAndAuxLen) {
+					log.debug("Aux data exceeds the frame");
+					buffer.skip(1);
+					return CONTINUE;
+				}
+				aux.put(getFourCC(buffer, position + 2), buffer.getSlice(position + 6, auxLen));
+				position += auxLen + 6;
+			}
+			session.setAttribute("aux", aux);
+		}
+		frame.videoLength = videoAndAuxLen;
+		frame.videoData = buffer.getSlice(position, videoAndAuxLen - totalAuxUsed);
+		position += videoAndAuxLen - totalAuxUsed;
+		frame.audioLength = audioLen;
+		frame.audioData = buffer.getSlice(position, audioLen);
+		buffer.position(start + frameLength);
+		out.write(frame);
+		return CONTINUE;
 	}
 
 	/**
-	 * Called when chunk frame header is found.
+	 * Reads a line terminated by a line-feed, without the line terminator.
 	 * 
-	 * @param session
-	 * @param ioBuffer contains nsv bitstream
-	 * @return true if frame create is successful, false otherwise
+	 * @param buffer
+	 * @return line or null if the buffer holds no complete line
 	 */
-	private boolean chnkFrame(IoSession session, IoBuffer ioBuffer) {
-		boolean result = false;
-
-		//get the buffer info
-		int pos = ioBuffer.position();
-		int len = ioBuffer.limit();
-		int remain = ioBuffer.remaining();
-		log.trace("Buffer pos: {} len: {} size: {} remaining: {}", new Object[]{pos, len, (len - pos), remain});
-		
-		//add stream config to the session
-		NSVStreamConfig config = (NSVStreamConfig) session.getAttribute("nsvconfig");
-		
-		NSVFrame frame = new NSVFrame(config, ICYStreamUtil.NSV_NONSYNC_WORD);
+	private static String readLine(IoBuffer buffer) throws CharacterCodingException {
+		int start = buffer.position();
+		int lf = buffer.indexOf((byte) '\n');
+		if (lf < 0) {
+			return null;
+		}
+		int end = lf;
+		if (end > start && buffer.get(end - 1) == '\r') {
+			end--;
+		}
+		CharsetDecoder decoder = ASCII.newDecoder();
+		String line = end > start ? buffer.getString(end - start, decoder) : "";
+		buffer.position(lf + 1);
+		return line;
+	}
 
-		//build the frames payload
-		result = framePayload(session, ioBuffer, frame);
-		
-		return result;
-	}	
-		
 	/**
-	 * Constructs the frames payload.
-	 * 
-	 * @param session
-	 * @param ioBuffer
-	 * @param frame
-	 * @return
+	 * Fails the session if a line grows beyond the accepted length.
 	 */
-	private boolean framePayload(IoSession session, IoBuffer ioBuffer, NSVFrame frame) {
-		boolean result = false;
-		
-		BitStream bs0 = new BitStream();
-		bs0.putBits(8, ioBuffer.get());
-		bs0.putBits(8, ioBuffer.get());
-		bs0.putBits(8, ioBuffer.get());
-		
-		//number of auxiliary data chunks
-		int numAux = bs0.getbits(4);
-		//aux length + video length. maximum 524288 + numAux * (32768 + 6) 
-		int videoAndAuxLen = bs0.getbits(20);
+	private static int checkLineLength(IoSession session, IoBuffer buffer) {
+		if (buffer.remaining() > MAX_LINE_LENGTH) {
+			log.info("Line exceeds {} bytes", MAX_LINE_LENGTH);
+			session.setAttribute("state", ReadState.Failed);
+			buffer.position(buffer.limit());
+		}
+		return 0;
+	}
 
-		bs0.putBits(8, ioBuffer.get());
-		bs0.putBits(8, ioBuffer.get());
-		//audio length. maximum allowed 32768
-		int audioLen = bs0.getbits(16); 
+	private static int getShort(IoBuffer buffer, int index) {
+		return (buffer.get(index) & 0xff) | ((buffer.get(index + 1) & 0xff) << 8);
+	}
+
+	private static String getFourCC(IoBuffer buffer, int index) {
+		return new String(new char[] { (char) (buffer.get(index) & 0xff), (char) (buffer.get(index + 1) & 0xff), (char) (buffer.get(index + 2) & 0xff),
+				(char) (buffer.get(index + 3) & 0xff) });
+	}
 
-		int bytesNeeded = videoAndAuxLen + audioLen;
-		log.trace("Lengths - audio: {} video+aux: {} needed: {}", new Object[]{audioLen, videoAndAuxLen, bytesNeeded});
-		if (ioBuffer.remaining() >= bytesNeeded) {
-			if (videoAndAuxLen > ICYStreamUtil.NSV_MAX_VIDEO_LEN / 8 || audioLen > ICYStreamUtil.NSV_MAX_AUDIO_LEN / 8) {
-				log.debug("Video or audio length exceeds max allowed");
-			} else {
-				//all is well, proceed
-				
-				int totalAuxUsed = 0;
-				
-				Map<String, IoBuffer> aux = null;
-				
-				if (numAux > 0) {
-					log.debug("Number of aux: {}", numAux);
-					byte[] twoBytes = new byte[2];
-					byte[] fourBytes = new byte[4];
-					aux = new HashMap<String, IoBuffer>(numAux);
-					for (int a = 0; a < numAux; a++) {						
-						ioBuffer.get(twoBytes);
-						//aux length. maximum allowed 32768
-						int auxLen = (twoBytes[0] & 0xff) | ((twoBytes[1] & 0xff) << 8);
-						totalAuxUsed += auxLen + 6;
-						ioBuffer.get(fourBytes);
-						String auxType = new String(fourBytes);
-						log.debug("Aux type: {}", auxType);
-						IoBuffer buffer = IoBuffer.allocate(auxLen);
-						byte[] auxBytes = new byte[auxLen];
-						ioBuffer.get(auxBytes);
-						buffer.put(auxBytes);
-						buffer.flip();
-						buffer.position(0);
-						//add to the map
-						aux.put(auxType, buffer);
-					}
-					session.setAttribute("aux", aux);
-				}
 
-				frame.videoLength = videoAndAuxLen;
-				frame.videoData = new byte[videoAndAuxLen - totalAuxUsed];
-				ioBuffer.get(frame.videoData);
-				
-				frame.audioLength = audioLen;
-				frame.audioData = new byte[audioLen];		
-				ioBuffer.get(frame.audioData);
-				
-				frameLocal.set(frame);
-				
-				result = true;
+	@SuppressWarnings("unchecked")
+	private void parseHeader(IoSession session, String header) {
+		//lookup the metadata in the session
+		Map<String, Object> metaData = (Map<String, Object>) session.getAttribute("meta");
+		if (metaData == null) {
+			metaData = new HashMap<String, Object>();
+			session.setAttribute("meta", metaData);
+		}
+		//log.trace("Header length: {}", header.length());
+		if (header.length() > 0 && PATTERN_HEADER.matcher(header).matches()) {
+			String key = header.substring(header.indexOf('-') + 1, header.indexOf(':'));
+			String value = header.substring(header.indexOf(':') + 1);
+			log.debug("Meta: {}={}", key, value);
+			metaData.put(key, value.trim());
+		} else {
+			//ignore 0 length headers 
+			if (header.length() > 0) {
+				log.trace("Unrecognized header: {}", header);			
 			}
 		}
-		return result;
 	}	
-	
-
-	/**
-	 * Called when an AAC sync frame is found. 
-	 * 
-	 * @param session
-	 * @param ioBuffer contains aac data
-	 * @return true if frame create is successful, false otherwise
-	 */
-	private boolean syncFrameAAC(IoSession session, IoBuffer ioBuffer) {
-		boolean result = false;
-		
-		//get the buffer info
-		int pos = ioBuffer.position();
-		int len = ioBuffer.limit();
-		int remain = ioBuffer.remaining();
-		log.trace("Buffer pos: {} len: {} size: {} remaining: {}", new Object[]{pos, len, (len - pos), remain});
-		
-		//rewind
-		ioBuffer.position(0);
-		
-		//grab all the bytes available
-		byte[] all = new byte[ioBuffer.remaining()];
-		ioBuffer.get(all);
-		
-		//create a sync frame
-		AACFrame frame = new AACFrame(all);
 
-		frameLocal.set(frame);
-		
-		//we may return false for some reason in the future
-		result = true;
-		
-		return result;
-	}	
-	
-	/**
-	 * Called when an MP3 sync frame is found. 
-	 * 
-	 * @param session
-	 * @param ioBuffer contains mp3 data
-	 * @return true if frame create is successful, false otherwise
-	 */
-	private boolean syncFrameMP3(IoSession session, IoBuffer ioBuffer) {
-		boolean result = false;
-		
-		//get the buffer info
-		int pos = ioBuffer.position();
-		int len = ioBuffer.limit();
-		int remain = ioBuffer.remaining();
-		log.trace("Buffer pos: {} len: {} size: {} remaining: {}", new Object[]{pos, len, (len - pos), remain});
-		
-		/*
-		 * 0xffe => synchronization bits
-		 * 0x1b  => 11010b (11b == MPEG1 | 01b == Layer III | 0b == no CRC)
-		 * 0x9   => 128kbps
-		 * 0x00  => 00b == 44100 Hz | 0b == no padding | 0b == private bit
-		 * 0x44  => 0010b 0010b (00b == stereo | 10b == (unused) mode extension)
-		 *                      (0b == no copyright bit | 0b == original bit)
-		 *                      (00b == no emphasis)
-		 * Such a frame (MPEG1 Layer III) contains 1152 samples, its size is thus:
-		 * (1152*(128000/8))/44100 = 417.96 rounded to the next smaller integer, i.e.
-		 * 417.
-		 * 
-		 * There are also 32 bytes (ie 8 32 bits values) to skip after the header for such frames
-		 */
-		
-		//rewind
-		ioBuffer.position(0);
-		
-		//grab all the bytes available
-		byte[] all = new byte[ioBuffer.remaining()];
-		ioBuffer.get(all);
-		
-		//create a sync frame
-		MP3Frame frame = new MP3Frame(all);
-		
-		frameLocal.set(frame);
-		
-		//we may return false for some reason in the future
-		result = true;
-		
-		return result;
-	}	
-	
-}
\ No newline at end of file
+}
@@ -19,6 +19,8 @@ package org.red5.server.icy.message;
  * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA 
  */
 
+import org.apache.mina.core.buffer.IoBuffer;
+
 /** 
  * Represents a single frame of AAC data.
  *  
@@ -26,13 +28,13 @@ package org.red5.server.icy.message;
  */
 public class AACFrame extends Frame {
 
-	private final byte[] payload;
+	private final IoBuffer payload;
 	
-	public AACFrame(byte[] payload) {
+	public AACFrame(IoBuffer payload) {
 		this.payload = payload;
 	}
 	
-	public byte[] getPayload() {
+	public IoBuffer getPayload() {
 		return payload;
 	}
 
@@ -19,6 +19,8 @@ package org.red5.server.icy.message;
  * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA 
  */
 
+import org.apache.mina.core.buffer.IoBuffer;
+
 /**
  * Simple abstract stream data frame.
  * 
@@ -44,9 +46,9 @@ public abstract class Frame {
 
 	public int offsetCurrent = 0;
 
-	public byte[] videoData;
+	public IoBuffer videoData;
 
-	public byte[] audioData;
+	public IoBuffer audioData;
 
 	public int videoLength = 0;
 
@@ -90,10 +90,10 @@ public class NSVFrame extends Frame {
 					ret[19 + i] = bs.getbits(8);
 				}
 				for (int i = 0; i < videoLength; i++) {
-					ret[24 + i] = videoData[i];
+					ret[24 + i] = videoData.get(videoData.position() + i);
 				}
 				for (int i = 0; i < audioLength; i++) {
-					ret[(24 + videoLength + i)] = audioData[i];
+					ret[(24 + videoLength + i)] = audioData.get(audioData.position() + i);
 				}
 
 				break;
@@ -112,10 +112,10 @@ public class NSVFrame extends Frame {
 					ret[2 + i] = bs.getbits(8);
 				}
 				for (int i = 0; i < videoLength; i++) {
-					ret[7 + i] = videoData[i];
+					ret[7 + i] = videoData.get(videoData.position() + i);
 				}
 				for (int i = 0; i < audioLength; i++) {
-					ret[(7 + videoLength + i)] = audioData[i];
+					ret[(7 + videoLength + i)] = audioData.get(audioData.position() + i);
 				}
 				break;
 		}
@@ -19,10 +19,16 @@ package org.red5.server.plugin.icy;
  * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA 
  */
 
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
 import org.red5.logging.Red5LoggerFactory;
 import org.red5.server.api.IScope;
+import org.red5.server.icy.ICYOutputBuffer;
+import org.red5.server.icy.ICYOutputHandler;
 import org.red5.server.plugin.Red5Plugin;
 import org.red5.server.plugin.icy.marshal.ICYMarshal;
+import org.red5.server.plugin.icy.stream.ICYOutput;
 import org.red5.server.plugin.icy.stream.NSVConsumer;
 import org.slf4j.Logger;
 import org.springframework.context.support.FileSystemXmlApplicationContext;
@@ -39,6 +45,8 @@ public class ICYPlugin extends Red5Plugin {
 	private static Logger log = Red5LoggerFactory.getLogger(ICYPlugin.class, "plugins");
 
 	private static FileSystemXmlApplicationContext nsvContext;
+
+	private static Map<String, ICYOutput> outputs = new ConcurrentHashMap<String, ICYOutput>();
 	
 	/**
 	 * Create a thread to listen for a connection from nsv or winamp shoutcast dsp encoders.
@@ -93,6 +101,42 @@ public class ICYPlugin extends Red5Plugin {
 		return nsv;
 	}
 
+	/**
+	 * Serves the audio of a live stream to shoutcast players on a mount point of the icy output.
+	 * @param scope The stream is published in.
+	 * @param name The stream name, it does not need to be published yet.
+	 * @param mount Mount point such as "/radio".
+	 * @return The output, to set the stream title on.
+	 */
+	public static ICYOutput openOutput(IScope scope, String name, String mount) {
+		log.debug("Open output: {} scope: {} name: {}", new Object[]{mount, scope, name});
+		if (!nsvContext.containsBean("icyOutputHandler")) {
+			log.warn("Icy output handler not found");
+			return null;
+		}
+		ICYOutputHandler handler = (ICYOutputHandler) nsvContext.getBean("icyOutputHandler");
+		ICYOutputBuffer buffer = (ICYOutputBuffer) nsvContext.getBean("icyOutputBuffer");
+		ICYOutput output = new ICYOutput(scope, name, buffer);
+		closeOutput(mount);
+		outputs.put(mount, output);
+		handler.addMount(mount, name, buffer);
+		output.start();
+		return output;
+	}
+
+	/**
+	 * Stops serving a mount point and disconnects its listeners.
+	 * @param mount Mount point.
+	 */
+	public static void closeOutput(String mount) {
+		ICYOutput output = outputs.remove(mount);
+		if (output != null) {
+			log.debug("Close output: {}", mount);
+			((ICYOutputHandler) nsvContext.getBean("icyOutputHandler")).removeMount(mount);
+			output.stop();
+		}
+	}
+
 	public void doStart() throws Exception {
 		log.debug("Start");
 		//create app context
@@ -105,6 +149,9 @@ public class ICYPlugin extends Red5Plugin {
 
 	public void doStop() throws Exception {
 		log.debug("Stop");
+		for (String mount : outputs.keySet()) {
+			closeOutput(mount);
+		}
 		nsvContext.close();
 	}
 
@@ -171,8 +171,8 @@ public class ICYMarshal implements IICYMarshal {
     	}
 	}
 
-	public void onAudioData(byte[] data) {
-		log.debug("onAudioData - length: {}", data.length);
+	public void onAudioData(IoBuffer data) {
+		log.debug("onAudioData - length: {}", data.remaining());
 		String codecName = stream.getCodecReader().getName();
 		if ("AAC".equals(codecName)) {
 			audioFramer.onAACData(data);
@@ -187,8 +187,8 @@ public class ICYMarshal implements IICYMarshal {
 		}
 	}
 	
-	public void onVideoData(byte[] data) {
-		log.debug("onVideoData - length: {}", data.length);
+	public void onVideoData(IoBuffer data) {
+		log.debug("onVideoData - length: {}", data.remaining());
 		if (fourCCVideo.startsWith("VP6")) {
 			videoFramer.pushVP6Frame(data, 0);
 		} else if (fourCCVideo.startsWith("H264")) {
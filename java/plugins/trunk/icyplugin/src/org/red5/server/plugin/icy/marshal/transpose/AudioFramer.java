@@ -19,8 +19,6 @@ package org.red5.server.plugin.icy.marshal.transpose;
  * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA 
  */
 
-import java.util.Arrays;
-
 import org.apache.mina.core.buffer.IoBuffer;
 import org.red5.server.icy.IICYEventSink;
 import org.red5.server.net.rtmp.event.AudioData;
@@ -54,7 +52,10 @@ public class AudioFramer {
 
 	private int lastTimecode = 0;
 
-	private byte[] tail = null;
+	/** start of an ADTS header found at the end of the previous feed */
+	private final byte[] header = new byte[9];
+
+	private int headerLength;
 
 	private boolean frameSynched;
 
@@ -77,7 +78,7 @@ public class AudioFramer {
 	}
 
 	public void reset() {
-		tail = null;
+		headerLength = 0;
 		buffer = null;
 		currentFrameLeft = 0;
 		frameSynched = false;
@@ -89,109 +90,140 @@ public class AudioFramer {
 		lastSample = 0;
 	}
 
-	public void onAACData(byte[] feed) {
-
-		byte[] data;
-		// merge previous tail
-		if (tail != null) {
-			IoBuffer bb = IoBuffer.allocate(tail.length + feed.length);
-			bb.put(tail);
-			for (int i = 0; i < feed.length; i++) {
-				bb.put(feed[i]);
-			}
-			data = bb.array();
-			tail = null;
-		} else {
-			IoBuffer bb = IoBuffer.allocate(feed.length);
-			for (int i = 0; i < feed.length; i++) {
-				bb.put(feed[i]);
-			}
-			data = bb.array();
-		}
-
-		// parse
-		int offset = 0;
-		int adtsSkipped = 0;
-		while ((data.length - offset) > 7) {
-			if (!frameSynched) {
-				if ((data[offset++] & 0xff) == 0xff) {
-					if ((data[offset++] & 0xf6) == 0xf0) {
-						profile = (data[offset] & 0xC0) >> 6;
-						sampleRateIndex = (data[offset] & 0x3C) >> 2;
-						channels = ((data[offset] & 0x01) << 2) | ((data[offset + 1] & 0xC0) >> 6);
-
-						log.trace("Profile: {} sample rate index: {} channels: {}", new Object[]{profile, sampleRateIndex, channels});
-						
-						// frame length, ADTS excluded
-						currentFrameLeft = (((data[offset + 1] & 0x03) << 8) | ((data[offset + 2] & 0xff) << 3) | ((data[offset + 3] & 0xff) >>> 5)) - 7;
-						raw_data_block = data[(offset + 4)] & 0x3;
-
-						log.trace("Current frame left: {} raw: {}", currentFrameLeft, raw_data_block);
-
-						offset += 5; // skip ADTS		
-						adtsSkipped += 7;
-						frameSynched = true;
-					}
-				}
-
-			} else {
-				int remain = (data.length - offset);
-				int bytesToRead = currentFrameLeft;
-				if (bytesToRead > remain)
-					bytesToRead = remain;
-
-				if (buffer == null) {
-					buffer = IoBuffer.allocate(2);
-					buffer.setAutoExpand(true);
-					buffer.put(new byte[] { (byte) 0xAF, (byte) 0x01 });
-				}
-
-				buffer.put(data, offset, bytesToRead);
-
+	/**
+	 * Frames ADTS data for flv. A frame found complete in the feed is delivered as a slice of it: the audio tag
+	 * header is written over the last two bytes of the ADTS header, so the feed is modified. Only frames spanning
+	 * two feeds are copied.
+	 * 
+	 * @param feed adts data
+	 */
+	public void onAACData(IoBuffer feed) {
+		int limit = feed.limit();
+		int offset = feed.position();
+		while (offset < limit) {
+			if (frameSynched) {
+				// rest of a frame started in a previous feed
+				int bytesToRead = Math.min(currentFrameLeft, limit - offset);
+				buffer.put(feed.getSlice(offset, bytesToRead));
 				offset += bytesToRead;
 				currentFrameLeft -= bytesToRead;
-
 				log.trace("Current frame left: {}", currentFrameLeft);
-
 				if (currentFrameLeft == 0) {
-					try {
-						IoBuffer newBuffer = IoBuffer.allocate(buffer.limit());
-						buffer.flip();
-						newBuffer.put(buffer);
-						if (AAC_SAMPLERATES.length <= sampleRateIndex) {
-							isFirst = false;
-							buffer = null;
-							frameSynched = false;
-							return;
-						}
-
-						deliverAACFrame(newBuffer, AAC_SAMPLERATES[sampleRateIndex], (raw_data_block + 1) * 1024);
-
-					} finally {
-						isFirst = false;
-						buffer = null;
-						frameSynched = false;
-					}
+					buffer.flip();
+					deliverAACFrame(buffer);
 				}
+				continue;
+			}
+			if (headerLength == 0 && (feed.get(offset) & 0xff) != 0xff) {
+				offset++;
+				continue;
+			}
+			int available = headerLength + limit - offset;
+			if (available < 2) {
+				keepHeader(feed, offset, limit);
+				break;
+			}
+			int b1 = getHeaderByte(feed, offset, 1);
+			if ((b1 & 0xf6) != 0xf0) {
+				// not a sync word after all
+				offset = lostSync(offset);
+				continue;
+			}
+			int headerSize = (b1 & 0x01) == 0 ? 9 : 7;
+			if (available < headerSize) {
+				keepHeader(feed, offset, limit);
+				break;
+			}
+			int b2 = getHeaderByte(feed, offset, 2);
+			int b3 = getHeaderByte(feed, offset, 3);
+			// frame length, ADTS included
+			int frameLength = ((b3 & 0x03) << 11) | (getHeaderByte(feed, offset, 4) << 3) | (getHeaderByte(feed, offset, 5) >>> 5);
+			if (frameLength <= headerSize) {
+				offset = lostSync(offset);
+				continue;
+			}
+			profile = (b2 & 0xC0) >> 6;
+			sampleRateIndex = (b2 & 0x3C) >> 2;
+			channels = ((b2 & 0x01) << 2) | ((b3 & 0xC0) >> 6);
+			raw_data_block = getHeaderByte(feed, offset, 6) & 0x3;
+			log.trace("Profile: {} sample rate index: {} channels: {}", new Object[]{profile, sampleRateIndex, channels});
+			int bodyLength = frameLength - headerSize;
+			int bodyStart = offset + headerSize - headerLength;
+			if (headerLength == 0 && limit - offset >= frameLength) {
+				feed.put(bodyStart - 2, (byte) 0xAF);
+				feed.put(bodyStart - 1, (byte) 0x01);
+				offset = bodyStart + bodyLength;
+				deliverAACFrame(feed.getSlice(bodyStart - 2, bodyLength + 2));
+			} else {
+				buffer = IoBuffer.allocate(bodyLength + 2);
+				buffer.put((byte) 0xAF);
+				buffer.put((byte) 0x01);
+				currentFrameLeft = bodyLength;
+				frameSynched = true;
+				headerLength = 0;
+				offset = bodyStart;
 			}
 		}
+		feed.position(limit);
+	}
+
+	/**
+	 * Returns a byte of the ADTS header starting at the given offset, including the bytes kept from the previous
+	 * feed.
+	 */
+	private int getHeaderByte(IoBuffer feed, int offset, int index) {
+		return (index < headerLength ? header[index] : feed.get(offset + index - headerLength)) & 0xff;
+	}
 
-		// keep tail
-		int remain = data.length - offset;
-		if (remain > 0) {
-			try {
-				tail = Arrays.copyOfRange(data, offset, data.length);
-			} catch (Exception e) {
+	/**
+	 * Keeps the start of a header found at the end of the feed.
+	 */
+	private void keepHeader(IoBuffer feed, int offset, int limit) {
+		while (offset < limit) {
+			header[headerLength++] = feed.get(offset++);
+		}
+	}
 
+	/**
+	 * Drops the first byte of a false sync word.
+	 * 
+	 * @return offset to continue searching at
+	 */
+	private int lostSync(int offset) {
+		if (headerLength > 0) {
+			// the byte dropped is the first kept byte, search the kept bytes again
+			int kept = headerLength - 1;
+			System.arraycopy(header, 1, header, 0, kept);
+			headerLength = 0;
+			for (int i = 0; i < kept; i++) {
+				if ((header[i] & 0xff) == 0xff) {
+					System.arraycopy(header, i, header, 0, kept - i);
+					headerLength = kept - i;
+					break;
+				}
 			}
+			return offset;
 		}
+		return offset + 1;
 	}
 
-	public void onMP3Data(byte[] data) {
+	public void onMP3Data(IoBuffer data) {
 		//TODO
 
 	}
 	
+	private void deliverAACFrame(IoBuffer frame) {
+		try {
+			if (AAC_SAMPLERATES.length > sampleRateIndex) {
+				deliverAACFrame(frame, AAC_SAMPLERATES[sampleRateIndex], (raw_data_block + 1) * 1024);
+			}
+		} finally {
+			isFirst = false;
+			buffer = null;
+			frameSynched = false;
+		}
+	}
+
 	private void deliverAACFrame(IoBuffer buffer, int sampleRate, int sampleCount) {
 
 		if (saveAACfrequency == -1) {
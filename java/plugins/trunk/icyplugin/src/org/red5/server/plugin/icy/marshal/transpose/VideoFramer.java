@@ -45,12 +45,12 @@ public class VideoFramer {
 	 * @param frame
 	 * @param timecode
 	 */
-	public void pushVP6Frame(byte[] frame, int timecode) {
-		IoBuffer buffV = IoBuffer.allocate(frame.length);
-		buffV.setAutoExpand(true);
+	public void pushVP6Frame(IoBuffer frame, int timecode) {
+		//the frame is copied once, into the tag body
+		IoBuffer buffV = IoBuffer.allocate(frame.remaining() + 2);
 		byte flags;
 		byte crops = 0x00;
-		boolean key = ((frame[0] & 0x80) == 0);
+		boolean key = ((frame.get(frame.position()) & 0x80) == 0);
 		if (!key) {
 			flags = (0x03) << 4 | (0x04);
 		} else {
@@ -58,7 +58,7 @@ public class VideoFramer {
 		}
 		buffV.put(flags);
 		buffV.put(crops);
-		buffV.put(frame);
+		buffV.put(frame.duplicate());
 		buffV.flip();
 		buffV.position(0);
 
@@ -75,7 +75,7 @@ public class VideoFramer {
 	 * @param frame
 	 * @param timecode
 	 */
-	public void pushAVCFrame(byte[] frame, int timecode) {
+	public void pushAVCFrame(IoBuffer frame, int timecode) {
 
 	}
 	
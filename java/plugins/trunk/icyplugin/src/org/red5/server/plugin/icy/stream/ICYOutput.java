@@ -0,0 +1,197 @@
+/*
+ * RED5 Open Source Flash Server - http://code.google.com/p/red5/
+ *
+ * Copyright 2006-2012 by respective authors (see below). All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.red5.server.plugin.icy.stream;
+
+import org.apache.mina.core.buffer.IoBuffer;
+import org.red5.logging.Red5LoggerFactory;
+import org.red5.server.api.IScope;
+import org.red5.server.icy.ICYOutputBuffer;
+import org.red5.server.messaging.IMessage;
+import org.red5.server.messaging.IMessageComponent;
+import org.red5.server.messaging.IMessageInput;
+import org.red5.server.messaging.IPipe;
+import org.red5.server.messaging.IPipeConnectionListener;
+import org.red5.server.messaging.IPushableConsumer;
+import org.red5.server.messaging.OOBControlMessage;
+import org.red5.server.messaging.PipeConnectionEvent;
+import org.red5.server.net.rtmp.event.AudioData;
+import org.red5.server.net.rtmp.event.IRTMPEvent;
+import org.red5.server.stream.IProviderService;
+import org.red5.server.stream.message.RTMPMessage;
+import org.slf4j.Logger;
+
+/**
+ * Feeds the audio of a live stream into an {@link ICYOutputBuffer}. The stream is subscribed to once, whatever the
+ * number of listeners; MP3 is passed on as is and AAC is framed with ADTS headers. Video and data are ignored.
+ *
+ * @author The Red5 Project
+ */
+public class ICYOutput implements IPushableConsumer, IPipeConnectionListener {
+
+	private static Logger log = Red5LoggerFactory.getLogger(ICYOutput.class, "plugins");
+
+	private static final int FORMAT_MP3 = 2;
+
+	private static final int FORMAT_AAC = 10;
+
+	private static final int FORMAT_MP3_8K = 14;
+
+	private final IScope scope;
+
+	private final String name;
+
+	private final ICYOutputBuffer buffer;
+
+	private IMessageInput input;
+
+	/**
+	 * ADTS header template built from the AAC decoder configuration, null until received
+	 */
+	private byte[] adtsHeader;
+
+	private final IoBuffer header = IoBuffer.allocate(7);
+
+	/**
+	 * @param scope scope the stream is published in
+	 * @param name stream name
+	 * @param buffer buffer the audio is written to
+	 */
+	public ICYOutput(IScope scope, String name, ICYOutputBuffer buffer) {
+		this.scope = scope;
+		this.name = name;
+		this.buffer = buffer;
+	}
+
+	public ICYOutputBuffer getBuffer() {
+		return buffer;
+	}
+
+	/**
+	 * Subscribes to the stream; it does not need to be published yet.
+	 */
+	public void start() {
+		log.debug("Start output of {}", name);
+		IProviderService providerService = (IProviderService) scope.getContext().getBean(IProviderService.BEAN_NAME);
+		input = providerService.getLiveProviderInput(scope, name, true);
+		input.subscribe(this, null);
+	}
+
+	public void stop() {
+		log.debug("Stop output of {}", name);
+		if (input != null) {
+			input.unsubscribe(this);
+			input = null;
+		}
+		buffer.close();
+	}
+
+	/**
+	 * Sets the title sent to listeners that asked for metadata.
+	 *
+	 * @param title stream title
+	 */
+	public void setTitle(String title) {
+		buffer.setTitle(title);
+	}
+
+	public void pushMessage(IPipe pipe, IMessage message) {
+		if (!(message instanceof RTMPMessage)) {
+			return;
+		}
+		IRTMPEvent body = ((RTMPMessage) message).getBody();
+		if (!(body instanceof AudioData)) {
+			return;
+		}
+		IoBuffer data = ((AudioData) body).getData();
+		if (data == null || data.remaining() < 2) {
+			return;
+		}
+		// read through a view, the tag body is shared with the other subscribers
+		IoBuffer audio = data.asReadOnlyBuffer();
+		int format = (audio.get() & 0xf0) >> 4;
+		switch (format) {
+			case FORMAT_MP3:
+			case FORMAT_MP3_8K:
+				buffer.setContentType("audio/mpeg");
+				buffer.write(audio);
+				break;
+			case FORMAT_AAC:
+				if (audio.get() == 0) {
+					configure(audio);
+				} else if (adtsHeader != null) {
+					writeADTS(audio);
+				}
+				break;
+			default:
+				log.debug("Unsupported audio format {} in {}", format, name);
+		}
+	}
+
+	/**
+	 * Builds the ADTS header template from an AudioSpecificConfig.
+	 */
+	private void configure(IoBuffer config) {
+		if (config.remaining() < 2) {
+			return;
+		}
+		int objectType = (config.get(config.position()) & 0xff) >> 3;
+		int frequencyIndex = ((config.get(config.position()) & 0x07) << 1) | ((config.get(config.position() + 1) & 0xff) >> 7);
+		int channels = (config.get(config.position() + 1) & 0x78) >> 3;
+		byte[] template = new byte[7];
+		template[0] = (byte) 0xff;
+		// MPEG-4, no CRC
+		template[1] = (byte) 0xf1;
+		template[2] = (byte) (((objectType - 1) << 6) | (frequencyIndex << 2) | (channels >> 2));
+		template[3] = (byte) ((channels & 3) << 6);
+		template[6] = (byte) 0xfc;
+		adtsHeader = template;
+		buffer.setContentType("audio/aacp");
+	}
+
+	private void writeADTS(IoBuffer frame) {
+		int length = frame.remaining() + 7;
+		header.clear();
+		header.put(adtsHeader, 0, 3);
+		header.put((byte) (adtsHeader[3] | (length >> 11)));
+		header.put((byte) (length >> 3));
+		// buffer fullness 0x7ff, one raw data block
+		header.put((byte) (((length & 7) << 5) | 0x1f));
+		header.put(adtsHeader[6]);
+		header.flip();
+		buffer.write(header);
+		buffer.write(frame);
+	}
+
+	public void onPipeConnectionEvent(PipeConnectionEvent event) {
+		switch (event.getType()) {
+			case PipeConnectionEvent.PROVIDER_CONNECT_PUSH:
+				log.debug("Stream {} published", name);
+				break;
+			case PipeConnectionEvent.PROVIDER_DISCONNECT:
+				log.debug("Stream {} unpublished", name);
+				adtsHeader = null;
+				break;
+			default:
+		}
+	}
+
+	public void onOOBControlMessage(IMessageComponent source, IPipe pipe, OOBControlMessage oobCtrlMsg) {
+	}
+
+}
@@ -0,0 +1,182 @@
+/*
+ * RED5 Open Source Flash Server - http://code.google.com/p/red5/
+ *
+ * Copyright 2006-2012 by respective authors (see below). All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.red5.server.icy;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.mina.core.buffer.IoBuffer;
+import org.apache.mina.core.future.DefaultWriteFuture;
+import org.apache.mina.core.future.WriteFuture;
+import org.apache.mina.core.session.DummySession;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Sends the blocks of a mount point to listeners that acknowledge them one at a time, with and without metadata.
+ */
+public class ICYOutputBufferTest {
+
+	private static final int META_INTERVAL = 16;
+
+	private ICYOutputBuffer buffer;
+
+	@Before
+	public void setUp() {
+		buffer = new ICYOutputBuffer(META_INTERVAL, 4);
+		buffer.setContentType("audio/mpeg");
+	}
+
+	@Test
+	public void testMetadata() throws Exception {
+		RecordingSession session = new RecordingSession();
+		ICYOutputBuffer.Listener listener = buffer.addListener(session, true);
+		buffer.setTitle("Artist - Song");
+		// audio arrives in pieces that do not line up with the blocks
+		buffer.write(IoBuffer.wrap(audio(0, 10)));
+		Assert.assertTrue(session.written.isEmpty());
+		buffer.write(IoBuffer.wrap(audio(0, 6)));
+		byte[] block = session.next();
+		Assert.assertArrayEquals(audio(0, META_INTERVAL), Arrays.copyOf(block, META_INTERVAL));
+		// StreamTitle='Artist - Song'; is 28 bytes, padded to two blocks of 16
+		Assert.assertEquals(2, block[META_INTERVAL]);
+		Assert.assertEquals(META_INTERVAL + 1 + 32, block.length);
+		Assert.assertEquals("StreamTitle='Artist - Song';", new String(block, META_INTERVAL + 1, 28, "UTF-8"));
+		for (int i = META_INTERVAL + 1 + 28; i < block.length; i++) {
+			Assert.assertEquals(0, block[i]);
+		}
+		// without a title each block is followed by an empty metadata block
+		buffer.setTitle(null);
+		buffer.write(IoBuffer.wrap(audio(1, META_INTERVAL)));
+		listener.messageSent();
+		block = session.next();
+		Assert.assertEquals(META_INTERVAL + 1, block.length);
+		Assert.assertEquals(0, block[META_INTERVAL]);
+	}
+
+	@Test
+	public void testWithoutMetadata() throws Exception {
+		RecordingSession session = new RecordingSession();
+		ICYOutputBuffer.Listener listener = buffer.addListener(session, false);
+		buffer.setTitle("Artist - Song");
+		buffer.write(IoBuffer.wrap(audio(0, META_INTERVAL)));
+		Assert.assertArrayEquals(audio(0, META_INTERVAL), session.next());
+		buffer.write(IoBuffer.wrap(audio(1, META_INTERVAL)));
+		listener.messageSent();
+		Assert.assertArrayEquals(audio(1, META_INTERVAL), session.next());
+	}
+
+	@Test
+	public void testBurst() throws Exception {
+		buffer.setBurst(2);
+		publish(0, 5);
+		// a new listener starts two blocks behind the newest
+		RecordingSession session = new RecordingSession();
+		ICYOutputBuffer.Listener listener = buffer.addListener(session, false);
+		Assert.assertEquals(3, session.nextBlock());
+		// one block in flight at a time
+		Assert.assertTrue(session.written.isEmpty());
+		listener.messageSent();
+		Assert.assertEquals(4, session.nextBlock());
+		listener.messageSent();
+		Assert.assertTrue(session.written.isEmpty());
+		publish(5, 1);
+		Assert.assertEquals(5, session.nextBlock());
+		Assert.assertEquals(0, buffer.getSkippedBlocks());
+	}
+
+	@Test
+	public void testLapped() throws Exception {
+		buffer.setBurst(2);
+		RecordingSession slow = new RecordingSession();
+		ICYOutputBuffer.Listener listener = buffer.addListener(slow, false);
+		RecordingSession fast = new RecordingSession();
+		ICYOutputBuffer.Listener other = buffer.addListener(fast, false);
+		publish(0, 1);
+		Assert.assertEquals(0, slow.nextBlock());
+		Assert.assertEquals(0, fast.nextBlock());
+		// the slow listener does not get its block sent while the ring goes round more than once
+		for (int i = 1; i <= 10; i++) {
+			publish(i, 1);
+			other.messageSent();
+			Assert.assertEquals(i, fast.nextBlock());
+		}
+		Assert.assertTrue(slow.written.isEmpty());
+		listener.messageSent();
+		// it skips to the newest blocks, keeping the burst
+		Assert.assertEquals(9, slow.nextBlock());
+		Assert.assertEquals(8, buffer.getSkippedBlocks());
+		listener.messageSent();
+		Assert.assertEquals(10, slow.nextBlock());
+		listener.messageSent();
+		Assert.assertTrue(slow.written.isEmpty());
+		Assert.assertEquals(2, buffer.getListenerCount());
+	}
+
+	/**
+	 * Publishes blocks of audio, each filled with its number.
+	 */
+	private void publish(int first, int count) {
+		for (int i = first; i < first + count; i++) {
+			buffer.write(IoBuffer.wrap(audio(i, META_INTERVAL)));
+		}
+	}
+
+	private static byte[] audio(int value, int length) {
+		byte[] data = new byte[length];
+		Arrays.fill(data, (byte) value);
+		return data;
+	}
+
+	/**
+	 * Session keeping what is written to it; the writes are never sent unless the test says so.
+	 */
+	static class RecordingSession extends DummySession {
+
+		final List<IoBuffer> written = new ArrayList<IoBuffer>();
+
+		@Override
+		public WriteFuture write(Object message) {
+			written.add((IoBuffer) message);
+			return DefaultWriteFuture.newWrittenFuture(this);
+		}
+
+		/**
+		 * @return bytes of the oldest write not looked at yet
+		 */
+		byte[] next() {
+			Assert.assertFalse("Nothing written", written.isEmpty());
+			IoBuffer data = written.remove(0).duplicate();
+			byte[] bytes = new byte[data.remaining()];
+			data.get(bytes);
+			return bytes;
+		}
+
+		/**
+		 * @return number of the block of audio written next
+		 */
+		int nextBlock() {
+			return next()[0];
+		}
+
+	}
+
+}
@@ -0,0 +1,81 @@
+/*
+ * RED5 Open Source Flash Server - http://code.google.com/p/red5/
+ *
+ * Copyright 2006-2012 by respective authors (see below). All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.red5.server.icy;
+
+import java.util.Arrays;
+
+import org.apache.mina.core.buffer.IoBuffer;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.red5.server.icy.ICYOutputBufferTest.RecordingSession;
+
+/**
+ * Answers the request of a player and streams the blocks of its mount point.
+ */
+public class ICYOutputHandlerTest {
+
+	private ICYOutputHandler handler;
+
+	private ICYOutputBuffer buffer;
+
+	@Before
+	public void setUp() {
+		handler = new ICYOutputHandler();
+		buffer = new ICYOutputBuffer(16, 8);
+		buffer.setContentType("audio/mpeg");
+		buffer.setBurst(2);
+		handler.addMount("/live", "Live", buffer);
+		for (int i = 0; i < 3; i++) {
+			byte[] audio = new byte[16];
+			Arrays.fill(audio, (byte) i);
+			buffer.write(IoBuffer.wrap(audio));
+		}
+	}
+
+	@Test
+	public void testListen() throws Exception {
+		RecordingSession session = new RecordingSession();
+		handler.messageReceived(session, IoBuffer.wrap("GET /live HTTP/1.0\r\nIcy-MetaData: 1\r\n\r\n".getBytes("US-ASCII")));
+		Assert.assertEquals(2, session.written.size());
+		IoBuffer header = session.written.get(0);
+		String response = new String(session.next(), "US-ASCII");
+		Assert.assertTrue(response.startsWith("ICY 200 OK\r\n"));
+		Assert.assertTrue(response.contains("icy-metaint: 16\r\n"));
+		IoBuffer first = session.written.get(0);
+		Assert.assertEquals(1, session.nextBlock());
+		// the headers being sent does not release the next block, the first one is still in flight
+		handler.messageSent(session, header);
+		Assert.assertTrue(session.written.isEmpty());
+		handler.messageSent(session, first);
+		Assert.assertEquals(2, session.nextBlock());
+		Assert.assertEquals(1, buffer.getListenerCount());
+		handler.sessionClosed(session);
+		Assert.assertEquals(0, buffer.getListenerCount());
+	}
+
+	@Test
+	public void testNotFound() throws Exception {
+		RecordingSession session = new RecordingSession();
+		handler.messageReceived(session, IoBuffer.wrap("GET /other HTTP/1.0\r\n\r\n".getBytes("US-ASCII")));
+		Assert.assertTrue(new String(session.next(), "US-ASCII").startsWith("HTTP/1.0 404"));
+		Assert.assertEquals(0, buffer.getListenerCount());
+	}
+
+}
@@ -0,0 +1,149 @@
+/*
+ * RED5 Open Source Flash Server - http://code.google.com/p/red5/
+ *
+ * Copyright 2006-2012 by respective authors (see below). All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.red5.server.icy.codec;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Queue;
+import java.util.Random;
+
+import org.apache.mina.core.buffer.IoBuffer;
+import org.apache.mina.filter.codec.ProtocolCodecSession;
+import org.red5.server.icy.message.Frame;
+import org.red5.server.icy.message.NSVFrame;
+
+/**
+ * Decoding throughput of {@link ICYDecoder} on a synthetic NSV ingest: a source login followed by VP62/AAC
+ * frames of 4-12 KB with a sync header every 30 frames, fed to the decoder in fixed size reads. Every decoded
+ * video payload is checked against the frame it was generated for.
+ * <br />
+ * Usage: <tt>ICYDecoderBenchmark [frames] [read size] [rounds]</tt>, defaults 3000, 1024 and 10. The first two
+ * rounds warm up the JIT and are not counted.
+ *
+ * @author The Red5 Project
+ */
+public class ICYDecoderBenchmark {
+
+	private static final String PASSWORD = "secret";
+
+	public static void main(String[] args) throws Exception {
+		int frames = args.length > 0 ? Integer.parseInt(args[0]) : 3000;
+		int readSize = args.length > 1 ? Integer.parseInt(args[1]) : 1024;
+		int rounds = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+		byte[] data = nsvStream(frames);
+		System.out.printf("%d frames, %d bytes, %d byte reads%n", frames, data.length, readSize);
+		double total = 0;
+		int counted = 0;
+		for (int round = 0; round < rounds; round++) {
+			long start = System.nanoTime();
+			int decoded = decode(data, readSize);
+			long elapsed = System.nanoTime() - start;
+			if (decoded != frames) {
+				throw new IllegalStateException("Decoded " + decoded + " of " + frames + " frames");
+			}
+			double rate = data.length / (elapsed / 1000d);
+			System.out.printf("round %d: %.1f MB/s%n", round, rate);
+			if (round >= 2) {
+				total += rate;
+				counted++;
+			}
+		}
+		if (counted > 0) {
+			System.out.printf("average: %.1f MB/s%n", total / counted);
+		}
+	}
+
+	/**
+	 * Feeds the stream to a new decoder session, handling the decoded messages like the ICY handler does.
+	 *
+	 * @return number of NSV frames decoded
+	 */
+	private static int decode(byte[] data, int readSize) throws Exception {
+		ProtocolCodecSession session = new ProtocolCodecSession();
+		session.setAttribute("password", PASSWORD);
+		ICYDecoder decoder = new ICYDecoder();
+		Queue<Object> queue = session.getDecoderOutputQueue();
+		int frames = 0;
+		for (int position = 0; position < data.length; position += readSize) {
+			IoBuffer in = IoBuffer.wrap(data, position, Math.min(readSize, data.length - position)).slice();
+			decoder.decode(session, in, session.getDecoderOutput());
+			Object message;
+			while ((message = queue.poll()) != null) {
+				if (message instanceof Frame && session.getAttribute("state") == ICYDecoder.ReadState.Ready) {
+					// the handler moves on to packets once it has seen the stream configuration
+					session.setAttribute("state", ICYDecoder.ReadState.Packet);
+				}
+				if (message instanceof NSVFrame) {
+					IoBuffer video = ((NSVFrame) message).videoData;
+					if (video.get(video.position()) != (byte) frames || video.get(video.limit() - 1) != 0x55) {
+						throw new IllegalStateException("Frame " + frames + " was not decoded correctly");
+					}
+					frames++;
+				}
+			}
+		}
+		return frames;
+	}
+
+	/**
+	 * Generates a source login followed by the given number of NSV frames. The video payload of each frame
+	 * starts with the frame number and ends with 0x55.
+	 */
+	private static byte[] nsvStream(int frames) throws Exception {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		out.write((PASSWORD + "\r\nicy-name:test\r\ncontent-type:video/nsv\r\n\r\n").getBytes("US-ASCII"));
+		Random random = new Random(1);
+		int auxLength = 10;
+		for (int f = 0; f < frames; f++) {
+			boolean sync = f % 30 == 0;
+			int videoLength = 4000 + random.nextInt(8000);
+			int audioLength = 400 + random.nextInt(200);
+			int aux = sync ? 1 : 0;
+			// video length includes the aux chunks and their 6 byte headers
+			int videoAux = videoLength + aux * (auxLength + 6);
+			if (sync) {
+				out.write("NSVsVP62AAC ".getBytes("US-ASCII"));
+				// width 320, height 240, frame rate, sync offset
+				out.write(new byte[] { 0x40, 0x01, (byte) 240, 0, 30, 5, 0 });
+			} else {
+				out.write(0xef);
+				out.write(0xbe);
+			}
+			out.write(aux | (videoAux & 0xf) << 4);
+			out.write(videoAux >> 4 & 0xff);
+			out.write(videoAux >> 12 & 0xff);
+			out.write(audioLength & 0xff);
+			out.write(audioLength >> 8);
+			if (sync) {
+				out.write(auxLength);
+				out.write(0);
+				out.write("TEST".getBytes("US-ASCII"));
+				out.write(new byte[auxLength]);
+			}
+			byte[] video = new byte[videoLength];
+			video[0] = (byte) f;
+			video[videoLength - 1] = 0x55;
+			out.write(video);
+			byte[] audio = new byte[audioLength];
+			audio[0] = (byte) f;
+			out.write(audio);
+		}
+		return out.toByteArray();
+	}
+
+}
@@ -0,0 +1,122 @@
+/*
+ * RED5 Open Source Flash Server - http://code.google.com/p/red5/
+ *
+ * Copyright 2006-2012 by respective authors (see below). All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.red5.server.net.rtp;
+
+import org.apache.mina.core.buffer.IoBuffer;
+import org.red5.io.IoConstants;
+
+/**
+ * AAC depacketizer after RFC 3640 (<tt>mpeg4-generic</tt>), for the AAC-hbr and AAC-lbr modes: the AU headers
+ * section is read with the size and index lengths of the SDP and every access unit becomes one FLV audio tag.
+ * The AudioSpecificConfig of the SDP is sent first as the AAC sequence header.
+ * <br />
+ * Access units fragmented over several packets are dropped, encoders keep AAC frames below the MTU.
+ *
+ * @author The Red5 Project
+ */
+public class AACDepacketizer extends RTPDepacketizer {
+
+	/**
+	 * FLV sound format byte of AAC; rate, size and channels are taken from the AudioSpecificConfig
+	 */
+	private static final byte AAC_AUDIO = (byte) 0xaf;
+
+	/**
+	 * Samples per AAC frame, in RTP clock units since the clock runs at the sample rate
+	 */
+	private static final int SAMPLES_PER_FRAME = 1024;
+
+	private final byte[] config;
+
+	private final int sizeLength;
+
+	private final int indexLength;
+
+	private final int indexDeltaLength;
+
+	private boolean configSent;
+
+	/**
+	 * Creates a depacketizer.
+	 *
+	 * @param config AudioSpecificConfig from the SDP
+	 * @param sizeLength bits of the AU size, 13 for AAC-hbr and 6 for AAC-lbr
+	 * @param indexLength bits of the first AU index
+	 * @param indexDeltaLength bits of the following AU index deltas
+	 */
+	public AACDepacketizer(byte[] config, int sizeLength, int indexLength, int indexDeltaLength) {
+		this.config = config;
+		this.sizeLength = sizeLength;
+		this.indexLength = indexLength;
+		this.indexDeltaLength = indexDeltaLength;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	protected void depacketize(RTPBuffer packet, boolean continuous, Listener listener) {
+		byte[] data = packet.getData();
+		int offset = packet.getPayloadOffset();
+		int end = offset + packet.getPayloadLength();
+		if (offset + 2 > end) {
+			return;
+		}
+		long timestamp = packet.getTimestamp();
+		if (!configSent && config != null) {
+			IoBuffer body = IoBuffer.allocate(2 + config.length);
+			body.put(AAC_AUDIO).put((byte) 0x00).put(config).flip();
+			listener.frameReceived(IoConstants.TYPE_AUDIO, timestamp, body);
+			configSent = true;
+		}
+		// AU headers section, its length is given in bits
+		int headersLength = (data[offset] & 0xff) << 8 | data[offset + 1] & 0xff;
+		int headersStart = (offset + 2) * 8;
+		int headersEnd = headersStart + headersLength;
+		int auOffset = offset + 2 + (headersLength + 7) / 8;
+		if (auOffset > end) {
+			return;
+		}
+		int bit = headersStart;
+		boolean first = true;
+		while (bit + sizeLength <= headersEnd) {
+			int size = readBits(data, bit, sizeLength);
+			bit += sizeLength;
+			// an index delta above zero would mean interleaving, which is not signalled by encoders we know
+			bit += first ? indexLength : indexDeltaLength;
+			first = false;
+			if (size == 0 || auOffset + size > end) {
+				// fragmented or damaged
+				return;
+			}
+			IoBuffer body = IoBuffer.allocate(2 + size);
+			body.put(AAC_AUDIO).put((byte) 0x01).put(data, auOffset, size).flip();
+			listener.frameReceived(IoConstants.TYPE_AUDIO, timestamp, body);
+			auOffset += size;
+			timestamp += SAMPLES_PER_FRAME;
+		}
+	}
+
+	private static int readBits(byte[] data, int bit, int count) {
+		int value = 0;
+		for (int i = 0; i < count; i++, bit++) {
+			value = value << 1 | (data[bit >> 3] >> (7 - (bit & 7)) & 1);
+		}
+		return value;
+	}
+
+}
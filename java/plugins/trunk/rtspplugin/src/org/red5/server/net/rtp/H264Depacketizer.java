@@ -0,0 +1,285 @@
+/*
+ * RED5 Open Source Flash Server - http://code.google.com/p/red5/
+ *
+ * Copyright 2006-2012 by respective authors (see below). All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.red5.server.net.rtp;
+
+import java.util.Arrays;
+
+import org.apache.mina.core.buffer.IoBuffer;
+import org.red5.io.IoConstants;
+
+/**
+ * H.264 depacketizer after RFC 6184: single NAL unit packets, STAP-A and FU-A, non-interleaved mode. NAL units
+ * are collected into one access unit per RTP timestamp, in the length prefixed form FLV expects, and the
+ * access unit is sent when the marker bit is seen or the timestamp changes. Parameter sets, taken from the
+ * SDP or from the stream, are sent as the AVC sequence header whenever they change.
+ * <br />
+ * An access unit that lost packets is dropped; after that, and until the first sequence header, frames are
+ * dropped up to the next IDR frame. The access unit is assembled in an array reused from frame to frame.
+ *
+ * @author The Red5 Project
+ */
+public class H264Depacketizer extends RTPDepacketizer {
+
+	private static final int NAL_IDR = 5;
+
+	private static final int NAL_SPS = 7;
+
+	private static final int NAL_PPS = 8;
+
+	private static final int NAL_AUD = 9;
+
+	private static final int NAL_STAP_A = 24;
+
+	private static final int NAL_FU_A = 28;
+
+	/**
+	 * FLV video tag header of an AVC NAL unit tag: frame type and codec, packet type and composition time
+	 */
+	private static final int VIDEO_HEADER_LENGTH = 5;
+
+	private byte[] sps;
+
+	private byte[] pps;
+
+	private boolean configChanged;
+
+	/**
+	 * Access unit in FLV form, after a reserved video tag header
+	 */
+	private byte[] frame = new byte[64 * 1024];
+
+	private int frameLength = VIDEO_HEADER_LENGTH;
+
+	private long frameTimestamp = -1;
+
+	private boolean keyFrame;
+
+	/**
+	 * Whether the current access unit lost packets
+	 */
+	private boolean broken;
+
+	/**
+	 * Start of the length prefix of the fragmented NAL unit, -1 outside of one
+	 */
+	private int fragmentStart = -1;
+
+	/**
+	 * Whether frames are dropped up to the next IDR frame
+	 */
+	private boolean waitKeyFrame = true;
+
+	/**
+	 * Creates a depacketizer.
+	 *
+	 * @param sps sequence parameter set from the SDP or null
+	 * @param pps picture parameter set from the SDP or null
+	 */
+	public H264Depacketizer(byte[] sps, byte[] pps) {
+		this.sps = sps;
+		this.pps = pps;
+		configChanged = isConfigured();
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	protected void depacketize(RTPBuffer packet, boolean continuous, Listener listener) {
+		long timestamp = packet.getTimestamp();
+		if (!continuous) {
+			// the lost packets may have ended the pending access unit as well as started this one
+			broken = true;
+			fragmentStart = -1;
+		}
+		if (timestamp != frameTimestamp) {
+			// the marker of the previous access unit went missing
+			flush(listener);
+			frameTimestamp = timestamp;
+			broken = !continuous;
+		}
+		byte[] data = packet.getData();
+		int offset = packet.getPayloadOffset();
+		int length = packet.getPayloadLength();
+		if (length > 0) {
+			int type = data[offset] & 0x1f;
+			if (type == NAL_STAP_A) {
+				int end = offset + length;
+				offset++;
+				while (offset + 2 <= end) {
+					int size = (data[offset] & 0xff) << 8 | data[offset + 1] & 0xff;
+					offset += 2;
+					if (size == 0 || offset + size > end) {
+						break;
+					}
+					addNal(data, offset, size);
+					offset += size;
+				}
+			} else if (type == NAL_FU_A) {
+				addFragment(data, offset, length);
+			} else if (type > 0 && type < NAL_STAP_A) {
+				addNal(data, offset, length);
+			}
+		}
+		if (packet.isMarker()) {
+			flush(listener);
+			frameTimestamp = -1;
+		}
+	}
+
+	private void addFragment(byte[] data, int offset, int length) {
+		if (length < 2) {
+			return;
+		}
+		int indicator = data[offset];
+		int header = data[offset + 1];
+		boolean start = (header & 0x80) != 0;
+		boolean end = (header & 0x40) != 0;
+		if (start) {
+			fragmentStart = frameLength;
+			ensureCapacity(frameLength + 5 + length);
+			frameLength += 4;
+			// the NAL header is rebuilt from the FU indicator and header
+			frame[frameLength++] = (byte) ((indicator & 0xe0) | (header & 0x1f));
+		} else if (fragmentStart == -1) {
+			broken = true;
+			return;
+		}
+		ensureCapacity(frameLength + length);
+		System.arraycopy(data, offset + 2, frame, frameLength, length - 2);
+		frameLength += length - 2;
+		if (end) {
+			int type = header & 0x1f;
+			if (type == NAL_SPS || type == NAL_PPS || type == NAL_AUD) {
+				// parameter sets go into the sequence header, not the frame
+				int nalStart = fragmentStart + 4;
+				if (type != NAL_AUD) {
+					setParameterSet(type, Arrays.copyOfRange(frame, nalStart, frameLength));
+				}
+				frameLength = fragmentStart;
+			} else {
+				if (type == NAL_IDR) {
+					keyFrame = true;
+				}
+				putLength(fragmentStart, frameLength - fragmentStart - 4);
+			}
+			fragmentStart = -1;
+		}
+	}
+
+	private void addNal(byte[] data, int offset, int length) {
+		int type = data[offset] & 0x1f;
+		switch (type) {
+			case NAL_SPS:
+			case NAL_PPS:
+				setParameterSet(type, Arrays.copyOfRange(data, offset, offset + length));
+				return;
+			case NAL_AUD:
+				return;
+			case NAL_IDR:
+				keyFrame = true;
+				break;
+			default:
+		}
+		ensureCapacity(frameLength + 4 + length);
+		putLength(frameLength, length);
+		System.arraycopy(data, offset, frame, frameLength + 4, length);
+		frameLength += 4 + length;
+	}
+
+	private void setParameterSet(int type, byte[] nal) {
+		byte[] current = type == NAL_SPS ? sps : pps;
+		if (!Arrays.equals(current, nal)) {
+			if (type == NAL_SPS) {
+				sps = nal;
+			} else {
+				pps = nal;
+			}
+			configChanged = isConfigured();
+		}
+	}
+
+	private boolean isConfigured() {
+		return sps != null && sps.length >= 4 && pps != null;
+	}
+
+	private void putLength(int offset, int length) {
+		frame[offset] = (byte) (length >>> 24);
+		frame[offset + 1] = (byte) (length >>> 16);
+		frame[offset + 2] = (byte) (length >>> 8);
+		frame[offset + 3] = (byte) length;
+	}
+
+	private void ensureCapacity(int capacity) {
+		if (capacity > frame.length) {
+			frame = Arrays.copyOf(frame, Math.max(capacity, frame.length * 2));
+		}
+	}
+
+	/**
+	 * Sends the current access unit, preceded by the sequence header if the parameter sets changed.
+	 */
+	private void flush(Listener listener) {
+		if (fragmentStart != -1) {
+			// the last fragment never came
+			broken = true;
+		}
+		if (frameLength > VIDEO_HEADER_LENGTH && frameTimestamp != -1) {
+			if (broken) {
+				waitKeyFrame = true;
+			} else if (keyFrame && isConfigured()) {
+				waitKeyFrame = false;
+			}
+			if (!waitKeyFrame) {
+				if (configChanged) {
+					listener.frameReceived(IoConstants.TYPE_VIDEO, frameTimestamp, getSequenceHeader());
+					configChanged = false;
+				}
+				IoBuffer body = IoBuffer.allocate(frameLength);
+				body.put((byte) (keyFrame ? 0x17 : 0x27));
+				body.put((byte) 0x01);
+				// composition time, frames are sent in decoding order
+				body.put((byte) 0).put((byte) 0).put((byte) 0);
+				body.put(frame, VIDEO_HEADER_LENGTH, frameLength - VIDEO_HEADER_LENGTH);
+				body.flip();
+				listener.frameReceived(IoConstants.TYPE_VIDEO, frameTimestamp, body);
+			}
+		}
+		frameLength = VIDEO_HEADER_LENGTH;
+		keyFrame = false;
+		broken = false;
+		fragmentStart = -1;
+	}
+
+	/**
+	 * Builds the AVC sequence header: the FLV video tag header followed by the AVCDecoderConfigurationRecord.
+	 */
+	private IoBuffer getSequenceHeader() {
+		IoBuffer body = IoBuffer.allocate(VIDEO_HEADER_LENGTH + 11 + sps.length + pps.length);
+		body.put((byte) 0x17).put((byte) 0x00).put((byte) 0).put((byte) 0).put((byte) 0);
+		// version, profile, compatibility, level
+		body.put((byte) 1).put(sps[1]).put(sps[2]).put(sps[3]);
+		// 4 byte NAL unit lengths, one SPS
+		body.put((byte) 0xff).put((byte) 0xe1);
+		body.putShort((short) sps.length).put(sps);
+		body.put((byte) 1);
+		body.putShort((short) pps.length).put(pps);
+		body.flip();
+		return body;
+	}
+
+}
@@ -0,0 +1,39 @@
+/*
+ * RED5 Open Source Flash Server - http://code.google.com/p/red5/
+ *
+ * Copyright 2006-2012 by respective authors (see below). All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.red5.server.net.rtp;
+
+import org.apache.mina.core.buffer.IoBuffer;
+
+/**
+ * Receives the FLV tags an RTP ingest produces.
+ *
+ * @author The Red5 Project
+ */
+public interface IRTPMediaListener {
+
+	/**
+	 * Called for every audio or video tag, in order per track.
+	 *
+	 * @param dataType FLV tag type
+	 * @param timestamp timestamp in milliseconds since the start of the ingest
+	 * @param body FLV tag body
+	 */
+	void mediaReceived(byte dataType, int timestamp, IoBuffer body);
+
+}
@@ -0,0 +1,107 @@
+/*
+ * RED5 Open Source Flash Server - http://code.google.com/p/red5/
+ *
+ * Copyright 2006-2012 by respective authors (see below). All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.red5.server.net.rtp;
+
+import org.apache.mina.core.buffer.IoBuffer;
+import org.red5.codec.StreamCodecInfo;
+import org.red5.server.api.stream.IStreamAwareScopeHandler;
+import org.red5.server.net.rtmp.event.AudioData;
+import org.red5.server.net.rtmp.event.IRTMPEvent;
+import org.red5.server.net.rtmp.event.VideoData;
+import org.red5.server.net.rtmp.message.Constants;
+import org.red5.server.net.rtmp.message.Header;
+import org.red5.server.stream.ClientBroadcastStream;
+import org.red5.server.stream.message.StatusMessage;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Broadcast stream fed by an RTP ingest instead of a publishing client. Subscribers play it like any other live
+ * stream.
+ *
+ * @author The Red5 Project
+ */
+public class RTPBroadcastStream extends ClientBroadcastStream implements IRTPMediaListener {
+
+	private static final Logger log = LoggerFactory.getLogger(RTPBroadcastStream.class);
+
+	public RTPBroadcastStream() {
+		setRegisterJMX(false);
+	}
+
+	/**
+	 * Starts the stream without a publishing connection.
+	 */
+	@Override
+	public void start() {
+		checkVideoCodec = true;
+		checkAudioCodec = true;
+		firstPacketTime = -1;
+		latestTimeStamp = -1;
+		bytesReceived = 0;
+		setCodecInfo(new StreamCodecInfo());
+		creationTime = System.currentTimeMillis();
+		closed = false;
+	}
+
+	/**
+	 * Notifies the application of the publish; there is no publishing connection for the base class to find the
+	 * handler through.
+	 */
+	@Override
+	public void startPublishing() {
+		if (sendStartNotification) {
+			IStreamAwareScopeHandler handler = getStreamAwareHandler();
+			if (handler != null) {
+				try {
+					handler.streamPublishStart(this);
+				} catch (Throwable t) {
+					log.error("Error in streamPublishStart", t);
+				}
+			}
+		}
+		// sends the broadcast start notification
+		super.startPublishing();
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	protected void pushMessage(StatusMessage msg) {
+		// status messages are meant for the publisher
+	}
+
+	/**
+	 * Dispatches a tag of one of the tracks; tracks are received on different threads.
+	 */
+	public synchronized void mediaReceived(byte dataType, int timestamp, IoBuffer body) {
+		IRTMPEvent event;
+		if (dataType == Constants.TYPE_AUDIO_DATA) {
+			event = new AudioData(body);
+		} else {
+			event = new VideoData(body);
+		}
+		Header header = new Header();
+		header.setDataType(dataType);
+		header.setTimer(timestamp);
+		event.setHeader(header);
+		event.setTimestamp(timestamp);
+		dispatchEvent(event);
+	}
+
+}
@@ -0,0 +1,157 @@
+/*
+ * RED5 Open Source Flash Server - http://code.google.com/p/red5/
+ *
+ * Copyright 2006-2012 by respective authors (see below). All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.red5.server.net.rtp;
+
+import org.apache.mina.core.buffer.IoBuffer;
+
+/**
+ * Reusable holder of one received RTP packet. The packet is copied into an array owned by the holder, so the
+ * network buffer can be dropped right away, and only the header fields needed for reordering and
+ * depacketizing are decoded. See {@link RTPPacket} for the header layout.
+ *
+ * @author The Red5 Project
+ */
+public final class RTPBuffer {
+
+	/**
+	 * Largest packet accepted, above any common MTU
+	 */
+	public static final int MAX_PACKET_SIZE = 2048;
+
+	private final byte[] data = new byte[MAX_PACKET_SIZE];
+
+	private int sequence;
+
+	private long timestamp;
+
+	private int ssrc;
+
+	private boolean marker;
+
+	private int payloadType;
+
+	private int payloadOffset;
+
+	private int payloadLength;
+
+	/**
+	 * Copies and decodes the packet in the given buffer.
+	 *
+	 * @param in buffer positioned at the RTP header, consumed
+	 * @return false if the buffer does not hold a valid RTP version 2 packet
+	 */
+	public boolean read(IoBuffer in) {
+		int length = in.remaining();
+		if (length < 12 || length > MAX_PACKET_SIZE) {
+			in.skip(length);
+			return false;
+		}
+		in.get(data, 0, length);
+		return decode(length);
+	}
+
+	/**
+	 * Copies and decodes a packet from an array.
+	 *
+	 * @param src array holding the packet
+	 * @param offset start of the RTP header
+	 * @param length packet length
+	 * @return false if the array does not hold a valid RTP version 2 packet
+	 */
+	public boolean read(byte[] src, int offset, int length) {
+		if (length < 12 || length > MAX_PACKET_SIZE) {
+			return false;
+		}
+		System.arraycopy(src, offset, data, 0, length);
+		return decode(length);
+	}
+
+	private boolean decode(int length) {
+		int first = data[0] & 0xff;
+		if (first >> 6 != 2) {
+			return false;
+		}
+		int offset = 12 + (first & 0x0f) * 4;
+		if ((first & 0x10) != 0) {
+			// header extension, its length is counted in 32 bit words
+			if (offset + 4 > length) {
+				return false;
+			}
+			offset += 4 + ((data[offset + 2] & 0xff) << 8 | data[offset + 3] & 0xff) * 4;
+		}
+		int end = length;
+		if ((first & 0x20) != 0) {
+			end -= data[length - 1] & 0xff;
+		}
+		if (offset > end) {
+			return false;
+		}
+		marker = (data[1] & 0x80) != 0;
+		payloadType = data[1] & 0x7f;
+		sequence = (data[2] & 0xff) << 8 | data[3] & 0xff;
+		timestamp = getInt(4) & 0xffffffffL;
+		ssrc = getInt(8);
+		payloadOffset = offset;
+		payloadLength = end - offset;
+		return true;
+	}
+
+	private int getInt(int offset) {
+		return (data[offset] & 0xff) << 24 | (data[offset + 1] & 0xff) << 16 | (data[offset + 2] & 0xff) << 8 | data[offset + 3] & 0xff;
+	}
+
+	/**
+	 * @return packet data, the payload starts at {@link #getPayloadOffset()}
+	 */
+	public byte[] getData() {
+		return data;
+	}
+
+	public int getSequence() {
+		return sequence;
+	}
+
+	/**
+	 * @return unsigned 32 bit RTP timestamp
+	 */
+	public long getTimestamp() {
+		return timestamp;
+	}
+
+	public int getSsrc() {
+		return ssrc;
+	}
+
+	public boolean isMarker() {
+		return marker;
+	}
+
+	public int getPayloadType() {
+		return payloadType;
+	}
+
+	public int getPayloadOffset() {
+		return payloadOffset;
+	}
+
+	public int getPayloadLength() {
+		return payloadLength;
+	}
+
+}
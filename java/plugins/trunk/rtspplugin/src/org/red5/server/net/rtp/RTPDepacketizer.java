@@ -0,0 +1,73 @@
+/*
+ * RED5 Open Source Flash Server - http://code.google.com/p/red5/
+ *
+ * Copyright 2006-2012 by respective authors (see below). All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.red5.server.net.rtp;
+
+import org.apache.mina.core.buffer.IoBuffer;
+
+/**
+ * Turns the packets of one RTP payload format, in sequence order, into FLV audio or video tag bodies.
+ *
+ * @author The Red5 Project
+ */
+public abstract class RTPDepacketizer {
+
+	/**
+	 * Receives the frames of a depacketizer.
+	 */
+	public interface Listener {
+
+		/**
+		 * Called for every complete frame.
+		 *
+		 * @param dataType FLV tag type, audio or video
+		 * @param timestamp RTP timestamp of the frame
+		 * @param body FLV tag body
+		 */
+		void frameReceived(byte dataType, long timestamp, IoBuffer body);
+
+	}
+
+	/**
+	 * Sequence number of the previous packet, -1 before the first one
+	 */
+	private int lastSequence = -1;
+
+	/**
+	 * Handles the next packet.
+	 *
+	 * @param packet packet
+	 * @param listener receives the completed frames
+	 */
+	public void depacketize(RTPBuffer packet, Listener listener) {
+		int sequence = packet.getSequence();
+		boolean continuous = lastSequence == -1 || sequence == ((lastSequence + 1) & 0xffff);
+		lastSequence = sequence;
+		depacketize(packet, continuous, listener);
+	}
+
+	/**
+	 * Handles the next packet.
+	 *
+	 * @param packet packet
+	 * @param continuous false if packets were lost before this one
+	 * @param listener receives the completed frames
+	 */
+	protected abstract void depacketize(RTPBuffer packet, boolean continuous, Listener listener);
+
+}
@@ -0,0 +1,206 @@
+/*
+ * RED5 Open Source Flash Server - http://code.google.com/p/red5/
+ *
+ * Copyright 2006-2012 by respective authors (see below). All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.red5.server.net.rtp;
+
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.mina.core.buffer.IoBuffer;
+import org.apache.mina.core.service.IoHandlerAdapter;
+import org.apache.mina.core.session.AttributeKey;
+import org.apache.mina.core.session.IoSession;
+import org.apache.mina.filter.executor.ExecutorFilter;
+import org.apache.mina.filter.executor.OrderedThreadPoolExecutor;
+import org.apache.mina.transport.socket.DatagramSessionConfig;
+import org.apache.mina.transport.socket.nio.NioDatagramAcceptor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * UDP side of the RTP ingest. All cameras send to one RTP port, and RTCP to the port above it. Packets are
+ * dispatched to the {@link RTPReceiver} registered for their source address during RTSP SETUP; the receiver
+ * is cached on the datagram session, so a packet costs one map lookup per source and no allocation beyond
+ * the read buffer of MINA.
+ * <br />
+ * Sources are handled on a pool of <tt>eventThreads</tt> threads, each source always on one thread at a time.
+ * RTCP reports are counted but not used.
+ *
+ * @author The Red5 Project
+ */
+public class RTPIngest extends IoHandlerAdapter {
+
+	private static final Logger log = LoggerFactory.getLogger(RTPIngest.class);
+
+	private static final AttributeKey RECEIVER_KEY = new AttributeKey(RTPIngest.class, "receiver");
+
+	private String address;
+
+	/**
+	 * RTP port, 0 for any; RTCP uses the port above it
+	 */
+	private int port = 5000;
+
+	private int receiveBufferSize = 4 * 1024 * 1024;
+
+	private int eventThreads = Runtime.getRuntime().availableProcessors();
+
+	private NioDatagramAcceptor acceptor;
+
+	private OrderedThreadPoolExecutor executor;
+
+	/**
+	 * Receivers by source address
+	 */
+	private final ConcurrentMap<SocketAddress, RTPReceiver> receivers = new ConcurrentHashMap<SocketAddress, RTPReceiver>();
+
+	private final AtomicLong unknownPackets = new AtomicLong();
+
+	private final AtomicLong controlPackets = new AtomicLong();
+
+	public void setAddress(String address) {
+		if ("*".equals(address) || "0.0.0.0".equals(address)) {
+			address = null;
+		}
+		this.address = address;
+	}
+
+	public void setPort(int port) {
+		this.port = port;
+	}
+
+	/**
+	 * @return RTP port, the bound one once started
+	 */
+	public int getPort() {
+		return port;
+	}
+
+	public void setReceiveBufferSize(int receiveBufferSize) {
+		this.receiveBufferSize = receiveBufferSize;
+	}
+
+	public void setEventThreads(int eventThreads) {
+		this.eventThreads = eventThreads;
+	}
+
+	public void start() throws Exception {
+		acceptor = new NioDatagramAcceptor();
+		if (eventThreads > 0) {
+			executor = new OrderedThreadPoolExecutor(eventThreads);
+			acceptor.getFilterChain().addLast("executor", new ExecutorFilter(executor));
+		}
+		acceptor.setHandler(this);
+		DatagramSessionConfig config = acceptor.getSessionConfig();
+		config.setReuseAddress(true);
+		config.setReceiveBufferSize(receiveBufferSize);
+		config.setReadBufferSize(RTPBuffer.MAX_PACKET_SIZE);
+		acceptor.bind(address == null ? new InetSocketAddress(port) : new InetSocketAddress(address, port));
+		port = ((InetSocketAddress) acceptor.getLocalAddress()).getPort();
+		acceptor.bind(address == null ? new InetSocketAddress(port + 1) : new InetSocketAddress(address, port + 1));
+		log.info("RTP ingest listening on ports {}-{}", port, port + 1);
+	}
+
+	public void stop() {
+		if (acceptor != null) {
+			acceptor.unbind();
+			acceptor.dispose();
+			acceptor = null;
+		}
+		if (executor != null) {
+			executor.shutdownNow();
+			executor = null;
+		}
+		receivers.clear();
+	}
+
+	/**
+	 * Routes the packets of a source to a receiver.
+	 *
+	 * @param source address and port the source sends RTP from
+	 * @param receiver receiver of the track
+	 */
+	public void register(InetSocketAddress source, RTPReceiver receiver) {
+		log.debug("RTP source registered: {}", source);
+		receivers.put(source, receiver);
+	}
+
+	/**
+	 * Stops routing the packets of a source to a receiver.
+	 *
+	 * @param source address and port the source sends RTP from
+	 * @param receiver receiver of the track
+	 */
+	public void unregister(InetSocketAddress source, RTPReceiver receiver) {
+		if (receivers.remove(source, receiver)) {
+			log.debug("RTP source unregistered: {}", source);
+		}
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void messageReceived(IoSession session, Object message) throws Exception {
+		if (((InetSocketAddress) session.getLocalAddress()).getPort() != port) {
+			controlPackets.incrementAndGet();
+			return;
+		}
+		RTPReceiver receiver = (RTPReceiver) session.getAttribute(RECEIVER_KEY);
+		if (receiver == null || receiver.isClosed()) {
+			receiver = receivers.get(session.getRemoteAddress());
+			if (receiver == null) {
+				if (unknownPackets.getAndIncrement() % 1000 == 0) {
+					log.debug("RTP packet from unknown source: {}", session.getRemoteAddress());
+				}
+				return;
+			}
+			session.setAttribute(RECEIVER_KEY, receiver);
+		}
+		receiver.packetReceived((IoBuffer) message);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void exceptionCaught(IoSession session, Throwable cause) throws Exception {
+		log.warn("RTP ingest error from {}", session.getRemoteAddress(), cause);
+	}
+
+	/**
+	 * @return number of registered sources
+	 */
+	public int getSourceCount() {
+		return receivers.size();
+	}
+
+	/**
+	 * @return packets dropped because no receiver was registered for their source
+	 */
+	public long getUnknownPackets() {
+		return unknownPackets.get();
+	}
+
+	/**
+	 * @return RTCP packets received
+	 */
+	public long getControlPackets() {
+		return controlPackets.get();
+	}
+
+}
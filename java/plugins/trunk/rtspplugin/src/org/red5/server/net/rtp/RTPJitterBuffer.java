@@ -0,0 +1,215 @@
+/*
+ * RED5 Open Source Flash Server - http://code.google.com/p/red5/
+ *
+ * Copyright 2006-2012 by respective authors (see below). All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.red5.server.net.rtp;
+
+import org.apache.mina.core.buffer.IoBuffer;
+
+/**
+ * Reorder buffer of one RTP source. Packets are copied into a fixed ring of {@link RTPBuffer} holders indexed
+ * by sequence number and handed out in sequence order; a missing packet is waited for until <tt>depth</tt>
+ * later packets are held, then given up on. Holders are swapped rather than allocated, so receiving does not
+ * allocate once the buffer is created.
+ * <br />
+ * A change of SSRC, or a sequence number too far ahead, starts the buffer over. Not thread safe.
+ *
+ * @author The Red5 Project
+ */
+public class RTPJitterBuffer {
+
+	private final RTPBuffer[] slots;
+
+	private final boolean[] filled;
+
+	private final int mask;
+
+	/**
+	 * Packets held before a missing one is given up on
+	 */
+	private final int depth;
+
+	/**
+	 * Holder the next packet is read into
+	 */
+	private RTPBuffer spare = new RTPBuffer();
+
+	private boolean started;
+
+	private int ssrc;
+
+	/**
+	 * Next sequence number to hand out
+	 */
+	private int next;
+
+	/**
+	 * Packets held
+	 */
+	private int count;
+
+	private long received;
+
+	private long lost;
+
+	private long late;
+
+	private long invalid;
+
+	/**
+	 * Creates a buffer.
+	 *
+	 * @param capacity number of packets held at most, rounded up to a power of two
+	 * @param depth packets held before a missing one is given up on, at most the capacity
+	 */
+	public RTPJitterBuffer(int capacity, int depth) {
+		int size = Integer.highestOneBit(Math.max(capacity, 2) - 1) << 1;
+		slots = new RTPBuffer[size];
+		for (int i = 0; i < size; i++) {
+			slots[i] = new RTPBuffer();
+		}
+		filled = new boolean[size];
+		mask = size - 1;
+		this.depth = Math.max(1, Math.min(depth, size));
+	}
+
+	/**
+	 * Adds a received packet.
+	 *
+	 * @param in buffer holding the packet, consumed
+	 * @return true if the packet was kept, false if it was invalid, late or a duplicate
+	 */
+	public boolean add(IoBuffer in) {
+		if (!spare.read(in)) {
+			invalid++;
+			return false;
+		}
+		return add();
+	}
+
+	/**
+	 * Adds a received packet.
+	 *
+	 * @param src array holding the packet
+	 * @param offset start of the packet
+	 * @param length packet length
+	 * @return true if the packet was kept, false if it was invalid, late or a duplicate
+	 */
+	public boolean add(byte[] src, int offset, int length) {
+		if (!spare.read(src, offset, length)) {
+			invalid++;
+			return false;
+		}
+		return add();
+	}
+
+	private boolean add() {
+		int sequence = spare.getSequence();
+		if (!started || spare.getSsrc() != ssrc) {
+			clear();
+			started = true;
+			ssrc = spare.getSsrc();
+			next = sequence;
+		}
+		int delta = (short) (sequence - next);
+		if (delta < 0) {
+			late++;
+			return false;
+		}
+		if (delta > mask) {
+			// too far ahead to be reordering, the source jumped
+			lost += count;
+			clear();
+			next = sequence;
+		}
+		int index = sequence & mask;
+		if (filled[index]) {
+			late++;
+			return false;
+		}
+		RTPBuffer packet = spare;
+		spare = slots[index];
+		slots[index] = packet;
+		filled[index] = true;
+		count++;
+		received++;
+		return true;
+	}
+
+	/**
+	 * Returns the next packet in sequence order.
+	 *
+	 * @return packet, valid until the next packet is added, or null if none is ready
+	 */
+	public RTPBuffer poll() {
+		if (count == 0) {
+			return null;
+		}
+		int index = next & mask;
+		if (!filled[index]) {
+			if (count < depth) {
+				// wait for the missing packet
+				return null;
+			}
+			do {
+				lost++;
+				next = (next + 1) & 0xffff;
+				index = next & mask;
+			} while (!filled[index]);
+		}
+		filled[index] = false;
+		count--;
+		next = (next + 1) & 0xffff;
+		return slots[index];
+	}
+
+	private void clear() {
+		for (int i = 0; i < filled.length; i++) {
+			filled[i] = false;
+		}
+		count = 0;
+	}
+
+	/**
+	 * @return packets kept
+	 */
+	public long getReceived() {
+		return received;
+	}
+
+	/**
+	 * @return packets given up on
+	 */
+	public long getLost() {
+		return lost;
+	}
+
+	/**
+	 * @return packets dropped because they came too late or twice
+	 */
+	public long getLate() {
+		return late;
+	}
+
+	/**
+	 * @return packets dropped because they were not valid RTP
+	 */
+	public long getInvalid() {
+		return invalid;
+	}
+
+}
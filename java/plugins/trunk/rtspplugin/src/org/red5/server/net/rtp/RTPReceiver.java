@@ -0,0 +1,148 @@
+/*
+ * RED5 Open Source Flash Server - http://code.google.com/p/red5/
+ *
+ * Copyright 2006-2012 by respective authors (see below). All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.red5.server.net.rtp;
+
+import org.apache.mina.core.buffer.IoBuffer;
+
+/**
+ * One received RTP track: reorders the packets of the track, depacketizes them and hands the frames to a
+ * listener with their timestamps in milliseconds. Packets may come from the UDP ingest or from interleaved
+ * RTSP; both are serialized on the receiver.
+ * <br />
+ * The first frame of each track is placed at its arrival time since the start of the ingest and later frames
+ * follow the RTP clock, which keeps the tracks of a camera roughly in sync without RTCP.
+ *
+ * @author The Red5 Project
+ */
+public class RTPReceiver implements RTPDepacketizer.Listener {
+
+	private final RTPJitterBuffer buffer;
+
+	private final RTPDepacketizer depacketizer;
+
+	private final int clockRate;
+
+	private volatile IRTPMediaListener listener;
+
+	private volatile boolean closed;
+
+	private long startTime;
+
+	private long baseTime = -1;
+
+	private long lastTimestamp;
+
+	/**
+	 * RTP clock units since the first frame
+	 */
+	private long elapsed;
+
+	/**
+	 * Creates a receiver.
+	 *
+	 * @param depacketizer depacketizer of the payload format
+	 * @param clockRate RTP clock rate of the track
+	 * @param capacity packets the reorder buffer holds
+	 * @param depth packets held before a missing one is given up on
+	 */
+	public RTPReceiver(RTPDepacketizer depacketizer, int clockRate, int capacity, int depth) {
+		this.depacketizer = depacketizer;
+		this.clockRate = clockRate;
+		buffer = new RTPJitterBuffer(capacity, depth);
+	}
+
+	/**
+	 * Starts passing frames on.
+	 *
+	 * @param listener receives the frames
+	 * @param startTime start of the ingest in milliseconds, shared by the tracks of a stream
+	 */
+	public synchronized void start(IRTPMediaListener listener, long startTime) {
+		this.startTime = startTime;
+		this.listener = listener;
+	}
+
+	/**
+	 * Stops the receiver, packets received later are dropped like those received before the start.
+	 */
+	public void close() {
+		closed = true;
+		listener = null;
+	}
+
+	public boolean isClosed() {
+		return closed;
+	}
+
+	/**
+	 * Handles a packet received over UDP.
+	 *
+	 * @param in buffer holding the packet
+	 */
+	public synchronized void packetReceived(IoBuffer in) {
+		if (!closed && listener != null && buffer.add(in)) {
+			drain();
+		}
+	}
+
+	/**
+	 * Handles a packet received interleaved in the RTSP connection.
+	 *
+	 * @param src array holding the packet
+	 * @param offset start of the packet
+	 * @param length packet length
+	 */
+	public synchronized void packetReceived(byte[] src, int offset, int length) {
+		if (!closed && listener != null && buffer.add(src, offset, length)) {
+			drain();
+		}
+	}
+
+	private void drain() {
+		RTPBuffer packet;
+		while ((packet = buffer.poll()) != null) {
+			depacketizer.depacketize(packet, this);
+		}
+	}
+
+	/** {@inheritDoc} */
+	public void frameReceived(byte dataType, long timestamp, IoBuffer body) {
+		IRTPMediaListener target = listener;
+		if (target == null) {
+			return;
+		}
+		if (baseTime == -1) {
+			baseTime = Math.max(System.currentTimeMillis() - startTime, 0);
+			lastTimestamp = timestamp;
+		}
+		// the difference as a signed 32 bit value steps over the wrap of the RTP clock
+		elapsed += (int) (timestamp - lastTimestamp);
+		lastTimestamp = timestamp;
+		long time = baseTime + elapsed * 1000 / clockRate;
+		target.mediaReceived(dataType, (int) Math.max(time, 0), body);
+	}
+
+	/**
+	 * @return reorder buffer of the track, for its counters
+	 */
+	public RTPJitterBuffer getBuffer() {
+		return buffer;
+	}
+
+}
@@ -0,0 +1,414 @@
+/*
+ * RED5 Open Source Flash Server - http://code.google.com/p/red5/
+ *
+ * Copyright 2006-2012 by respective authors (see below). All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.red5.server.net.rtsp;
+
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.xml.bind.DatatypeConverter;
+
+import org.apache.mina.core.service.IoHandlerAdapter;
+import org.apache.mina.core.session.AttributeKey;
+import org.apache.mina.core.session.IoSession;
+import org.red5.server.api.IServer;
+import org.red5.server.api.scope.IBroadcastScope;
+import org.red5.server.api.scope.IGlobalScope;
+import org.red5.server.api.scope.IScope;
+import org.red5.server.api.service.IStreamSecurityService;
+import org.red5.server.api.stream.IStreamPublishSecurity;
+import org.red5.server.net.rtp.AACDepacketizer;
+import org.red5.server.net.rtp.H264Depacketizer;
+import org.red5.server.net.rtp.RTPBroadcastStream;
+import org.red5.server.net.rtp.RTPDepacketizer;
+import org.red5.server.net.rtp.RTPIngest;
+import org.red5.server.net.rtp.RTPReceiver;
+import org.red5.server.stream.IProviderService;
+import org.red5.server.util.ScopeUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Accepts streams pushed by encoders and cameras with ANNOUNCE, SETUP and RECORD and publishes them as live
+ * broadcast streams. The request URL names the scope and the stream, <tt>rtsp://host/app/room/name</tt>
+ * publishes <tt>name</tt> in <tt>app/room</tt>.
+ * <br />
+ * H.264 and AAC tracks are accepted, over UDP through the {@link RTPIngest} or interleaved in the RTSP
+ * connection. One RTSP connection carries one stream; closing the connection ends it.
+ *
+ * @author The Red5 Project
+ */
+public class RTSPIngestHandler extends IoHandlerAdapter {
+
+	private static final Logger log = LoggerFactory.getLogger(RTSPIngestHandler.class);
+
+	private static final AttributeKey INGEST_KEY = new AttributeKey(RTSPIngestHandler.class, "ingest");
+
+	private IServer server;
+
+	private RTPIngest rtpIngest;
+
+	private String globalScope = "default";
+
+	/**
+	 * Packets held per track for reordering
+	 */
+	private int bufferCapacity = 256;
+
+	/**
+	 * Packets received after a gap before the missing packet is given up on
+	 */
+	private int bufferDepth = 32;
+
+	public void setServer(IServer server) {
+		this.server = server;
+	}
+
+	/**
+	 * @param rtpIngest UDP ingest, without one only interleaved transport is offered
+	 */
+	public void setRtpIngest(RTPIngest rtpIngest) {
+		this.rtpIngest = rtpIngest;
+	}
+
+	public void setGlobalScope(String globalScope) {
+		this.globalScope = globalScope;
+	}
+
+	public void setBufferCapacity(int bufferCapacity) {
+		this.bufferCapacity = bufferCapacity;
+	}
+
+	public void setBufferDepth(int bufferDepth) {
+		this.bufferDepth = bufferDepth;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void messageReceived(IoSession session, Object message) throws Exception {
+		if (message instanceof InterleavedPacket) {
+			Ingest ingest = (Ingest) session.getAttribute(INGEST_KEY);
+			InterleavedPacket packet = (InterleavedPacket) message;
+			RTPReceiver receiver = ingest != null ? ingest.channels.get(packet.getChannel()) : null;
+			if (receiver != null) {
+				receiver.packetReceived(packet.getData(), 0, packet.getData().length);
+			}
+			return;
+		}
+		if (!(message instanceof RTSPRequest)) {
+			return;
+		}
+		RTSPRequest request = (RTSPRequest) message;
+		log.debug("RTSP request: {} {}", request.getVerb(), request.getUrl());
+		RTSPResponse response;
+		try {
+			switch (request.getVerb()) {
+				case OPTIONS:
+					response = new RTSPResponse();
+					response.setCode(RTSPCode.OK);
+					response.setHeader("Public", "OPTIONS, ANNOUNCE, SETUP, RECORD, TEARDOWN");
+					break;
+				case ANNOUNCE:
+					response = announce(session, request);
+					break;
+				case SETUP:
+					response = setup(session, request);
+					break;
+				case RECORD:
+					response = record(session, request);
+					break;
+				case TEARDOWN:
+					close(session);
+					response = new RTSPResponse();
+					response.setCode(RTSPCode.OK);
+					break;
+				default:
+					response = RTSPResponse.errorResponse(RTSPCode.MethodNotAllowed);
+			}
+		} catch (Exception e) {
+			log.warn("RTSP request failed: {} {}", new Object[] { request.getVerb(), request.getUrl(), e });
+			response = RTSPResponse.errorResponse(RTSPCode.InternalServerError);
+		}
+		response.setHeader("CSeq", request.getHeader("CSeq", "0"));
+		response.setCommonHeaders();
+		session.write(response);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void sessionClosed(IoSession session) throws Exception {
+		close(session);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void exceptionCaught(IoSession session, Throwable cause) throws Exception {
+		log.warn("RTSP error from {}, closing", session.getRemoteAddress(), cause);
+		session.close(true);
+	}
+
+	/**
+	 * Resolves the target of the stream and remembers its session description.
+	 */
+	private RTSPResponse announce(IoSession session, RTSPRequest request) {
+		if (!"application/sdp".equalsIgnoreCase(request.getHeader("Content-Type"))) {
+			return RTSPResponse.errorResponse(RTSPCode.UnsupportedMediaType);
+		}
+		URL url = request.getUrl();
+		String path = url != null ? url.getPath() : "";
+		while (path.endsWith("/")) {
+			path = path.substring(0, path.length() - 1);
+		}
+		int index = path.lastIndexOf('/');
+		if (index < 1) {
+			return RTSPResponse.errorResponse(RTSPCode.NotFound);
+		}
+		String name = path.substring(index + 1);
+		IScope scope = null;
+		IGlobalScope global = server.getGlobal(globalScope);
+		if (global != null) {
+			scope = ScopeUtils.resolveScope(global, path.substring(1, index));
+		}
+		if (scope == null) {
+			log.info("RTSP ingest scope not found: {}", path);
+			return RTSPResponse.errorResponse(RTSPCode.NotFound);
+		}
+		if (!isPublishAllowed(scope, name)) {
+			log.info("RTSP ingest of {} in {} not allowed", name, scope.getName());
+			return RTSPResponse.errorResponse(RTSPCode.Forbidden);
+		}
+		IBroadcastScope broadcastScope = scope.getBroadcastScope(name);
+		if (broadcastScope != null && broadcastScope.getClientBroadcastStream() != null) {
+			log.info("Stream {} is already published", name);
+			return RTSPResponse.errorResponse(RTSPCode.Forbidden);
+		}
+		close(session);
+		Ingest ingest = new Ingest(RTSPSession.create().getId(), scope, name, SessionDescription.parse(request.getBuffer().toString()));
+		session.setAttribute(INGEST_KEY, ingest);
+		RTSPResponse response = new RTSPResponse();
+		response.setCode(RTSPCode.OK);
+		return response;
+	}
+
+	/**
+	 * Creates the receiver of a track and routes its packets to it.
+	 */
+	private RTSPResponse setup(IoSession session, RTSPRequest request) {
+		Ingest ingest = (Ingest) session.getAttribute(INGEST_KEY);
+		if (ingest == null) {
+			return RTSPResponse.errorResponse(RTSPCode.MethodNotValidInThisState);
+		}
+		SessionDescription.Media media = ingest.description.getMedia(String.valueOf(request.getUrl()));
+		if (media == null) {
+			return RTSPResponse.errorResponse(RTSPCode.NotFound);
+		}
+		RTPDepacketizer depacketizer = createDepacketizer(media);
+		if (depacketizer == null) {
+			log.info("Unsupported RTP encoding: {}", media.getEncoding());
+			return RTSPResponse.errorResponse(RTSPCode.UnsupportedMediaType);
+		}
+		String header = request.getHeader("Transport");
+		if (header == null) {
+			return RTSPResponse.errorResponse(RTSPCode.BadRequest);
+		}
+		RTSPTransport transport = new RTSPTransport(header.split(",")[0]);
+		RTPReceiver receiver = new RTPReceiver(depacketizer, media.getClockRate(), bufferCapacity, bufferDepth);
+		if (transport.getLowerTransport() == RTSPTransport.LowerTransport.TCP) {
+			if (transport.getInterleaved() == null) {
+				return RTSPResponse.errorResponse(RTSPCode.UnsupportedTransport);
+			}
+			ingest.channels.put(Integer.valueOf(transport.getInterleaved().split("-")[0]), receiver);
+		} else {
+			if (rtpIngest == null || transport.getClientPort()[0] == 0) {
+				return RTSPResponse.errorResponse(RTSPCode.UnsupportedTransport);
+			}
+			InetSocketAddress source = new InetSocketAddress(((InetSocketAddress) session.getRemoteAddress()).getAddress(), transport
+					.getClientPort()[0]);
+			rtpIngest.register(source, receiver);
+			ingest.sources.put(source, receiver);
+			transport.setServerPort(new int[] { rtpIngest.getPort(), rtpIngest.getPort() + 1 });
+		}
+		ingest.receivers.add(receiver);
+		RTSPResponse response = new RTSPResponse();
+		response.setCode(RTSPCode.OK);
+		response.setHeader("Session", ingest.id);
+		response.setHeader("Transport", transport.toString());
+		return response;
+	}
+
+	/**
+	 * Publishes the stream and starts the receivers.
+	 */
+	private RTSPResponse record(IoSession session, RTSPRequest request) {
+		Ingest ingest = (Ingest) session.getAttribute(INGEST_KEY);
+		if (ingest == null || ingest.receivers.isEmpty()) {
+			return RTSPResponse.errorResponse(RTSPCode.MethodNotValidInThisState);
+		}
+		if (!ingest.id.equals(request.getHeader("Session", ingest.id).split(";")[0].trim())) {
+			return RTSPResponse.errorResponse(RTSPCode.SessionNotFound);
+		}
+		if (ingest.stream == null && !ingest.start()) {
+			return RTSPResponse.errorResponse(RTSPCode.Forbidden);
+		}
+		RTSPResponse response = new RTSPResponse();
+		response.setCode(RTSPCode.OK);
+		response.setHeader("Session", ingest.id);
+		return response;
+	}
+
+	private void close(IoSession session) {
+		Ingest ingest = (Ingest) session.removeAttribute(INGEST_KEY);
+		if (ingest != null) {
+			ingest.close();
+		}
+	}
+
+	/**
+	 * Asks the publish security handlers of the scope, like a live publish from a client.
+	 */
+	private static boolean isPublishAllowed(IScope scope, String name) {
+		IStreamSecurityService security = (IStreamSecurityService) ScopeUtils.getScopeService(scope, IStreamSecurityService.class);
+		if (security != null) {
+			Set<IStreamPublishSecurity> handlers = security.getStreamPublishSecurity();
+			for (IStreamPublishSecurity handler : handlers) {
+				if (!handler.isPublishAllowed(scope, name, "live")) {
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @return depacketizer for the encoding of a track, null if unsupported
+	 */
+	private static RTPDepacketizer createDepacketizer(SessionDescription.Media media) {
+		String encoding = media.getEncoding();
+		if ("H264".equalsIgnoreCase(encoding)) {
+			byte[] sps = null;
+			byte[] pps = null;
+			String sets = media.getParameter("sprop-parameter-sets");
+			if (sets != null) {
+				String[] parts = sets.split(",");
+				sps = DatatypeConverter.parseBase64Binary(parts[0]);
+				if (parts.length > 1) {
+					pps = DatatypeConverter.parseBase64Binary(parts[1]);
+				}
+			}
+			return new H264Depacketizer(sps, pps);
+		}
+		if ("MPEG4-GENERIC".equalsIgnoreCase(encoding) && media.getParameter("config") != null) {
+			String mode = media.getParameter("mode");
+			if (mode != null && !"AAC-hbr".equalsIgnoreCase(mode) && !"AAC-lbr".equalsIgnoreCase(mode)) {
+				return null;
+			}
+			return new AACDepacketizer(DatatypeConverter.parseHexBinary(media.getParameter("config")), getInt(media, "sizelength", 13),
+					getInt(media, "indexlength", 3), getInt(media, "indexdeltalength", 3));
+		}
+		return null;
+	}
+
+	private static int getInt(SessionDescription.Media media, String name, int defaultValue) {
+		String value = media.getParameter(name);
+		return value != null ? Integer.parseInt(value) : defaultValue;
+	}
+
+	/**
+	 * Stream pushed over one RTSP connection.
+	 */
+	private class Ingest {
+
+		final String id;
+
+		final IScope scope;
+
+		final String name;
+
+		final SessionDescription description;
+
+		final List<RTPReceiver> receivers = new ArrayList<RTPReceiver>();
+
+		/**
+		 * UDP sources registered with the RTP ingest
+		 */
+		final Map<InetSocketAddress, RTPReceiver> sources = new ConcurrentHashMap<InetSocketAddress, RTPReceiver>();
+
+		/**
+		 * Receivers by interleaved channel
+		 */
+		final Map<Integer, RTPReceiver> channels = new ConcurrentHashMap<Integer, RTPReceiver>();
+
+		RTPBroadcastStream stream;
+
+		Ingest(String id, IScope scope, String name, SessionDescription description) {
+			this.id = id;
+			this.scope = scope;
+			this.name = name;
+			this.description = description;
+		}
+
+		boolean start() {
+			IProviderService providerService = (IProviderService) scope.getContext().getBean(IProviderService.BEAN_NAME);
+			RTPBroadcastStream stream = new RTPBroadcastStream();
+			stream.setScope(scope);
+			stream.setName(name);
+			stream.setPublishedName(name);
+			stream.start();
+			if (!providerService.registerBroadcastStream(scope, name, stream)) {
+				log.info("Stream {} could not be registered", name);
+				return false;
+			}
+			IBroadcastScope broadcastScope = (IBroadcastScope) providerService.getLiveProviderInput(scope, name, true);
+			broadcastScope.setClientBroadcastStream(stream);
+			stream.startPublishing();
+			this.stream = stream;
+			// all tracks share the time base
+			long startTime = System.currentTimeMillis();
+			for (RTPReceiver receiver : receivers) {
+				receiver.start(stream, startTime);
+			}
+			log.info("RTSP ingest of {} started with {} tracks", name, receivers.size());
+			return true;
+		}
+
+		void close() {
+			for (RTPReceiver receiver : receivers) {
+				receiver.close();
+			}
+			if (rtpIngest != null) {
+				for (Map.Entry<InetSocketAddress, RTPReceiver> entry : sources.entrySet()) {
+					rtpIngest.unregister(entry.getKey(), entry.getValue());
+				}
+			}
+			if (stream != null) {
+				IProviderService providerService = (IProviderService) scope.getContext().getBean(IProviderService.BEAN_NAME);
+				stream.stop();
+				providerService.unregisterBroadcastStream(scope, name, stream);
+				log.info("RTSP ingest of {} stopped", name);
+			}
+			RTSPSession.close(id);
+		}
+
+	}
+
+}
@@ -0,0 +1,91 @@
+/*
+ * RED5 Open Source Flash Server - http://code.google.com/p/red5/
+ *
+ * Copyright 2006-2012 by respective authors (see below). All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.red5.server.net.rtsp;
+
+import java.net.InetSocketAddress;
+
+import org.apache.mina.transport.socket.nio.NioSocketAcceptor;
+import org.red5.server.net.rtp.RTPIngest;
+import org.red5.server.net.rtsp.filter.RTSPServerFilters;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * RTSP listener for stream ingest, together with the UDP ingest the tracks are sent to.
+ *
+ * @author The Red5 Project
+ */
+public class RTSPIngestTransport {
+
+	private static final Logger log = LoggerFactory.getLogger(RTSPIngestTransport.class);
+
+	private String address;
+
+	private int port = 8554;
+
+	private RTSPIngestHandler handler;
+
+	private RTPIngest rtpIngest;
+
+	private NioSocketAcceptor acceptor;
+
+	public void setAddress(String address) {
+		if ("*".equals(address) || "0.0.0.0".equals(address)) {
+			address = null;
+		}
+		this.address = address;
+	}
+
+	public void setPort(int port) {
+		this.port = port;
+	}
+
+	public void setHandler(RTSPIngestHandler handler) {
+		this.handler = handler;
+	}
+
+	public void setRtpIngest(RTPIngest rtpIngest) {
+		this.rtpIngest = rtpIngest;
+	}
+
+	public void start() throws Exception {
+		if (rtpIngest != null) {
+			rtpIngest.start();
+		}
+		acceptor = new NioSocketAcceptor();
+		acceptor.setFilterChainBuilder(new RTSPServerFilters());
+		acceptor.setHandler(handler);
+		acceptor.setReuseAddress(true);
+		acceptor.getSessionConfig().setTcpNoDelay(true);
+		acceptor.bind(address == null ? new InetSocketAddress(port) : new InetSocketAddress(address, port));
+		log.info("RTSP ingest listening on port {}", port);
+	}
+
+	public void stop() {
+		if (acceptor != null) {
+			acceptor.unbind();
+			acceptor.dispose();
+			acceptor = null;
+		}
+		if (rtpIngest != null) {
+			rtpIngest.stop();
+		}
+	}
+
+}
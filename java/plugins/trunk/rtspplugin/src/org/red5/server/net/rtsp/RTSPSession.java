@@ -95,8 +95,7 @@ public class RTSPSession {
 		if (id == null)
 			return null;
 
-		long key = Long.valueOf(id);
-		return sessions.get(key);
+		return sessions.get(id);
 	}
 
 	/**
@@ -106,8 +105,7 @@ public class RTSPSession {
 	 *        Session identifier
 	 */
 	static public void close(String id) {
-		long key = Long.valueOf(id);
-		close(key);
+		sessions.remove(id);
 	}
 
 	/**
@@ -117,7 +115,7 @@ public class RTSPSession {
 	 *        the session ID
 	 */
 	static public void close(long id) {
-		sessions.remove(id);
+		close(String.valueOf(id));
 	}
 
 	protected RTSPSession(String sessionId) {
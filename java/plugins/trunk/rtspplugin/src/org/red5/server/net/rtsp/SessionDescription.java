@@ -0,0 +1,184 @@
+/*
+ * RED5 Open Source Flash Server - http://code.google.com/p/red5/
+ *
+ * Copyright 2006-2012 by respective authors (see below). All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.red5.server.net.rtsp;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The parts of an SDP session description (RFC 4566) needed to receive its RTP media: per media section the
+ * payload type, the <tt>rtpmap</tt>, the <tt>fmtp</tt> parameters and the control URL.
+ *
+ * @author The Red5 Project
+ */
+public class SessionDescription {
+
+	private final List<Media> media = new ArrayList<Media>();
+
+	/**
+	 * Parses a session description.
+	 *
+	 * @param sdp session description
+	 * @return parsed description
+	 */
+	public static SessionDescription parse(String sdp) {
+		SessionDescription description = new SessionDescription();
+		Media current = null;
+		for (String line : sdp.split("\r?\n")) {
+			line = line.trim();
+			if (line.startsWith("m=")) {
+				// m=<media> <port> <proto> <fmt> ...
+				String[] parts = line.substring(2).split(" ");
+				current = new Media(parts[0]);
+				if (parts.length > 3) {
+					current.payloadType = parseInt(parts[3], -1);
+				}
+				description.media.add(current);
+			} else if (current != null && line.startsWith("a=rtpmap:")) {
+				// a=rtpmap:<payload type> <encoding name>/<clock rate>[/<channels>]
+				String[] parts = line.substring(9).split(" ", 2);
+				if (parts.length == 2 && parseInt(parts[0], -2) == current.payloadType) {
+					String[] format = parts[1].split("/");
+					current.encoding = format[0];
+					if (format.length > 1) {
+						current.clockRate = parseInt(format[1], 0);
+					}
+					if (format.length > 2) {
+						current.channels = parseInt(format[2], 1);
+					}
+				}
+			} else if (current != null && line.startsWith("a=fmtp:")) {
+				// a=fmtp:<payload type> <name>=<value>;...
+				String[] parts = line.substring(7).split(" ", 2);
+				if (parts.length == 2 && parseInt(parts[0], -2) == current.payloadType) {
+					for (String parameter : parts[1].split(";")) {
+						int index = parameter.indexOf('=');
+						if (index > 0) {
+							current.parameters.put(parameter.substring(0, index).trim().toLowerCase(), parameter.substring(index + 1).trim());
+						}
+					}
+				}
+			} else if (current != null && line.startsWith("a=control:")) {
+				current.control = line.substring(10);
+			}
+		}
+		return description;
+	}
+
+	private static int parseInt(String value, int defaultValue) {
+		try {
+			return Integer.parseInt(value.trim());
+		} catch (NumberFormatException e) {
+			return defaultValue;
+		}
+	}
+
+	/**
+	 * @return media sections in order
+	 */
+	public List<Media> getMedia() {
+		return Collections.unmodifiableList(media);
+	}
+
+	/**
+	 * Finds the media section a SETUP request refers to.
+	 *
+	 * @param url request URL
+	 * @return media section or null if none matches
+	 */
+	public Media getMedia(String url) {
+		for (Media m : media) {
+			String control = m.control;
+			if (control != null && !"*".equals(control) && (url.equals(control) || url.endsWith('/' + control))) {
+				return m;
+			}
+		}
+		// without control attributes only a single media section can be set up
+		return media.size() == 1 ? media.get(0) : null;
+	}
+
+	/**
+	 * One media section.
+	 */
+	public static class Media {
+
+		private final String type;
+
+		private int payloadType = -1;
+
+		private String encoding;
+
+		private int clockRate;
+
+		private int channels = 1;
+
+		private final Map<String, String> parameters = new HashMap<String, String>();
+
+		private String control;
+
+		Media(String type) {
+			this.type = type;
+		}
+
+		/**
+		 * @return media type, <tt>audio</tt> or <tt>video</tt>
+		 */
+		public String getType() {
+			return type;
+		}
+
+		public int getPayloadType() {
+			return payloadType;
+		}
+
+		/**
+		 * @return encoding name of the rtpmap, null without one
+		 */
+		public String getEncoding() {
+			return encoding;
+		}
+
+		public int getClockRate() {
+			return clockRate;
+		}
+
+		public int getChannels() {
+			return channels;
+		}
+
+		/**
+		 * Returns a format parameter.
+		 *
+		 * @param name parameter name, case insensitive
+		 * @return value or null
+		 */
+		public String getParameter(String name) {
+			return parameters.get(name.toLowerCase());
+		}
+
+		public String getControl() {
+			return control;
+		}
+
+	}
+
+}
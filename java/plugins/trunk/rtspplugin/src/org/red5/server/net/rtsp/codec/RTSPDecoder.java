@@ -30,21 +30,18 @@ package org.red5.server.net.rtsp.codec;
  *                                                                         *
  ***************************************************************************/
 
-import java.io.BufferedReader;
-import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.UnsupportedEncodingException;
 import java.net.MalformedURLException;
 import java.net.URL;
-import java.nio.CharBuffer;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import org.apache.mina.core.buffer.IoBuffer;
 import org.apache.mina.core.session.IoSession;
-import org.apache.mina.filter.codec.ProtocolDecoder;
+import org.apache.mina.filter.codec.CumulativeProtocolDecoder;
 import org.apache.mina.filter.codec.ProtocolDecoderException;
 import org.apache.mina.filter.codec.ProtocolDecoderOutput;
+import org.red5.server.net.rtsp.Handler;
+import org.red5.server.net.rtsp.InterleavedPacket;
 import org.red5.server.net.rtsp.RTSPCode;
 import org.red5.server.net.rtsp.RTSPRequest;
 import org.red5.server.net.rtsp.RTSPResponse;
@@ -53,34 +50,20 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
+ * Decodes RTSP requests and responses as well as the RTP and RTCP packets interleaved in the connection
+ * (<tt>'$'</tt>, channel, 16 bit length, data). Incomplete input is kept by the cumulative decoder until the
+ * rest arrives.
+ * 
  * @author Matteo Merli (matteo.merli@gmail.com)
  */
-public class RTSPDecoder implements ProtocolDecoder {
+public class RTSPDecoder extends CumulativeProtocolDecoder {
+
+	private static Logger log = LoggerFactory.getLogger(RTSPDecoder.class);
 
 	/**
-	 * State enumerator that indicates the reached state in the RTSP message
-	 * decoding process.
+	 * Largest accepted command line plus headers
 	 */
-	public enum ReadState {
-		/** Unrecoverable error occurred */
-		Failed,
-		/** Trying to resync */
-		Sync,
-		/** Waiting for a command */
-		Ready,
-		/** Reading interleaved packet */
-		Packet,
-		/** Reading command (request or command line) */
-		Command,
-		/** Reading headers */
-		Header,
-		/** Reading body (entity) */
-		Body,
-		/** Fully formed message */
-		Dispatch
-	}
-
-	private static Logger log = LoggerFactory.getLogger(RTSPDecoder.class);
+	private static final int MAX_HEADER_SIZE = 64 * 1024;
 
 	private static final Pattern rtspRequestPattern = Pattern
 			.compile("([A-Z_]+) ([^ ]+) RTSP/1.0");
@@ -92,187 +75,140 @@ public class RTSPDecoder implements ProtocolDecoder {
 			.compile("([a-zA-Z\\-]+[0-9]?):\\s?(.*)");
 
 	/**
-	 * Do the parsing on the incoming stream. If the stream does not contain the
-	 * entire RTSP message wait for other data to arrive, before dispatching the
-	 * message.
-	 * 
+	 * Parses rtsp URLs without registering a protocol handler with the JVM
 	 */
-	public void decode(IoSession session, IoBuffer buffer,
-			ProtocolDecoderOutput out) throws ProtocolDecoderException {
-		BufferedReader reader = null;
-		try {
-			reader = new BufferedReader(new InputStreamReader(buffer
-					.asInputStream(), "US-ASCII"));
-		} catch (UnsupportedEncodingException e1) {
-		}
+	private static final Handler rtspHandler = new Handler();
 
-		// Retrieve status from session
-		ReadState state = (ReadState) session.getAttribute("state");
-		if (state == null)
-			state = ReadState.Command;
-		RTSPMessage rtspMessage = (RTSPMessage) session
-				.getAttribute("rtspMessage");
-
-		try {
-
-			while (true) {
-
-				if (state != ReadState.Command && state != ReadState.Header)
-					// the "while" loop is only used to read commands and
-					// headers
-					break;
+	/**
+	 * Decodes one interleaved packet or one complete RTSP message.
+	 */
+	@Override
+	protected boolean doDecode(IoSession session, IoBuffer in,
+			ProtocolDecoderOutput out) throws Exception {
+		// skip blank lines between messages
+		while (in.hasRemaining() && (in.get(in.position()) == '\r' || in.get(in.position()) == '\n')) {
+			in.skip(1);
+		}
+		if (!in.hasRemaining()) {
+			return false;
+		}
+		if (in.get(in.position()) == '$') {
+			return decodePacket(in, out);
+		}
+		int start = in.position();
+		int end = findHeadersEnd(in);
+		if (end < 0) {
+			if (in.remaining() > MAX_HEADER_SIZE) {
+				throw new ProtocolDecoderException("RTSP headers too large");
+			}
+			return false;
+		}
+		byte[] head = new byte[end - start];
+		in.get(head);
+		RTSPMessage rtspMessage = parseHead(session, new String(head, "US-ASCII").split("\r?\n"));
+		int contentLength = Integer.parseInt(rtspMessage.getHeader("Content-Length", "0").trim());
+		if (in.remaining() < contentLength) {
+			// wait for the body
+			in.position(start);
+			return false;
+		}
+		if (contentLength > 0) {
+			byte[] body = new byte[contentLength];
+			in.get(body);
+			rtspMessage.appendToBuffer(new StringBuffer(new String(body, "UTF-8")));
+		}
+		out.write(rtspMessage);
+		return true;
+	}
 
-				String line = reader.readLine();
-				if (line == null)
-					// there's no more data in the buffer
-					break;
+	/**
+	 * Reads an interleaved packet once it is complete.
+	 */
+	private boolean decodePacket(IoBuffer in, ProtocolDecoderOutput out) {
+		int start = in.position();
+		if (in.remaining() < 4) {
+			return false;
+		}
+		int length = in.getUnsignedShort(start + 2);
+		if (in.remaining() < 4 + length) {
+			return false;
+		}
+		int channel = in.getUnsigned(start + 1);
+		in.skip(4);
+		byte[] data = new byte[length];
+		in.get(data);
+		out.write(new InterleavedPacket(channel, data));
+		return true;
+	}
 
-				if (line.length() == 0) {
-					// This is the empty line that marks the end
-					// of the headers section
-					state = ReadState.Body;
-					break;
+	/**
+	 * @return position following the empty line that ends the headers, -1 if not received yet
+	 */
+	private static int findHeadersEnd(IoBuffer in) {
+		int limit = in.limit();
+		for (int i = in.position(); i < limit - 1; i++) {
+			if (in.get(i) == '\n') {
+				byte next = in.get(i + 1);
+				if (next == '\n') {
+					return i + 2;
 				}
-
-				switch (state) {
-
-					case Command:
-						// log.debug( "Command line: " + line );
-						if (line.startsWith("RTSP")) {
-							// this is a RTSP response
-							Matcher m = rtspResponsePattern.matcher(line);
-							if (!m.matches())
-								throw new ProtocolDecoderException(
-										"Malformed response line: " + line);
-
-							RTSPCode code = RTSPCode.fromString(m.group(1));
-							rtspMessage = new RTSPResponse();
-							((RTSPResponse) (rtspMessage)).setCode(code);
-							RTSPRequest.Verb verb = (RTSPRequest.Verb) session
-									.getAttribute("lastRequestVerb");
-							((RTSPResponse) (rtspMessage)).setRequestVerb(verb);
-
-						} else {
-							// this is a RTSP request
-							Matcher m = rtspRequestPattern.matcher(line);
-							if (!m.matches())
-								throw new ProtocolDecoderException(
-										"Malformed request line: " + line);
-
-							String verb = m.group(1);
-							String strUrl = m.group(2);
-							URL url = null;
-							if (!strUrl.equalsIgnoreCase("*")) {
-								try {
-									url = new URL(strUrl);
-								} catch (MalformedURLException e) {
-									log.error("", e);
-									url = null;
-									session.setAttribute("state",
-											ReadState.Failed);
-									throw new ProtocolDecoderException(
-											"Invalid URL");
-								}
-							}
-							rtspMessage = new RTSPRequest();
-							((RTSPRequest) rtspMessage).setVerb(verb);
-
-							if (((RTSPRequest) rtspMessage).getVerb() == RTSPRequest.Verb.None) {
-								session.setAttribute("state", ReadState.Failed);
-								throw new ProtocolDecoderException(
-										"Invalid method: " + verb);
-							}
-
-							((RTSPRequest) rtspMessage).setUrl(url);
-						}
-						state = ReadState.Header;
-						break;
-
-					case Header:
-						// this is an header
-						Matcher m = rtspHeaderPattern.matcher(line);
-
-						if (!m.matches())
-							throw new ProtocolDecoderException(
-									"RTSP header not valid");
-
-						rtspMessage.setHeader(m.group(1), m.group(2));
-						break;
-
+				if (next == '\r' && i + 2 < limit && in.get(i + 2) == '\n') {
+					return i + 3;
 				}
 			}
+		}
+		return -1;
+	}
 
-			if (state == ReadState.Body) {
-				// Read the message body
-				int bufferLen = Integer.parseInt(rtspMessage.getHeader(
-						"Content-Length", "0"));
-				if (bufferLen == 0) {
-					// there's no buffer to be read
-					state = ReadState.Dispatch;
-
-				} else {
-					// we have a content buffer to read
-					int bytesToRead = bufferLen - rtspMessage.getBufferSize();
-
-					// if ( bytesToRead < reader. decodeBuf.length() ) {
-					// log.warn( "We are reading more bytes than
-					// Content-Length." );
-					// }
-
-					// read the content buffer
-					CharBuffer bufferContent = CharBuffer.allocate(bytesToRead);
-					reader.read(bufferContent);
-					bufferContent.flip();
-					rtspMessage.appendToBuffer(bufferContent);
-					if (rtspMessage.getBufferSize() >= bufferLen) {
-						// The RTSP message parsing is completed
-						state = ReadState.Dispatch;
-					}
+	private RTSPMessage parseHead(IoSession session, String[] lines) throws ProtocolDecoderException {
+		RTSPMessage rtspMessage;
+		String line = lines[0];
+		if (line.startsWith("RTSP")) {
+			// this is a RTSP response
+			Matcher m = rtspResponsePattern.matcher(line);
+			if (!m.matches())
+				throw new ProtocolDecoderException("Malformed response line: " + line);
+
+			RTSPCode code = RTSPCode.fromString(m.group(1));
+			rtspMessage = new RTSPResponse();
+			((RTSPResponse) (rtspMessage)).setCode(code);
+			RTSPRequest.Verb verb = (RTSPRequest.Verb) session.getAttribute("lastRequestVerb");
+			((RTSPResponse) (rtspMessage)).setRequestVerb(verb);
+		} else {
+			// this is a RTSP request
+			Matcher m = rtspRequestPattern.matcher(line);
+			if (!m.matches())
+				throw new ProtocolDecoderException("Malformed request line: " + line);
+
+			String verb = m.group(1);
+			String strUrl = m.group(2);
+			URL url = null;
+			if (!strUrl.equalsIgnoreCase("*")) {
+				try {
+					url = new URL(null, strUrl, rtspHandler);
+				} catch (MalformedURLException e) {
+					log.error("", e);
+					throw new ProtocolDecoderException("Invalid URL");
 				}
 			}
-		} catch (IOException e) {
-			/*
-			 * error on input stream should not happen since the input stream is
-			 * coming from a bytebuffer.
-			 */
-			log.error("", e);
-			return;
-
-		} finally {
-			try {
-				reader.close();
-			} catch (Exception e) {
+			rtspMessage = new RTSPRequest();
+			((RTSPRequest) rtspMessage).setVerb(verb);
+			if (((RTSPRequest) rtspMessage).getVerb() == RTSPRequest.Verb.None) {
+				throw new ProtocolDecoderException("Invalid method: " + verb);
 			}
+			((RTSPRequest) rtspMessage).setUrl(url);
 		}
+		for (int i = 1; i < lines.length; i++) {
+			if (lines[i].length() == 0) {
+				continue;
+			}
+			Matcher m = rtspHeaderPattern.matcher(lines[i]);
+			if (!m.matches())
+				throw new ProtocolDecoderException("RTSP header not valid");
 
-		if (state == ReadState.Dispatch) {
-			// The message is already formed
-			// send it
-			session.removeAttribute("state");
-			session.removeAttribute("rtspMessage");
-			out.write(rtspMessage);
-			return;
+			rtspMessage.setHeader(m.group(1), m.group(2));
 		}
-
-		// log.debug( "INCOMPLETE MESSAGE \n" + rtspMessage );
-
-		// Save attributes in session
-		session.setAttribute("state", state);
-		session.setAttribute("rtspMessage", rtspMessage);
-	}
-
-	/*
-	 * (non-Javadoc)
-	 * 
-	 * @see org.apache.mina.filter.codec.ProtocolDecoder#dispose(org.apache.mina.common.IoSession)
-	 */
-	public void dispose(IoSession session) throws Exception {
-		// Do nothing
+		return rtspMessage;
 	}
 
-	/** {@inheritDoc} */
-    public void finishDecode(IoSession session, ProtocolDecoderOutput out)
-			throws Exception {
-		// TODO Auto-generated method stub	
-	}	
 }
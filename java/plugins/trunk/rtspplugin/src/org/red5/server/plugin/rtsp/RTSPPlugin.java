@@ -0,0 +1,68 @@
+/*
+ * RED5 Open Source Flash Server - http://code.google.com/p/red5/
+ *
+ * Copyright 2006-2012 by respective authors (see below). All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.red5.server.plugin.rtsp;
+
+import org.red5.logging.Red5LoggerFactory;
+import org.red5.server.net.rtsp.RTSPIngestHandler;
+import org.red5.server.net.rtsp.RTSPIngestTransport;
+import org.red5.server.plugin.Red5Plugin;
+import org.slf4j.Logger;
+import org.springframework.context.support.FileSystemXmlApplicationContext;
+
+/**
+ * Accepts RTSP/RTP streams from encoders and cameras and publishes them as live streams.
+ *
+ * @author The Red5 Project
+ */
+public class RTSPPlugin extends Red5Plugin {
+
+	private static Logger log = Red5LoggerFactory.getLogger(RTSPPlugin.class);
+
+	private FileSystemXmlApplicationContext configContext;
+
+	private RTSPIngestTransport transport;
+
+	public void doStart() throws Exception {
+		log.debug("Start");
+		try {
+			configContext = new FileSystemXmlApplicationContext(new String[] { "${red5.root}/plugins/rtsp.xml" }, true);
+		} catch (Exception e) {
+			configContext = new FileSystemXmlApplicationContext(new String[] { "classpath:/rtsp.xml" }, true);
+		}
+		((RTSPIngestHandler) configContext.getBean("rtspIngestHandler")).setServer(server);
+		transport = (RTSPIngestTransport) configContext.getBean("rtspIngestTransport");
+		transport.start();
+	}
+
+	public void doStop() throws Exception {
+		log.debug("Stop");
+		if (transport != null) {
+			transport.stop();
+		}
+		if (configContext != null) {
+			configContext.close();
+		}
+	}
+
+	@Override
+	public String getName() {
+		return "rtspPlugin";
+	}
+
+}
@@ -0,0 +1,116 @@
+/*
+ * RED5 Open Source Flash Server - http://code.google.com/p/red5/
+ *
+ * Copyright 2006-2012 by respective authors (see below). All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.red5.server.net.rtp;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.mina.core.buffer.IoBuffer;
+import org.junit.Assert;
+import org.junit.Test;
+import org.red5.io.IoConstants;
+import org.red5.server.net.rtp.H264DepacketizerTest.Tag;
+
+/**
+ * Feeds AAC-hbr packets to the AAC depacketizer and checks the FLV tags it builds.
+ */
+public class AACDepacketizerTest {
+
+	static final byte[] CONFIG = { 0x12, 0x10 };
+
+	private final List<Tag> tags = new ArrayList<Tag>();
+
+	private final RTPDepacketizer.Listener listener = new RTPDepacketizer.Listener() {
+		public void frameReceived(byte dataType, long timestamp, IoBuffer body) {
+			tags.add(new Tag(dataType, timestamp, body));
+		}
+	};
+
+	private final AACDepacketizer depacketizer = new AACDepacketizer(CONFIG, 13, 3, 3);
+
+	private int sequence = 500;
+
+	@Test
+	public void testAccessUnits() {
+		byte[] first = H264DepacketizerTest.nal(0x21, 200);
+		byte[] second = H264DepacketizerTest.nal(0x21, 150);
+		send(44100, hbr(first, second));
+		Assert.assertEquals(3, tags.size());
+		Tag config = tags.get(0);
+		Assert.assertEquals(IoConstants.TYPE_AUDIO, config.dataType);
+		Assert.assertEquals(44100, config.timestamp);
+		Assert.assertArrayEquals(new byte[] { (byte) 0xaf, 0x00, 0x12, 0x10 }, config.body);
+		assertFrame(tags.get(1), 44100, first);
+		// the second access unit follows one frame of samples later
+		assertFrame(tags.get(2), 44100 + 1024, second);
+		// the sequence header is sent once
+		byte[] third = H264DepacketizerTest.nal(0x21, 180);
+		send(44100 + 2048, hbr(third));
+		Assert.assertEquals(4, tags.size());
+		assertFrame(tags.get(3), 44100 + 2048, third);
+	}
+
+	@Test
+	public void testFragment() {
+		byte[] unit = H264DepacketizerTest.nal(0x21, 300);
+		byte[] payload = hbr(unit);
+		// the AU header announces more data than the packet carries
+		send(1024, Arrays.copyOf(payload, payload.length - 100));
+		Assert.assertEquals(1, tags.size());
+		byte[] next = H264DepacketizerTest.nal(0x21, 120);
+		send(2048, hbr(next));
+		Assert.assertEquals(2, tags.size());
+		assertFrame(tags.get(1), 2048, next);
+	}
+
+	private void send(long timestamp, byte[] payload) {
+		RTPBuffer packet = new RTPBuffer();
+		byte[] data = H264DepacketizerTest.packet(sequence++, timestamp, true, payload);
+		Assert.assertTrue(packet.read(data, 0, data.length));
+		depacketizer.depacketize(packet, listener);
+	}
+
+	private static void assertFrame(Tag tag, long timestamp, byte[] unit) {
+		Assert.assertEquals(IoConstants.TYPE_AUDIO, tag.dataType);
+		Assert.assertEquals(timestamp, tag.timestamp);
+		Assert.assertEquals((byte) 0xaf, tag.body[0]);
+		Assert.assertEquals(0x01, tag.body[1]);
+		Assert.assertArrayEquals(unit, Arrays.copyOfRange(tag.body, 2, tag.body.length));
+	}
+
+	/**
+	 * @return AAC-hbr payload: 16 bit AU headers, 13 bits of size and 3 bits of index, followed by the units
+	 */
+	static byte[] hbr(byte[]... units) {
+		IoBuffer buffer = IoBuffer.allocate(1024).setAutoExpand(true);
+		buffer.putShort((short) (units.length * 16));
+		for (byte[] unit : units) {
+			buffer.putShort((short) (unit.length << 3));
+		}
+		for (byte[] unit : units) {
+			buffer.put(unit);
+		}
+		buffer.flip();
+		byte[] payload = new byte[buffer.remaining()];
+		buffer.get(payload);
+		return payload;
+	}
+
+}
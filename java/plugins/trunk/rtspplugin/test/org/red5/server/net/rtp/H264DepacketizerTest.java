@@ -0,0 +1,271 @@
+/*
+ * RED5 Open Source Flash Server - http://code.google.com/p/red5/
+ *
+ * Copyright 2006-2012 by respective authors (see below). All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.red5.server.net.rtp;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.mina.core.buffer.IoBuffer;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.red5.io.IoConstants;
+
+/**
+ * Feeds single NAL unit, STAP-A and FU-A packets to the H.264 depacketizer and checks the FLV tags it builds.
+ */
+public class H264DepacketizerTest {
+
+	static final byte[] SPS = { 0x67, 0x42, (byte) 0xc0, 0x1e, (byte) 0xda, 0x02 };
+
+	static final byte[] PPS = { 0x68, (byte) 0xce, 0x3c, (byte) 0x80 };
+
+	private final List<Tag> tags = new ArrayList<Tag>();
+
+	private final RTPDepacketizer.Listener listener = new RTPDepacketizer.Listener() {
+		public void frameReceived(byte dataType, long timestamp, IoBuffer body) {
+			tags.add(new Tag(dataType, timestamp, body));
+		}
+	};
+
+	private int sequence;
+
+	@Before
+	public void setUp() {
+		sequence = 1000;
+	}
+
+	@Test
+	public void testSingleNal() {
+		H264Depacketizer depacketizer = new H264Depacketizer(SPS, PPS);
+		byte[] idr = nal(0x65, 100);
+		send(depacketizer, 3000, true, idr);
+		byte[] slice = nal(0x41, 50);
+		send(depacketizer, 6000, true, slice);
+		Assert.assertEquals(3, tags.size());
+		assertSequenceHeader(tags.get(0), 3000);
+		assertFrame(tags.get(1), 3000, true, idr);
+		assertFrame(tags.get(2), 6000, false, slice);
+	}
+
+	@Test
+	public void testStapA() {
+		// parameter sets only in the stream, aggregated with the IDR slice
+		H264Depacketizer depacketizer = new H264Depacketizer(null, null);
+		byte[] idr = nal(0x65, 80);
+		send(depacketizer, 3000, true, stapA(SPS, PPS, idr));
+		Assert.assertEquals(2, tags.size());
+		assertSequenceHeader(tags.get(0), 3000);
+		assertFrame(tags.get(1), 3000, true, idr);
+		// unchanged parameter sets are not sent again
+		byte[] slice = nal(0x41, 20);
+		send(depacketizer, 6000, true, stapA(SPS, PPS, slice));
+		Assert.assertEquals(3, tags.size());
+		assertFrame(tags.get(2), 6000, false, slice);
+	}
+
+	@Test
+	public void testFuA() {
+		H264Depacketizer depacketizer = new H264Depacketizer(SPS, PPS);
+		byte[] idr = nal(0x65, 3000);
+		List<byte[]> fragments = fuA(idr, 1200);
+		Assert.assertEquals(3, fragments.size());
+		for (int i = 0; i < fragments.size(); i++) {
+			send(depacketizer, 3000, i == fragments.size() - 1, fragments.get(i));
+		}
+		Assert.assertEquals(2, tags.size());
+		assertFrame(tags.get(1), 3000, true, idr);
+	}
+
+	@Test
+	public void testMissingMarker() {
+		// the marker packet of a frame is not needed when the next frame follows without a gap
+		H264Depacketizer depacketizer = new H264Depacketizer(SPS, PPS);
+		byte[] idr = nal(0x65, 100);
+		send(depacketizer, 3000, false, idr);
+		byte[] slice = nal(0x41, 50);
+		send(depacketizer, 6000, true, slice);
+		Assert.assertEquals(3, tags.size());
+		assertFrame(tags.get(1), 3000, true, idr);
+		assertFrame(tags.get(2), 6000, false, slice);
+	}
+
+	@Test
+	public void testLostFragment() {
+		H264Depacketizer depacketizer = new H264Depacketizer(SPS, PPS);
+		byte[] idr = nal(0x65, 100);
+		send(depacketizer, 3000, true, idr);
+		List<byte[]> fragments = fuA(nal(0x41, 3000), 1200);
+		send(depacketizer, 6000, false, fragments.get(0));
+		sequence++;
+		send(depacketizer, 6000, true, fragments.get(2));
+		// the damaged frame is dropped, and so are the frames depending on it
+		send(depacketizer, 9000, true, nal(0x41, 50));
+		Assert.assertEquals(2, tags.size());
+		byte[] next = nal(0x65, 100);
+		send(depacketizer, 12000, true, next);
+		Assert.assertEquals(3, tags.size());
+		assertFrame(tags.get(2), 12000, true, next);
+	}
+
+	@Test
+	public void testLostLastPacket() {
+		H264Depacketizer depacketizer = new H264Depacketizer(SPS, PPS);
+		send(depacketizer, 3000, true, nal(0x65, 100));
+		// two slices, the second one carrying the marker is lost
+		send(depacketizer, 6000, false, nal(0x41, 50));
+		sequence++;
+		// the timestamp change flushes the frame, which must not go out truncated
+		send(depacketizer, 9000, true, nal(0x41, 50));
+		for (Tag tag : tags) {
+			Assert.assertTrue("Truncated frame sent", tag.timestamp != 6000);
+		}
+		Assert.assertEquals(2, tags.size());
+		byte[] next = nal(0x65, 100);
+		send(depacketizer, 12000, true, next);
+		Assert.assertEquals(3, tags.size());
+		assertFrame(tags.get(2), 12000, true, next);
+	}
+
+	@Test
+	public void testWaitKeyFrame() {
+		// frames before the first IDR frame cannot be decoded
+		H264Depacketizer depacketizer = new H264Depacketizer(SPS, PPS);
+		send(depacketizer, 3000, true, nal(0x41, 50));
+		Assert.assertTrue(tags.isEmpty());
+		send(depacketizer, 6000, true, nal(0x65, 100));
+		Assert.assertEquals(2, tags.size());
+	}
+
+	private void send(RTPDepacketizer depacketizer, long timestamp, boolean marker, byte[] payload) {
+		RTPBuffer packet = new RTPBuffer();
+		byte[] data = packet(sequence++, timestamp, marker, payload);
+		Assert.assertTrue(packet.read(data, 0, data.length));
+		depacketizer.depacketize(packet, listener);
+	}
+
+	private static void assertSequenceHeader(Tag tag, long timestamp) {
+		Assert.assertEquals(IoConstants.TYPE_VIDEO, tag.dataType);
+		Assert.assertEquals(timestamp, tag.timestamp);
+		byte[] body = tag.body;
+		Assert.assertEquals(0x17, body[0]);
+		Assert.assertEquals(0x00, body[1]);
+		// AVCDecoderConfigurationRecord: version, profile, compatibility, level
+		Assert.assertEquals(1, body[5]);
+		Assert.assertEquals(SPS[1], body[6]);
+		Assert.assertEquals(SPS[3], body[8]);
+		Assert.assertEquals(SPS.length, (body[11] & 0xff) << 8 | body[12] & 0xff);
+		Assert.assertArrayEquals(SPS, Arrays.copyOfRange(body, 13, 13 + SPS.length));
+		int offset = 13 + SPS.length;
+		Assert.assertEquals(1, body[offset]);
+		Assert.assertEquals(PPS.length, (body[offset + 1] & 0xff) << 8 | body[offset + 2] & 0xff);
+		Assert.assertArrayEquals(PPS, Arrays.copyOfRange(body, offset + 3, body.length));
+	}
+
+	private static void assertFrame(Tag tag, long timestamp, boolean keyFrame, byte[] nal) {
+		Assert.assertEquals(IoConstants.TYPE_VIDEO, tag.dataType);
+		Assert.assertEquals(timestamp, tag.timestamp);
+		byte[] body = tag.body;
+		Assert.assertEquals(keyFrame ? 0x17 : 0x27, body[0]);
+		Assert.assertEquals(0x01, body[1]);
+		Assert.assertEquals(5 + 4 + nal.length, body.length);
+		Assert.assertEquals(nal.length, IoBuffer.wrap(body, 5, 4).getInt());
+		Assert.assertArrayEquals(nal, Arrays.copyOfRange(body, 9, body.length));
+	}
+
+	/**
+	 * @return NAL unit of the given header byte, filled with a counter
+	 */
+	static byte[] nal(int header, int length) {
+		byte[] nal = new byte[length];
+		nal[0] = (byte) header;
+		for (int i = 1; i < length; i++) {
+			nal[i] = (byte) i;
+		}
+		return nal;
+	}
+
+	static byte[] stapA(byte[]... nals) {
+		IoBuffer buffer = IoBuffer.allocate(1024).setAutoExpand(true);
+		buffer.put((byte) 0x78);
+		for (byte[] nal : nals) {
+			buffer.putShort((short) nal.length).put(nal);
+		}
+		buffer.flip();
+		byte[] payload = new byte[buffer.remaining()];
+		buffer.get(payload);
+		return payload;
+	}
+
+	/**
+	 * Splits a NAL unit into FU-A payloads of at most the given size.
+	 */
+	static List<byte[]> fuA(byte[] nal, int size) {
+		List<byte[]> fragments = new ArrayList<byte[]>();
+		int indicator = (nal[0] & 0xe0) | 28;
+		for (int offset = 1; offset < nal.length; offset += size) {
+			int length = Math.min(size, nal.length - offset);
+			byte[] fragment = new byte[2 + length];
+			fragment[0] = (byte) indicator;
+			fragment[1] = (byte) (nal[0] & 0x1f);
+			if (offset == 1) {
+				fragment[1] |= 0x80;
+			}
+			if (offset + length == nal.length) {
+				fragment[1] |= 0x40;
+			}
+			System.arraycopy(nal, offset, fragment, 2, length);
+			fragments.add(fragment);
+		}
+		return fragments;
+	}
+
+	/**
+	 * @return RTP packet of payload type 96
+	 */
+	static byte[] packet(int sequence, long timestamp, boolean marker, byte[] payload) {
+		IoBuffer buffer = IoBuffer.allocate(12 + payload.length);
+		buffer.put((byte) 0x80);
+		buffer.put((byte) (marker ? 0x80 | 96 : 96));
+		buffer.putShort((short) sequence);
+		buffer.putInt((int) timestamp);
+		buffer.putInt(0x12345678);
+		buffer.put(payload);
+		return buffer.array();
+	}
+
+	static class Tag {
+
+		final byte dataType;
+
+		final long timestamp;
+
+		final byte[] body;
+
+		Tag(byte dataType, long timestamp, IoBuffer body) {
+			this.dataType = dataType;
+			this.timestamp = timestamp;
+			this.body = new byte[body.remaining()];
+			body.get(this.body);
+		}
+
+	}
+
+}
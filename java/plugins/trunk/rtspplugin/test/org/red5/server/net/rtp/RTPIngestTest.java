@@ -0,0 +1,210 @@
+/*
+ * RED5 Open Source Flash Server - http://code.google.com/p/red5/
+ *
+ * Copyright 2006-2012 by respective authors (see below). All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.red5.server.net.rtp;
+
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.mina.core.buffer.IoBuffer;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.red5.io.IoConstants;
+
+/**
+ * Runs the UDP ingest on loopback: a camera sends an H.264 and an AAC track from two ports and the tags come
+ * out of the receivers registered for them.
+ */
+public class RTPIngestTest {
+
+	private InetAddress loopback;
+
+	private RTPIngest ingest;
+
+	private DatagramSocket video;
+
+	private DatagramSocket audio;
+
+	private final Listener listener = new Listener();
+
+	@Before
+	public void setUp() throws Exception {
+		loopback = InetAddress.getByName("127.0.0.1");
+		ingest = new RTPIngest();
+		ingest.setAddress("127.0.0.1");
+		ingest.setPort(0);
+		ingest.setEventThreads(2);
+		ingest.start();
+		video = new DatagramSocket(0, loopback);
+		audio = new DatagramSocket(0, loopback);
+	}
+
+	@After
+	public void tearDown() {
+		video.close();
+		audio.close();
+		ingest.stop();
+	}
+
+	@Test
+	public void testIngest() throws Exception {
+		RTPReceiver videoReceiver = new RTPReceiver(new H264Depacketizer(H264DepacketizerTest.SPS, H264DepacketizerTest.PPS), 90000,
+				64, 8);
+		RTPReceiver audioReceiver = new RTPReceiver(new AACDepacketizer(AACDepacketizerTest.CONFIG, 13, 3, 3), 44100, 64, 8);
+		ingest.register((InetSocketAddress) video.getLocalSocketAddress(), videoReceiver);
+		ingest.register((InetSocketAddress) audio.getLocalSocketAddress(), audioReceiver);
+		Assert.assertEquals(2, ingest.getSourceCount());
+		long startTime = System.currentTimeMillis();
+		videoReceiver.start(listener, startTime);
+		audioReceiver.start(listener, startTime);
+		// a key frame in three fragments, sent out of order, then a frame 40 ms later
+		byte[] idr = H264DepacketizerTest.nal(0x65, 3000);
+		List<byte[]> fragments = H264DepacketizerTest.fuA(idr, 1200);
+		send(video, H264DepacketizerTest.packet(10, 90000, false, fragments.get(0)));
+		send(video, H264DepacketizerTest.packet(12, 90000, true, fragments.get(2)));
+		send(video, H264DepacketizerTest.packet(11, 90000, false, fragments.get(1)));
+		byte[] slice = H264DepacketizerTest.nal(0x41, 400);
+		send(video, H264DepacketizerTest.packet(13, 90000 + 3600, true, slice));
+		byte[] unit = H264DepacketizerTest.nal(0x21, 200);
+		send(audio, H264DepacketizerTest.packet(7, 0, true, AACDepacketizerTest.hbr(unit)));
+		Tag header = listener.next(IoConstants.TYPE_VIDEO);
+		Assert.assertEquals(0x00, header.body[1]);
+		Tag key = listener.next(IoConstants.TYPE_VIDEO);
+		assertFrame(key, 0x17, idr);
+		Tag inter = listener.next(IoConstants.TYPE_VIDEO);
+		assertFrame(inter, 0x27, slice);
+		Assert.assertEquals(40, inter.timestamp - key.timestamp);
+		Tag config = listener.next(IoConstants.TYPE_AUDIO);
+		Assert.assertEquals(0x00, config.body[1]);
+		Tag frame = listener.next(IoConstants.TYPE_AUDIO);
+		Assert.assertArrayEquals(unit, Arrays.copyOfRange(frame.body, 2, frame.body.length));
+		Assert.assertEquals(4, videoReceiver.getBuffer().getReceived());
+		Assert.assertEquals(0, videoReceiver.getBuffer().getLost());
+	}
+
+	@Test
+	public void testRouting() throws Exception {
+		RTPReceiver receiver = new RTPReceiver(new H264Depacketizer(H264DepacketizerTest.SPS, H264DepacketizerTest.PPS), 90000, 64, 8);
+		ingest.register((InetSocketAddress) video.getLocalSocketAddress(), receiver);
+		receiver.start(listener, System.currentTimeMillis());
+		// a source nobody registered
+		send(audio, H264DepacketizerTest.packet(1, 0, true, H264DepacketizerTest.nal(0x65, 100)));
+		// RTCP goes to the port above
+		byte[] report = new byte[] { (byte) 0x80, (byte) 200, 0, 6, 0x12, 0x34, 0x56, 0x78 };
+		video.send(new DatagramPacket(report, report.length, loopback, ingest.getPort() + 1));
+		send(video, H264DepacketizerTest.packet(1, 3000, true, H264DepacketizerTest.nal(0x65, 100)));
+		listener.next(IoConstants.TYPE_VIDEO);
+		listener.next(IoConstants.TYPE_VIDEO);
+		await(new Condition() {
+			public boolean done() {
+				return ingest.getUnknownPackets() == 1 && ingest.getControlPackets() == 1;
+			}
+		});
+		// the RTSP session ends: the receiver is closed and the source unregistered
+		receiver.close();
+		ingest.unregister((InetSocketAddress) video.getLocalSocketAddress(), receiver);
+		Assert.assertEquals(0, ingest.getSourceCount());
+		send(video, H264DepacketizerTest.packet(2, 6000, true, H264DepacketizerTest.nal(0x65, 100)));
+		await(new Condition() {
+			public boolean done() {
+				return ingest.getUnknownPackets() == 2;
+			}
+		});
+		Assert.assertTrue(listener.tags.isEmpty());
+		Assert.assertEquals(1, receiver.getBuffer().getReceived());
+	}
+
+	private void send(DatagramSocket socket, byte[] data) throws Exception {
+		socket.send(new DatagramPacket(data, data.length, loopback, ingest.getPort()));
+	}
+
+	private static void assertFrame(Tag tag, int frameType, byte[] nal) {
+		Assert.assertEquals(frameType, tag.body[0] & 0xff);
+		Assert.assertEquals(nal.length, IoBuffer.wrap(tag.body, 5, 4).getInt());
+		Assert.assertArrayEquals(nal, Arrays.copyOfRange(tag.body, 9, tag.body.length));
+	}
+
+	private static void await(Condition condition) throws InterruptedException {
+		long end = System.currentTimeMillis() + 2000;
+		while (!condition.done()) {
+			Assert.assertTrue("Timed out", System.currentTimeMillis() < end);
+			Thread.sleep(10);
+		}
+	}
+
+	private interface Condition {
+
+		boolean done();
+
+	}
+
+	private static class Tag {
+
+		final byte dataType;
+
+		final int timestamp;
+
+		final byte[] body;
+
+		Tag(byte dataType, int timestamp, IoBuffer body) {
+			this.dataType = dataType;
+			this.timestamp = timestamp;
+			this.body = new byte[body.remaining()];
+			body.get(this.body);
+		}
+
+	}
+
+	private static class Listener implements IRTPMediaListener {
+
+		final BlockingQueue<Tag> tags = new LinkedBlockingQueue<Tag>();
+
+		public void mediaReceived(byte dataType, int timestamp, IoBuffer body) {
+			tags.add(new Tag(dataType, timestamp, body));
+		}
+
+		/**
+		 * @return next tag of the given track; the tracks are received on different threads
+		 */
+		Tag next(byte dataType) throws InterruptedException {
+			long end = System.currentTimeMillis() + 2000;
+			while (System.currentTimeMillis() < end) {
+				for (Tag tag : tags) {
+					if (tag.dataType == dataType) {
+						tags.remove(tag);
+						return tag;
+					}
+				}
+				Thread.sleep(10);
+			}
+			Assert.fail("No tag received");
+			return null;
+		}
+
+	}
+
+}
@@ -0,0 +1,178 @@
+/*
+ * RED5 Open Source Flash Server - http://code.google.com/p/red5/
+ *
+ * Copyright 2006-2012 by respective authors (see below). All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.red5.server.net.rtp;
+
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Sends RTP packets over loopback UDP and feeds what arrives to the jitter buffer the way the ingest does.
+ */
+public class RTPJitterBufferTest {
+
+	private static final int SSRC = 0x12345678;
+
+	private DatagramSocket receiver;
+
+	private DatagramSocket sender;
+
+	private RTPJitterBuffer buffer;
+
+	private final byte[] received = new byte[RTPBuffer.MAX_PACKET_SIZE];
+
+	@Before
+	public void setUp() throws Exception {
+		receiver = new DatagramSocket(0, InetAddress.getByName("127.0.0.1"));
+		receiver.setSoTimeout(2000);
+		sender = new DatagramSocket();
+		buffer = new RTPJitterBuffer(16, 4);
+	}
+
+	@After
+	public void tearDown() {
+		sender.close();
+		receiver.close();
+	}
+
+	@Test
+	public void testReorder() throws Exception {
+		Assert.assertTrue(transfer(100));
+		Assert.assertTrue(transfer(102));
+		Assert.assertTrue(transfer(101));
+		Assert.assertTrue(transfer(103));
+		Assert.assertEquals(sequence(100, 101, 102, 103), drain());
+		Assert.assertEquals(4, buffer.getReceived());
+		Assert.assertEquals(0, buffer.getLost());
+	}
+
+	@Test
+	public void testLate() throws Exception {
+		Assert.assertTrue(transfer(100));
+		Assert.assertTrue(transfer(101));
+		Assert.assertEquals(sequence(100, 101), drain());
+		// already handed out, behind the next expected sequence number
+		Assert.assertFalse(transfer(100));
+		Assert.assertEquals(1, buffer.getLate());
+		// duplicate of a held packet
+		Assert.assertTrue(transfer(103));
+		Assert.assertFalse(transfer(103));
+		Assert.assertEquals(2, buffer.getLate());
+	}
+
+	@Test
+	public void testLoss() throws Exception {
+		Assert.assertTrue(transfer(200));
+		Assert.assertEquals(sequence(200), drain());
+		// 201 never arrives
+		Assert.assertTrue(transfer(202));
+		Assert.assertTrue(transfer(203));
+		Assert.assertTrue(transfer(204));
+		Assert.assertNull("Waits for the missing packet", buffer.poll());
+		Assert.assertTrue(transfer(205));
+		Assert.assertEquals(sequence(202, 203, 204, 205), drain());
+		Assert.assertEquals(1, buffer.getLost());
+		// the missing packet shows up after it was given up on
+		Assert.assertFalse(transfer(201));
+		Assert.assertEquals(1, buffer.getLate());
+	}
+
+	@Test
+	public void testWrap() throws Exception {
+		Assert.assertTrue(transfer(65535));
+		Assert.assertTrue(transfer(1));
+		Assert.assertTrue(transfer(0));
+		Assert.assertEquals(sequence(65535, 0, 1), drain());
+		// before the wrap, so late rather than far ahead
+		Assert.assertFalse(transfer(65534));
+		Assert.assertEquals(1, buffer.getLate());
+		Assert.assertEquals(0, buffer.getLost());
+	}
+
+	@Test
+	public void testInvalid() throws Exception {
+		byte[] junk = new byte[20];
+		sender.send(new DatagramPacket(junk, junk.length, receiver.getLocalSocketAddress()));
+		DatagramPacket packet = new DatagramPacket(received, received.length);
+		receiver.receive(packet);
+		Assert.assertFalse(buffer.add(packet.getData(), packet.getOffset(), packet.getLength()));
+		Assert.assertEquals(1, buffer.getInvalid());
+		Assert.assertNull(buffer.poll());
+	}
+
+	/**
+	 * Sends a packet and adds it to the buffer once received.
+	 */
+	private boolean transfer(int sequence) throws Exception {
+		byte[] data = packet(sequence);
+		sender.send(new DatagramPacket(data, data.length, receiver.getLocalSocketAddress()));
+		DatagramPacket packet = new DatagramPacket(received, received.length);
+		receiver.receive(packet);
+		return buffer.add(packet.getData(), packet.getOffset(), packet.getLength());
+	}
+
+	private List<Integer> drain() {
+		List<Integer> sequences = new ArrayList<Integer>();
+		RTPBuffer packet;
+		while ((packet = buffer.poll()) != null) {
+			Assert.assertEquals(SSRC, packet.getSsrc());
+			// the payload carries the sequence number as well
+			int offset = packet.getPayloadOffset();
+			Assert.assertEquals(packet.getSequence(), (packet.getData()[offset] & 0xff) << 8 | packet.getData()[offset + 1] & 0xff);
+			sequences.add(packet.getSequence());
+		}
+		return sequences;
+	}
+
+	private static List<Integer> sequence(int... sequences) {
+		List<Integer> list = new ArrayList<Integer>();
+		for (int sequence : sequences) {
+			list.add(sequence);
+		}
+		return list;
+	}
+
+	private static byte[] packet(int sequence) {
+		byte[] data = new byte[16];
+		data[0] = (byte) 0x80;
+		data[1] = 96;
+		data[2] = (byte) (sequence >> 8);
+		data[3] = (byte) sequence;
+		int timestamp = sequence * 3000;
+		data[4] = (byte) (timestamp >> 24);
+		data[5] = (byte) (timestamp >> 16);
+		data[6] = (byte) (timestamp >> 8);
+		data[7] = (byte) timestamp;
+		data[8] = (byte) (SSRC >> 24);
+		data[9] = (byte) (SSRC >> 16);
+		data[10] = (byte) (SSRC >> 8);
+		data[11] = (byte) SSRC;
+		data[12] = (byte) (sequence >> 8);
+		data[13] = (byte) sequence;
+		return data;
+	}
+
+}
@@ -0,0 +1,195 @@
+/*
+ * RED5 Open Source Flash Server - http://code.google.com/p/red5/
+ *
+ * Copyright 2006-2012 by respective authors (see below). All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.red5.server.net.rtsp.codec;
+
+import java.io.ByteArrayOutputStream;
+import java.net.SocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+
+import org.apache.mina.core.buffer.IoBuffer;
+import org.apache.mina.core.service.DefaultTransportMetadata;
+import org.apache.mina.core.session.IoSessionConfig;
+import org.apache.mina.filter.codec.ProtocolCodecSession;
+import org.apache.mina.filter.codec.ProtocolDecoderException;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.red5.server.net.rtsp.InterleavedPacket;
+import org.red5.server.net.rtsp.RTSPCode;
+import org.red5.server.net.rtsp.RTSPRequest;
+import org.red5.server.net.rtsp.RTSPResponse;
+
+/**
+ * Decodes RTSP messages and interleaved packets, whole and cut into reads at every possible position.
+ */
+public class RTSPDecoderTest {
+
+	private static final String SDP = "v=0\r\no=- 0 0 IN IP4 127.0.0.1\r\ns=test\r\nm=video 0 RTP/AVP 96\r\na=rtpmap:96 H264/90000\r\n";
+
+	private ProtocolCodecSession session;
+
+	private RTSPDecoder decoder;
+
+	@Before
+	public void setUp() {
+		session = new ProtocolCodecSession();
+		// like TCP, a read may end anywhere in a message
+		session.setTransportMetadata(new DefaultTransportMetadata("mina", "dummy", false, true, SocketAddress.class,
+				IoSessionConfig.class, Object.class));
+		decoder = new RTSPDecoder();
+	}
+
+	@Test
+	public void testRequest() throws Exception {
+		byte[] data = announce();
+		List<Object> messages = decode(data, data.length);
+		Assert.assertEquals(1, messages.size());
+		assertAnnounce(messages.get(0));
+	}
+
+	@Test
+	public void testInterleaved() throws Exception {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		out.write(interleaved(0, 12));
+		out.write(announce());
+		// blank lines between messages are skipped
+		out.write("\r\n".getBytes("US-ASCII"));
+		out.write(interleaved(1, 300));
+		byte[] data = out.toByteArray();
+		List<Object> messages = decode(data, data.length);
+		assertInterleaved(messages);
+	}
+
+	@Test
+	public void testFragmented() throws Exception {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		out.write(interleaved(0, 12));
+		out.write(announce());
+		out.write(interleaved(1, 300));
+		byte[] data = out.toByteArray();
+		for (int readSize = 1; readSize < 64; readSize++) {
+			setUp();
+			assertInterleaved(decode(data, readSize));
+		}
+	}
+
+	@Test
+	public void testResponse() throws Exception {
+		byte[] data = "RTSP/1.0 200 OK\r\nCSeq: 3\r\nSession: 1234\r\n\r\n".getBytes("US-ASCII");
+		List<Object> messages = decode(data, 5);
+		Assert.assertEquals(1, messages.size());
+		RTSPResponse response = (RTSPResponse) messages.get(0);
+		Assert.assertEquals(RTSPCode.OK, response.getCode());
+		Assert.assertEquals("3", response.getHeader("CSeq"));
+		Assert.assertEquals("1234", response.getHeader("Session"));
+	}
+
+	@Test
+	public void testHeadersTooLarge() throws Exception {
+		StringBuilder request = new StringBuilder("OPTIONS * RTSP/1.0\r\n");
+		while (request.length() < 70 * 1024) {
+			request.append("X-Padding: 0123456789012345678901234567890123456789\r\n");
+		}
+		byte[] data = request.toString().getBytes("US-ASCII");
+		try {
+			decode(data, 1024);
+			Assert.fail("Headers without an end are not accepted forever");
+		} catch (ProtocolDecoderException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void testMalformed() throws Exception {
+		byte[] data = "HELLO\r\n\r\n".getBytes("US-ASCII");
+		try {
+			decode(data, data.length);
+			Assert.fail("Malformed request line accepted");
+		} catch (ProtocolDecoderException e) {
+			// expected
+		}
+	}
+
+	private List<Object> decode(byte[] data, int readSize) throws Exception {
+		List<Object> messages = new ArrayList<Object>();
+		Queue<Object> queue = session.getDecoderOutputQueue();
+		for (int position = 0; position < data.length; position += readSize) {
+			IoBuffer in = IoBuffer.wrap(data, position, Math.min(readSize, data.length - position)).slice();
+			decoder.decode(session, in, session.getDecoderOutput());
+			Object message;
+			while ((message = queue.poll()) != null) {
+				messages.add(message);
+			}
+		}
+		return messages;
+	}
+
+	private static void assertInterleaved(List<Object> messages) {
+		Assert.assertEquals(3, messages.size());
+		InterleavedPacket first = (InterleavedPacket) messages.get(0);
+		Assert.assertEquals(0, first.getChannel());
+		assertPayload(first.getData(), 12);
+		assertAnnounce(messages.get(1));
+		InterleavedPacket second = (InterleavedPacket) messages.get(2);
+		Assert.assertEquals(1, second.getChannel());
+		assertPayload(second.getData(), 300);
+	}
+
+	private static void assertAnnounce(Object message) {
+		RTSPRequest request = (RTSPRequest) message;
+		Assert.assertEquals(RTSPRequest.Verb.ANNOUNCE, request.getVerb());
+		Assert.assertEquals("/live/room/camera", request.getUrl().getPath());
+		Assert.assertEquals(8554, request.getUrl().getPort());
+		Assert.assertEquals("2", request.getHeader("CSeq"));
+		Assert.assertEquals("application/sdp", request.getHeader("Content-Type"));
+		Assert.assertEquals(SDP, request.getBuffer().toString());
+	}
+
+	private static void assertPayload(byte[] data, int length) {
+		Assert.assertEquals(length, data.length);
+		for (int i = 0; i < length; i++) {
+			Assert.assertEquals((byte) i, data[i]);
+		}
+	}
+
+	private static byte[] announce() throws Exception {
+		byte[] body = SDP.getBytes("UTF-8");
+		String head = "ANNOUNCE rtsp://127.0.0.1:8554/live/room/camera RTSP/1.0\r\nCSeq: 2\r\nContent-Type: application/sdp\r\n"
+				+ "Content-Length: " + body.length + "\r\n\r\n";
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		out.write(head.getBytes("US-ASCII"));
+		out.write(body);
+		return out.toByteArray();
+	}
+
+	private static byte[] interleaved(int channel, int length) {
+		byte[] data = new byte[4 + length];
+		data[0] = '$';
+		data[1] = (byte) channel;
+		data[2] = (byte) (length >> 8);
+		data[3] = (byte) length;
+		for (int i = 0; i < length; i++) {
+			data[4 + i] = (byte) i;
+		}
+		return data;
+	}
+
+}
@@ -26,6 +26,7 @@ import org.apache.catalina.LifecycleState;
 import org.apache.catalina.core.StandardContext;
 import org.red5.logging.Red5LoggerFactory;
 import org.red5.server.api.IApplicationContext;
+import org.red5.server.net.protocol.ClassDescriptor;
 import org.slf4j.Logger;
 import org.springframework.web.context.ConfigurableWebApplicationContext;
 import org.springframework.web.context.WebApplicationContext;
@@ -59,6 +60,8 @@ public class TomcatApplicationContext implements IApplicationContext {
 	 */
 	public void stop() {
 		log.debug("stop");
+		// the class loader is gone once the context is stopped
+		ClassLoader loader = context.getLoader() != null ? context.getLoader().getClassLoader() : null;
 		try {
 			ServletContext servlet = context.getServletContext();
 			Object o = servlet.getAttribute(WebApplicationContext.ROOT_WEB_APPLICATION_CONTEXT_ATTRIBUTE);
@@ -101,6 +104,8 @@ public class TomcatApplicationContext implements IApplicationContext {
     			}
 			}
 		}
+		// drop the serialization details of the application's classes
+		ClassDescriptor.clearCache(loader);
 	}
 
 }
@@ -24,8 +24,10 @@ import java.io.FilenameFilter;
 import java.lang.management.ManagementFactory;
 import java.net.BindException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import javax.management.JMX;
 import javax.management.MBeanServer;
@@ -57,6 +59,7 @@ import org.red5.server.LoaderBase;
 import org.red5.server.api.IApplicationContext;
 import org.red5.server.jmx.mxbeans.ContextLoaderMXBean;
 import org.red5.server.jmx.mxbeans.LoaderMXBean;
+import org.red5.server.net.protocol.ClassDescriptor;
 import org.red5.server.security.IRed5Realm;
 import org.red5.server.util.FileUtil;
 import org.slf4j.Logger;
@@ -159,6 +162,11 @@ public class TomcatLoader extends LoaderBase implements DisposableBean, LoaderMX
 	 */
 	protected List<Valve> valves = new ArrayList<Valve>();
 
+	/**
+	 * Paths of contexts started on their first connection rather than at server start
+	 */
+	protected Set<String> lazyContexts = Collections.emptySet();
+
 	/**
 	 * Add context for path and docbase to current host.
 	 * 
@@ -209,9 +217,14 @@ public class TomcatLoader extends LoaderBase implements DisposableBean, LoaderMX
 	 */
 	@Override
 	public void removeContext(String path) {
+		ClassLoader loader = null;
 		Container[] children = host.findChildren();
 		for (Container c : children) {
 			if (c instanceof StandardContext && c.getName().equals(path)) {
+				// the class loader is gone once the context is stopped
+				if (c.getLoader() != null) {
+					loader = c.getLoader().getClassLoader();
+				}
 				try {
 					((StandardContext) c).stop();
 					host.removeChild(c);
@@ -227,6 +240,8 @@ public class TomcatLoader extends LoaderBase implements DisposableBean, LoaderMX
 		} else {
 			log.warn("Context could not be stopped, it was null for path: {}", path);
 		}
+		// drop the serialization details of the application's classes
+		ClassDescriptor.clearCache(loader);
 	}
 
 	/**
@@ -444,9 +459,10 @@ public class TomcatLoader extends LoaderBase implements DisposableBean, LoaderMX
 						log.debug("Spring parent context key: {}", parentContextKey);
 						//set current threads classloader to the webapp classloader
 						Thread.currentThread().setContextClassLoader(webClassLoader);
-						//create a thread to speed-up application loading
-						Thread thread = new Thread("Launcher:" + servletContext.getContextPath()) {
+						final String contextPath = servletContext.getContextPath();
+						Runnable launcher = new Runnable() {
 							public void run() {
+								long startTime = System.currentTimeMillis();
 								//set thread context classloader to web classloader
 								Thread.currentThread().setContextClassLoader(webClassLoader);
 								//get the web app's parent context
@@ -503,13 +519,21 @@ public class TomcatLoader extends LoaderBase implements DisposableBean, LoaderMX
 										}
 									}
 									appctx.start();
+									setStartupTime(contextPath, System.currentTimeMillis() - startTime);
 								} catch (Throwable e) {
 									throw new RuntimeException("Failed to load webapplication context class", e);
 								}
 							}
 						};
-						thread.setDaemon(true);
-						thread.start();
+						if (lazyContexts.contains(contextPath)) {
+							log.info("Context {} will be started on its first connection", contextPath);
+							addLazyApplication(contextPath, launcher);
+						} else {
+							//create a thread to speed-up application loading
+							Thread thread = new Thread(launcher, "Launcher:" + contextPath);
+							thread.setDaemon(true);
+							thread.start();
+						}
 					} catch (Throwable t) {
 						log.error("Error setting up context: {} due to: {}", servletContext.getContextPath(), t.getMessage());
 						t.printStackTrace();
@@ -682,6 +706,16 @@ public class TomcatLoader extends LoaderBase implements DisposableBean, LoaderMX
 		return result;
 	}
 	
+	/**
+	 * Set the paths of rarely used contexts, which are started on their first connection rather than at server
+	 * start.
+	 * 
+	 * @param lazyContexts context paths, for example <tt>/oflaDemo</tt>
+	 */
+	public void setLazyContexts(Set<String> lazyContexts) {
+		this.lazyContexts = lazyContexts;
+	}
+
 	/**
 	 * Set base host.
 	 * 
@@ -0,0 +1,51 @@
+/*
+ * RED5 Open Source Flash Server - http://code.google.com/p/red5/
+ *
+ * Copyright 2006-2013 by respective authors (see below). All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.red5.server.benchmark;
+
+import org.apache.mina.core.session.DummySession;
+import org.red5.server.api.IConnection.Encoding;
+import org.red5.server.net.rtmp.RTMPMinaConnection;
+import org.red5.server.net.rtmp.codec.RTMP;
+
+/**
+ * Connections for benchmarks. They are in the connected state and write to an in-memory MINA session, which
+ * completes every write immediately, so nothing is sent over the network.
+ *
+ * @author The Red5 Project
+ */
+public final class BenchmarkConnections {
+
+	private BenchmarkConnections() {
+	}
+
+	/**
+	 * Creates a connected connection on an in-memory session.
+	 *
+	 * @param encoding object encoding of the connection
+	 * @return connection
+	 */
+	public static RTMPMinaConnection create(Encoding encoding) {
+		RTMPMinaConnection conn = new RTMPMinaConnection();
+		conn.setIoSession(new DummySession());
+		conn.setStateCode(RTMP.STATE_CONNECTED);
+		conn.getState().setEncoding(encoding);
+		return conn;
+	}
+
+}
@@ -0,0 +1,173 @@
+/*
+ * RED5 Open Source Flash Server - http://code.google.com/p/red5/
+ *
+ * Copyright 2006-2013 by respective authors (see below). All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.red5.server.benchmark;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.Collection;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.openjdk.jmh.infra.BenchmarkParams;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks and writes the results as JMH JSON, by default to <tt>target/benchmarks.json</tt>. All
+ * JMH command line options are accepted, e.g. a pattern to select benchmarks.
+ * <br />
+ * With <tt>-Dbaseline=&lt;file&gt;</tt> the results are compared to an earlier result file; every benchmark
+ * that got worse by more than <tt>-Dthreshold</tt> percent (default 10) is reported as a regression and the
+ * runner exits with status 1. A result file of a known good build is kept as baseline:
+ * <pre>
+ * java -jar target/benchmarks.jar -rff baseline.json
+ * java -Dbaseline=baseline.json -jar target/benchmarks.jar
+ * </pre>
+ *
+ * @author The Red5 Project
+ */
+public class BenchmarkRunner {
+
+	private static final Pattern PARAM = Pattern.compile("\"([^\"]+)\"\\s*:\\s*\"([^\"]*)\"");
+
+	private static final Pattern PARAMS = Pattern.compile("\"params\"\\s*:\\s*\\{([^}]*)\\}");
+
+	private static final Pattern NAME = Pattern.compile("^\\s*:\\s*\"([^\"]+)\"");
+
+	private static final Pattern SCORE = Pattern.compile("\"primaryMetric\"\\s*:\\s*\\{\\s*\"score\"\\s*:\\s*([-+0-9.eE]+)");
+
+	public static void main(String[] args) throws Exception {
+		CommandLineOptions cmdOptions = new CommandLineOptions(args);
+		OptionsBuilder builder = new OptionsBuilder();
+		builder.parent(cmdOptions);
+		if (!cmdOptions.getResultFormat().hasValue()) {
+			builder.resultFormat(ResultFormatType.JSON);
+		}
+		if (!cmdOptions.getResult().hasValue()) {
+			new File("target").mkdirs();
+			builder.result("target/benchmarks.json");
+		}
+		Options options = builder.build();
+		Collection<RunResult> results = new Runner(options).run();
+		String baseline = System.getProperty("baseline");
+		if (baseline != null) {
+			double threshold = Double.parseDouble(System.getProperty("threshold", "10"));
+			if (compare(results, readScores(new File(baseline)), threshold) > 0) {
+				System.exit(1);
+			}
+		}
+	}
+
+	/**
+	 * Prints the change of each result against the baseline.
+	 *
+	 * @param results results of this run
+	 * @param baseline scores of the baseline by key
+	 * @param threshold percentage above which a change for the worse is a regression
+	 * @return number of regressions
+	 */
+	static int compare(Collection<RunResult> results, Map<String, Double> baseline, double threshold) {
+		int regressions = 0;
+		System.out.println();
+		System.out.println("Comparison with baseline (threshold " + threshold + "%):");
+		for (RunResult result : results) {
+			BenchmarkParams params = result.getParams();
+			Map<String, String> values = new TreeMap<String, String>();
+			for (String key : params.getParamsKeys()) {
+				values.put(key, params.getParam(key));
+			}
+			String key = getKey(params.getBenchmark(), values);
+			Double base = baseline.get(key);
+			if (base == null) {
+				System.out.println(String.format("  %-80s new", key));
+				continue;
+			}
+			double score = result.getPrimaryResult().getScore();
+			double change = (score - base) / base * 100;
+			// throughput is better when higher, all other modes measure time
+			boolean worse = "thrpt".equals(params.getMode().shortLabel()) ? change < -threshold : change > threshold;
+			if (worse) {
+				regressions++;
+			}
+			System.out.println(String.format("  %-80s %+8.1f%%%s", key, change, worse ? "  REGRESSION" : ""));
+		}
+		System.out.println(regressions + " regression(s)");
+		return regressions;
+	}
+
+	/**
+	 * Reads the primary scores of a JMH JSON result file.
+	 *
+	 * @param file result file
+	 * @return scores by key
+	 * @throws IOException on read error
+	 */
+	static Map<String, Double> readScores(File file) throws IOException {
+		StringBuilder json = new StringBuilder();
+		Reader reader = new InputStreamReader(new FileInputStream(file), "UTF-8");
+		try {
+			char[] buf = new char[8192];
+			int read;
+			while ((read = reader.read(buf)) != -1) {
+				json.append(buf, 0, read);
+			}
+		} finally {
+			reader.close();
+		}
+		Map<String, Double> scores = new TreeMap<String, Double>();
+		// one record per benchmark and parameter combination
+		String[] records = json.toString().split("\"benchmark\"");
+		for (int i = 1; i < records.length; i++) {
+			Matcher name = NAME.matcher(records[i]);
+			Matcher score = SCORE.matcher(records[i]);
+			if (!name.find() || !score.find()) {
+				continue;
+			}
+			Map<String, String> values = new TreeMap<String, String>();
+			Matcher params = PARAMS.matcher(records[i]);
+			if (params.find()) {
+				Matcher param = PARAM.matcher(params.group(1));
+				while (param.find()) {
+					values.put(param.group(1), param.group(2));
+				}
+			}
+			scores.put(getKey(name.group(1), values), Double.valueOf(score.group(1)));
+		}
+		return scores;
+	}
+
+	private static String getKey(String benchmark, Map<String, String> params) {
+		StringBuilder key = new StringBuilder(benchmark);
+		for (Map.Entry<String, String> param : params.entrySet()) {
+			key.append(key.length() == benchmark.length() ? ':' : ',');
+			key.append(param.getKey()).append('=').append(param.getValue());
+		}
+		return key.toString();
+	}
+
+}
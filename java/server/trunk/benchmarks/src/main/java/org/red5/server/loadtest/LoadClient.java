@@ -0,0 +1,475 @@
+/*
+ * RED5 Open Source Flash Server - http://code.google.com/p/red5/
+ *
+ * Copyright 2006-2013 by respective authors (see below). All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.red5.server.loadtest;
+
+import java.net.InetSocketAddress;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.mina.core.buffer.IoBuffer;
+import org.apache.mina.core.future.ConnectFuture;
+import org.apache.mina.core.future.IoFutureListener;
+import org.apache.mina.core.service.IoHandlerAdapter;
+import org.apache.mina.core.session.IoSession;
+import org.red5.server.api.Red5;
+import org.red5.server.net.rtmp.RTMPMinaConnection;
+import org.red5.server.net.rtmp.codec.RTMP;
+import org.red5.server.net.rtmp.event.BytesRead;
+import org.red5.server.net.rtmp.event.IRTMPEvent;
+import org.red5.server.net.rtmp.event.Invoke;
+import org.red5.server.net.rtmp.event.Ping;
+import org.red5.server.net.rtmp.event.ServerBW;
+import org.red5.server.net.rtmp.event.VideoData;
+import org.red5.server.net.rtmp.message.Constants;
+import org.red5.server.net.rtmp.message.Header;
+import org.red5.server.net.rtmp.message.Packet;
+import org.red5.server.net.rtmp.status.Status;
+import org.red5.server.net.rtmp.status.StatusCodes;
+import org.red5.server.net.rtmp.status.StatusObject;
+import org.red5.server.service.PendingCall;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * One RTMP connection of a load test, either publishing a synthetic H.264 stream or playing one. It speaks the
+ * protocol with the server's own codec: after the plain handshake it connects, creates a stream and publishes
+ * or plays it.
+ * <br />
+ * Each published video frame carries its sequence number and send time behind the AVC packet header, which
+ * is how subscribers measure end-to-end latency and count missing frames. Send times are taken from
+ * {@link System#nanoTime()}, so publishers and subscribers have to run in the same generator.
+ *
+ * @author The Red5 Project
+ */
+public class LoadClient {
+
+	private static final Logger log = LoggerFactory.getLogger(LoadClient.class);
+
+	private static final String CLIENT = "loadClient";
+
+	/**
+	 * Handshake reply of the server: version byte, S1 and S2
+	 */
+	private static final int HANDSHAKE_REPLY_SIZE = 1 + 2 * Constants.HANDSHAKE_SIZE;
+
+	/**
+	 * Offset of the sequence number in a frame, behind frame type, AVC packet type and composition time
+	 */
+	private static final int SEQUENCE_OFFSET = 5;
+
+	/**
+	 * Smallest frame that holds sequence number and send time
+	 */
+	static final int MIN_FRAME_SIZE = SEQUENCE_OFFSET + 16;
+
+	/**
+	 * Bytes queued on a publisher above which frames are skipped
+	 */
+	private static final long MAX_QUEUED_BYTES = 1024 * 1024;
+
+	private static final Random random = new Random();
+
+	private final LoadGenerator generator;
+
+	private final String streamName;
+
+	private final boolean publisher;
+
+	private final LoadStats stats;
+
+	/**
+	 * Protocol state for the codec
+	 */
+	private final ClientConnection conn = new ClientConnection();
+
+	private final IoBuffer in = IoBuffer.allocate(HANDSHAKE_REPLY_SIZE).setAutoExpand(true);
+
+	private volatile IoSession session;
+
+	private boolean handshaking = true;
+
+	private int streamId;
+
+	private long connectStart;
+
+	private long playStart;
+
+	private long publishStart;
+
+	private ScheduledFuture<?> publishJob;
+
+	private long sequence;
+
+	private long lastSequence;
+
+	private long framesSeen;
+
+	private long bytesRead;
+
+	private long lastAck;
+
+	private int window = 2500000;
+
+	private volatile boolean closing;
+
+	public LoadClient(LoadGenerator generator, String streamName, boolean publisher) {
+		this.generator = generator;
+		this.streamName = streamName;
+		this.publisher = publisher;
+		this.stats = generator.getStats();
+	}
+
+	/**
+	 * Opens the connection.
+	 */
+	public void connect() {
+		connectStart = System.nanoTime();
+		ConnectFuture future = generator.getConnector().connect(new InetSocketAddress(generator.getHost(), generator.getPort()));
+		future.addListener(new IoFutureListener<ConnectFuture>() {
+			public void operationComplete(ConnectFuture future) {
+				if (future.isConnected()) {
+					session = future.getSession();
+					session.setAttribute(CLIENT, LoadClient.this);
+					if (closing) {
+						session.close(true);
+					} else {
+						sendHandshake();
+					}
+				} else {
+					log.debug("Connect failed", future.getException());
+					stats.failed.incrementAndGet();
+				}
+			}
+		});
+	}
+
+	/**
+	 * Closes the connection without counting it as lost.
+	 */
+	public void close() {
+		closing = true;
+		stopPublishing();
+		IoSession s = session;
+		if (s != null) {
+			s.close(true);
+		}
+	}
+
+	private void sendHandshake() {
+		// unversioned handshake, the server answers without digests
+		IoBuffer c1 = IoBuffer.allocate(1 + Constants.HANDSHAKE_SIZE);
+		c1.put(RTMPMinaConnection.RTMP_NON_ENCRYPTED);
+		c1.putInt(0);
+		c1.putInt(0);
+		byte[] bytes = new byte[Constants.HANDSHAKE_SIZE - 8];
+		random.nextBytes(bytes);
+		c1.put(bytes);
+		c1.flip();
+		session.write(c1);
+	}
+
+	private synchronized void received(IoBuffer buf) {
+		bytesRead += buf.remaining();
+		in.put(buf);
+		in.flip();
+		if (handshaking) {
+			if (in.remaining() < HANDSHAKE_REPLY_SIZE) {
+				in.compact();
+				return;
+			}
+			in.get();
+			// echo S1 as C2 and skip S2
+			IoBuffer c2 = IoBuffer.allocate(Constants.HANDSHAKE_SIZE);
+			c2.put(in.array(), in.arrayOffset() + in.position(), Constants.HANDSHAKE_SIZE);
+			c2.flip();
+			in.skip(2 * Constants.HANDSHAKE_SIZE);
+			session.write(c2);
+			handshaking = false;
+			conn.setStateCode(RTMP.STATE_CONNECTED);
+			sendConnect();
+		}
+		Red5.setConnectionLocal(conn);
+		// compacts the buffer
+		List<Object> packets = generator.getDecoder().decodeBuffer(conn, in);
+		if (packets != null) {
+			for (Object packet : packets) {
+				if (packet instanceof Packet) {
+					handle((Packet) packet);
+				}
+			}
+		}
+		if (bytesRead - lastAck >= window / 2) {
+			lastAck = bytesRead;
+			write(2, 0, new BytesRead((int) bytesRead));
+		}
+	}
+
+	private void handle(Packet packet) {
+		IRTMPEvent message = packet.getMessage();
+		switch (message.getDataType()) {
+			case Constants.TYPE_INVOKE:
+				handleInvoke((Invoke) message);
+				break;
+			case Constants.TYPE_VIDEO_DATA:
+				if (!publisher) {
+					handleVideo((VideoData) message);
+				}
+				break;
+			case Constants.TYPE_PING:
+				Ping ping = (Ping) message;
+				if (ping.getEventType() == Ping.PING_CLIENT) {
+					write(2, 0, new Ping(Ping.PONG_SERVER, ping.getValue2()));
+				}
+				break;
+			case Constants.TYPE_SERVER_BANDWIDTH:
+				window = ((ServerBW) message).getBandwidth();
+				break;
+			default:
+		}
+	}
+
+	private void handleInvoke(Invoke invoke) {
+		String method = invoke.getCall().getServiceMethodName();
+		Object[] args = invoke.getCall().getArguments();
+		if ("_result".equals(method)) {
+			switch (invoke.getTransactionId()) {
+				case 1:
+					stats.recordConnect(System.nanoTime() - connectStart);
+					sendCommand(2, 0, "createStream");
+					break;
+				case 2:
+					streamId = ((Number) args[0]).intValue();
+					if (publisher) {
+						sendCommand(0, streamId, "publish", streamName, "live");
+					} else {
+						playStart = System.nanoTime();
+						write(2, 0, new Ping(Ping.CLIENT_BUFFER, streamId, 0));
+						sendCommand(0, streamId, "play", streamName, Integer.valueOf(-1));
+					}
+					break;
+				default:
+			}
+		} else if ("_error".equals(method)) {
+			log.debug("Command {} failed: {}", invoke.getTransactionId(), getCode(args));
+			stats.failed.incrementAndGet();
+			close();
+		} else if ("onStatus".equals(method)) {
+			String code = getCode(args);
+			log.debug("Status: {}", code);
+			if (StatusCodes.NS_PUBLISH_START.equals(code)) {
+				startPublishing();
+			} else if (StatusCodes.NS_PUBLISH_BADNAME.equals(code) || StatusCodes.NS_FAILED.equals(code) || StatusCodes.NS_PLAY_FAILED.equals(code)) {
+				stats.failed.incrementAndGet();
+				close();
+			}
+		}
+	}
+
+	private void handleVideo(VideoData video) {
+		IoBuffer data = video.getData();
+		int pos = data.position();
+		// skip the sequence header
+		if (data.remaining() < MIN_FRAME_SIZE || data.get(pos + 1) != 1) {
+			return;
+		}
+		long now = System.nanoTime();
+		long seq = data.getLong(pos + SEQUENCE_OFFSET);
+		long sent = data.getLong(pos + SEQUENCE_OFFSET + 8);
+		stats.framesReceived.incrementAndGet();
+		stats.bytesReceived.addAndGet(data.remaining());
+		if (framesSeen++ == 0) {
+			stats.recordFirstFrame(now - playStart);
+			// the first frame may be the cached keyframe, counting starts with the next one
+			return;
+		}
+		if (framesSeen > 2) {
+			if (seq <= lastSequence) {
+				return;
+			}
+			if (seq > lastSequence + 1) {
+				stats.framesDropped.addAndGet(seq - lastSequence - 1);
+			}
+		}
+		lastSequence = seq;
+		stats.recordLatency(now - sent);
+	}
+
+	private void startPublishing() {
+		publishStart = System.currentTimeMillis();
+		// AVC sequence header with an empty decoder configuration
+		IoBuffer config = IoBuffer.wrap(new byte[] { 0x17, 0, 0, 0, 0, 1, 0x42, 0, 0x1e, (byte) 0xff, (byte) 0xe1, 0, 0, 1, 0, 0 });
+		VideoData header = new VideoData(config);
+		write(getChannelId(streamId) + 1, streamId, header);
+		long period = 1000000L / generator.getFps();
+		publishJob = generator.getScheduler().scheduleAtFixedRate(new Runnable() {
+			public void run() {
+				sendFrame();
+			}
+		}, period, period, TimeUnit.MICROSECONDS);
+		generator.published();
+	}
+
+	private void stopPublishing() {
+		ScheduledFuture<?> job = publishJob;
+		if (job != null) {
+			job.cancel(false);
+		}
+	}
+
+	private void sendFrame() {
+		IoSession s = session;
+		if (s == null || s.getScheduledWriteBytes() > MAX_QUEUED_BYTES) {
+			// the server does not keep up, frames are lost like on a real encoder
+			sequence++;
+			return;
+		}
+		boolean keyFrame = sequence % generator.getKeyFrameInterval() == 0;
+		byte[] frame = new byte[generator.getFrameSize()];
+		frame[0] = (byte) (keyFrame ? 0x17 : 0x27);
+		frame[1] = 1;
+		IoBuffer data = IoBuffer.wrap(frame);
+		data.putLong(SEQUENCE_OFFSET, sequence++);
+		data.putLong(SEQUENCE_OFFSET + 8, System.nanoTime());
+		VideoData video = new VideoData(data);
+		video.setTimestamp((int) (System.currentTimeMillis() - publishStart));
+		write(getChannelId(streamId) + 1, streamId, video);
+		stats.framesSent.incrementAndGet();
+	}
+
+	private void sendCommand(int transactionId, int streamId, String method, Object... args) {
+		PendingCall call = new PendingCall(method, args);
+		Invoke invoke = new Invoke(call);
+		invoke.setTransactionId(transactionId);
+		if (transactionId == 1) {
+			invoke.setConnectionParams(getConnectionParams());
+		}
+		write(streamId == 0 ? 3 : getChannelId(streamId), streamId, invoke);
+	}
+
+	private void sendConnect() {
+		sendCommand(1, 0, "connect");
+	}
+
+	private Map<String, Object> getConnectionParams() {
+		Map<String, Object> params = new HashMap<String, Object>();
+		params.put("app", generator.getApp());
+		params.put("flashVer", "LNX 11,2,202,235");
+		params.put("tcUrl", "rtmp://" + generator.getHost() + ':' + generator.getPort() + '/' + generator.getApp());
+		params.put("fpad", Boolean.FALSE);
+		params.put("capabilities", Integer.valueOf(15));
+		params.put("audioCodecs", Integer.valueOf(3191));
+		params.put("videoCodecs", Integer.valueOf(252));
+		params.put("videoFunction", Integer.valueOf(1));
+		params.put("objectEncoding", Integer.valueOf(0));
+		return params;
+	}
+
+	/**
+	 * Encodes and writes a message; the encoder keeps per connection state, so writes are serialized.
+	 */
+	private synchronized void write(int channelId, int streamId, IRTMPEvent event) {
+		IoSession s = session;
+		if (s == null || s.isClosing()) {
+			return;
+		}
+		Header header = new Header();
+		header.setChannelId(channelId);
+		header.setStreamId(streamId);
+		header.setTimer(event.getTimestamp());
+		header.setDataType(event.getDataType());
+		Red5.setConnectionLocal(conn);
+		IoBuffer out = generator.getEncoder().encodePacket(new Packet(header, event));
+		if (out != null) {
+			s.write(out);
+		}
+	}
+
+	private void closed() {
+		stopPublishing();
+		if (!closing) {
+			stats.disconnected.incrementAndGet();
+		}
+	}
+
+	/**
+	 * First channel of a stream, used for its commands; video goes on the next one.
+	 */
+	private static int getChannelId(int streamId) {
+		return 4 + (streamId - 1) * 5;
+	}
+
+	private static String getCode(Object[] args) {
+		Object info = args.length > 0 ? args[args.length - 1] : null;
+		if (info instanceof Map) {
+			return String.valueOf(((Map<?, ?>) info).get("code"));
+		} else if (info instanceof StatusObject) {
+			return ((StatusObject) info).getCode();
+		} else if (info instanceof Status) {
+			return ((Status) info).getCode();
+		}
+		return String.valueOf(info);
+	}
+
+	/**
+	 * Decoder state of a client. Decoding errors close the socket, there is nothing else to clean up.
+	 */
+	private class ClientConnection extends RTMPMinaConnection {
+
+		@Override
+		public void close() {
+			setStateCode(RTMP.STATE_DISCONNECTED);
+			LoadClient.this.close();
+		}
+
+	}
+
+	/**
+	 * I/O handler shared by all clients.
+	 */
+	static class Handler extends IoHandlerAdapter {
+
+		@Override
+		public void messageReceived(IoSession session, Object message) throws Exception {
+			LoadClient client = (LoadClient) session.getAttribute(CLIENT);
+			if (client != null) {
+				client.received((IoBuffer) message);
+			}
+		}
+
+		@Override
+		public void sessionClosed(IoSession session) throws Exception {
+			LoadClient client = (LoadClient) session.getAttribute(CLIENT);
+			if (client != null) {
+				client.closed();
+			}
+		}
+
+		@Override
+		public void exceptionCaught(IoSession session, Throwable cause) throws Exception {
+			log.debug("Client error", cause);
+			session.close(true);
+		}
+
+	}
+
+}
@@ -0,0 +1,263 @@
+/*
+ * RED5 Open Source Flash Server - http://code.google.com/p/red5/
+ *
+ * Copyright 2006-2013 by respective authors (see below). All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.red5.server.loadtest;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.mina.transport.socket.nio.NioSocketConnector;
+import org.red5.server.net.rtmp.codec.RTMPProtocolDecoder;
+import org.red5.server.net.rtmp.codec.RTMPProtocolEncoder;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+/**
+ * Headless RTMP load generator. It publishes synthetic H.264 streams into a running server and lets a crowd of
+ * subscribers play them over loopback or the network, measuring connect time, time to first frame,
+ * end-to-end latency and dropped frames.
+ * <br />
+ * Options, all optional, are given as <tt>-name value</tt>:
+ * <ul>
+ * <li>host, port, app - server and application, default localhost, 1935 and live</li>
+ * <li>streams - number of publishers, default 1</li>
+ * <li>subscribers - number of players, spread over the streams, default 100</li>
+ * <li>rate - new subscriber connections per second, default 200</li>
+ * <li>duration - seconds the test runs once the first subscriber connects, default 60</li>
+ * <li>fps, bitrate - frame rate and video bit rate in kbit/s of each stream, default 25 and 500</li>
+ * <li>report - directory for the HDR percentile distributions (<tt>.hgrm</tt>)</li>
+ * <li>maxLatency, maxDropRate, minThroughput - release gates on the p99 latency in milliseconds, the
+ * percentage of dropped frames and the frames received per second; the generator exits with status 1 if a
+ * gate fails</li>
+ * </ul>
+ * For example, 10000 viewers of one stream:
+ * <pre>
+ * java -cp target/benchmarks.jar org.red5.server.loadtest.LoadGenerator -subscribers 10000 -rate 500 -report target/loadtest
+ * </pre>
+ *
+ * @author The Red5 Project
+ */
+public class LoadGenerator {
+
+	private final Map<String, String> options;
+
+	private final LoadStats stats = new LoadStats();
+
+	private final RTMPProtocolEncoder encoder = new RTMPProtocolEncoder();
+
+	private final RTMPProtocolDecoder decoder = new RTMPProtocolDecoder();
+
+	private final List<LoadClient> clients = new ArrayList<LoadClient>();
+
+	private final String host;
+
+	private final int port;
+
+	private final String app;
+
+	private final int fps;
+
+	private final int frameSize;
+
+	private NioSocketConnector connector;
+
+	private ScheduledExecutorService scheduler;
+
+	private CountDownLatch publishers;
+
+	public LoadGenerator(Map<String, String> options) {
+		this.options = options;
+		host = getOption("host", "localhost");
+		port = getOption("port", 1935);
+		app = getOption("app", "live");
+		fps = getOption("fps", 25);
+		frameSize = Math.max(getOption("bitrate", 500) * 1000 / 8 / fps, LoadClient.MIN_FRAME_SIZE);
+	}
+
+	public static void main(String[] args) throws Exception {
+		Map<String, String> options = new HashMap<String, String>();
+		for (int i = 0; i + 1 < args.length; i += 2) {
+			options.put(args[i].replaceFirst("^-+", ""), args[i + 1]);
+		}
+		LoadGenerator generator = new LoadGenerator(options);
+		boolean passed = generator.run();
+		System.exit(passed ? 0 : 1);
+	}
+
+	/**
+	 * Runs the test and reports the results.
+	 *
+	 * @return true if all gates passed
+	 * @throws Exception on error
+	 */
+	public boolean run() throws Exception {
+		int streams = getOption("streams", 1);
+		int subscribers = getOption("subscribers", 100);
+		int rate = getOption("rate", 200);
+		int duration = getOption("duration", 60);
+		int threads = Runtime.getRuntime().availableProcessors();
+		connector = new NioSocketConnector(threads);
+		connector.setHandler(new LoadClient.Handler());
+		connector.setConnectTimeoutMillis(30000);
+		connector.getSessionConfig().setTcpNoDelay(true);
+		scheduler = Executors.newScheduledThreadPool(threads, new CustomizableThreadFactory("LoadGenerator-"));
+		try {
+			System.out.println(String.format("Publishing %d stream(s) of %d byte frames at %d fps to rtmp://%s:%d/%s", streams, frameSize, fps, host, port, app));
+			publishers = new CountDownLatch(streams);
+			for (int i = 0; i < streams; i++) {
+				start(new LoadClient(this, "loadtest" + i, true));
+			}
+			if (!publishers.await(30, TimeUnit.SECONDS)) {
+				System.out.println("Not all streams could be published");
+				return false;
+			}
+			scheduler.scheduleAtFixedRate(new Runnable() {
+				public void run() {
+					stats.printProgress(System.out);
+				}
+			}, 5, 5, TimeUnit.SECONDS);
+			long start = System.nanoTime();
+			long end = start + TimeUnit.SECONDS.toNanos(duration);
+			// ramp up at the given rate
+			for (int i = 0; i < subscribers && System.nanoTime() < end; i++) {
+				long due = start + i * 1000000000L / rate;
+				long wait = due - System.nanoTime();
+				if (wait > 0) {
+					TimeUnit.NANOSECONDS.sleep(wait);
+				}
+				start(new LoadClient(this, "loadtest" + (i % streams), false));
+			}
+			long wait = end - System.nanoTime();
+			if (wait > 0) {
+				TimeUnit.NANOSECONDS.sleep(wait);
+			}
+		} finally {
+			for (LoadClient client : clients) {
+				client.close();
+			}
+			scheduler.shutdownNow();
+			connector.dispose();
+		}
+		stats.printSummary(System.out);
+		String report = options.get("report");
+		if (report != null) {
+			stats.writeReports(new File(report));
+			System.out.println("HDR reports written to " + report);
+		}
+		return checkGates();
+	}
+
+	private void start(LoadClient client) {
+		clients.add(client);
+		client.connect();
+	}
+
+	private boolean checkGates() {
+		boolean passed = true;
+		double maxLatency = Double.parseDouble(getOption("maxLatency", "0"));
+		if (maxLatency > 0 && stats.getLatency(99) > maxLatency) {
+			System.out.println(String.format("FAILED: p99 latency %.2f ms above %.2f ms", stats.getLatency(99), maxLatency));
+			passed = false;
+		}
+		double maxDropRate = Double.parseDouble(getOption("maxDropRate", "-1"));
+		if (maxDropRate >= 0 && stats.getDropRate() > maxDropRate) {
+			System.out.println(String.format("FAILED: %.3f%% frames dropped, at most %.3f%% allowed", stats.getDropRate(), maxDropRate));
+			passed = false;
+		}
+		double minThroughput = Double.parseDouble(getOption("minThroughput", "0"));
+		if (minThroughput > 0 && stats.getThroughput() < minThroughput) {
+			System.out.println(String.format("FAILED: %.0f frames/s received, at least %.0f expected", stats.getThroughput(), minThroughput));
+			passed = false;
+		}
+		if (stats.failed.get() > 0) {
+			System.out.println(String.format("FAILED: %d connection(s) failed", stats.failed.get()));
+			passed = false;
+		}
+		return passed;
+	}
+
+	/**
+	 * Called by a publisher once the server accepted its stream.
+	 */
+	void published() {
+		publishers.countDown();
+	}
+
+	private String getOption(String name, String defaultValue) {
+		String value = options.get(name);
+		return value != null ? value : defaultValue;
+	}
+
+	private int getOption(String name, int defaultValue) {
+		return Integer.parseInt(getOption(name, String.valueOf(defaultValue)));
+	}
+
+	public LoadStats getStats() {
+		return stats;
+	}
+
+	public NioSocketConnector getConnector() {
+		return connector;
+	}
+
+	public ScheduledExecutorService getScheduler() {
+		return scheduler;
+	}
+
+	public RTMPProtocolEncoder getEncoder() {
+		return encoder;
+	}
+
+	public RTMPProtocolDecoder getDecoder() {
+		return decoder;
+	}
+
+	public String getHost() {
+		return host;
+	}
+
+	public int getPort() {
+		return port;
+	}
+
+	public String getApp() {
+		return app;
+	}
+
+	public int getFps() {
+		return fps;
+	}
+
+	public int getFrameSize() {
+		return frameSize;
+	}
+
+	/**
+	 * @return frames between keyframes, two seconds of video
+	 */
+	public int getKeyFrameInterval() {
+		return fps * 2;
+	}
+
+}
@@ -0,0 +1,210 @@
+/*
+ * RED5 Open Source Flash Server - http://code.google.com/p/red5/
+ *
+ * Copyright 2006-2013 by respective authors (see below). All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.red5.server.loadtest;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+/**
+ * Measurements of a load test. Latencies are recorded in microseconds into HDR histograms, so percentiles
+ * stay exact up to three significant digits however many samples are taken.
+ *
+ * @author The Red5 Project
+ */
+public class LoadStats {
+
+	private final Metric connectTime = new Metric("connect");
+
+	private final Metric firstFrameTime = new Metric("first-frame");
+
+	private final Metric latency = new Metric("latency");
+
+	final AtomicLong connected = new AtomicLong();
+
+	final AtomicLong failed = new AtomicLong();
+
+	final AtomicLong disconnected = new AtomicLong();
+
+	final AtomicLong framesSent = new AtomicLong();
+
+	final AtomicLong framesReceived = new AtomicLong();
+
+	final AtomicLong framesDropped = new AtomicLong();
+
+	final AtomicLong bytesReceived = new AtomicLong();
+
+	private long lastFramesReceived;
+
+	private long lastBytesReceived;
+
+	private long lastReport = System.nanoTime();
+
+	private final long start = lastReport;
+
+	/**
+	 * Records the time from opening the socket to the connect result.
+	 *
+	 * @param nanos elapsed time in nanoseconds
+	 */
+	public void recordConnect(long nanos) {
+		connected.incrementAndGet();
+		connectTime.record(nanos);
+	}
+
+	/**
+	 * Records the time from sending play to the first video frame.
+	 *
+	 * @param nanos elapsed time in nanoseconds
+	 */
+	public void recordFirstFrame(long nanos) {
+		firstFrameTime.record(nanos);
+	}
+
+	/**
+	 * Records the time a frame took from the publisher to a subscriber.
+	 *
+	 * @param nanos elapsed time in nanoseconds
+	 */
+	public void recordLatency(long nanos) {
+		latency.record(nanos);
+	}
+
+	/**
+	 * Prints the rates and latencies since the previous progress line.
+	 *
+	 * @param out stream to print to
+	 */
+	public synchronized void printProgress(PrintStream out) {
+		long now = System.nanoTime();
+		double seconds = (now - lastReport) / 1e9;
+		long frames = framesReceived.get();
+		long bytes = bytesReceived.get();
+		Histogram interval = latency.interval();
+		out.println(String.format("%6.0fs connected: %d failed: %d closed: %d frames/s: %.0f Mbit/s: %.1f dropped: %d latency ms p50: %.1f p99: %.1f max: %.1f",
+				(now - start) / 1e9, connected.get(), failed.get(), disconnected.get(), (frames - lastFramesReceived) / seconds, (bytes - lastBytesReceived) * 8 / seconds / 1e6,
+				framesDropped.get(), interval.getValueAtPercentile(50) / 1000d, interval.getValueAtPercentile(99) / 1000d, interval.getMaxValue() / 1000d));
+		lastReport = now;
+		lastFramesReceived = frames;
+		lastBytesReceived = bytes;
+	}
+
+	/**
+	 * Prints the summary and the percentile distributions.
+	 *
+	 * @param out stream to print to
+	 */
+	public synchronized void printSummary(PrintStream out) {
+		double seconds = (System.nanoTime() - start) / 1e9;
+		out.println();
+		out.println(String.format("connections: %d failed: %d closed: %d", connected.get(), failed.get(), disconnected.get()));
+		out.println(String.format("frames sent: %d received: %d dropped: %d (%.3f%%) throughput: %.0f frames/s", framesSent.get(), framesReceived.get(), framesDropped.get(),
+				getDropRate(), framesReceived.get() / seconds));
+		for (Metric metric : new Metric[] { connectTime, firstFrameTime, latency }) {
+			Histogram histogram = metric.total();
+			out.println();
+			out.println(String.format("%s ms - p50: %.2f p90: %.2f p99: %.2f p99.9: %.2f max: %.2f (%d samples)", metric.name, histogram.getValueAtPercentile(50) / 1000d,
+					histogram.getValueAtPercentile(90) / 1000d, histogram.getValueAtPercentile(99) / 1000d, histogram.getValueAtPercentile(99.9) / 1000d,
+					histogram.getMaxValue() / 1000d, histogram.getTotalCount()));
+		}
+	}
+
+	/**
+	 * Writes the percentile distribution of each metric in milliseconds to <tt>&lt;metric&gt;.hgrm</tt> files, the
+	 * format read by the HdrHistogram plotter.
+	 *
+	 * @param dir report directory
+	 * @throws IOException on write error
+	 */
+	public synchronized void writeReports(File dir) throws IOException {
+		dir.mkdirs();
+		for (Metric metric : new Metric[] { connectTime, firstFrameTime, latency }) {
+			PrintStream out = new PrintStream(new FileOutputStream(new File(dir, metric.name + ".hgrm")), false, "UTF-8");
+			try {
+				metric.total().outputPercentileDistribution(out, 1000d);
+			} finally {
+				out.close();
+			}
+		}
+	}
+
+	/**
+	 * @return percentage of frames missed by subscribers
+	 */
+	public double getDropRate() {
+		long expected = framesReceived.get() + framesDropped.get();
+		return expected > 0 ? framesDropped.get() * 100d / expected : 0;
+	}
+
+	/**
+	 * @return frames received per second over the whole test
+	 */
+	public double getThroughput() {
+		return framesReceived.get() / ((System.nanoTime() - start) / 1e9);
+	}
+
+	/**
+	 * @param percentile percentile
+	 * @return end-to-end latency in milliseconds at the given percentile
+	 */
+	public synchronized double getLatency(double percentile) {
+		return latency.total().getValueAtPercentile(percentile) / 1000d;
+	}
+
+	/**
+	 * Latency metric with a recorder for concurrent recording and the histogram of all intervals.
+	 */
+	private static class Metric {
+
+		final String name;
+
+		final Recorder recorder = new Recorder(3);
+
+		final Histogram total = new Histogram(3);
+
+		Metric(String name) {
+			this.name = name;
+		}
+
+		void record(long nanos) {
+			recorder.recordValue(Math.max(nanos / 1000, 0));
+		}
+
+		/**
+		 * @return values recorded since the previous call, which are added to the total
+		 */
+		Histogram interval() {
+			Histogram interval = recorder.getIntervalHistogram();
+			total.add(interval);
+			return interval;
+		}
+
+		Histogram total() {
+			interval();
+			return total;
+		}
+
+	}
+
+}
@@ -0,0 +1,94 @@
+/*
+ * RED5 Open Source Flash Server - http://code.google.com/p/red5/
+ *
+ * Copyright 2006-2013 by respective authors (see below). All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.red5.server.messaging;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.mina.core.buffer.IoBuffer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.red5.server.api.IConnection.Encoding;
+import org.red5.server.benchmark.BenchmarkConnections;
+import org.red5.server.net.rtmp.RTMPMinaConnection;
+import org.red5.server.net.rtmp.event.VideoData;
+import org.red5.server.stream.OutputStream;
+import org.red5.server.stream.consumer.ConnectionConsumer;
+import org.red5.server.stream.message.RTMPMessage;
+
+/**
+ * Live fan-out of a video frame through an {@link InMemoryPushPushPipe} to subscribers, each of them a
+ * {@link ConnectionConsumer} of its own connection. The measured path ends when the packets are queued on the
+ * in-memory sessions; their encoding is covered by the codec benchmark.
+ *
+ * @author The Red5 Project
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PipeFanOutBenchmark {
+
+	/**
+	 * Number of subscribers of the stream
+	 */
+	@Param({ "1", "10", "100", "1000" })
+	public int subscribers;
+
+	private InMemoryPushPushPipe pipe;
+
+	private IoBuffer frame;
+
+	private int timestamp;
+
+	@Setup(Level.Trial)
+	public void setup() {
+		pipe = new InMemoryPushPushPipe();
+		for (int i = 0; i < subscribers; i++) {
+			RTMPMinaConnection conn = BenchmarkConnections.create(Encoding.AMF0);
+			OutputStream out = conn.createOutputStream(1);
+			pipe.subscribe(new ConnectionConsumer(conn, out.getVideo(), out.getAudio(), out.getData()), null);
+		}
+		byte[] payload = new byte[4096];
+		payload[0] = 0x27;
+		payload[1] = 0x01;
+		frame = IoBuffer.wrap(payload).asReadOnlyBuffer();
+	}
+
+	@Benchmark
+	public void pushVideo() throws IOException {
+		VideoData video = new VideoData(frame.duplicate());
+		timestamp += 40;
+		video.setTimestamp(timestamp);
+		pipe.pushMessage(RTMPMessage.build(video));
+	}
+
+}
@@ -0,0 +1,192 @@
+/*
+ * RED5 Open Source Flash Server - http://code.google.com/p/red5/
+ *
+ * Copyright 2006-2013 by respective authors (see below). All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.red5.server.net.protocol;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.mina.core.buffer.IoBuffer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.red5.io.object.Deserializer;
+import org.red5.io.object.Input;
+import org.red5.io.object.Output;
+import org.red5.io.object.Serializer;
+
+/**
+ * AMF0 and AMF3 serialization of typical invoke payloads through the class descriptor backed inputs and
+ * outputs: a map of mixed values, an array of numbers and strings, and a list of typed objects.
+ *
+ * @author The Red5 Project
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AMFBenchmark {
+
+	@Param({ "AMF0", "AMF3" })
+	public String encoding;
+
+	@Param({ "map", "array", "object" })
+	public String payload;
+
+	private Object value;
+
+	private IoBuffer serialized;
+
+	private IoBuffer buf;
+
+	@Setup(Level.Trial)
+	public void setup() {
+		if ("map".equals(payload)) {
+			value = createMap();
+		} else if ("array".equals(payload)) {
+			value = createArray();
+		} else {
+			value = createQuotes();
+		}
+		buf = IoBuffer.allocate(4096);
+		buf.setAutoExpand(true);
+		IoBuffer out = serialize().flip();
+		serialized = IoBuffer.allocate(out.remaining()).put(out).flip();
+		// make sure the payload survives a round trip before measuring anything
+		if (deserialize() == null) {
+			throw new IllegalStateException("Payload could not be deserialized");
+		}
+	}
+
+	@Benchmark
+	public IoBuffer serialize() {
+		buf.clear();
+		Output output = "AMF3".equals(encoding) ? new AMF3Output(buf) : new AMFOutput(buf);
+		Serializer.serialize(output, value);
+		return buf;
+	}
+
+	@Benchmark
+	public Object deserialize() {
+		IoBuffer in = serialized.duplicate();
+		Input input;
+		if ("AMF3".equals(encoding)) {
+			input = new AMF3Input(in);
+			((org.red5.io.amf3.Input) input).enforceAMF3();
+		} else {
+			input = new AMFInput(in);
+		}
+		return Deserializer.deserialize(input, Object.class);
+	}
+
+	private static Map<String, Object> createMap() {
+		Map<String, Object> map = new HashMap<String, Object>();
+		for (int i = 0; i < 8; i++) {
+			map.put("name" + i, "value" + i);
+			map.put("count" + i, Integer.valueOf(i));
+			map.put("ratio" + i, Double.valueOf(i / 3d));
+		}
+		map.put("enabled", Boolean.TRUE);
+		map.put("created", new Date(1380000000000L));
+		return map;
+	}
+
+	private static Object[] createArray() {
+		Object[] array = new Object[64];
+		for (int i = 0; i < array.length; i++) {
+			array[i] = i % 2 == 0 ? Integer.valueOf(i) : "item" + i;
+		}
+		return array;
+	}
+
+	private static List<Quote> createQuotes() {
+		List<Quote> quotes = new ArrayList<Quote>();
+		for (int i = 0; i < 16; i++) {
+			Quote quote = new Quote();
+			quote.setSymbol("SYM" + i);
+			quote.setPrice(100d + i / 8d);
+			quote.setVolume(1000 * i);
+			quote.setTime(new Date(1380000000000L + i));
+			quotes.add(quote);
+		}
+		return quotes;
+	}
+
+	/**
+	 * Typed object as sent by stock ticker style applications.
+	 */
+	public static class Quote {
+
+		private String symbol;
+
+		private double price;
+
+		private int volume;
+
+		private Date time;
+
+		public String getSymbol() {
+			return symbol;
+		}
+
+		public void setSymbol(String symbol) {
+			this.symbol = symbol;
+		}
+
+		public double getPrice() {
+			return price;
+		}
+
+		public void setPrice(double price) {
+			this.price = price;
+		}
+
+		public int getVolume() {
+			return volume;
+		}
+
+		public void setVolume(int volume) {
+			this.volume = volume;
+		}
+
+		public Date getTime() {
+			return time;
+		}
+
+		public void setTime(Date time) {
+			this.time = time;
+		}
+
+	}
+
+}
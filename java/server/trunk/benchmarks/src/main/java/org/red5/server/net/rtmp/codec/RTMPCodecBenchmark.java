@@ -0,0 +1,151 @@
+/*
+ * RED5 Open Source Flash Server - http://code.google.com/p/red5/
+ *
+ * Copyright 2006-2013 by respective authors (see below). All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.red5.server.net.rtmp.codec;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.mina.core.buffer.IoBuffer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.red5.server.api.IConnection.Encoding;
+import org.red5.server.api.Red5;
+import org.red5.server.benchmark.BenchmarkConnections;
+import org.red5.server.net.rtmp.RTMPMinaConnection;
+import org.red5.server.net.rtmp.event.IRTMPEvent;
+import org.red5.server.net.rtmp.event.Invoke;
+import org.red5.server.net.rtmp.event.VideoData;
+import org.red5.server.net.rtmp.message.Header;
+import org.red5.server.net.rtmp.message.Packet;
+import org.red5.server.service.PendingCall;
+
+/**
+ * RTMP chunk encoding and decoding of video packets of different sizes and of a command. The chunk size is
+ * the protocol default of 128 bytes, so larger packets are split into many chunks.
+ *
+ * @author The Red5 Project
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RTMPCodecBenchmark {
+
+	/**
+	 * Size of the video payload in bytes
+	 */
+	@Param({ "128", "4096", "65536" })
+	public int size;
+
+	private RTMPMinaConnection conn;
+
+	private RTMPProtocolEncoder encoder;
+
+	private RTMPProtocolDecoder decoder;
+
+	private IoBuffer video;
+
+	private IoBuffer encodedVideo;
+
+	private IoBuffer encodedInvoke;
+
+	@Setup(Level.Trial)
+	public void setup() {
+		conn = BenchmarkConnections.create(Encoding.AMF0);
+		Red5.setConnectionLocal(conn);
+		encoder = new RTMPProtocolEncoder();
+		decoder = new RTMPProtocolDecoder();
+		byte[] payload = new byte[size];
+		// inter frame of an h.264 stream
+		payload[0] = 0x27;
+		payload[1] = 0x01;
+		video = IoBuffer.wrap(payload).asReadOnlyBuffer();
+		// a fresh connection writes full headers, so each encoded packet can be decoded on its own
+		encodedVideo = encodePacket(BenchmarkConnections.create(Encoding.AMF0), 6, videoData());
+		encodedInvoke = encodePacket(BenchmarkConnections.create(Encoding.AMF0), 3, invoke());
+		Red5.setConnectionLocal(conn);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		Red5.setConnectionLocal(null);
+	}
+
+	@Benchmark
+	public IoBuffer encodeVideo() {
+		return encoder.encodePacket(packet(6, videoData()));
+	}
+
+	@Benchmark
+	public IoBuffer encodeInvoke() {
+		return encoder.encodePacket(packet(3, invoke()));
+	}
+
+	@Benchmark
+	public List<Object> decodeVideo() {
+		// the decoder compacts its input, a duplicate keeps the encoded packet for the next call
+		return decoder.decodeBuffer(conn, encodedVideo.duplicate());
+	}
+
+	@Benchmark
+	public List<Object> decodeInvoke() {
+		return decoder.decodeBuffer(conn, encodedInvoke.duplicate());
+	}
+
+	private VideoData videoData() {
+		VideoData data = new VideoData(video.duplicate());
+		data.setTimestamp(40);
+		return data;
+	}
+
+	private Invoke invoke() {
+		PendingCall call = new PendingCall("play", new Object[] { "livestream", Integer.valueOf(-2), Integer.valueOf(-1), Boolean.TRUE });
+		Invoke invoke = new Invoke(call);
+		invoke.setTransactionId(4);
+		return invoke;
+	}
+
+	private Packet packet(int channelId, IRTMPEvent event) {
+		Header header = new Header();
+		header.setChannelId(channelId);
+		header.setTimer(event.getTimestamp());
+		header.setStreamId(1);
+		header.setDataType(event.getDataType());
+		return new Packet(header, event);
+	}
+
+	private IoBuffer encodePacket(RTMPMinaConnection connection, int channelId, IRTMPEvent event) {
+		Red5.setConnectionLocal(connection);
+		return encoder.encodePacket(packet(channelId, event));
+	}
+
+}
@@ -0,0 +1,164 @@
+/*
+ * RED5 Open Source Flash Server - http://code.google.com/p/red5/
+ *
+ * Copyright 2006-2013 by respective authors (see below). All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.red5.server.net.rtmpe;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.apache.mina.core.buffer.IoBuffer;
+import org.apache.mina.core.filterchain.IoFilter.NextFilter;
+import org.apache.mina.core.session.DummySession;
+import org.apache.mina.core.session.IdleStatus;
+import org.apache.mina.core.session.IoSession;
+import org.apache.mina.core.write.DefaultWriteRequest;
+import org.apache.mina.core.write.WriteRequest;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.red5.server.net.rtmp.codec.RTMP;
+
+/**
+ * RTMPE throughput of one thread, that is one core, through {@link RTMPEIoFilter}. Bytes per second are the
+ * operations per second times <tt>size</tt>. Each written buffer is reported sent right away, as the socket
+ * would once it went out, so the filter can reuse its buffers. <tt>encryptCopying</tt> is the former
+ * implementation, copying in and out of byte arrays, for comparison.
+ *
+ * @author The Red5 Project
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RTMPEBenchmark {
+
+	/**
+	 * Size of the buffers in bytes
+	 */
+	@Param({ "1460", "16384", "65536" })
+	public int size;
+
+	private RTMPEIoFilter filter;
+
+	private IoSession session;
+
+	private NextFilter next;
+
+	private Cipher cipher;
+
+	private IoBuffer buffer;
+
+	@Setup(Level.Trial)
+	public void setup() throws Exception {
+		filter = new RTMPEIoFilter();
+		session = new DummySession();
+		RTMP rtmp = new RTMP();
+		rtmp.setState(RTMP.STATE_CONNECTED);
+		RTMPEIoFilter.setCiphers(session, cipher(), cipher(), rtmp);
+		next = new SentNextFilter();
+		cipher = cipher();
+		byte[] data = new byte[size];
+		new Random(42).nextBytes(data);
+		buffer = IoBuffer.wrap(data);
+	}
+
+	@Benchmark
+	public IoBuffer decrypt() throws Exception {
+		IoBuffer message = buffer.duplicate();
+		filter.messageReceived(next, session, message);
+		return message;
+	}
+
+	@Benchmark
+	public IoBuffer encrypt() throws Exception {
+		IoBuffer message = buffer.duplicate();
+		filter.filterWrite(next, session, new DefaultWriteRequest(message));
+		return message;
+	}
+
+	@Benchmark
+	public IoBuffer encryptCopying() throws Exception {
+		IoBuffer message = buffer.duplicate();
+		byte[] plain = new byte[message.remaining()];
+		message.get(plain);
+		return IoBuffer.wrap(cipher.update(plain));
+	}
+
+	private static Cipher cipher() throws Exception {
+		byte[] key = new byte[16];
+		new Random(7).nextBytes(key);
+		Cipher cipher = Cipher.getInstance("RC4");
+		cipher.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(key, "RC4"));
+		return cipher;
+	}
+
+	/**
+	 * End of the filter chain, reports writes as sent right away.
+	 */
+	private class SentNextFilter implements NextFilter {
+
+		public void filterWrite(IoSession session, WriteRequest writeRequest) {
+			try {
+				filter.messageSent(this, session, writeRequest);
+			} catch (Exception e) {
+				throw new RuntimeException(e);
+			}
+		}
+
+		public void messageSent(IoSession session, WriteRequest writeRequest) {
+		}
+
+		public void messageReceived(IoSession session, Object message) {
+		}
+
+		public void sessionCreated(IoSession session) {
+		}
+
+		public void sessionOpened(IoSession session) {
+		}
+
+		public void sessionClosed(IoSession session) {
+		}
+
+		public void sessionIdle(IoSession session, IdleStatus status) {
+		}
+
+		public void exceptionCaught(IoSession session, Throwable cause) {
+		}
+
+		public void filterClose(IoSession session) {
+		}
+
+	}
+
+}
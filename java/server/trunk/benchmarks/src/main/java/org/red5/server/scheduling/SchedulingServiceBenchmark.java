@@ -0,0 +1,82 @@
+/*
+ * RED5 Open Source Flash Server - http://code.google.com/p/red5/
+ *
+ * Copyright 2006-2013 by respective authors (see below). All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.red5.server.scheduling;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.red5.server.api.scheduling.IScheduledJob;
+import org.red5.server.api.scheduling.ISchedulingService;
+
+/**
+ * Job churn on the scheduling service: jobs that are added and removed again before they ever run, as done
+ * for keep-alive checks, timeouts and stream jobs of short lived connections.
+ *
+ * @author The Red5 Project
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(4)
+public class SchedulingServiceBenchmark {
+
+	private QuartzSchedulingService service;
+
+	private final IScheduledJob job = new IScheduledJob() {
+		public void execute(ISchedulingService service) {
+		}
+	};
+
+	@Setup(Level.Trial)
+	public void setup() throws Exception {
+		service = new QuartzSchedulingService();
+		service.afterPropertiesSet();
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws Exception {
+		service.destroy();
+	}
+
+	@Benchmark
+	public void repeatingJob() {
+		service.removeScheduledJob(service.addScheduledJob(60000, job));
+	}
+
+	@Benchmark
+	public void onceJob() {
+		service.removeScheduledJob(service.addScheduledOnceJob(60000L, job));
+	}
+
+}
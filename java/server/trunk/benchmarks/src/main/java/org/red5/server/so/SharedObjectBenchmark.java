@@ -0,0 +1,87 @@
+/*
+ * RED5 Open Source Flash Server - http://code.google.com/p/red5/
+ *
+ * Copyright 2006-2013 by respective authors (see below). All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.red5.server.so;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.red5.server.api.IConnection.Encoding;
+import org.red5.server.benchmark.BenchmarkConnections;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+
+/**
+ * Broadcast of a shared object update to its subscribers. The update tasks are run on the calling thread
+ * instead of the shared object scheduler, so each measurement covers building and writing the sync messages
+ * of all subscribers.
+ *
+ * @author The Red5 Project
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SharedObjectBenchmark {
+
+	/**
+	 * Number of connections registered with the shared object
+	 */
+	@Param({ "1", "10", "100", "1000" })
+	public int subscribers;
+
+	@Param({ "AMF0", "AMF3" })
+	public String encoding;
+
+	private SharedObject so;
+
+	private int counter;
+
+	@SuppressWarnings("serial")
+	@Setup(Level.Trial)
+	public void setup() {
+		SharedObjectService.setScheduler(new ThreadPoolTaskScheduler() {
+			@Override
+			public void execute(Runnable task) {
+				task.run();
+			}
+		});
+		so = new SharedObject("benchmark", "/benchmark", false);
+		for (int i = 0; i < subscribers; i++) {
+			so.register(BenchmarkConnections.create(Encoding.valueOf(encoding)));
+		}
+	}
+
+	@Benchmark
+	public boolean setAttribute() {
+		return so.setAttribute("counter", Integer.valueOf(++counter));
+	}
+
+}
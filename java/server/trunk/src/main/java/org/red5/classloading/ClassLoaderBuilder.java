@@ -67,10 +67,16 @@ public final class ClassLoaderBuilder {
 
 	/**
 	 * Load the servlet code and the libraries from the WAR file. This may take
-	 * some time as the libraries need to be extracted from the WAR file.
+	 * some time as the libraries need to be extracted from the WAR file; they
+	 * are extracted once per version of the WAR file.
 	 */
 	public static final int USE_WAR_LIB = 3;
 
+	/**
+	 * File marking a completely unpacked library cache directory
+	 */
+	private static final String COMPLETE_MARKER = ".complete";
+
 	/**
 	 * Filters jar files
 	 */
@@ -293,17 +299,34 @@ public final class ClassLoaderBuilder {
 					}
 				} else {
 					try {
-						JarInputStream jarStream = new JarInputStream(new FileInputStream(path));
-						JarEntry entry = jarStream.getNextJarEntry();
-						while (entry != null) {
-							String entryName = entry.getName();
-							if (entryName.startsWith("WEB-INF/lib/") && entryName.endsWith(".jar") && !standardLibs.contains(entryName.substring(12))) {
-								File tempJarFile = unpack(jarStream, entryName);
-								urlList.add(tempJarFile.toURI().toURL());
+						File cacheDir = getLibCacheDir(path);
+						if (cacheDir != null && new File(cacheDir, COMPLETE_MARKER).exists()) {
+							// libraries unpacked from the same war before are reused
+							for (File lib : cacheDir.listFiles(jarFileFilter)) {
+								urlList.add(lib.toURI().toURL());
+							}
+						} else {
+							if (cacheDir != null && !cacheDir.isDirectory() && !cacheDir.mkdirs()) {
+								System.err.printf("Library cache %s could not be created, unpacking to temporary files\n", cacheDir);
+								cacheDir = null;
+							}
+							JarInputStream jarStream = new JarInputStream(new FileInputStream(path));
+							try {
+								JarEntry entry = jarStream.getNextJarEntry();
+								while (entry != null) {
+									String entryName = entry.getName();
+									if (entryName.startsWith("WEB-INF/lib/") && entryName.endsWith(".jar") && !standardLibs.contains(entryName.substring(12))) {
+										urlList.add(unpack(jarStream, entryName, cacheDir).toURI().toURL());
+									}
+									entry = jarStream.getNextJarEntry();
+								}
+							} finally {
+								jarStream.close();
+							}
+							if (cacheDir != null) {
+								new File(cacheDir, COMPLETE_MARKER).createNewFile();
 							}
-							entry = jarStream.getNextJarEntry();
 						}
-						jarStream.close();
 					} catch (IOException e) {
 						System.err.printf("Exception %s\n", e);
 					}
@@ -321,6 +344,39 @@ public final class ClassLoaderBuilder {
 		return loader;
 	}
 
+	/**
+	 * Returns the directory the libraries of a WAR file are unpacked to, below the work directory of the server
+	 * instance. The directory name contains the size and modification time of the WAR file, so a changed WAR file
+	 * is unpacked again; directories of older versions of the same WAR file are removed.
+	 * 
+	 * @param war the WAR file
+	 * @return the directory, may not exist yet, or null if red5.root is not set
+	 */
+	private static File getLibCacheDir(File war) {
+		String home = System.getProperty("red5.root");
+		if (home == null) {
+			return null;
+		}
+		File cacheRoot = new File(new File(home, "work"), "lib-cache");
+		String prefix = war.getName() + '-';
+		String name = prefix + war.length() + '-' + war.lastModified();
+		File[] dirs = cacheRoot.listFiles();
+		if (dirs != null) {
+			for (File dir : dirs) {
+				if (dir.getName().startsWith(prefix) && !dir.getName().equals(name)) {
+					File[] files = dir.listFiles();
+					if (files != null) {
+						for (File file : files) {
+							file.delete();
+						}
+					}
+					dir.delete();
+				}
+			}
+		}
+		return new File(cacheRoot, name);
+	}
+
 	/**
 	 * Unpack the specified entry from the JAR file.
 	 * 
@@ -328,26 +384,35 @@ public final class ClassLoaderBuilder {
 	 *            The input stream of the JAR file positioned at the entry.
 	 * @param entryName
 	 *            The name of the entry to extract.
+	 * @param dir
+	 *            The directory to extract to, or null for a temporary file.
 	 * 
-	 * @return The extracted file. The created file is a temporary file in the
-	 *         temporary directory.
+	 * @return The extracted file.
 	 * 
 	 * @throws IOException
 	 *             if the JAR file cannot be read or is incorrect.
 	 */
-	private static File unpack(JarInputStream jarStream, String entryName) throws IOException {
-		String libName = entryName.substring(entryName.lastIndexOf('/') + 1, entryName.length() - 4);
-		File tempJarFile = File.createTempFile("tmp_" + libName, ".jar");
-		tempJarFile.deleteOnExit();
-		FileOutputStream out = new FileOutputStream(tempJarFile);
-		// Transfer bytes from the JAR file to the output file
-		byte[] buf = new byte[8192];
-		int len;
-		while ((len = jarStream.read(buf)) > 0) {
-			out.write(buf, 0, len);
+	private static File unpack(JarInputStream jarStream, String entryName, File dir) throws IOException {
+		String libName = entryName.substring(entryName.lastIndexOf('/') + 1);
+		File jarFile;
+		if (dir != null) {
+			jarFile = new File(dir, libName);
+		} else {
+			jarFile = File.createTempFile("tmp_" + libName.substring(0, libName.length() - 4), ".jar");
+			jarFile.deleteOnExit();
+		}
+		FileOutputStream out = new FileOutputStream(jarFile);
+		try {
+			// Transfer bytes from the JAR file to the output file
+			byte[] buf = new byte[8192];
+			int len;
+			while ((len = jarStream.read(buf)) > 0) {
+				out.write(buf, 0, len);
+			}
+		} finally {
+			out.close();
 		}
-		out.close();
-		return tempJarFile;
+		return jarFile;
 	}
 
 	/**
@@ -19,8 +19,14 @@
 package org.red5.server;
 
 import java.io.File;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
 
 import org.red5.logging.Red5LoggerFactory;
 import org.red5.server.api.IApplicationContext;
@@ -51,6 +57,22 @@ public abstract class LoaderBase implements ApplicationContextAware {
 	 */
 	public static Map<String, IApplicationContext> red5AppCtx = new HashMap<String, IApplicationContext>();
 	
+	/**
+	 * Launchers of applications started on their first connection, by context path.
+	 */
+	protected static ConcurrentMap<String, Runnable> lazyApplications = new ConcurrentHashMap<String, Runnable>();
+
+	/**
+	 * Starts of applications started on their first connection, running or done, by context path. A start which
+	 * failed is removed, so that the next connection tries again.
+	 */
+	protected static ConcurrentMap<String, Activation> activations = new ConcurrentHashMap<String, Activation>();
+
+	/**
+	 * Milliseconds each application took to start, by context path.
+	 */
+	protected static ConcurrentMap<String, Long> startupTimes = new ConcurrentHashMap<String, Long>();
+
 	/**
 	 * Loader for new applications.
 	 */
@@ -128,9 +150,166 @@ public abstract class LoaderBase implements ApplicationContextAware {
 	 */
 	public static IApplicationContext removeRed5ApplicationContext(String path) {
 		log.debug("Remove red5 application context - path: {}", path);
+		lazyApplications.remove(path);
+		activations.remove(path);
 		return red5AppCtx.remove(path);
 	}
 	
+	/**
+	 * Registers an application to be started on its first connection instead of at server start.
+	 * 
+	 * @param contextPath context path
+	 * @param launcher starts the application
+	 */
+	public static void addLazyApplication(String contextPath, Runnable launcher) {
+		log.debug("Lazy application - path: {}", contextPath);
+		activations.remove(contextPath);
+		lazyApplications.put(contextPath, launcher);
+	}
+
+	/**
+	 * Starts an application registered with {@link #addLazyApplication(String, Runnable)} on a launcher thread,
+	 * unless it is started or starting already. The listener is run on the launcher thread once the start is done,
+	 * whether it succeeded or not.
+	 * 
+	 * @param contextPath context path
+	 * @param listener run when the start is done
+	 * @return true if the listener will be run, false if the application is not started lazily or is done starting
+	 */
+	public static boolean activateApplication(String contextPath, Runnable listener) {
+		Activation activation = activate(contextPath);
+		return activation != null && activation.addListener(listener);
+	}
+
+	/**
+	 * Starts an application registered with {@link #addLazyApplication(String, Runnable)} on a launcher thread and
+	 * waits until it is started; concurrent callers wait for the same start. Does nothing for other applications.
+	 * 
+	 * @param contextPath context path
+	 * @return true if the application is started, false if it is not started lazily or failed to start
+	 */
+	public static boolean awaitApplication(String contextPath) {
+		Activation activation = activate(contextPath);
+		if (activation == null) {
+			return false;
+		}
+		try {
+			activation.get();
+			return true;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return false;
+		} catch (ExecutionException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Returns the start of an application started on its first connection, beginning it if needed.
+	 * 
+	 * @param contextPath context path
+	 * @return start or null if the application is not started lazily
+	 */
+	private static Activation activate(String contextPath) {
+		Activation activation = activations.get(contextPath);
+		if (activation == null) {
+			Runnable launcher = lazyApplications.get(contextPath);
+			if (launcher == null) {
+				return null;
+			}
+			activation = new Activation(contextPath, launcher);
+			Activation existing = activations.putIfAbsent(contextPath, activation);
+			if (existing != null) {
+				return existing;
+			}
+			log.info("Starting application on first connection: {}", contextPath);
+			Thread thread = new Thread(activation, "Launcher:" + contextPath);
+			thread.setDaemon(true);
+			thread.start();
+		}
+		return activation;
+	}
+
+	/**
+	 * Records the time an application took to start.
+	 * 
+	 * @param contextPath context path
+	 * @param millis start time in milliseconds
+	 */
+	public static void setStartupTime(String contextPath, long millis) {
+		log.info("Application {} started in {} ms", contextPath, millis);
+		startupTimes.put(contextPath, millis);
+	}
+
+	/**
+	 * Returns the time each started application took to start.
+	 * 
+	 * @return milliseconds by context path
+	 */
+	public Map<String, Long> getStartupTimes() {
+		return new HashMap<String, Long>(startupTimes);
+	}
+
+	/**
+	 * Start of an application on its first connection, running the listeners registered meanwhile when it is done.
+	 */
+	protected static final class Activation extends FutureTask<Object> {
+
+		private final String contextPath;
+
+		private final List<Runnable> listeners = new ArrayList<Runnable>();
+
+		private boolean finished;
+
+		Activation(String contextPath, Runnable launcher) {
+			super(launcher, null);
+			this.contextPath = contextPath;
+		}
+
+		/**
+		 * @param listener run when the start is done
+		 * @return false if the start is done already
+		 */
+		synchronized boolean addListener(Runnable listener) {
+			if (finished) {
+				return false;
+			}
+			listeners.add(listener);
+			return true;
+		}
+
+		@Override
+		protected void done() {
+			boolean failed = false;
+			try {
+				get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			} catch (ExecutionException e) {
+				log.error("Application {} failed to start", contextPath, e.getCause());
+				failed = true;
+			}
+			List<Runnable> pending;
+			synchronized (this) {
+				finished = true;
+				pending = new ArrayList<Runnable>(listeners);
+				listeners.clear();
+			}
+			for (Runnable listener : pending) {
+				try {
+					listener.run();
+				} catch (Exception e) {
+					log.warn("Exception in listener of application start {}", contextPath, e);
+				}
+			}
+			// the waiting connections were turned down, the next one tries again
+			if (failed) {
+				activations.remove(contextPath, this);
+			}
+		}
+
+	}
+
 	/**
 	 * Getter for application context
 	 * @return         Application context
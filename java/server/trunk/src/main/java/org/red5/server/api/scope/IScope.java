@@ -157,8 +157,8 @@ public interface IScope extends IBasicScope, ResourcePatternResolver, IServiceHa
 	public Collection<Set<IConnection>> getConnections();
 
 	/**
-	 * Get all current connections. You can call remove, and the connection will
-	 * be closed.
+	 * Get all current connections. The set is a read-only view that follows
+	 * connects and disconnects.
 	 * 
 	 * @return Set containing all connections
 	 */
@@ -19,38 +19,93 @@
 package org.red5.server.api.statistics.support;
 
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
 
 /**
  * Counts numbers used by the statistics. Keeps track of current,
  * maximum and total numbers.
+ * <br />
+ * Counters are updated by every connection joining or leaving, so updates are spread over striped cells picked
+ * by the updating thread instead of a single contended value; reading sums up the cells. Each cell keeps the
+ * highest current number it reached, an increment only sums up the cells to update the maximum when its cell
+ * rises above that mark. Reads update the maximum as well, which catches a peak built up by several cells none
+ * of which passed its own mark.
  * 
  * @author The Red5 Project
  * @author Joachim Bauch (jojo@struktur.de)
  */
 public class StatisticsCounter {
 
-	/** Current number. */
-	private AtomicInteger current = new AtomicInteger();
-	
-	/** Total number. */
-	private AtomicInteger total = new AtomicInteger();
+	/** Number of cells, a power of two. */
+	private static final int CELLS = cells();
+
+	/** Distance between two cells in longs, keeps cells of different threads on different cache lines. */
+	private static final int PAD = 8;
+
+	/** Offset of the current number within a cell. */
+	private static final int CURRENT = 0;
+
+	/** Offset of the total number within a cell. */
+	private static final int TOTAL = 1;
+
+	/** Offset of the highest current number of a cell. */
+	private static final int HIGH = 2;
+
+	/** Current, total and highest numbers per cell. */
+	private final AtomicLongArray cells = new AtomicLongArray(CELLS * PAD);
 	
 	/** Maximum number. */
-	private AtomicInteger max = new AtomicInteger();
+	private final AtomicInteger max = new AtomicInteger();
 	
+	private static int cells() {
+		int n = 1;
+		while (n < Runtime.getRuntime().availableProcessors() && n < 16) {
+			n <<= 1;
+		}
+		return n;
+	}
+
+	/**
+	 * Returns the cell of the current thread.
+	 */
+	private static int cell() {
+		return ((int) Thread.currentThread().getId() & (CELLS - 1)) * PAD;
+	}
+
+	private long sum(int offset) {
+		long sum = 0;
+		for (int i = offset; i < cells.length(); i += PAD) {
+			sum += cells.get(i);
+		}
+		return sum;
+	}
+
 	/**
 	 * Increment statistics by one.
 	 */
 	public void increment() {
-		total.incrementAndGet();
-		max.compareAndSet(current.intValue(), current.incrementAndGet());
+		int cell = cell();
+		cells.incrementAndGet(cell + TOTAL);
+		long current = cells.incrementAndGet(cell + CURRENT);
+		long high = cells.get(cell + HIGH);
+		if (current > high && cells.compareAndSet(cell + HIGH, high, current)) {
+			// the cell reached a new high, so the sum may have as well
+			updateMax((int) sum(CURRENT));
+		}
+	}
+
+	private void updateMax(int current) {
+		int last = max.get();
+		while (current > last && !max.compareAndSet(last, current)) {
+			last = max.get();
+		}
 	}
 	
 	/**
 	 * Decrement statistics by one.
 	 */
 	public void decrement() {
-		current.decrementAndGet();
+		cells.decrementAndGet(cell() + CURRENT);
 	}
 	
 	/**
@@ -59,7 +114,9 @@ public class StatisticsCounter {
 	 * @return current number
 	 */
 	public int getCurrent() {
-		return current.intValue();
+		int current = (int) sum(CURRENT);
+		updateMax(current);
+		return current;
 	}
 	
 	/**
@@ -68,7 +125,7 @@ public class StatisticsCounter {
 	 * @return total
 	 */
 	public int getTotal() {
-		return total.intValue();
+		return (int) sum(TOTAL);
 	}
 	
 	/**
@@ -77,6 +134,7 @@ public class StatisticsCounter {
 	 * @return max
 	 */
 	public int getMax() {
+		updateMax((int) sum(CURRENT));
 		return max.intValue();
 	}
 
@@ -85,7 +143,7 @@ public class StatisticsCounter {
 	 */
 	@Override
 	public String toString() {
-		return "StatisticsCounter [current=" + current + ", total=" + total + ", max=" + max + "]";
+		return "StatisticsCounter [current=" + getCurrent() + ", total=" + getTotal() + ", max=" + max + "]";
 	}
 	
 }
@@ -18,6 +18,8 @@
 
 package org.red5.server.jmx.mxbeans;
 
+import java.util.Map;
+
 import javax.management.MXBean;
 
 /**
@@ -32,6 +34,8 @@ public interface LoaderMXBean extends ShutdownMXBean {
 	public boolean startWebApplication(String application);
 
 	public void removeContext(String path);
+
+	public Map<String, Long> getStartupTimes();
 	
 	public void destroy() throws Exception;
 	
@@ -34,6 +34,14 @@ public interface RTMPMinaTransportMXBean {
 	public String getAddress();
 	
 	public String getStatistics();
+
+	public int getAcceptors();
+
+	public long getAcceptedSessions();
+
+	public double getAcceptRate();
+
+	public long getBacklogDrops();
 	
 	public void start() throws Exception;
 
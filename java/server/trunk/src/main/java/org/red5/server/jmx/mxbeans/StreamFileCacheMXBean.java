@@ -0,0 +1,45 @@
+/*
+ * RED5 Open Source Flash Server - http://code.google.com/p/red5/
+ *
+ * Copyright 2006-2013 by respective authors (see below). All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.red5.server.jmx.mxbeans;
+
+import javax.management.MXBean;
+
+/**
+ * Cache of resolved VOD stream files.
+ * 
+ * @author The Red5 Project
+ */
+@MXBean
+public interface StreamFileCacheMXBean {
+
+	public long getHits();
+
+	public long getMisses();
+
+	public double getHitRatio();
+
+	public int getSize();
+
+	public long getNegativeTtl();
+
+	public void setNegativeTtl(long negativeTtl);
+
+	public void clear();
+
+}
@@ -21,6 +21,7 @@ package org.red5.server.messaging;
 import java.io.IOException;
 import java.util.Map;
 
+import org.red5.server.statistics.LatencyStats;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -75,6 +76,7 @@ public class InMemoryPushPushPipe extends AbstractPipe {
 	 * @param message the message to be pushed to consumers.
 	 */
 	public void pushMessage(IMessage message) throws IOException {
+		final long start = LatencyStats.isEnabled() ? System.nanoTime() : 0;
 		for (IConsumer consumer : consumers) {
 			try {
 				IPushableConsumer pcon = (IPushableConsumer) consumer;
@@ -87,5 +89,8 @@ public class InMemoryPushPushPipe extends AbstractPipe {
 				log.error("Exception when pushing message to consumer", t);
 			}
 		}
+		if (start != 0) {
+			LatencyStats.FANOUT.record(System.nanoTime() - start);
+		}
 	}
 }
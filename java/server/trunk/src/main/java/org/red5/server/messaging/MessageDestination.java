@@ -0,0 +1,638 @@
+/*
+ * RED5 Open Source Flash Server - http://code.google.com/p/red5/
+ *
+ * Copyright 2006-2013 by respective authors (see below). All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.red5.server.messaging;
+
+import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.regex.Pattern;
+
+import org.apache.mina.core.buffer.IoBuffer;
+import org.red5.compatibility.flex.messaging.messages.AbstractMessage;
+import org.red5.compatibility.flex.messaging.messages.AsyncMessage;
+import org.red5.compatibility.flex.messaging.messages.Message;
+import org.red5.io.amf3.Output;
+import org.red5.io.object.Serializer;
+import org.red5.io.utils.RandomGUID;
+import org.red5.server.api.IConnection.Encoding;
+import org.red5.server.net.rtmp.RTMPConnection;
+import org.red5.server.net.rtmp.codec.RTMPProtocolEncoder;
+import org.red5.server.net.rtmp.event.FlexMessage;
+import org.red5.server.service.PendingCall;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Flex messaging destination pushing published messages to its consumers over their RTMP connections, so Flex
+ * consumers on an RTMP channel no longer poll. Configured as an endpoint of the
+ * {@link org.red5.server.net.remoting.FlexMessagingService}.
+ * <br />
+ * Subscriptions are indexed by subtopic, a message only visits the consumers of its subtopics and those subscribed
+ * with a wildcard; selectors are compiled once on subscribe. A published message is serialized once per object
+ * encoding, the client id of each consumer is written into a copy of the serialized bytes as it is the only field
+ * that differs between consumers.
+ * <br />
+ * Subscriptions of closed connections are dropped the next time a message would be delivered to them.
+ *
+ * @author The Red5 Project
+ */
+public class MessageDestination {
+
+	private static final Logger log = LoggerFactory.getLogger(MessageDestination.class);
+
+	/** Header holding the subtopic of a subscription or a published message */
+	public static final String SUBTOPIC_HEADER = "DSSubtopic";
+
+	/** Header holding the subscriptions added by a multi topic consumer */
+	public static final String ADD_SUBSCRIPTIONS_HEADER = "DSAddSub";
+
+	/** Wildcard subtopic token */
+	public static final String WILDCARD = "*";
+
+	private static final Charset ASCII = Charset.forName("US-ASCII");
+
+	/** Channel messages are pushed on */
+	private static final int CHANNEL = 3;
+
+	/**
+	 * Subscriptions by subtopic, subscriptions without subtopic are found under the empty string
+	 */
+	private final ConcurrentMap<String, Set<Subscription>> subscriptions = new ConcurrentHashMap<String, Set<Subscription>>();
+
+	/**
+	 * Subscriptions with a wildcard subtopic
+	 */
+	private final Set<Subscription> wildcards = new CopyOnWriteArraySet<Subscription>();
+
+	/**
+	 * Subscriptions by client id
+	 */
+	private final ConcurrentMap<String, Set<Subscription>> clients = new ConcurrentHashMap<String, Set<Subscription>>();
+
+	private String subtopicSeparator = ".";
+
+	private Pattern separatorPattern = Pattern.compile(Pattern.quote(subtopicSeparator));
+
+	private boolean allowSubtopics = true;
+
+	public void setSubtopicSeparator(String subtopicSeparator) {
+		this.subtopicSeparator = subtopicSeparator;
+		separatorPattern = Pattern.compile(Pattern.quote(subtopicSeparator));
+	}
+
+	public String getSubtopicSeparator() {
+		return subtopicSeparator;
+	}
+
+	public void setAllowSubtopics(boolean allowSubtopics) {
+		this.allowSubtopics = allowSubtopics;
+	}
+
+	public boolean isAllowSubtopics() {
+		return allowSubtopics;
+	}
+
+	/**
+	 * Subscribes a consumer.
+	 *
+	 * @param clientId client id of the consumer
+	 * @param conn connection messages are pushed to
+	 * @param subtopic subtopic, may be null
+	 * @param selector selector expression, may be null
+	 * @return true if the subscription was added, false if it existed already
+	 * @throws IllegalArgumentException if the subtopic is not allowed or the selector is not valid
+	 */
+	public boolean subscribe(String clientId, RTMPConnection conn, String subtopic, String selector) {
+		subtopic = normalize(subtopic);
+		if (subtopic.length() > 0 && !allowSubtopics) {
+			throw new IllegalArgumentException("Subtopics are not allowed");
+		}
+		MessageSelector compiled = isBlank(selector) ? null : MessageSelector.compile(selector);
+		Subscription subscription = new Subscription(clientId, conn, subtopic, compiled);
+		Set<Subscription> set = getSet(clients, clientId);
+		if (!set.add(subscription)) {
+			return false;
+		}
+		if (isWildcard(subtopic)) {
+			wildcards.add(subscription);
+		} else {
+			getSet(subscriptions, subtopic).add(subscription);
+		}
+		log.debug("Subscribed {} to subtopic '{}' selector: {}", new Object[] { clientId, subtopic, compiled });
+		return true;
+	}
+
+	/**
+	 * Removes one subscription of a consumer.
+	 *
+	 * @param clientId client id of the consumer
+	 * @param subtopic subtopic, may be null
+	 * @param selector selector expression, may be null
+	 * @return true if the subscription existed
+	 */
+	public boolean unsubscribe(String clientId, String subtopic, String selector) {
+		Set<Subscription> set = clients.get(clientId);
+		if (set == null) {
+			return false;
+		}
+		subtopic = normalize(subtopic);
+		String expression = isBlank(selector) ? null : selector;
+		for (Subscription subscription : set) {
+			if (subscription.subtopic.equals(subtopic) && equal(subscription.getSelectorExpression(), expression)) {
+				remove(subscription);
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Removes all subscriptions of a consumer.
+	 *
+	 * @param clientId client id of the consumer
+	 * @return true if the consumer was subscribed
+	 */
+	public boolean unsubscribe(String clientId) {
+		Set<Subscription> set = clients.remove(clientId);
+		if (set == null) {
+			return false;
+		}
+		for (Subscription subscription : set) {
+			remove(subscription);
+		}
+		return true;
+	}
+
+	/**
+	 * @param clientId client id of the consumer
+	 * @return true if the consumer has at least one subscription
+	 */
+	public boolean isSubscribed(String clientId) {
+		return clients.containsKey(clientId);
+	}
+
+	/**
+	 * @return number of subscribed consumers
+	 */
+	public int getSubscriberCount() {
+		return clients.size();
+	}
+
+	/**
+	 * Pushes a message to all matching consumers. The client id of the message is replaced by the one of each
+	 * consumer while the message is delivered and restored afterwards.
+	 *
+	 * @param msg message
+	 * @return number of consumers the message was pushed to
+	 */
+	public int publish(AsyncMessage msg) {
+		Map<String, Object> headers = msg.getHeaders();
+		Set<Subscription> matches = new HashSet<Subscription>();
+		Object subtopics = headers != null ? headers.get(SUBTOPIC_HEADER) : null;
+		if (subtopics instanceof Object[]) {
+			for (Object subtopic : (Object[]) subtopics) {
+				collect(normalize(subtopic), matches);
+			}
+		} else if (subtopics instanceof Collection<?>) {
+			for (Object subtopic : (Collection<?>) subtopics) {
+				collect(normalize(subtopic), matches);
+			}
+		} else {
+			collect(normalize(subtopics), matches);
+		}
+		if (matches.isEmpty()) {
+			return 0;
+		}
+		String clientId = msg.getClientId();
+		Encoded[] encoded = new Encoded[Encoding.values().length];
+		Set<String> delivered = new HashSet<String>();
+		try {
+			for (Subscription subscription : matches) {
+				if (!subscription.conn.isConnected()) {
+					log.debug("Dropping subscriptions of disconnected client {}", subscription.clientId);
+					removeAll(subscription.clientId, subscription.conn);
+					continue;
+				}
+				if (subscription.selector != null && !subscription.selector.matches(headers)) {
+					continue;
+				}
+				// a consumer subscribed to several matching subtopics gets the message once
+				if (!delivered.add(subscription.clientId)) {
+					continue;
+				}
+				Encoding encoding = subscription.conn.getEncoding();
+				Encoded body = encoded[encoding.ordinal()];
+				if (body == null) {
+					body = new Encoded(msg, encoding);
+					encoded[encoding.ordinal()] = body;
+				}
+				push(subscription, body.getArguments(msg, subscription));
+			}
+		} finally {
+			Encoded.setClientId(msg, clientId);
+		}
+		return delivered.size();
+	}
+
+	private void push(Subscription subscription, Object[] args) {
+		FlexMessage event = new FlexMessage();
+		event.setCall(new PendingCall(null, "receive", args));
+		subscription.conn.getChannel(CHANNEL).write(event);
+	}
+
+	/**
+	 * Adds the subscriptions matching a subtopic.
+	 */
+	private void collect(String subtopic, Set<Subscription> matches) {
+		Set<Subscription> set = subscriptions.get(subtopic);
+		if (set != null) {
+			matches.addAll(set);
+		}
+		if (subtopic.length() > 0 && !wildcards.isEmpty()) {
+			String[] tokens = separatorPattern.split(subtopic, -1);
+			for (Subscription subscription : wildcards) {
+				if (matches(subscription.tokens, tokens)) {
+					matches.add(subscription);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Matches a subtopic against a subscribed pattern. A wildcard token matches one token, as the last token of the
+	 * pattern it matches all remaining tokens.
+	 *
+	 * @param pattern tokens of the subscribed subtopic
+	 * @param tokens tokens of the message subtopic
+	 * @return true on match
+	 */
+	static boolean matches(String[] pattern, String[] tokens) {
+		for (int i = 0; i < pattern.length; i++) {
+			if (i == tokens.length) {
+				return false;
+			}
+			if (WILDCARD.equals(pattern[i])) {
+				if (i == pattern.length - 1) {
+					return true;
+				}
+			} else if (!pattern[i].equals(tokens[i])) {
+				return false;
+			}
+		}
+		return pattern.length == tokens.length;
+	}
+
+	/**
+	 * Removes the subscriptions a consumer made over a connection.
+	 */
+	private void removeAll(String clientId, RTMPConnection conn) {
+		Set<Subscription> set = clients.get(clientId);
+		if (set != null) {
+			for (Subscription subscription : set) {
+				if (subscription.conn == conn) {
+					remove(subscription);
+				}
+			}
+		}
+	}
+
+	private void remove(Subscription subscription) {
+		Set<Subscription> set = clients.get(subscription.clientId);
+		if (set != null) {
+			set.remove(subscription);
+			if (set.isEmpty()) {
+				clients.remove(subscription.clientId, set);
+			}
+		}
+		if (isWildcard(subscription.subtopic)) {
+			wildcards.remove(subscription);
+		} else {
+			set = subscriptions.get(subscription.subtopic);
+			if (set != null) {
+				set.remove(subscription);
+				if (set.isEmpty()) {
+					subscriptions.remove(subscription.subtopic, set);
+				}
+			}
+		}
+	}
+
+	private boolean isWildcard(String subtopic) {
+		for (String token : separatorPattern.split(subtopic, -1)) {
+			if (WILDCARD.equals(token)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Strips the headers only meaningful to the channel a message came in on.
+	 *
+	 * @param headers message headers, may be null
+	 */
+	public static void removeChannelHeaders(Map<String, Object> headers) {
+		if (headers != null) {
+			headers.remove(Message.FLEX_CLIENT_ID_HEADER);
+			headers.remove(Message.ENDPOINT_HEADER);
+		}
+	}
+
+	/**
+	 * Splits a subscription entry of a multi topic consumer, <tt>subtopic_;_selector</tt>.
+	 *
+	 * @param entry entry
+	 * @return subtopic and selector, each may be null
+	 */
+	public static String[] parseSubscription(Object entry) {
+		String value = entry != null ? entry.toString() : "";
+		int index = value.indexOf(Message.SUBTOPIC_SEPARATOR);
+		String subtopic = index == -1 ? value : value.substring(0, index);
+		String selector = index == -1 ? null : value.substring(index + Message.SUBTOPIC_SEPARATOR.length());
+		return new String[] { isBlank(subtopic) ? null : subtopic, isBlank(selector) ? null : selector };
+	}
+
+	/**
+	 * Returns the subscription entries of a multi topic header.
+	 *
+	 * @param value header value
+	 * @return entries, empty if none
+	 */
+	public static Object[] getEntries(Object value) {
+		if (value instanceof Object[]) {
+			return (Object[]) value;
+		} else if (value instanceof List<?>) {
+			return ((List<?>) value).toArray();
+		} else if (value != null) {
+			return new Object[] { value };
+		}
+		return new Object[0];
+	}
+
+	private static Set<Subscription> getSet(ConcurrentMap<String, Set<Subscription>> map, String key) {
+		Set<Subscription> set = map.get(key);
+		if (set == null) {
+			set = new CopyOnWriteArraySet<Subscription>();
+			Set<Subscription> existing = map.putIfAbsent(key, set);
+			if (existing != null) {
+				set = existing;
+			}
+		}
+		return set;
+	}
+
+	private static String normalize(Object subtopic) {
+		return subtopic == null ? "" : subtopic.toString().trim();
+	}
+
+	private static boolean isBlank(String value) {
+		return value == null || value.trim().length() == 0;
+	}
+
+	private static boolean equal(Object a, Object b) {
+		return a == null ? b == null : a.equals(b);
+	}
+
+	/**
+	 * Subscription of a consumer to a subtopic.
+	 */
+	private final class Subscription {
+
+		final String clientId;
+
+		final RTMPConnection conn;
+
+		final String subtopic;
+
+		final String[] tokens;
+
+		final MessageSelector selector;
+
+		/**
+		 * Client id as written in a string, null if it can not replace the placeholder of a serialized message
+		 */
+		final byte[] clientIdText;
+
+		/**
+		 * Client id as written by the externalizable messages, null if it is not a GUID
+		 */
+		final byte[] clientIdGuid;
+
+		Subscription(String clientId, RTMPConnection conn, String subtopic, MessageSelector selector) {
+			this.clientId = clientId;
+			this.conn = conn;
+			this.subtopic = subtopic;
+			this.tokens = separatorPattern.split(subtopic, -1);
+			this.selector = selector;
+			this.clientIdText = Encoded.isPatchable(clientId) ? clientId.getBytes(ASCII) : null;
+			this.clientIdGuid = Encoded.toGuid(clientId);
+		}
+
+		String getSelectorExpression() {
+			return selector != null ? selector.getExpression() : null;
+		}
+
+		@Override
+		public int hashCode() {
+			return clientId.hashCode() * 31 + subtopic.hashCode();
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof Subscription)) {
+				return false;
+			}
+			Subscription other = (Subscription) obj;
+			return clientId.equals(other.clientId) && subtopic.equals(other.subtopic) && conn == other.conn
+					&& equal(getSelectorExpression(), other.getSelectorExpression());
+		}
+
+	}
+
+	/**
+	 * Message serialized for one object encoding. The message is serialized with a random client id of the length of
+	 * a Flex client id; strings are written as their bytes after a length prefix in AMF0 as well as AMF3, so the
+	 * serialized bytes of each consumer only differ in these bytes. Externalizable messages write the client id as
+	 * an AMF3 array of the 16 bytes of its GUID instead.
+	 */
+	private static final class Encoded {
+
+		/** Length of a Flex client id */
+		private static final int ID_LENGTH = 36;
+
+		/** Client id as cached by a message once written or read in externalizable form */
+		private static final Field CLIENT_ID_BYTES = getField(AbstractMessage.class, "clientIdBytes");
+
+		private final Encoding encoding;
+
+		/**
+		 * Bytes before and after the client id, null if the placeholder could not be located
+		 */
+		private final ByteBuffer prefix;
+
+		private final ByteBuffer suffix;
+
+		/**
+		 * Whether the client id is written as a GUID
+		 */
+		private final boolean guid;
+
+		Encoded(AsyncMessage msg, Encoding encoding) {
+			this.encoding = encoding;
+			String placeholder = UUID.randomUUID().toString().toUpperCase();
+			setClientId(msg, placeholder);
+			ByteBuffer buf = RTMPProtocolEncoder.encodeArguments(new Object[] { msg }, encoding);
+			byte[] bytes = placeholder.getBytes(ASCII);
+			int index = indexOf(buf, bytes);
+			if (index == -1) {
+				bytes = toGuid(placeholder);
+				index = indexOf(buf, bytes);
+				guid = true;
+			} else {
+				guid = false;
+			}
+			if (index != -1) {
+				ByteBuffer dup = buf.duplicate();
+				dup.limit(index);
+				prefix = dup.slice();
+				dup = buf.duplicate();
+				dup.position(index + bytes.length);
+				suffix = dup.slice();
+			} else {
+				log.debug("Client id not found in serialized message, serializing per consumer");
+				prefix = null;
+				suffix = null;
+			}
+		}
+
+		static boolean isPatchable(String clientId) {
+			if (clientId == null || clientId.length() != ID_LENGTH) {
+				return false;
+			}
+			for (int i = 0; i < ID_LENGTH; i++) {
+				if (clientId.charAt(i) >= 0x80) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		/**
+		 * Sets the client id of a message. An externalizable message keeps writing the client id it cached, so the
+		 * cache is dropped.
+		 */
+		static void setClientId(AsyncMessage msg, String clientId) {
+			msg.setClientId(clientId);
+			if (CLIENT_ID_BYTES != null) {
+				try {
+					CLIENT_ID_BYTES.set(msg, null);
+				} catch (IllegalAccessException e) {
+					log.warn("Cached client id of message could not be cleared", e);
+				}
+			}
+		}
+
+		private static Field getField(Class<?> type, String name) {
+			try {
+				Field field = type.getDeclaredField(name);
+				field.setAccessible(true);
+				return field;
+			} catch (Exception e) {
+				log.warn("Field {} not found in {}", name, type.getName());
+				return null;
+			}
+		}
+
+		/**
+		 * Returns the client id as written by an externalizable message.
+		 *
+		 * @return serialized GUID, null if the client id is not a GUID
+		 */
+		static byte[] toGuid(String clientId) {
+			byte[] bytes;
+			try {
+				bytes = RandomGUID.toByteArray(clientId);
+			} catch (RuntimeException e) {
+				return null;
+			}
+			if (bytes == null || bytes.length != 16) {
+				return null;
+			}
+			IoBuffer buf = IoBuffer.allocate(96);
+			buf.setAutoExpand(true);
+			// written from within an object, the AMF3 marker is not repeated
+			Output output = new Output(buf);
+			output.enforceAMF3();
+			Serializer.serialize(output, bytes);
+			buf.flip();
+			byte[] guid = new byte[buf.remaining()];
+			buf.get(guid);
+			return guid;
+		}
+
+		/**
+		 * Returns the arguments of the push to a consumer.
+		 */
+		Object[] getArguments(AsyncMessage msg, Subscription subscription) {
+			byte[] clientId = guid ? subscription.clientIdGuid : subscription.clientIdText;
+			if (prefix != null && clientId != null) {
+				return new Object[] { prefix.duplicate(), ByteBuffer.wrap(clientId), suffix.duplicate() };
+			}
+			setClientId(msg, subscription.clientId);
+			return new Object[] { RTMPProtocolEncoder.encodeArguments(new Object[] { msg }, encoding) };
+		}
+
+		/**
+		 * Finds the only occurrence of a byte sequence.
+		 *
+		 * @return position or -1 if not found or found more than once
+		 */
+		private static int indexOf(ByteBuffer buf, byte[] bytes) {
+			int found = -1;
+			if (bytes == null) {
+				return found;
+			}
+			int last = buf.limit() - bytes.length;
+			for (int i = buf.position(); i <= last; i++) {
+				int j = 0;
+				while (j < bytes.length && buf.get(i + j) == bytes[j]) {
+					j++;
+				}
+				if (j == bytes.length) {
+					if (found != -1) {
+						return -1;
+					}
+					found = i;
+				}
+			}
+			return found;
+		}
+
+	}
+
+}
@@ -0,0 +1,563 @@
+/*
+ * RED5 Open Source Flash Server - http://code.google.com/p/red5/
+ *
+ * Copyright 2006-2013 by respective authors (see below). All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.red5.server.messaging;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * Compiled selector of a Flex consumer, the SQL-92 conditional expression subset of JMS message selectors evaluated
+ * against the headers of a message. The expression is parsed once when the consumer subscribes, matching a message
+ * only walks the resulting tree.
+ * <br />
+ * Supported are the comparison operators (<tt>= &lt;&gt; &lt; &gt; &lt;= &gt;=</tt>), <tt>AND</tt>, <tt>OR</tt>,
+ * <tt>NOT</tt>, parentheses, <tt>IS [NOT] NULL</tt>, <tt>[NOT] IN (...)</tt>, <tt>[NOT] LIKE</tt> with an optional
+ * <tt>ESCAPE</tt> character and string, numeric and boolean literals. As in JMS, a comparison with a missing header is
+ * unknown and an unknown result does not match.
+ *
+ * @author The Red5 Project
+ */
+public final class MessageSelector {
+
+	private final String expression;
+
+	private final Node root;
+
+	private MessageSelector(String expression, Node root) {
+		this.expression = expression;
+		this.root = root;
+	}
+
+	/**
+	 * Compiles a selector.
+	 *
+	 * @param expression selector expression
+	 * @return compiled selector
+	 * @throws IllegalArgumentException if the expression is not valid
+	 */
+	public static MessageSelector compile(String expression) {
+		Parser parser = new Parser(expression);
+		Node root = parser.parseOr();
+		if (parser.peek() != null) {
+			throw parser.error("Unexpected " + parser.peek());
+		}
+		return new MessageSelector(expression, root);
+	}
+
+	/**
+	 * Matches the headers of a message.
+	 *
+	 * @param headers message headers, may be null
+	 * @return true if the selector evaluates to true
+	 */
+	public boolean matches(Map<String, Object> headers) {
+		return Boolean.TRUE.equals(root.evaluate(headers));
+	}
+
+	public String getExpression() {
+		return expression;
+	}
+
+	@Override
+	public String toString() {
+		return expression;
+	}
+
+	/**
+	 * Node of the expression tree. Conditions evaluate to Boolean or to null when unknown.
+	 */
+	private interface Node {
+
+		Object evaluate(Map<String, Object> headers);
+
+	}
+
+	private static final class Literal implements Node {
+
+		final Object value;
+
+		Literal(Object value) {
+			this.value = value;
+		}
+
+		public Object evaluate(Map<String, Object> headers) {
+			return value;
+		}
+
+	}
+
+	private static final class Identifier implements Node {
+
+		final String name;
+
+		Identifier(String name) {
+			this.name = name;
+		}
+
+		public Object evaluate(Map<String, Object> headers) {
+			return headers != null ? headers.get(name) : null;
+		}
+
+	}
+
+	private static final class And implements Node {
+
+		final Node left, right;
+
+		And(Node left, Node right) {
+			this.left = left;
+			this.right = right;
+		}
+
+		public Object evaluate(Map<String, Object> headers) {
+			Object l = left.evaluate(headers);
+			if (Boolean.FALSE.equals(l)) {
+				return Boolean.FALSE;
+			}
+			Object r = right.evaluate(headers);
+			if (Boolean.FALSE.equals(r)) {
+				return Boolean.FALSE;
+			}
+			return Boolean.TRUE.equals(l) && Boolean.TRUE.equals(r) ? Boolean.TRUE : null;
+		}
+
+	}
+
+	private static final class Or implements Node {
+
+		final Node left, right;
+
+		Or(Node left, Node right) {
+			this.left = left;
+			this.right = right;
+		}
+
+		public Object evaluate(Map<String, Object> headers) {
+			Object l = left.evaluate(headers);
+			if (Boolean.TRUE.equals(l)) {
+				return Boolean.TRUE;
+			}
+			Object r = right.evaluate(headers);
+			if (Boolean.TRUE.equals(r)) {
+				return Boolean.TRUE;
+			}
+			return Boolean.FALSE.equals(l) && Boolean.FALSE.equals(r) ? Boolean.FALSE : null;
+		}
+
+	}
+
+	private static final class Not implements Node {
+
+		final Node operand;
+
+		Not(Node operand) {
+			this.operand = operand;
+		}
+
+		public Object evaluate(Map<String, Object> headers) {
+			Object value = operand.evaluate(headers);
+			return value instanceof Boolean ? Boolean.valueOf(!((Boolean) value)) : null;
+		}
+
+	}
+
+	private static final class Comparison implements Node {
+
+		final String operator;
+
+		final Node left, right;
+
+		Comparison(String operator, Node left, Node right) {
+			this.operator = operator;
+			this.left = left;
+			this.right = right;
+		}
+
+		public Object evaluate(Map<String, Object> headers) {
+			Object l = left.evaluate(headers);
+			Object r = right.evaluate(headers);
+			if (l == null || r == null) {
+				return null;
+			}
+			int result;
+			if (l instanceof Number && r instanceof Number) {
+				result = Double.compare(((Number) l).doubleValue(), ((Number) r).doubleValue());
+			} else if (l instanceof String && r instanceof String) {
+				if (!"=".equals(operator) && !"<>".equals(operator)) {
+					// strings only support equality
+					return null;
+				}
+				result = ((String) l).compareTo((String) r);
+			} else if (l instanceof Boolean && r instanceof Boolean) {
+				if (!"=".equals(operator) && !"<>".equals(operator)) {
+					return null;
+				}
+				result = l.equals(r) ? 0 : 1;
+			} else {
+				// types do not compare
+				return null;
+			}
+			if ("=".equals(operator)) {
+				return result == 0;
+			} else if ("<>".equals(operator)) {
+				return result != 0;
+			} else if ("<".equals(operator)) {
+				return result < 0;
+			} else if (">".equals(operator)) {
+				return result > 0;
+			} else if ("<=".equals(operator)) {
+				return result <= 0;
+			}
+			return result >= 0;
+		}
+
+	}
+
+	private static final class IsNull implements Node {
+
+		final Node operand;
+
+		IsNull(Node operand) {
+			this.operand = operand;
+		}
+
+		public Object evaluate(Map<String, Object> headers) {
+			return operand.evaluate(headers) == null;
+		}
+
+	}
+
+	private static final class In implements Node {
+
+		final Node operand;
+
+		final List<String> values;
+
+		In(Node operand, List<String> values) {
+			this.operand = operand;
+			this.values = values;
+		}
+
+		public Object evaluate(Map<String, Object> headers) {
+			Object value = operand.evaluate(headers);
+			return value instanceof String ? values.contains(value) : null;
+		}
+
+	}
+
+	private static final class Like implements Node {
+
+		final Node operand;
+
+		final Pattern pattern;
+
+		Like(Node operand, Pattern pattern) {
+			this.operand = operand;
+			this.pattern = pattern;
+		}
+
+		public Object evaluate(Map<String, Object> headers) {
+			Object value = operand.evaluate(headers);
+			return value instanceof String ? pattern.matcher((String) value).matches() : null;
+		}
+
+	}
+
+	/**
+	 * Recursive descent parser over the tokens of an expression.
+	 */
+	private static final class Parser {
+
+		final String expression;
+
+		final List<Object> tokens = new ArrayList<Object>();
+
+		int index;
+
+		Parser(String expression) {
+			this.expression = expression;
+			tokenize();
+		}
+
+		IllegalArgumentException error(String message) {
+			return new IllegalArgumentException(String.format("%s in selector: %s", message, expression));
+		}
+
+		Object peek() {
+			return index < tokens.size() ? tokens.get(index) : null;
+		}
+
+		Object next() {
+			if (index >= tokens.size()) {
+				throw error("Unexpected end");
+			}
+			return tokens.get(index++);
+		}
+
+		boolean accept(String keyword) {
+			Object token = peek();
+			if (token instanceof Keyword && ((Keyword) token).text.equals(keyword)) {
+				index++;
+				return true;
+			}
+			return false;
+		}
+
+		void expect(String keyword) {
+			if (!accept(keyword)) {
+				throw error("Expected " + keyword);
+			}
+		}
+
+		Node parseOr() {
+			Node node = parseAnd();
+			while (accept("OR")) {
+				node = new Or(node, parseAnd());
+			}
+			return node;
+		}
+
+		Node parseAnd() {
+			Node node = parseNot();
+			while (accept("AND")) {
+				node = new And(node, parseNot());
+			}
+			return node;
+		}
+
+		Node parseNot() {
+			if (accept("NOT")) {
+				return new Not(parseNot());
+			}
+			return parseComparison();
+		}
+
+		Node parseComparison() {
+			Node left = parsePrimary();
+			Object token = peek();
+			if (token instanceof Keyword) {
+				String text = ((Keyword) token).text;
+				if ("=".equals(text) || "<>".equals(text) || "<".equals(text) || ">".equals(text) || "<=".equals(text) || ">=".equals(text)) {
+					index++;
+					return new Comparison(text, left, parsePrimary());
+				}
+				if (accept("IS")) {
+					boolean negate = accept("NOT");
+					expect("NULL");
+					Node node = new IsNull(left);
+					return negate ? new Not(node) : node;
+				}
+				boolean negate = accept("NOT");
+				Node node;
+				if (accept("IN")) {
+					node = parseIn(left);
+				} else if (accept("LIKE")) {
+					node = parseLike(left);
+				} else if (negate) {
+					throw error("Expected IN or LIKE");
+				} else {
+					return left;
+				}
+				return negate ? new Not(node) : node;
+			}
+			return left;
+		}
+
+		Node parseIn(Node left) {
+			expect("(");
+			List<String> values = new ArrayList<String>();
+			do {
+				Object token = next();
+				if (!(token instanceof String)) {
+					throw error("Expected string literal");
+				}
+				values.add((String) token);
+			} while (accept(","));
+			expect(")");
+			return new In(left, values);
+		}
+
+		Node parseLike(Node left) {
+			Object token = next();
+			if (!(token instanceof String)) {
+				throw error("Expected string literal");
+			}
+			String pattern = (String) token;
+			char escape = 0;
+			if (accept("ESCAPE")) {
+				Object escapeToken = next();
+				if (!(escapeToken instanceof String) || ((String) escapeToken).length() != 1) {
+					throw error("Expected escape character");
+				}
+				escape = ((String) escapeToken).charAt(0);
+			}
+			StringBuilder regex = new StringBuilder();
+			for (int i = 0; i < pattern.length(); i++) {
+				char c = pattern.charAt(i);
+				if (escape != 0 && c == escape && i + 1 < pattern.length()) {
+					regex.append(Pattern.quote(String.valueOf(pattern.charAt(++i))));
+				} else if (c == '%') {
+					regex.append(".*");
+				} else if (c == '_') {
+					regex.append('.');
+				} else {
+					regex.append(Pattern.quote(String.valueOf(c)));
+				}
+			}
+			return new Like(left, Pattern.compile(regex.toString(), Pattern.DOTALL));
+		}
+
+		Node parsePrimary() {
+			Object token = next();
+			if (token instanceof Keyword) {
+				String text = ((Keyword) token).text;
+				if ("(".equals(text)) {
+					Node node = parseOr();
+					expect(")");
+					return node;
+				} else if ("TRUE".equals(text)) {
+					return new Literal(Boolean.TRUE);
+				} else if ("FALSE".equals(text)) {
+					return new Literal(Boolean.FALSE);
+				}
+				throw error("Unexpected " + text);
+			} else if (token instanceof Name) {
+				return new Identifier(((Name) token).text);
+			}
+			// string or number literal
+			return new Literal(token);
+		}
+
+		void tokenize() {
+			int length = expression.length();
+			int i = 0;
+			while (i < length) {
+				char c = expression.charAt(i);
+				if (Character.isWhitespace(c)) {
+					i++;
+				} else if (c == '\'') {
+					StringBuilder value = new StringBuilder();
+					i++;
+					while (true) {
+						if (i >= length) {
+							throw error("Unterminated string");
+						}
+						c = expression.charAt(i++);
+						if (c == '\'') {
+							if (i < length && expression.charAt(i) == '\'') {
+								value.append('\'');
+								i++;
+							} else {
+								break;
+							}
+						} else {
+							value.append(c);
+						}
+					}
+					tokens.add(value.toString());
+				} else if (Character.isDigit(c) || (c == '.' && i + 1 < length && Character.isDigit(expression.charAt(i + 1)))
+						|| (c == '-' && i + 1 < length && Character.isDigit(expression.charAt(i + 1)) && !endsOperand())) {
+					int start = i++;
+					while (i < length && (Character.isLetterOrDigit(expression.charAt(i)) || expression.charAt(i) == '.')) {
+						i++;
+					}
+					String number = expression.substring(start, i);
+					try {
+						if (number.indexOf('.') >= 0 || number.indexOf('e') >= 0 || number.indexOf('E') >= 0) {
+							tokens.add(Double.valueOf(number));
+						} else {
+							tokens.add(Long.valueOf(number));
+						}
+					} catch (NumberFormatException e) {
+						throw error("Invalid number " + number);
+					}
+				} else if (Character.isJavaIdentifierStart(c)) {
+					int start = i++;
+					while (i < length && Character.isJavaIdentifierPart(expression.charAt(i))) {
+						i++;
+					}
+					String word = expression.substring(start, i);
+					String upper = word.toUpperCase();
+					if ("AND".equals(upper) || "OR".equals(upper) || "NOT".equals(upper) || "IS".equals(upper) || "NULL".equals(upper) || "IN".equals(upper)
+							|| "LIKE".equals(upper) || "ESCAPE".equals(upper) || "TRUE".equals(upper) || "FALSE".equals(upper)) {
+						tokens.add(new Keyword(upper));
+					} else {
+						tokens.add(new Name(word));
+					}
+				} else if (c == '<' && i + 1 < length && (expression.charAt(i + 1) == '>' || expression.charAt(i + 1) == '=')) {
+					tokens.add(new Keyword(expression.substring(i, i + 2)));
+					i += 2;
+				} else if (c == '>' && i + 1 < length && expression.charAt(i + 1) == '=') {
+					tokens.add(new Keyword(">="));
+					i += 2;
+				} else if (c == '=' || c == '<' || c == '>' || c == '(' || c == ')' || c == ',') {
+					tokens.add(new Keyword(String.valueOf(c)));
+					i++;
+				} else {
+					throw error("Unexpected character '" + c + "'");
+				}
+			}
+		}
+
+		/**
+		 * Whether the last token ends an operand, in which case a minus sign can not start a number.
+		 */
+		private boolean endsOperand() {
+			if (tokens.isEmpty()) {
+				return false;
+			}
+			Object last = tokens.get(tokens.size() - 1);
+			return !(last instanceof Keyword) || ")".equals(((Keyword) last).text);
+		}
+
+	}
+
+	private static final class Keyword {
+
+		final String text;
+
+		Keyword(String text) {
+			this.text = text;
+		}
+
+		@Override
+		public String toString() {
+			return text;
+		}
+
+	}
+
+	private static final class Name {
+
+		final String text;
+
+		Name(String text) {
+			this.text = text;
+		}
+
+		@Override
+		public String toString() {
+			return text;
+		}
+
+	}
+
+}
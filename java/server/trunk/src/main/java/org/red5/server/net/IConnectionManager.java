@@ -46,7 +46,8 @@ public interface IConnectionManager<T> {
 	T getConnectionBySessionId(String sessionId);
 	
 	/**
-	 * Returns all the current connections. It doesn't remove anything.
+	 * Returns all the current connections. It doesn't remove anything; the collection is a read-only view
+	 * that follows new and removed connections.
 	 * 
 	 * @return list of connections
 	 */
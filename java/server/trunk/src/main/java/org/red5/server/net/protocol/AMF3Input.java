@@ -0,0 +1,58 @@
+/*
+ * RED5 Open Source Flash Server - http://code.google.com/p/red5/
+ *
+ * Copyright 2006-2013 by respective authors (see below). All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.red5.server.net.protocol;
+
+import org.apache.mina.core.buffer.IoBuffer;
+import org.red5.io.amf3.Input;
+
+/**
+ * AMF3 input resolving class names through the {@link ClassDescriptor} cache instead of the class loader on
+ * every object.
+ *
+ * @author The Red5 Project
+ */
+public class AMF3Input extends Input {
+
+	public AMF3Input(IoBuffer buf) {
+		super(buf);
+	}
+
+	public AMF3Input(IoBuffer buf, RefStorage refStorage) {
+		super(buf, refStorage);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	protected Object newInstance(String className) {
+		Class<?> clazz = ClassDescriptor.getClass(className);
+		if (clazz != null) {
+			try {
+				return clazz.newInstance();
+			} catch (Exception e) {
+				log.debug("Cached class {} could not be instantiated", clazz, e);
+			}
+		}
+		Object instance = super.newInstance(className);
+		if (instance != null) {
+			ClassDescriptor.putClass(className, instance.getClass());
+		}
+		return instance;
+	}
+
+}
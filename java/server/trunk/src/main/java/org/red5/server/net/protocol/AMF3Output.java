@@ -0,0 +1,83 @@
+/*
+ * RED5 Open Source Flash Server - http://code.google.com/p/red5/
+ *
+ * Copyright 2006-2013 by respective authors (see below). All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.red5.server.net.protocol;
+
+import org.apache.mina.core.buffer.IoBuffer;
+import org.red5.io.amf3.AMF3;
+import org.red5.io.amf3.IExternalizable;
+import org.red5.io.amf3.Output;
+import org.red5.io.object.Serializer;
+
+/**
+ * AMF3 output writing beans through their cached {@link ClassDescriptor} instead of a new bean map per object.
+ *
+ * @author The Red5 Project
+ */
+public class AMF3Output extends Output {
+
+	/**
+	 * Nesting depth of objects written by this class; the base class tracks its own containers
+	 */
+	private int depth;
+
+	public AMF3Output(IoBuffer buf) {
+		super(buf);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	protected void writeAMF3() {
+		// the switch marker is only written outside of any container
+		if (depth == 0) {
+			super.writeAMF3();
+		}
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void writeObject(Object object) {
+		ClassDescriptor descriptor = ClassDescriptor.getDescriptor(object.getClass());
+		if (object instanceof IExternalizable || !descriptor.isBean()) {
+			super.writeObject(object);
+			return;
+		}
+		writeAMF3();
+		buf.put(AMF3.TYPE_OBJECT);
+		if (hasReference(object)) {
+			putInteger(getReferenceId(object) << 1);
+			return;
+		}
+		storeReference(object);
+		// inline class with dynamic key/value pairs
+		putInteger(AMF3.TYPE_OBJECT_VALUE << 2 | 1 << 1 | 1);
+		putString(descriptor.getClassName());
+		depth++;
+		try {
+			for (ClassDescriptor.Property property : descriptor.getProperties()) {
+				putString(property.getName());
+				Serializer.serialize(this, property.getField(), property.getGetter(), object, property.getValue(object));
+			}
+		} finally {
+			depth--;
+		}
+		// end of object marker
+		putString("");
+	}
+
+}
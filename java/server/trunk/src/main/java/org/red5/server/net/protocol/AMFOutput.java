@@ -0,0 +1,71 @@
+/*
+ * RED5 Open Source Flash Server - http://code.google.com/p/red5/
+ *
+ * Copyright 2006-2013 by respective authors (see below). All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.red5.server.net.protocol;
+
+import org.apache.mina.core.buffer.IoBuffer;
+import org.red5.io.amf.AMF;
+import org.red5.io.amf.Output;
+import org.red5.io.object.ICustomSerializable;
+import org.red5.io.object.Serializer;
+
+/**
+ * AMF0 output writing beans through their cached {@link ClassDescriptor} instead of a new bean map per object.
+ *
+ * @author The Red5 Project
+ */
+public class AMFOutput extends Output {
+
+	public AMFOutput(IoBuffer buf) {
+		super(buf);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void writeObject(Object object) {
+		ClassDescriptor descriptor = ClassDescriptor.getDescriptor(object.getClass());
+		if (!descriptor.isBean()) {
+			// public fields only
+			super.writeObject(object);
+			return;
+		}
+		if (checkWriteReference(object)) {
+			return;
+		}
+		storeReference(object);
+		if (!descriptor.isAnonymous()) {
+			buf.put(AMF.TYPE_CLASS_OBJECT);
+			putString(buf, descriptor.getClassName());
+		} else {
+			buf.put(AMF.TYPE_OBJECT);
+		}
+		if (object instanceof ICustomSerializable) {
+			((ICustomSerializable) object).serialize(this);
+		} else {
+			for (ClassDescriptor.Property property : descriptor.getProperties()) {
+				putString(buf, property.getName());
+				Serializer.serialize(this, property.getField(), property.getGetter(), object, property.getValue(object));
+			}
+		}
+		// end of object marker
+		buf.put((byte) 0x00);
+		buf.put((byte) 0x00);
+		buf.put(AMF.TYPE_END_OF_OBJECT);
+	}
+
+}
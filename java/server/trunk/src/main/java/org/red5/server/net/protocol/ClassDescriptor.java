@@ -0,0 +1,283 @@
+/*
+ * RED5 Open Source Flash Server - http://code.google.com/p/red5/
+ *
+ * Copyright 2006-2013 by respective authors (see below). All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.red5.server.net.protocol;
+
+import java.beans.BeanInfo;
+import java.beans.IntrospectionException;
+import java.beans.Introspector;
+import java.beans.PropertyDescriptor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.red5.annotations.Anonymous;
+import org.red5.io.object.Serializer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Serialization details of a bean class, looked up once per class instead of once per serialized object: the
+ * class name or alias written to the stream and the properties to serialize with their getters and fields.
+ * <br />
+ * Also remembers the classes resolved by name during deserialization, per context class loader. Both caches hold
+ * their classes strongly, the server drops the entries of an application with {@link #clearCache(ClassLoader)}
+ * when it is unloaded.
+ *
+ * @author The Red5 Project
+ */
+public final class ClassDescriptor {
+
+	private static final Logger log = LoggerFactory.getLogger(ClassDescriptor.class);
+
+	private static final ConcurrentMap<Class<?>, ClassDescriptor> descriptors = new ConcurrentHashMap<Class<?>, ClassDescriptor>();
+
+	private static final ConcurrentMap<ClassLoader, ConcurrentMap<String, Class<?>>> classes = new ConcurrentHashMap<ClassLoader, ConcurrentMap<String, Class<?>>>();
+
+	/**
+	 * Class name or alias, empty for anonymous classes
+	 */
+	private final String className;
+
+	private final boolean anonymous;
+
+	/**
+	 * Whether the class has readable properties other than its class
+	 */
+	private final boolean bean;
+
+	private final Property[] properties;
+
+	private ClassDescriptor(Class<?> clazz) {
+		anonymous = clazz.isAnnotationPresent(Anonymous.class);
+		className = anonymous ? "" : Serializer.getClassName(clazz);
+		List<Property> list = new ArrayList<Property>();
+		boolean readable = false;
+		try {
+			BeanInfo info = Introspector.getBeanInfo(clazz);
+			for (PropertyDescriptor descriptor : info.getPropertyDescriptors()) {
+				Method getter = descriptor.getReadMethod();
+				if (getter == null) {
+					continue;
+				}
+				String name = descriptor.getName();
+				if (!"class".equals(name)) {
+					readable = true;
+				}
+				Field field = findField(clazz, name);
+				if (Serializer.serializeField(name, field, getter)) {
+					list.add(new Property(name, getter, field));
+				}
+			}
+		} catch (IntrospectionException e) {
+			log.warn("Introspection of {} failed", clazz, e);
+		}
+		bean = readable;
+		properties = list.toArray(new Property[list.size()]);
+	}
+
+	/**
+	 * Returns the descriptor of the given class.
+	 *
+	 * @param clazz class
+	 * @return descriptor
+	 */
+	public static ClassDescriptor getDescriptor(Class<?> clazz) {
+		ClassDescriptor descriptor = descriptors.get(clazz);
+		if (descriptor == null) {
+			descriptor = new ClassDescriptor(clazz);
+			ClassDescriptor existing = descriptors.putIfAbsent(clazz, descriptor);
+			if (existing != null) {
+				descriptor = existing;
+			}
+		}
+		return descriptor;
+	}
+
+	/**
+	 * Returns a class previously resolved by the given name with the current context class loader.
+	 *
+	 * @param className name as found in the stream
+	 * @return class or null if not resolved yet
+	 */
+	public static Class<?> getClass(String className) {
+		ConcurrentMap<String, Class<?>> map = classes.get(Thread.currentThread().getContextClassLoader());
+		return map != null ? map.get(className) : null;
+	}
+
+	/**
+	 * Remembers the class resolved for a name with the current context class loader.
+	 *
+	 * @param className name as found in the stream
+	 * @param clazz resolved class
+	 */
+	public static void putClass(String className, Class<?> clazz) {
+		ClassLoader loader = Thread.currentThread().getContextClassLoader();
+		ConcurrentMap<String, Class<?>> map = classes.get(loader);
+		if (map == null) {
+			map = new ConcurrentHashMap<String, Class<?>>();
+			ConcurrentMap<String, Class<?>> existing = classes.putIfAbsent(loader, map);
+			if (existing != null) {
+				map = existing;
+			}
+		}
+		map.put(className, clazz);
+	}
+
+	/**
+	 * Drops all cached descriptors and classes so that class loaders of unloaded applications can be collected.
+	 */
+	public static void clearCache() {
+		descriptors.clear();
+		classes.clear();
+	}
+
+	/**
+	 * Drops the cached descriptors and classes loaded by the given class loader or one of its children, so that the
+	 * class loader of an unloaded application can be collected.
+	 *
+	 * @param loader class loader of the application
+	 */
+	public static void clearCache(ClassLoader loader) {
+		if (loader == null) {
+			return;
+		}
+		for (Iterator<Class<?>> it = descriptors.keySet().iterator(); it.hasNext();) {
+			if (isLoadedBy(it.next(), loader)) {
+				it.remove();
+			}
+		}
+		for (Iterator<Map.Entry<ClassLoader, ConcurrentMap<String, Class<?>>>> it = classes.entrySet().iterator(); it.hasNext();) {
+			Map.Entry<ClassLoader, ConcurrentMap<String, Class<?>>> entry = it.next();
+			if (isChild(entry.getKey(), loader)) {
+				it.remove();
+			} else {
+				// application classes resolved on a thread of the server
+				for (Iterator<Class<?>> values = entry.getValue().values().iterator(); values.hasNext();) {
+					if (isLoadedBy(values.next(), loader)) {
+						values.remove();
+					}
+				}
+			}
+		}
+	}
+
+	private static boolean isLoadedBy(Class<?> clazz, ClassLoader loader) {
+		return isChild(clazz.getClassLoader(), loader);
+	}
+
+	private static boolean isChild(ClassLoader candidate, ClassLoader loader) {
+		for (ClassLoader parent = candidate; parent != null; parent = parent.getParent()) {
+			if (parent == loader) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static Field findField(Class<?> clazz, String name) {
+		for (Class<?> c = clazz; c != null && !c.equals(Object.class); c = c.getSuperclass()) {
+			for (Field field : c.getDeclaredFields()) {
+				if (field.getName().equals(name)) {
+					return field;
+				}
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * @return class name or alias to write, empty for anonymous classes
+	 */
+	public String getClassName() {
+		return className;
+	}
+
+	/**
+	 * @return whether the class is marked as {@link Anonymous}
+	 */
+	public boolean isAnonymous() {
+		return anonymous;
+	}
+
+	/**
+	 * @return whether the class is serialized through its properties rather than its public fields
+	 */
+	public boolean isBean() {
+		return bean;
+	}
+
+	/**
+	 * @return properties to serialize
+	 */
+	public Property[] getProperties() {
+		return properties;
+	}
+
+	/**
+	 * Serializable property of a bean.
+	 */
+	public static final class Property {
+
+		private final String name;
+
+		private final Method getter;
+
+		private final Field field;
+
+		Property(String name, Method getter, Field field) {
+			this.name = name;
+			this.getter = getter;
+			this.field = field;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public Method getGetter() {
+			return getter;
+		}
+
+		public Field getField() {
+			return field;
+		}
+
+		/**
+		 * Reads the property of the given bean.
+		 *
+		 * @param bean bean
+		 * @return value or null if it could not be read
+		 */
+		public Object getValue(Object bean) {
+			try {
+				return getter.invoke(bean);
+			} catch (Exception e) {
+				log.warn("Property {} of {} could not be read", name, bean.getClass(), e);
+				return null;
+			}
+		}
+
+	}
+
+}
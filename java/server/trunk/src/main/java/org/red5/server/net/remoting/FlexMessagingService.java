@@ -43,11 +43,14 @@ import org.red5.compatibility.flex.messaging.messages.RemotingMessage;
 import org.red5.io.utils.ConversionUtils;
 import org.red5.io.utils.RandomGUID;
 import org.red5.server.api.IClient;
+import org.red5.server.api.IConnection;
 import org.red5.server.api.Red5;
 import org.red5.server.api.service.IPendingServiceCall;
 import org.red5.server.api.service.IServiceInvoker;
 import org.red5.server.exception.ClientDetailsException;
+import org.red5.server.messaging.MessageDestination;
 import org.red5.server.messaging.ServiceAdapter;
+import org.red5.server.net.rtmp.RTMPConnection;
 import org.red5.server.service.PendingCall;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -358,6 +361,20 @@ public class FlexMessagingService {
     						} else {
     							log.debug("Client was not subscribed");
     						}
+    					} else if (endpoint instanceof MessageDestination) {
+    						//messages are pushed, which needs an rtmp connection
+    						IConnection conn = Red5.getConnectionLocal();
+    						if (!(conn instanceof RTMPConnection)) {
+    							String errMsg = String.format("Destination %s needs an RTMP channel.", destination);
+    							return returnError(msg, "Client.Subscribe.Error", errMsg, errMsg);
+    						}
+    						try {
+    							((MessageDestination) endpoint).subscribe(clientId, (RTMPConnection) conn, (String) headers.get(MessageDestination.SUBTOPIC_HEADER),
+    									(String) headers.get(Message.SELECTOR_HEADER));
+    						} catch (IllegalArgumentException e) {
+    							log.debug("Client was not subscribed", e);
+    							return returnError(msg, "Client.Subscribe.Error", e.getMessage(), e.getMessage());
+    						}
     					}
     				}
 				}
@@ -366,7 +383,13 @@ public class FlexMessagingService {
 
 			case Constants.UNSUBSCRIBE_OPERATION: //1
 				log.trace("Unsubscribe: {}", clientId);
-				if (registrations.containsKey(clientId)) {
+				if (endpoints.get(destination) instanceof MessageDestination) {
+					MessageDestination messageDestination = (MessageDestination) endpoints.get(destination);
+					if (!messageDestination.unsubscribe(clientId, (String) headers.get(MessageDestination.SUBTOPIC_HEADER),
+							(String) headers.get(Message.SELECTOR_HEADER))) {
+						log.debug("Client was not subscribed");
+					}
+				} else if (registrations != null && registrations.containsKey(clientId)) {
 					ServiceAdapter adapter = registrations.get(clientId);
 					boolean unsubscribed = ((Boolean) adapter.manage(msg));
 					if (unsubscribed) {
@@ -380,6 +403,36 @@ public class FlexMessagingService {
 				}
 				// Send back unregistration ok
 				break;
+
+			case Constants.MULTI_SUBSCRIBE_OPERATION: //11
+				log.debug("Multi subscribe: {}", clientId);
+				if (!(endpoints.get(destination) instanceof MessageDestination)) {
+					String errMsg = String.format("Destination %s doesn't support multi topic consumers.", destination);
+					return returnError(msg, "Client.Subscribe.Error", errMsg, errMsg);
+				}
+				MessageDestination messageDestination = (MessageDestination) endpoints.get(destination);
+				for (Object entry : MessageDestination.getEntries(headers.get(Message.REMOVE_SUBSCRIPTIONS))) {
+					String[] subscription = MessageDestination.parseSubscription(entry);
+					messageDestination.unsubscribe(clientId, subscription[0], subscription[1]);
+				}
+				Object added = headers.get(MessageDestination.ADD_SUBSCRIPTIONS_HEADER);
+				if (added != null) {
+					IConnection conn = Red5.getConnectionLocal();
+					if (!(conn instanceof RTMPConnection)) {
+						String errMsg = String.format("Destination %s needs an RTMP channel.", destination);
+						return returnError(msg, "Client.Subscribe.Error", errMsg, errMsg);
+					}
+					try {
+						for (Object entry : MessageDestination.getEntries(added)) {
+							String[] subscription = MessageDestination.parseSubscription(entry);
+							messageDestination.subscribe(clientId, (RTMPConnection) conn, subscription[0], subscription[1]);
+						}
+					} catch (IllegalArgumentException e) {
+						log.debug("Client was not subscribed", e);
+						return returnError(msg, "Client.Subscribe.Error", e.getMessage(), e.getMessage());
+					}
+				}
+				break;
 				
 			default:
 				log.error("Unknown CommandMessage request: {}", msg);
@@ -474,6 +527,34 @@ public class FlexMessagingService {
 		return result;
 	}
 
+	/**
+	 * Handle messages published by <code>mx:Producer</code> tags. Messages to a {@link MessageDestination} are pushed
+	 * to its consumers, others are handled like any other message.
+	 * 
+	 * @param msg message
+	 * @return acknowledge or error message
+	 */
+	public Message handleRequest(AsyncMessage msg) {
+		Object endpoint = endpoints.get(msg.getDestination());
+		if (!(endpoint instanceof MessageDestination)) {
+			return handleRequest((AbstractMessage) msg);
+		}
+		log.debug("Handle AsyncMessage request");
+		log.trace("{}", msg);
+		setClientId(msg);
+		MessageDestination.removeChannelHeaders(msg.getHeaders());
+		if (msg.getTimestamp() == 0) {
+			msg.setTimestamp(System.currentTimeMillis());
+		}
+		int count = ((MessageDestination) endpoint).publish(msg);
+		log.debug("Message {} pushed to {} consumers", msg.getMessageId(), count);
+		AcknowledgeMessage result = new AcknowledgeMessage();
+		result.setClientId(msg.getClientId());
+		result.setCorrelationId(msg.getMessageId());
+		result.setDestination(msg.getDestination());
+		return result;
+	}
+
 	/**
 	 * Fallback method to handle arbitrary messages.
 	 * 
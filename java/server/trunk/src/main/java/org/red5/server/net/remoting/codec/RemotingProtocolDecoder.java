@@ -30,6 +30,8 @@ import org.red5.io.amf.AMF;
 import org.red5.io.amf3.Input.RefStorage;
 import org.red5.io.object.Deserializer;
 import org.red5.io.object.Input;
+import org.red5.server.net.protocol.AMF3Input;
+import org.red5.server.net.protocol.AMFInput;
 import org.red5.server.net.remoting.FlexMessagingService;
 import org.red5.server.net.remoting.message.RemotingCall;
 import org.red5.server.net.remoting.message.RemotingPacket;
@@ -90,9 +92,9 @@ public class RemotingProtocolDecoder {
 		}
 		Input input;
 		if (version == 3) {
-			input = new org.red5.io.amf3.Input(in);
+			input = new AMF3Input(in);
 		} else {
-			input = new org.red5.io.amf.Input(in);
+			input = new AMFInput(in);
 		}
 		Map<String, Object> result = new HashMap<String, Object>();
 		for (int i = 0; i < count; i++) {
@@ -149,12 +151,12 @@ public class RemotingProtocolDecoder {
 					isAMF3 = (amf3Check == AMF.TYPE_AMF3_OBJECT);
 					if (isAMF3) {
 						if (refStorage == null) {
-							input = new org.red5.io.amf3.Input(in);
+							input = new AMF3Input(in);
 						} else {
-							input = new org.red5.io.amf3.Input(in, refStorage);
+							input = new AMF3Input(in, refStorage);
 						}
 					} else {
-						input = new org.red5.io.amf.Input(in);
+						input = new AMFInput(in);
 					}
 					// prepare remoting mode
 					input.reset();
@@ -34,6 +34,8 @@ import org.red5.server.api.Red5;
 import org.red5.server.api.remoting.IRemotingConnection;
 import org.red5.server.api.remoting.IRemotingHeader;
 import org.red5.server.exception.ClientDetailsException;
+import org.red5.server.net.protocol.AMF3Output;
+import org.red5.server.net.protocol.AMFOutput;
 import org.red5.server.net.remoting.FlexMessagingService;
 import org.red5.server.net.remoting.message.RemotingCall;
 import org.red5.server.net.remoting.message.RemotingPacket;
@@ -72,9 +74,9 @@ public class RemotingProtocolEncoder {
 		Collection<IRemotingHeader> headers = conn.getHeaders();
 		buf.putShort((short) headers.size()); // write the header count
 		if (resp.getEncoding() == Encoding.AMF0) {
-			output = new Output(buf);
+			output = new AMFOutput(buf);
 		} else {
-			output = new org.red5.io.amf3.Output(buf);
+			output = new AMF3Output(buf);
 		}
 		for (IRemotingHeader header : headers) {
 			Output.putString(buf, IRemotingHeader.PERSISTENT_HEADER);
@@ -99,9 +101,9 @@ public class RemotingProtocolEncoder {
 			buf.putInt(-1);
 			log.info("result: {}", call.getResult());
 			if (call.isAMF3) {
-				output = new org.red5.io.amf3.Output(buf);
+				output = new AMF3Output(buf);
 			} else {
-				output = new Output(buf);
+				output = new AMFOutput(buf);
 			}
 			Object result = call.getClientResult();
 			if (!call.isSuccess()) {
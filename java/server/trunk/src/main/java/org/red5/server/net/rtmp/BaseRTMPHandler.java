@@ -289,7 +289,7 @@ public abstract class BaseRTMPHandler implements IRTMPHandler, Constants, Status
 	 * @param message ClientBW
 	 */
 	protected void onClientBandwidth(RTMPConnection conn, Channel channel, ClientBW message) {
-
+		conn.getSendWindow().setPeerBandwidth(message.getBandwidth());
 	}
 
 	/**
@@ -107,6 +107,8 @@ public class Channel {
 			write(event, streamId);
 		} else {
 			log.trace("Connection is null for channel: {}", id);
+			// the event will not reach an encoder to release it
+			event.release();
 		}
 	}
 
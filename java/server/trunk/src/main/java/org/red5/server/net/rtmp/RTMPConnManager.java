@@ -21,7 +21,9 @@ package org.red5.server.net.rtmp;
 import java.lang.management.ManagementFactory;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Iterator;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.Executors;
@@ -58,67 +60,164 @@ public class RTMPConnManager implements IConnectionManager<RTMPConnection>, Appl
 
 	protected static ApplicationContext applicationContext;
 
+	/**
+	 * Number of slots of the inactivity wheel, at one tick per second a connection is looked at again after at
+	 * most this many seconds
+	 */
+	private static final int WHEEL_SIZE = 64;
+
+	private static final long TICK_INTERVAL = 1000;
+
 	private ScheduledExecutorService executor = Executors.newScheduledThreadPool(1, new CustomizableThreadFactory("ConnectionChecker-"));
 
 	protected ConcurrentMap<String, RTMPConnection> connMap = new ConcurrentHashMap<String, RTMPConnection>();
 
+	/**
+	 * Connections by client id, filled once the client is known
+	 */
+	protected ConcurrentMap<Integer, RTMPConnection> connMapById = new ConcurrentHashMap<Integer, RTMPConnection>();
+
 	protected AtomicInteger conns = new AtomicInteger();
 
 	protected static IConnectionManager<RTMPConnection> instance;
 
 	protected boolean debug;
-	
+
+	/**
+	 * Connections by the slot of the tick their inactivity deadline falls in
+	 */
+	@SuppressWarnings("unchecked")
+	private final Set<RTMPConnection>[] wheel = new Set[WHEEL_SIZE];
+
+	/**
+	 * Slot each connection is in
+	 */
+	private final ConcurrentMap<RTMPConnection, Integer> wheelSlots = new ConcurrentHashMap<RTMPConnection, Integer>();
+
+	private volatile long tick;
+
 	{
-		// create a scheduled job to check for dead or hung connections
+		for (int i = 0; i < WHEEL_SIZE; i++) {
+			wheel[i] = Collections.newSetFromMap(new ConcurrentHashMap<RTMPConnection, Boolean>());
+		}
+		tick = System.currentTimeMillis() / TICK_INTERVAL;
+		// each tick checks only the connections whose deadline falls in it, to find dead or hung connections
 		executor.scheduleAtFixedRate(new Runnable() {
-			public void run() {				
-				// count the connections that need closing
-				int closedConnections = 0;
-				// get all the current connections
-				Collection<RTMPConnection> allConns = getAllConnections();
-				log.debug("Checking {} connections", allConns.size());
-				for (RTMPConnection conn : allConns) {
-					if (log.isTraceEnabled()) {
-						log.trace("{} session: {} state: {} keep-alive running: {}", new Object[] { conn.getClass().getSimpleName(), conn.getSessionId(), conn.getState().states[conn.getStateCode()], conn.running });
-						log.trace("Decoder lock - permits: {} queue length: {}", conn.decoderLock.availablePermits(), conn.decoderLock.getQueueLength());
-						log.trace("Encoder lock - permits: {} queue length: {}", conn.encoderLock.availablePermits(), conn.encoderLock.getQueueLength());
-						log.trace("Client streams: {} used: {}", conn.getStreams().size(), conn.getUsedStreamCount());
-						log.trace("Attributes: {}", conn.getAttributes());
-						Iterator<IBasicScope> scopes = conn.getBasicScopes();
-						while (scopes.hasNext()) {
-							IBasicScope scope = scopes.next();
-							log.trace("Scope: {}", scope);
-						}
-					}
-					long ioTime = 0L;
-					if (conn instanceof RTMPMinaConnection) {
-						IoSession session = ((RTMPMinaConnection) conn).getIoSession();
-						ioTime = System.currentTimeMillis() - session.getLastIoTime();
-						if (log.isTraceEnabled()) {
-							log.trace("Session - write queue: {} last io time: {} ms", session.getWriteRequestQueue().size(), ioTime);
-							log.trace("Managed session count: {}", session.getService().getManagedSessionCount());
-						}
-						// clear the write queue
-						session.getWriteRequestQueue().clear(session);
-					} else if (conn instanceof RTMPTConnection) {
-						ioTime = System.currentTimeMillis() - ((RTMPTConnection) conn).getLastDataReceived();			
-					}
-					// if exceeds max inactivity kill and clean up
-					if (ioTime >= conn.maxInactivity) {
-						log.warn("Connection {} has exceeded the max inactivity threshold", conn.getSessionId());
-						conn.onInactive();
-						if (!conn.isClosed()) {
-							log.debug("Connection {} is not closed", conn.getSessionId());
-						}
-						closedConnections++;
-					}
+			public void run() {
+				try {
+					checkConnections();
+				} catch (Throwable t) {
+					log.warn("Exception checking connections", t);
 				}
-				// if there is more than one connection that needed to be closed, request a GC to clean up memory.
-				if (closedConnections > 0) {
-					System.gc();
+			}
+		}, TICK_INTERVAL, TICK_INTERVAL, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Checks the connections of the slots passed since the last tick. A connection with I/O since it was
+	 * scheduled moves on to the slot of its new deadline, one without is closed.
+	 */
+	private void checkConnections() {
+		long now = System.currentTimeMillis();
+		long currentTick = now / TICK_INTERVAL;
+		// catch up if the checker fell behind, but never go round more than once
+		long from = Math.max(tick + 1, currentTick - WHEEL_SIZE + 1);
+		tick = currentTick;
+		for (long t = from; t <= currentTick; t++) {
+			int slot = (int) (t % WHEEL_SIZE);
+			for (RTMPConnection conn : wheel[slot]) {
+				long lastIoTime = getLastIoTime(conn);
+				long deadline = lastIoTime + conn.maxInactivity;
+				if (lastIoTime > 0 && now >= deadline) {
+					unschedule(conn);
+					closeInactive(conn, now - lastIoTime);
+				} else {
+					// no i/o information yet, look again one interval from now
+					schedule(conn, lastIoTime > 0 ? deadline : now + conn.maxInactivity, slot);
 				}
 			}
-		}, 7000, 30000, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	/**
+	 * Returns the time of the last I/O of a connection.
+	 * 
+	 * @param conn connection
+	 * @return time in milliseconds or 0 if not known
+	 */
+	private static long getLastIoTime(RTMPConnection conn) {
+		if (conn instanceof RTMPMinaConnection) {
+			IoSession session = ((RTMPMinaConnection) conn).getIoSession();
+			return session != null ? session.getLastIoTime() : 0;
+		} else if (conn instanceof RTMPTConnection) {
+			return ((RTMPTConnection) conn).getLastDataReceived();
+		}
+		return 0;
+	}
+
+	private void closeInactive(RTMPConnection conn, long ioTime) {
+		if (log.isTraceEnabled()) {
+			log.trace("{} session: {} state: {} keep-alive running: {}", new Object[] { conn.getClass().getSimpleName(), conn.getSessionId(), conn.getState().states[conn.getStateCode()], conn.running });
+			log.trace("Decoder lock - permits: {} queue length: {}", conn.decoderLock.availablePermits(), conn.decoderLock.getQueueLength());
+			log.trace("Encoder lock - permits: {} queue length: {}", conn.encoderLock.availablePermits(), conn.encoderLock.getQueueLength());
+			log.trace("Client streams: {} used: {}", conn.getStreams().size(), conn.getUsedStreamCount());
+			log.trace("Attributes: {}", conn.getAttributes());
+			Iterator<IBasicScope> scopes = conn.getBasicScopes();
+			while (scopes.hasNext()) {
+				IBasicScope scope = scopes.next();
+				log.trace("Scope: {}", scope);
+			}
+		}
+		if (conn instanceof RTMPMinaConnection) {
+			IoSession session = ((RTMPMinaConnection) conn).getIoSession();
+			if (session != null) {
+				if (log.isTraceEnabled()) {
+					log.trace("Session - write queue: {} last io time: {} ms", session.getWriteRequestQueue().size(), ioTime);
+					log.trace("Managed session count: {}", session.getService().getManagedSessionCount());
+				}
+				// clear the write queue
+				session.getWriteRequestQueue().clear(session);
+			}
+		}
+		log.warn("Connection {} has exceeded the max inactivity threshold", conn.getSessionId());
+		conn.onInactive();
+		if (!conn.isClosed()) {
+			log.debug("Connection {} is not closed", conn.getSessionId());
+		}
+	}
+
+	/**
+	 * Puts a connection into the slot of its deadline.
+	 * 
+	 * @param conn connection
+	 * @param deadline time in milliseconds
+	 * @param current slot the connection is in, -1 if none
+	 */
+	private void schedule(RTMPConnection conn, long deadline, int current) {
+		// a deadline beyond the wheel is looked at again after one round
+		int slot = (int) (Math.max(deadline / TICK_INTERVAL, tick + 1) % WHEEL_SIZE);
+		if (slot == current) {
+			return;
+		}
+		if (current == -1) {
+			wheelSlots.put(conn, slot);
+		} else if (wheelSlots.replace(conn, current, slot)) {
+			wheel[current].remove(conn);
+		} else {
+			// removed meanwhile
+			return;
+		}
+		wheel[slot].add(conn);
+		if (!wheelSlots.containsKey(conn)) {
+			wheel[slot].remove(conn);
+		}
+	}
+
+	private void unschedule(RTMPConnection conn) {
+		Integer slot = wheelSlots.remove(conn);
+		if (slot != null) {
+			wheel[slot].remove(conn);
+		}
 	}
 
 	public static IConnectionManager<RTMPConnection> getInstance() {
@@ -145,6 +244,8 @@ public class RTMPConnManager implements IConnectionManager<RTMPConnection>, Appl
 				// add to local map
 				connMap.put(conn.getSessionId(), conn);
 				log.trace("Connections: {}", conns.incrementAndGet());
+				// first look at the connection once it could have been inactive for too long
+				schedule(conn, System.currentTimeMillis() + conn.maxInactivity, -1);
 				// set the scheduler
 				if (applicationContext.containsBean("rtmpScheduler") && conn.getScheduler() == null) {
 					conn.setScheduler((ThreadPoolTaskScheduler) applicationContext.getBean("rtmpScheduler"));
@@ -177,6 +278,9 @@ public class RTMPConnManager implements IConnectionManager<RTMPConnection>, Appl
 			id = conn.getSessionId().hashCode();
 		}
 		log.debug("Connection id: {} session id hash: {}", conn.getId(), conn.getSessionId().hashCode());
+		if (conn.getId() != -1) {
+			connMapById.put(conn.getId(), conn);
+		}
 		if (debug) {
 			log.info("Connection count (map): {}", connMap.size());
 			try {
@@ -199,12 +303,7 @@ public class RTMPConnManager implements IConnectionManager<RTMPConnection>, Appl
 	 */
 	public RTMPConnection getConnection(int clientId) {
 		log.trace("Getting connection by client id: {}", clientId);
-		for (RTMPConnection conn : connMap.values()) {
-			if (conn.getId() == clientId) {
-				return connMap.get(conn.getSessionId());
-			}
-		}
-		return null;
+		return connMapById.get(clientId);
 	}
 
 	/**
@@ -229,12 +328,10 @@ public class RTMPConnManager implements IConnectionManager<RTMPConnection>, Appl
 	/** {@inheritDoc} */
 	public RTMPConnection removeConnection(int clientId) {
 		log.trace("Removing connection with id: {}", clientId);
-		// remove from map
-		for (RTMPConnection conn : connMap.values()) {
-			if (conn.getId() == clientId) {
-				// remove the conn
-				return removeConnection(conn.getSessionId());
-			}
+		RTMPConnection conn = connMapById.get(clientId);
+		if (conn != null) {
+			// remove the conn
+			return removeConnection(conn.getSessionId());
 		}
 		log.warn("Connection was not removed by id: {}", clientId);
 		return null;
@@ -249,6 +346,10 @@ public class RTMPConnManager implements IConnectionManager<RTMPConnection>, Appl
 		// remove from map
 		RTMPConnection conn = connMap.remove(sessionId);
 		if (conn != null) {
+			if (conn.getId() != -1) {
+				connMapById.remove(conn.getId(), conn);
+			}
+			unschedule(conn);
 			log.trace("Connections: {}", conns.decrementAndGet());
 			Red5.setConnectionLocal(null);
 		}
@@ -257,9 +358,7 @@ public class RTMPConnManager implements IConnectionManager<RTMPConnection>, Appl
 
 	/** {@inheritDoc} */
 	public Collection<RTMPConnection> getAllConnections() {
-		ArrayList<RTMPConnection> list = new ArrayList<RTMPConnection>(connMap.size());
-		list.addAll(connMap.values());
-		return list;
+		return Collections.unmodifiableCollection(connMap.values());
 	}
 
 	/** {@inheritDoc} */
@@ -267,6 +366,11 @@ public class RTMPConnManager implements IConnectionManager<RTMPConnection>, Appl
 		ArrayList<RTMPConnection> list = new ArrayList<RTMPConnection>(connMap.size());
 		list.addAll(connMap.values());
 		connMap.clear();
+		connMapById.clear();
+		wheelSlots.clear();
+		for (Set<RTMPConnection> slot : wheel) {
+			slot.clear();
+		}
 		conns.set(0);
 		return list;
 	}
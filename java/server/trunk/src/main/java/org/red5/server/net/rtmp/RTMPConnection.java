@@ -189,9 +189,14 @@ public abstract class RTMPConnection extends BaseConnection implements IStreamCa
 	protected long nextBytesRead = 1024 * 1024;
 
 	/**
-	 * Number of bytes the client reported to have received.
+	 * Bytes the client reported to have received against the window it may have in flight.
 	 */
-	private AtomicLong clientBytesRead = new AtomicLong(0L);
+	private final SendWindow sendWindow = new SendWindow();
+
+	/**
+	 * Whether streams hold back data while the send window is full.
+	 */
+	protected boolean flowControl = true;
 
 	/**
 	 * Map for pending video packets and stream IDs.
@@ -325,6 +330,7 @@ public abstract class RTMPConnection extends BaseConnection implements IStreamCa
 	public void setBandwidth(int mbits) {
 		// tell the flash player how fast we want data and how fast we shall send it
 		getChannel(2).write(new ServerBW(mbits));
+		sendWindow.setAckWindow(mbits);
 		// second param is the limit type (0=hard,1=soft,2=dynamic)
 		getChannel(2).write(new ClientBW(mbits, (byte) limitType));
 	}
@@ -810,11 +816,11 @@ public abstract class RTMPConnection extends BaseConnection implements IStreamCa
 		switch (event.getType()) {
 			case CLIENT_INVOKE:
 				ClientInvokeEvent cie = (ClientInvokeEvent) event;
-				invoke(cie.getMethod(), cie.getParams(), cie.getCallback());
+				invoke(cie.getMethod(), cie.getParams(getEncoding()), cie.getCallback());
 				break;
 			case CLIENT_NOTIFY:
 				ClientNotifyEvent cne = (ClientNotifyEvent) event;
-				notify(cne.getMethod(), cne.getParams());
+				notify(cne.getMethod(), cne.getParams(getEncoding()));
 				break;
 			default:
 				log.warn("Unhandled event: {}", event);
@@ -906,7 +912,7 @@ public abstract class RTMPConnection extends BaseConnection implements IStreamCa
 	 */
 	public void receivedBytesRead(int bytes) {
 		log.debug("Client received {} bytes, written {} bytes, {} messages pending", new Object[] { bytes, getWrittenBytes(), getPendingMessages() });
-		clientBytesRead.addAndGet(bytes);
+		sendWindow.acknowledge(bytes);
 	}
 
 	/**
@@ -915,7 +921,41 @@ public abstract class RTMPConnection extends BaseConnection implements IStreamCa
 	 * @return Number of bytes
 	 */
 	public long getClientBytesRead() {
-		return clientBytesRead.get();
+		return sendWindow.getAcknowledged();
+	}
+
+	/**
+	 * @return send window of the connection
+	 */
+	public SendWindow getSendWindow() {
+		return sendWindow;
+	}
+
+	/**
+	 * Returns the number of bytes queued for writing but not written yet.
+	 * 
+	 * @return bytes scheduled for writing
+	 */
+	public long getScheduledWriteBytes() {
+		return 0;
+	}
+
+	/**
+	 * Returns the number of bytes written or queued for writing that the client has not acknowledged yet.
+	 * 
+	 * @return bytes in flight
+	 */
+	public long getUnacknowledgedBytes() {
+		return sendWindow.getInFlight(getWrittenBytes() + getScheduledWriteBytes());
+	}
+
+	/**
+	 * Returns the number of bytes which may be in flight before streams hold back data.
+	 * 
+	 * @return window size or 0 if the window is not enforced
+	 */
+	public long getSendWindowSize() {
+		return flowControl ? sendWindow.getSize() : 0;
 	}
 
 	/** {@inheritDoc} */
@@ -1210,6 +1250,15 @@ public abstract class RTMPConnection extends BaseConnection implements IStreamCa
 		this.maxInactivity = maxInactivity;
 	}
 
+	/**
+	 * Setter for flow control.
+	 * 
+	 * @param flowControl whether streams hold back data until the client acknowledged enough of the data sent
+	 */
+	public void setFlowControl(boolean flowControl) {
+		this.flowControl = flowControl;
+	}
+
 	/**
 	 * Inactive state event handler.
 	 */
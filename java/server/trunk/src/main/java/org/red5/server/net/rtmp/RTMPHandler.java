@@ -23,6 +23,7 @@ import java.util.Map;
 
 import org.red5.io.object.StreamAction;
 import org.red5.logging.Red5LoggerFactory;
+import org.red5.server.LoaderBase;
 import org.red5.server.api.IConnection.Encoding;
 import org.red5.server.api.IContext;
 import org.red5.server.api.IServer;
@@ -310,6 +311,10 @@ public class RTMPHandler extends BaseRTMPHandler {
 				params.put("path", path);
 				// connection setup
 				conn.setup(host, path, params);
+				// an application started on its first connection is started on a launcher thread
+				if (deferConnect(conn, channel, source, command, path)) {
+					return;
+				}
 				try {
 					// Lookup server scope when connected using host and application name
 					IGlobalScope global = server.lookupGlobal(host, path);
@@ -489,6 +494,37 @@ public class RTMPHandler extends BaseRTMPHandler {
 		}
 	}
 
+	/**
+	 * Starts the application of a connect if it is started on its first connection. The connect is handled again on
+	 * the launcher thread once the start is done, rather than holding up the thread handling the connection.
+	 * 
+	 * @param conn connection
+	 * @param channel channel of the connect
+	 * @param source header of the connect
+	 * @param command connect command
+	 * @param path application path
+	 * @return true if the connect is handled later
+	 */
+	private boolean deferConnect(final RTMPConnection conn, final Channel channel, final Header source, final ICommand command, String path) {
+		String appName = path.indexOf('/') != -1 ? path.substring(0, path.indexOf('/')) : path;
+		final ClassLoader classLoader = Thread.currentThread().getContextClassLoader();
+		return LoaderBase.activateApplication('/' + appName, new Runnable() {
+			public void run() {
+				// the launcher thread runs with the class loader of the application
+				Thread thread = Thread.currentThread();
+				ClassLoader launcherClassLoader = thread.getContextClassLoader();
+				thread.setContextClassLoader(classLoader);
+				Red5.setConnectionLocal(conn);
+				try {
+					onCommand(conn, channel, source, command);
+				} finally {
+					Red5.setConnectionLocal(null);
+					thread.setContextClassLoader(launcherClassLoader);
+				}
+			}
+		});
+	}
+
 	public StatusObject getStatus(String code) {
 		return statusObjectService.getStatusObject(code);
 	}
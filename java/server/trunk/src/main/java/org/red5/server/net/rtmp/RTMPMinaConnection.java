@@ -41,6 +41,7 @@ import org.red5.server.net.rtmp.codec.RTMP;
 import org.red5.server.net.rtmp.event.ClientBW;
 import org.red5.server.net.rtmp.event.ServerBW;
 import org.red5.server.net.rtmp.message.Packet;
+import org.red5.server.statistics.LatencyStats;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.jmx.export.annotation.ManagedResource;
@@ -88,6 +89,7 @@ public class RTMPMinaConnection extends RTMPConnection implements RTMPMinaConnec
 		if (success) {
 			// tell the flash player how fast we want data and how fast we shall send it
 			getChannel(2).write(new ServerBW(defaultServerBandwidth));
+			getSendWindow().setAckWindow(defaultServerBandwidth);
 			// second param is the limit type (0=hard,1=soft,2=dynamic)
 			getChannel(2).write(new ClientBW(defaultClientBandwidth, (byte) limitType));
 			//if the client is null for some reason, skip the jmx registration
@@ -280,6 +282,15 @@ public class RTMPMinaConnection extends RTMPConnection implements RTMPMinaConnec
 		return 0;
 	}
 
+	/** {@inheritDoc} */
+	@Override
+	public long getScheduledWriteBytes() {
+		if (ioSession != null) {
+			return ioSession.getScheduledWriteBytes();
+		}
+		return 0;
+	}
+
 	public void invokeMethod(String method) {
 		invoke(method);
 	}
@@ -332,6 +343,7 @@ public class RTMPMinaConnection extends RTMPConnection implements RTMPMinaConnec
 	/** {@inheritDoc} */
 	@Override
 	public void write(Packet out) {
+		boolean written = false;
 		if (ioSession != null) {
 			final Semaphore lock = getLock();
 			log.trace("Write lock wait count: {} closed: {}", lock.getQueueLength(), isClosed());
@@ -340,9 +352,17 @@ public class RTMPMinaConnection extends RTMPConnection implements RTMPMinaConnec
 				try {
 					acquired = lock.tryAcquire(10, TimeUnit.MILLISECONDS);
 					if (acquired) {
+						if (ioSession.isClosing() || !ioSession.isConnected()) {
+							// the session would fail the write without encoding the packet
+							break;
+						}
 						log.trace("Writing message");
 						writingMessage(out);
+						if (LatencyStats.isEnabled()) {
+							out.setWriteTime(System.nanoTime());
+						}
 						ioSession.write(out);
+						written = true;
 						break;
 					}
 				} catch (InterruptedException e) {
@@ -360,6 +380,10 @@ public class RTMPMinaConnection extends RTMPConnection implements RTMPMinaConnec
 				}
 			}
 		}
+		if (!written && out.getMessage() != null) {
+			// the encoder releases the event of a written packet, nobody else will release this one
+			out.getMessage().release();
+		}
 	}
 
 	/** {@inheritDoc} */
@@ -32,6 +32,7 @@ import org.apache.mina.filter.codec.ProtocolCodecFilter;
 import org.red5.server.net.rtmp.codec.RTMP;
 import org.red5.server.net.rtmp.message.Packet;
 import org.red5.server.net.rtmpe.RTMPEIoFilter;
+import org.red5.server.statistics.LatencyStats;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -97,8 +98,7 @@ public class RTMPMinaIoHandler extends IoHandlerAdapter {
 					session.removeAttribute(RTMPConnection.RTMP_HANDSHAKE);
 				}
 				if (session.containsAttribute(RTMPConnection.RTMPE_CIPHER_IN)) {
-					session.removeAttribute(RTMPConnection.RTMPE_CIPHER_IN);
-					session.removeAttribute(RTMPConnection.RTMPE_CIPHER_OUT);
+					RTMPEIoFilter.removeCiphers(session);
 				}
 			} else {
 				log.warn("Connection was not found for {}", sessionId);
@@ -137,8 +137,7 @@ public class RTMPMinaIoHandler extends IoHandlerAdapter {
 					// if we are using encryption then put the ciphers in the session
 					if (handshake.getHandshakeType() == RTMPConnection.RTMP_ENCRYPTED) {
 						log.debug("Adding ciphers to the session");
-						session.setAttribute(RTMPConnection.RTMPE_CIPHER_IN, handshake.getCipherIn());
-						session.setAttribute(RTMPConnection.RTMPE_CIPHER_OUT, handshake.getCipherOut());
+						RTMPEIoFilter.setCiphers(session, handshake.getCipherIn(), handshake.getCipherOut(), conn.getState());
 					}
 				}
 			}
@@ -170,6 +169,9 @@ public class RTMPMinaIoHandler extends IoHandlerAdapter {
 	/** {@inheritDoc} */
 	@Override
 	public void messageSent(IoSession session, Object message) throws Exception {
+		if (message instanceof Packet && ((Packet) message).getWriteTime() != 0) {
+			LatencyStats.WRITE_QUEUE.record(System.nanoTime() - ((Packet) message).getWriteTime());
+		}
 		String sessionId = (String) session.getAttribute(RTMPConnection.RTMP_SESSION_ID);
 		log.trace("Message sent on session: {} id: {}", session.getId(), sessionId);
 		RTMPMinaConnection conn = (RTMPMinaConnection) RTMPConnManager.getInstance().getConnectionBySessionId(sessionId);
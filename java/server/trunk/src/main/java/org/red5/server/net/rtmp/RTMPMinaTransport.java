@@ -18,8 +18,13 @@
 
 package org.red5.server.net.rtmp;
 
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
 import java.lang.management.ManagementFactory;
 import java.net.InetSocketAddress;
+import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
@@ -27,6 +32,7 @@ import java.util.concurrent.Executor;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.management.MBeanServer;
 import javax.management.ObjectName;
@@ -35,10 +41,13 @@ import javax.management.StandardMBean;
 import org.apache.mina.core.buffer.IoBuffer;
 import org.apache.mina.core.buffer.SimpleBufferAllocator;
 import org.apache.mina.core.filterchain.DefaultIoFilterChainBuilder;
-import org.apache.mina.core.service.AbstractIoService;
 import org.apache.mina.core.service.IoHandlerAdapter;
+import org.apache.mina.core.service.IoService;
+import org.apache.mina.core.service.IoServiceListener;
 import org.apache.mina.core.service.IoServiceStatistics;
 import org.apache.mina.core.service.SimpleIoProcessorPool;
+import org.apache.mina.core.session.IdleStatus;
+import org.apache.mina.core.session.IoSession;
 import org.apache.mina.filter.logging.LoggingFilter;
 import org.apache.mina.transport.socket.SocketAcceptor;
 import org.apache.mina.transport.socket.SocketSessionConfig;
@@ -51,6 +60,10 @@ import org.slf4j.LoggerFactory;
 
 /**
  * Transport setup class configures socket acceptor and thread pools for RTMP in Mina.
+ * <br />
+ * With <tt>acceptors</tt> above one the configured addresses are spread over several acceptors, each with its
+ * own selector thread and I/O processors, so that accepting connections on one address does not wait for the
+ * others.
  * 
  * <br />
  * <i>Note: This code originates from AsyncWeb. Originally modified by Luke Hubbard.</i>
@@ -63,21 +76,28 @@ public class RTMPMinaTransport implements RTMPMinaTransportMXBean {
 
 	private static final Logger log = LoggerFactory.getLogger(RTMPMinaTransport.class);
 
+	/**
+	 * Transport that set up the JVM wide MINA buffer type
+	 */
+	private static RTMPMinaTransport bufferTypeOwner;
+
 	protected SocketAcceptor acceptor;
 
+	protected List<SocketAcceptor> acceptorList;
+
 	protected Set<String> addresses = new HashSet<String>();
 
 	protected IoHandlerAdapter ioHandler;
 
 	protected int ioThreads = Runtime.getRuntime().availableProcessors() * 2;
 
+	protected int acceptors = 1;
+
 	/**
 	 * MBean object name used for de/registration purposes.
 	 */
 	protected ObjectName serviceManagerObjectName;
 
-	protected IoServiceStatistics stats;
-
 	protected boolean enableMinaLogFilter;
 
 	protected boolean enableMinaMonitor;
@@ -113,6 +133,37 @@ public class RTMPMinaTransport implements RTMPMinaTransportMXBean {
 	
 	private boolean keepAlive;
 
+	private final AtomicLong acceptedSessions = new AtomicLong();
+
+	/**
+	 * Accepted sessions and time of the last accept rate calculation
+	 */
+	private long rateSessions, rateTime = System.currentTimeMillis();
+
+	private double acceptRate;
+
+	private long listenDropsOnStart = -1;
+
+	private final IoServiceListener acceptListener = new IoServiceListener() {
+
+		public void sessionCreated(IoSession session) throws Exception {
+			acceptedSessions.incrementAndGet();
+		}
+
+		public void sessionDestroyed(IoSession session) throws Exception {
+		}
+
+		public void serviceActivated(IoService service) throws Exception {
+		}
+
+		public void serviceIdle(IoService service, IdleStatus idleStatus) throws Exception {
+		}
+
+		public void serviceDeactivated(IoService service) throws Exception {
+		}
+
+	};
+
 	private void initIOHandler() {
 		if (ioHandler == null) {
 			log.info("No RTMP IO Handler associated - using defaults");
@@ -122,20 +173,96 @@ public class RTMPMinaTransport implements RTMPMinaTransportMXBean {
 
 	public void start() throws Exception {
 		initIOHandler();
-		IoBuffer.setUseDirectBuffer(!useHeapBuffers); // this is global, oh well
-		if (useHeapBuffers) {
-			// dont pool for heap buffers
-			IoBuffer.setAllocator(new SimpleBufferAllocator());
+		initBuffers();
+		// loop through the addresses
+		List<InetSocketAddress> socketAddresses = new ArrayList<InetSocketAddress>();
+		for (String addr : addresses) {
+			if (addr.indexOf(':') != -1) {
+				String[] parts = addr.split(":");
+				socketAddresses.add(new InetSocketAddress(parts[0], Integer.valueOf(parts[1])));
+			} else {
+				socketAddresses.add(new InetSocketAddress(addr, 1935));
+			}
 		}
-		log.info("RTMP Mina Transport Settings\nAcceptor style: {} I/O threads: {}\nTCP no-delay: {} keep-alive: {}", new Object[] {
-				(enableDefaultAcceptor ? "default" : "blocking-queue"), ioThreads, tcpNoDelay, keepAlive });
+		// an address is bound by exactly one acceptor, so there is no use for more acceptors than addresses
+		int shards = Math.max(1, Math.min(acceptors, socketAddresses.size()));
+		if (shards < acceptors) {
+			log.info("Only {} addresses configured, using {} acceptors instead of {}", new Object[] { socketAddresses.size(), shards, acceptors });
+		}
+		log.info("RTMP Mina Transport Settings\nAcceptor style: {} acceptors: {} I/O threads: {}\nTCP no-delay: {} keep-alive: {}", new Object[] {
+				(enableDefaultAcceptor ? "default" : "blocking-queue"), shards, ioThreads, tcpNoDelay, keepAlive });
+		listenDropsOnStart = readListenDrops();
+		acceptorList = new ArrayList<SocketAcceptor>(shards);
+		for (int i = 0; i < shards; i++) {
+			acceptorList.add(createAcceptor(shards));
+		}
+		// first acceptor, kept for subclasses expecting a single one
+		acceptor = acceptorList.get(0);
+		try {
+			// spread the addresses over the acceptors
+			for (int i = 0; i < shards; i++) {
+				Set<InetSocketAddress> shardAddresses = new HashSet<InetSocketAddress>();
+				for (int j = i; j < socketAddresses.size(); j += shards) {
+					shardAddresses.add(socketAddresses.get(j));
+				}
+				log.debug("Binding acceptor {} to {}", i, shardAddresses.toString());
+				acceptorList.get(i).bind(shardAddresses);
+			}
+			//enable only if user wants it
+			if (enableMinaMonitor) {
+				for (SocketAcceptor a : acceptorList) {
+					//poll every second
+					a.getStatistics().setThroughputCalculationInterval(minaPollInterval);
+				}
+				MBeanServer mbs = ManagementFactory.getPlatformMBeanServer();
+				try {
+					serviceManagerObjectName = new ObjectName("org.red5.server:type=RTMPMinaTransport");
+					mbs.registerMBean(new StandardMBean(this, RTMPMinaTransportMXBean.class, true), serviceManagerObjectName);
+				} catch (Exception e) {
+					log.warn("Error on jmx registration", e);
+				}
+			}
+		} catch (Exception e) {
+			log.error("Exception occurred during resolve / bind", e);
+		}
+	}
+
+	/**
+	 * Applies the buffer type. MINA allocates its read buffers through the static {@link IoBuffer} allocator, so
+	 * the setting is shared by every MINA service in the JVM; it is applied once and a transport asking for a
+	 * different type afterwards keeps the one in place instead of switching it under the running services.
+	 */
+	private void initBuffers() {
+		synchronized (IoBuffer.class) {
+			if (bufferTypeOwner == null) {
+				bufferTypeOwner = this;
+				IoBuffer.setUseDirectBuffer(!useHeapBuffers);
+				if (useHeapBuffers) {
+					// dont pool for heap buffers
+					IoBuffer.setAllocator(new SimpleBufferAllocator());
+				}
+			} else if (IoBuffer.isUseDirectBuffer() == useHeapBuffers) {
+				log.warn("{} requested {} buffers, keeping the {} buffers set up by {}", new Object[] { this, (useHeapBuffers ? "heap" : "direct"),
+						(useHeapBuffers ? "direct" : "heap"), bufferTypeOwner });
+			}
+		}
+	}
+
+	/**
+	 * Creates an acceptor with its own selector and I/O processors.
+	 * 
+	 * @param shards number of acceptors sharing the I/O threads
+	 * @return acceptor
+	 */
+	private SocketAcceptor createAcceptor(int shards) {
+		SocketAcceptor acceptor;
 		// use the defaults
 		if (enableDefaultAcceptor) {
 			//constructs an acceptor using default parameters, and given number of NioProcessor for multithreading I/O operations.
-			acceptor = new NioSocketAcceptor(ioThreads);
+			acceptor = new NioSocketAcceptor(Math.max(1, (ioThreads + shards - 1) / shards));
 		} else {
 			// simple pool for i/o processors
-			SimpleIoProcessorPool<NioSession> pool = new SimpleIoProcessorPool<NioSession>(NioProcessor.class, maxProcessorPoolSize);
+			SimpleIoProcessorPool<NioSession> pool = new SimpleIoProcessorPool<NioSession>(NioProcessor.class, Math.max(1, (maxProcessorPoolSize + shards - 1) / shards));
 			// executor for acceptors
 			Executor executor = new ThreadPoolExecutor(initialPoolSize, maxPoolSize, executorKeepAliveTime, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>());
 			// our adjusted socket acceptor with tweaked executor and pool
@@ -154,6 +281,8 @@ public class RTMPMinaTransport implements RTMPMinaTransportMXBean {
 			//			logFilter.setSessionOpenedLogLevel(LogLevel.TRACE);
 			chain.addLast("logger", logFilter);
 		}
+		// count accepted sessions
+		acceptor.addListener(acceptListener);
 		// close sessions when the acceptor is stopped
 		acceptor.setCloseOnDeactivation(true);
 		// set acceptor props
@@ -190,46 +319,22 @@ public class RTMPMinaTransport implements RTMPMinaTransportMXBean {
 				sessionConf.getSoLinger(), sessionConf.getTrafficClass() });
 		// set reuse address on the socket acceptor as well
 		acceptor.setReuseAddress(true);
-		try {
-			// loop through the addresses and bind
-			Set<InetSocketAddress> socketAddresses = new HashSet<InetSocketAddress>();
-			for (String addr : addresses) {
-				if (addr.indexOf(':') != -1) {
-					String[] parts = addr.split(":");
-					socketAddresses.add(new InetSocketAddress(parts[0], Integer.valueOf(parts[1])));
-				} else {
-					socketAddresses.add(new InetSocketAddress(addr, 1935));
-				}
-			}
-			log.debug("Binding to {}", socketAddresses.toString());
-			acceptor.bind(socketAddresses);
-    		// create a new mbean for this instance RTMPMinaTransport
-    		String cName = this.getClass().getName();
-    		if (cName.indexOf('.') != -1) {
-    			cName = cName.substring(cName.lastIndexOf('.')).replaceFirst("[\\.]", "");
-    		}
-    		//enable only if user wants it
-    		if (enableMinaMonitor) {
-    			//add a stats to allow for more introspection into the workings of mina
-    			stats = new IoServiceStatistics((AbstractIoService) acceptor);
-    			//poll every second
-    			stats.setThroughputCalculationInterval(minaPollInterval);
-    			MBeanServer mbs = ManagementFactory.getPlatformMBeanServer();
-    			try {
-    				serviceManagerObjectName = new ObjectName("org.red5.server:type=RTMPMinaTransport");
-    				mbs.registerMBean(new StandardMBean(this, RTMPMinaTransportMXBean.class, true), serviceManagerObjectName);
-    			} catch (Exception e) {
-    				log.warn("Error on jmx registration", e);
-    			}
-    		}
-		} catch (Exception e) {
-			log.error("Exception occurred during resolve / bind", e);
-		}
+		return acceptor;
 	}
 
 	public void stop() {
 		log.info("RTMP Mina Transport unbind");
-		acceptor.unbind();
+		if (acceptorList != null) {
+			for (SocketAcceptor a : acceptorList) {
+				a.unbind();
+				a.removeListener(acceptListener);
+			}
+		}
+		synchronized (IoBuffer.class) {
+			if (bufferTypeOwner == this) {
+				bufferTypeOwner = null;
+			}
+		}
 		// deregister with jmx
 		if (serviceManagerObjectName != null) {
 			MBeanServer mbs = ManagementFactory.getPlatformMBeanServer();
@@ -241,6 +346,46 @@ public class RTMPMinaTransport implements RTMPMinaTransportMXBean {
 		}
 	}
 
+	/**
+	 * Reads the number of connections the kernel dropped because a listen queue was full. The Linux counters are
+	 * host wide, they include the listeners of other processes.
+	 * 
+	 * @return ListenDrops counter of /proc/net/netstat or -1 if not available
+	 */
+	private static long readListenDrops() {
+		File netstat = new File("/proc/net/netstat");
+		if (!netstat.canRead()) {
+			return -1;
+		}
+		BufferedReader reader = null;
+		try {
+			reader = new BufferedReader(new FileReader(netstat));
+			String names;
+			while ((names = reader.readLine()) != null) {
+				String values = reader.readLine();
+				if (values != null && names.startsWith("TcpExt:")) {
+					String[] keys = names.split(" ");
+					String[] counters = values.split(" ");
+					for (int i = 1; i < keys.length && i < counters.length; i++) {
+						if ("ListenDrops".equals(keys[i])) {
+							return Long.parseLong(counters[i]);
+						}
+					}
+				}
+			}
+		} catch (Exception e) {
+			log.debug("Listen drops could not be read", e);
+		} finally {
+			if (reader != null) {
+				try {
+					reader.close();
+				} catch (IOException e) {
+				}
+			}
+		}
+		return -1;
+	}
+
 	public void setAddress(String address) {
 		addresses.add(address);
 		log.info("RTMP will be bound to {}", address);
@@ -261,6 +406,13 @@ public class RTMPMinaTransport implements RTMPMinaTransportMXBean {
 		this.ioThreads = ioThreads;
 	}
 
+	/**
+	 * @param acceptors number of acceptors the addresses are spread over, the I/O threads are divided among them
+	 */
+	public void setAcceptors(int acceptors) {
+		this.acceptors = acceptors;
+	}
+
 	/**
 	 * @param sendBufferSize the sendBufferSize to set
 	 */
@@ -379,101 +531,161 @@ public class RTMPMinaTransport implements RTMPMinaTransportMXBean {
 	}
 
 	/**
-	 * Returns the current statistics as a json formatted string.
+	 * Returns the number of acceptors.
+	 * 
+	 * @return acceptors
+	 */
+	public int getAcceptors() {
+		return acceptorList != null ? acceptorList.size() : 0;
+	}
+
+	/**
+	 * Returns the number of sessions accepted since the start.
+	 * 
+	 * @return accepted sessions
+	 */
+	public long getAcceptedSessions() {
+		return acceptedSessions.get();
+	}
+
+	/**
+	 * Returns the number of sessions accepted per second, calculated over at least a second since the previous call.
+	 * 
+	 * @return accepted sessions per second
+	 */
+	public synchronized double getAcceptRate() {
+		long now = System.currentTimeMillis();
+		long elapsed = now - rateTime;
+		if (elapsed >= 1000) {
+			long sessions = acceptedSessions.get();
+			acceptRate = (sessions - rateSessions) * 1000d / elapsed;
+			rateSessions = sessions;
+			rateTime = now;
+		}
+		return acceptRate;
+	}
+
+	/**
+	 * Returns the number of connections dropped by the kernel since the start because a listen backlog was full.
+	 * The count is host wide and only available on Linux.
+	 * 
+	 * @return dropped connections or -1 if not available
+	 */
+	public long getBacklogDrops() {
+		if (listenDropsOnStart == -1) {
+			return -1;
+		}
+		long drops = readListenDrops();
+		return drops != -1 ? drops - listenDropsOnStart : -1;
+	}
+
+	/**
+	 * Returns the current statistics as a json formatted string, one entry per acceptor.
 	 * 
 	 * @return json
 	 */
 	public String getStatistics() {
-		StringBuilder json = new StringBuilder("[Statistics{");
-		if (stats != null) {
-			// returns the cumulative number of sessions which were managed (or are being managed) by this service, which means 'currently managed session count + closed session count'
-			json.append("cumulativeManagedSessionCount=");
-			json.append(stats.getCumulativeManagedSessionCount());
-			json.append(',');
-			// returns the maximum number of sessions which were being managed at the same time
-			json.append("largestManagedSessionCount=");
-			json.append(stats.getLargestManagedSessionCount());
-			json.append(',');
-			// returns the maximum of the readBytesThroughput
-			json.append("largestReadBytesThroughput=");
-			json.append(stats.getLargestReadBytesThroughput());
-			json.append(',');
-			// returns the maximum of the readMessagesThroughput
-			json.append("largestReadMessagesThroughput=");
-			json.append(stats.getLargestReadMessagesThroughput());
-			json.append(',');
-			// returns the maximum of the writtenBytesThroughput
-			json.append("largestWrittenBytesThroughput=");
-			json.append(stats.getLargestWrittenBytesThroughput());
-			json.append(',');
-			// returns the maximum of the writtenMessagesThroughput
-			json.append("largestWrittenMessagesThroughput=");
-			json.append(stats.getLargestWrittenMessagesThroughput());
-			json.append(',');
-			// returns the time in millis when I/O occurred lastly
-			json.append("lastIoTime=");
-			json.append(stats.getLastIoTime());
-			json.append(',');
-			// returns the time in millis when read operation occurred lastly
-			json.append("lastReadTime=");
-			json.append(stats.getLastReadTime());
-			json.append(',');
-			// returns the time in millis when write operation occurred lastly
-			json.append("lastWriteTime=");
-			json.append(stats.getLastWriteTime());
-			json.append(',');
-			// returns the number of bytes read by this service
-			json.append("readBytes=");
-			json.append(stats.getReadBytes());
-			json.append(',');
-			// returns the number of read bytes per second
-			json.append("readBytesThroughput=");
-			json.append(stats.getReadBytesThroughput());
-			json.append(',');
-			// returns the number of messages this services has read
-			json.append("readMessages=");
-			json.append(stats.getReadMessages());
-			json.append(',');
-			// returns the number of read messages per second
-			json.append("readMessagesThroughput=");
-			json.append(stats.getReadMessagesThroughput());
-			json.append(',');
-			// returns the count of bytes scheduled for write
-			json.append("scheduledWriteBytes=");
-			json.append(stats.getScheduledWriteBytes());
-			json.append(',');
-			// returns the count of messages scheduled for write
-			json.append("scheduledWriteMessages=");
-			json.append(stats.getScheduledWriteMessages());
-			json.append(',');
-			// returns the interval (seconds) between each throughput calculation
-			json.append("throughputCalculationInterval=");
-			json.append(stats.getThroughputCalculationInterval());
-			json.append(',');
-			// returns the interval (milliseconds) between each throughput calculation
-			json.append("throughputCalculationIntervalInMillis=");
-			json.append(stats.getThroughputCalculationIntervalInMillis());
-			json.append(',');
-			// returns the number of bytes written out by this service
-			json.append("writtenBytes=");
-			json.append(stats.getWrittenBytes());
-			json.append(',');
-			// returns the number of written bytes per second
-			json.append("writtenBytesThroughput=");
-			json.append(stats.getWrittenBytesThroughput());
-			json.append(',');
-			// returns the number of messages this service has written
-			json.append("writtenMessages=");
-			json.append(stats.getWrittenMessages());
-			json.append(',');
-			// returns the number of written messages per second
-			json.append("writtenMessagesThroughput=");
-			json.append(stats.getWrittenMessagesThroughput());
-			json.append("}]");
+		StringBuilder json = new StringBuilder("[");
+		if (acceptorList != null) {
+			for (SocketAcceptor a : acceptorList) {
+				if (json.length() > 1) {
+					json.append(',');
+				}
+				appendStatistics(json, a.getStatistics());
+			}
 		}
+		json.append(']');
 		return json.toString();
 	}
 
+	private void appendStatistics(StringBuilder json, IoServiceStatistics stats) {
+		json.append("Statistics{");
+		// returns the cumulative number of sessions which were managed (or are being managed) by this service, which means 'currently managed session count + closed session count'
+		json.append("cumulativeManagedSessionCount=");
+		json.append(stats.getCumulativeManagedSessionCount());
+		json.append(',');
+		// returns the maximum number of sessions which were being managed at the same time
+		json.append("largestManagedSessionCount=");
+		json.append(stats.getLargestManagedSessionCount());
+		json.append(',');
+		// returns the maximum of the readBytesThroughput
+		json.append("largestReadBytesThroughput=");
+		json.append(stats.getLargestReadBytesThroughput());
+		json.append(',');
+		// returns the maximum of the readMessagesThroughput
+		json.append("largestReadMessagesThroughput=");
+		json.append(stats.getLargestReadMessagesThroughput());
+		json.append(',');
+		// returns the maximum of the writtenBytesThroughput
+		json.append("largestWrittenBytesThroughput=");
+		json.append(stats.getLargestWrittenBytesThroughput());
+		json.append(',');
+		// returns the maximum of the writtenMessagesThroughput
+		json.append("largestWrittenMessagesThroughput=");
+		json.append(stats.getLargestWrittenMessagesThroughput());
+		json.append(',');
+		// returns the time in millis when I/O occurred lastly
+		json.append("lastIoTime=");
+		json.append(stats.getLastIoTime());
+		json.append(',');
+		// returns the time in millis when read operation occurred lastly
+		json.append("lastReadTime=");
+		json.append(stats.getLastReadTime());
+		json.append(',');
+		// returns the time in millis when write operation occurred lastly
+		json.append("lastWriteTime=");
+		json.append(stats.getLastWriteTime());
+		json.append(',');
+		// returns the number of bytes read by this service
+		json.append("readBytes=");
+		json.append(stats.getReadBytes());
+		json.append(',');
+		// returns the number of read bytes per second
+		json.append("readBytesThroughput=");
+		json.append(stats.getReadBytesThroughput());
+		json.append(',');
+		// returns the number of messages this services has read
+		json.append("readMessages=");
+		json.append(stats.getReadMessages());
+		json.append(',');
+		// returns the number of read messages per second
+		json.append("readMessagesThroughput=");
+		json.append(stats.getReadMessagesThroughput());
+		json.append(',');
+		// returns the count of bytes scheduled for write
+		json.append("scheduledWriteBytes=");
+		json.append(stats.getScheduledWriteBytes());
+		json.append(',');
+		// returns the count of messages scheduled for write
+		json.append("scheduledWriteMessages=");
+		json.append(stats.getScheduledWriteMessages());
+		json.append(',');
+		// returns the interval (seconds) between each throughput calculation
+		json.append("throughputCalculationInterval=");
+		json.append(stats.getThroughputCalculationInterval());
+		json.append(',');
+		// returns the interval (milliseconds) between each throughput calculation
+		json.append("throughputCalculationIntervalInMillis=");
+		json.append(stats.getThroughputCalculationIntervalInMillis());
+		json.append(',');
+		// returns the number of bytes written out by this service
+		json.append("writtenBytes=");
+		json.append(stats.getWrittenBytes());
+		json.append(',');
+		// returns the number of written bytes per second
+		json.append("writtenBytesThroughput=");
+		json.append(stats.getWrittenBytesThroughput());
+		json.append(',');
+		// returns the number of messages this service has written
+		json.append("writtenMessages=");
+		json.append(stats.getWrittenMessages());
+		json.append(',');
+		// returns the number of written messages per second
+		json.append("writtenMessagesThroughput=");
+		json.append(stats.getWrittenMessagesThroughput());
+		json.append('}');
+	}
+
 	public String toString() {
 		return String.format("RTMP Mina Transport %s", addresses.toString());
 	}
@@ -2,6 +2,7 @@ package org.red5.server.net.rtmp;
 
 import org.red5.server.api.Red5;
 import org.red5.server.net.rtmp.message.Packet;
+import org.red5.server.statistics.LatencyStats;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -17,6 +18,11 @@ public final class ReceivedMessageTask implements Runnable {
 	
 	private Packet message;
 
+	/**
+	 * Time the task was created, 0 if latencies are not recorded
+	 */
+	private final long created = LatencyStats.isEnabled() ? System.nanoTime() : 0;
+
 	public ReceivedMessageTask(String sessionId, Packet message, IRTMPHandler handler) {
 		this(sessionId, message, handler, (RTMPConnection) RTMPConnManager.getInstance().getConnectionBySessionId(sessionId));
 	}
@@ -29,11 +35,19 @@ public final class ReceivedMessageTask implements Runnable {
 	}	
 
 	public void run() {
+		long start = 0;
+		if (created != 0) {
+			start = System.nanoTime();
+			LatencyStats.QUEUE_WAIT.record(start - created);
+		}
 		// set connection to thread local
 		Red5.setConnectionLocal(conn);
 		try {
 			// pass message to the handler
 			handler.messageReceived(conn, message);
+			if (start != 0) {
+				LatencyStats.HANDLER.record(System.nanoTime() - start);
+			}
 		} catch (Exception e) {
 			log.error("Error processing received message {}", sessionId, e);
 		} finally {
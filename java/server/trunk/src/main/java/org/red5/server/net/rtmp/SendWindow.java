@@ -0,0 +1,152 @@
+/*
+ * RED5 Open Source Flash Server - http://code.google.com/p/red5/
+ *
+ * Copyright 2006-2013 by respective authors (see below). All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.red5.server.net.rtmp;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Send window of a connection. The client reports the bytes it received with a <tt>BytesRead</tt> message each
+ * time another acknowledgement window (the <tt>ServerBW</tt> sent to it) arrived; the bytes written but not yet
+ * acknowledged are in flight and are bounded by the window.
+ * <p>
+ * The window is twice the acknowledgement window, so that data keeps flowing while an acknowledgement is on its
+ * way, or the output bandwidth the client set with <tt>ClientBW</tt> if that is smaller. A client bandwidth not
+ * larger than the acknowledgement window is ignored, the client would never acknowledge before the window is
+ * exhausted. The window is only enforced once the client sent its first acknowledgement, clients which never
+ * acknowledge are not throttled.
+ *
+ * @author The Red5 Project
+ */
+public class SendWindow {
+
+	/**
+	 * Bytes acknowledged by the client, the 32 bit sequence numbers extended to a running total
+	 */
+	private final AtomicLong acknowledged = new AtomicLong();
+
+	/**
+	 * Whether the client sent an acknowledgement yet
+	 */
+	private volatile boolean acknowledging;
+
+	/**
+	 * Acknowledgement window requested from the client
+	 */
+	private volatile int ackWindow;
+
+	/**
+	 * Output bandwidth set by the client, 0 if not set
+	 */
+	private volatile int peerBandwidth;
+
+	/**
+	 * Records an acknowledgement.
+	 * 
+	 * @param sequence number of bytes received as reported by the client, wraps at 2^32
+	 * @return total number of bytes acknowledged
+	 */
+	public long acknowledge(int sequence) {
+		long value = sequence & 0xFFFFFFFFL;
+		long previous;
+		long total;
+		do {
+			previous = acknowledged.get();
+			total = (previous & ~0xFFFFFFFFL) | value;
+			if (total < previous) {
+				if (previous - total > 0x80000000L) {
+					// sequence number wrapped
+					total += 0x100000000L;
+				} else {
+					// late or repeated acknowledgement
+					return previous;
+				}
+			}
+		} while (!acknowledged.compareAndSet(previous, total));
+		acknowledging = true;
+		return total;
+	}
+
+	/**
+	 * @return total number of bytes acknowledged by the client
+	 */
+	public long getAcknowledged() {
+		return acknowledged.get();
+	}
+
+	/**
+	 * @param ackWindow acknowledgement window sent to the client
+	 */
+	public void setAckWindow(int ackWindow) {
+		this.ackWindow = ackWindow;
+	}
+
+	/**
+	 * @return acknowledgement window sent to the client
+	 */
+	public int getAckWindow() {
+		return ackWindow;
+	}
+
+	/**
+	 * @param peerBandwidth output bandwidth set by the client
+	 */
+	public void setPeerBandwidth(int peerBandwidth) {
+		this.peerBandwidth = peerBandwidth;
+	}
+
+	/**
+	 * Returns the number of bytes which may be in flight.
+	 * 
+	 * @return window size or 0 if the window is not enforced
+	 */
+	public long getSize() {
+		int window = ackWindow;
+		if (!acknowledging || window <= 0) {
+			return 0;
+		}
+		long size = 2L * window;
+		int bandwidth = peerBandwidth;
+		if (bandwidth > window && bandwidth < size) {
+			size = bandwidth;
+		}
+		return size;
+	}
+
+	/**
+	 * Returns the bytes written but not yet acknowledged.
+	 * 
+	 * @param written bytes written or queued for writing to the client
+	 * @return bytes in flight
+	 */
+	public long getInFlight(long written) {
+		return Math.max(0, written - acknowledged.get());
+	}
+
+	/**
+	 * Returns whether no more data should be written.
+	 * 
+	 * @param written bytes written or queued for writing to the client
+	 * @return true if the bytes in flight fill the window
+	 */
+	public boolean isFull(long written) {
+		long size = getSize();
+		return size > 0 && getInFlight(written) >= size;
+	}
+
+}
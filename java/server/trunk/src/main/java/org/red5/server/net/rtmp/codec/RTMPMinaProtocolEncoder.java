@@ -29,6 +29,7 @@ import org.apache.mina.filter.codec.ProtocolEncoderOutput;
 import org.red5.server.api.Red5;
 import org.red5.server.net.rtmp.RTMPConnManager;
 import org.red5.server.net.rtmp.RTMPConnection;
+import org.red5.server.net.rtmp.message.MediaBufferArena;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -77,6 +78,10 @@ public class RTMPMinaProtocolEncoder extends ProtocolEncoderAdapter {
 						}
 						chunks.clear();
 						chunks = null;
+						if (buf != message) {
+							// the chunks hold their own views of the encoded data
+							MediaBufferArena.release(buf);
+						}
 					}
 				} else {
 					log.trace("Response buffer was null after encoding");
@@ -35,9 +35,12 @@ import org.red5.io.object.StreamAction;
 import org.red5.io.utils.BufferUtils;
 import org.red5.server.api.IConnection.Encoding;
 import org.red5.server.api.Red5;
+import org.red5.server.net.protocol.AMF3Input;
+import org.red5.server.net.protocol.AMFInput;
 import org.red5.server.net.protocol.HandshakeFailedException;
 import org.red5.server.net.protocol.ProtocolException;
 import org.red5.server.net.protocol.RTMPDecodeState;
+import org.red5.server.net.remoting.FlexMessagingService;
 import org.red5.server.net.rtmp.RTMPConnection;
 import org.red5.server.net.rtmp.RTMPUtils;
 import org.red5.server.net.rtmp.event.Abort;
@@ -57,6 +60,7 @@ import org.red5.server.net.rtmp.event.ServerBW;
 import org.red5.server.net.rtmp.event.SetBuffer;
 import org.red5.server.net.rtmp.event.Unknown;
 import org.red5.server.net.rtmp.event.VideoData;
+import org.red5.server.net.rtmp.message.ArenaBuffer;
 import org.red5.server.net.rtmp.message.Constants;
 import org.red5.server.net.rtmp.message.Header;
 import org.red5.server.net.rtmp.message.Packet;
@@ -67,6 +71,7 @@ import org.red5.server.so.FlexSharedObjectMessage;
 import org.red5.server.so.ISharedObjectEvent;
 import org.red5.server.so.ISharedObjectMessage;
 import org.red5.server.so.SharedObjectMessage;
+import org.red5.server.statistics.LatencyStats;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -111,7 +116,11 @@ public class RTMPProtocolDecoder implements Constants, IEventDecoder {
 						log.trace("Cannot start decoding");
 						break;
 					}
+					final long start = LatencyStats.isEnabled() ? System.nanoTime() : 0;
 					final Object decodedObject = decode(conn, state, buffer);
+					if (start != 0) {
+						LatencyStats.DECODE.record(System.nanoTime() - start);
+					}
 					if (state.hasDecodedObject()) {
 						log.trace("Has decoded object");
 						if (decodedObject != null) {
@@ -384,6 +393,10 @@ public class RTMPProtocolDecoder implements Constants, IEventDecoder {
 			}
 			rtmp.setLastReadPacketHeader(channelId, packet.getHeader());
 			packet.setMessage(message);
+			if (buf instanceof ArenaBuffer) {
+				// the event holds its own view of the payload
+				packet.clearData();
+			}
 			if (message instanceof ChunkSize) {
 				ChunkSize chunkSizeMsg = (ChunkSize) message;
 				rtmp.setReadChunkSize(chunkSizeMsg.getSize());
@@ -628,9 +641,9 @@ public class RTMPProtocolDecoder implements Constants, IEventDecoder {
 		byte encoding = in.get();
 		Input input;
 		if (encoding == 0) {
-			input = new org.red5.io.amf.Input(in);
+			input = new AMFInput(in);
 		} else if (encoding == 3) {
-			input = new org.red5.io.amf3.Input(in);
+			input = new AMF3Input(in);
 		} else {
 			throw new RuntimeException("Unknown SO encoding: " + encoding);
 		}
@@ -649,7 +662,7 @@ public class RTMPProtocolDecoder implements Constants, IEventDecoder {
 
 	/** {@inheritDoc} */
 	public ISharedObjectMessage decodeSharedObject(IoBuffer in) {
-		final Input input = new org.red5.io.amf.Input(in);
+		final Input input = new AMFInput(in);
 		String name = input.getString();
 		// Read version of SO to modify
 		int version = in.getInt();
@@ -672,7 +685,7 @@ public class RTMPProtocolDecoder implements Constants, IEventDecoder {
 	 */
 	protected void doDecodeSharedObject(SharedObjectMessage so, IoBuffer in, Input input) {
 		// Parse request body
-		Input amf3Input = new org.red5.io.amf3.Input(in);
+		Input amf3Input = new AMF3Input(in);
 		while (in.hasRemaining()) {
 			final ISharedObjectEvent.Type type = SharedObjectTypeMapping.toType(in.get());
 			if (type == null) {
@@ -768,10 +781,10 @@ public class RTMPProtocolDecoder implements Constants, IEventDecoder {
 		byte tmp = in.get();
 		in.position(start);
 		if (encoding == Encoding.AMF3 && tmp == AMF.TYPE_AMF3_OBJECT) {
-			input = new org.red5.io.amf3.Input(in);
+			input = new AMF3Input(in);
 			((org.red5.io.amf3.Input) input).enforceAMF3();
 		} else {
-			input = new org.red5.io.amf.Input(in);
+			input = new AMFInput(in);
 		}
 		// get the action
 		String action = Deserializer.deserialize(input, String.class);
@@ -795,10 +808,10 @@ public class RTMPProtocolDecoder implements Constants, IEventDecoder {
 			}
 			// now go back to the actual encoding to decode parameters
 			if (encoding == Encoding.AMF3) {
-				input = new org.red5.io.amf3.Input(in);
+				input = new AMF3Input(in);
 				((org.red5.io.amf3.Input) input).enforceAMF3();
 			} else {
-				input = new org.red5.io.amf.Input(in);
+				input = new AMFInput(in);
 			}
 			// get / set the parameters if there any
 			Object[] params = handleParameters(in, notify, input);
@@ -832,10 +845,10 @@ public class RTMPProtocolDecoder implements Constants, IEventDecoder {
 		byte tmp = in.get();
 		in.position(start);
 		if (encoding == Encoding.AMF3 && tmp == AMF.TYPE_AMF3_OBJECT) {
-			input = new org.red5.io.amf3.Input(in);
+			input = new AMF3Input(in);
 			((org.red5.io.amf3.Input) input).enforceAMF3();
 		} else {
-			input = new org.red5.io.amf.Input(in);
+			input = new AMFInput(in);
 		}
 		// get the action
 		String action = Deserializer.deserialize(input, String.class);
@@ -847,10 +860,10 @@ public class RTMPProtocolDecoder implements Constants, IEventDecoder {
 			invoke.setTransactionId(Deserializer.<Number> deserialize(input, Number.class).intValue());
 			// now go back to the actual encoding to decode parameters
 			if (encoding == Encoding.AMF3) {
-				input = new org.red5.io.amf3.Input(in);
+				input = new AMF3Input(in);
 				((org.red5.io.amf3.Input) input).enforceAMF3();
 			} else {
-				input = new org.red5.io.amf.Input(in);
+				input = new AMFInput(in);
 			}
 			// get / set the parameters if there any
 			Object[] params = handleParameters(in, invoke, input);
@@ -954,10 +967,10 @@ public class RTMPProtocolDecoder implements Constants, IEventDecoder {
 		
 		
 		if (encoding == Encoding.AMF0 || amfVersion != AMF.TYPE_AMF3_OBJECT ) {
-			input = new org.red5.io.amf.Input(copy);
+			input = new AMFInput(copy);
 		} else {
 			org.red5.io.amf3.Input.RefStorage refStorage = new org.red5.io.amf3.Input.RefStorage();
-			input = new org.red5.io.amf3.Input(copy, refStorage);
+			input = new AMF3Input(copy, refStorage);
 		}
 		//get the first datatype
 		byte dataType = input.readDataType();
@@ -1035,7 +1048,7 @@ public class RTMPProtocolDecoder implements Constants, IEventDecoder {
 		// but according to AMF3 spec, we should collect AMF3 references for the whole message body (through all params)
 		org.red5.io.amf3.Input.RefStorage refStorage = new org.red5.io.amf3.Input.RefStorage();
 
-		Input input = new org.red5.io.amf.Input(in);
+		Input input = new AMFInput(in);
 		String action = Deserializer.deserialize(input, String.class);
 		int transactionId = Deserializer.<Number> deserialize(input, Number.class).intValue();
 		FlexMessage msg = new FlexMessage();
@@ -1057,18 +1070,18 @@ public class RTMPProtocolDecoder implements Constants, IEventDecoder {
 					case AMF3.TYPE_VECTOR_NUMBER:
 					case AMF3.TYPE_VECTOR_OBJECT:
 						// The next parameter is encoded using AMF3
-						input = new org.red5.io.amf3.Input(in, refStorage);
+						input = new AMF3Input(in, refStorage);
 						// Vectors with number and object have to have AMF3 forced
 						((org.red5.io.amf3.Input) input).enforceAMF3();
 						break;
 					case AMF3.TYPE_VECTOR_INT:
 					case AMF3.TYPE_VECTOR_UINT:
 						// The next parameter is encoded using AMF3
-						input = new org.red5.io.amf3.Input(in, refStorage);
+						input = new AMF3Input(in, refStorage);
 						break;
 					default:
 						// The next parameter is encoded using AMF0
-						input = new org.red5.io.amf.Input(in);
+						input = new AMFInput(in);
 				}
 				paramList.add(Deserializer.deserialize(input, Object.class));
 			}
@@ -1080,9 +1093,17 @@ public class RTMPProtocolDecoder implements Constants, IEventDecoder {
 				}
 			}
 		}
-		final int dotIndex = action.lastIndexOf('.');
-		String serviceName = (dotIndex == -1) ? null : action.substring(0, dotIndex);
-		String serviceMethod = (dotIndex == -1) ? action : action.substring(dotIndex + 1, action.length());
+		String serviceName;
+		String serviceMethod;
+		if (action == null || "null".equals(action)) {
+			// messages of Flex channels carry no action, they go to the messaging service as over remoting
+			serviceName = FlexMessagingService.SERVICE_NAME;
+			serviceMethod = "handleRequest";
+		} else {
+			final int dotIndex = action.lastIndexOf('.');
+			serviceName = (dotIndex == -1) ? null : action.substring(0, dotIndex);
+			serviceMethod = (dotIndex == -1) ? action : action.substring(dotIndex + 1, action.length());
+		}
 		log.debug("Service name: {} method: {}", serviceName, serviceMethod);
 		PendingCall call = new PendingCall(serviceName, serviceMethod, params);
 		msg.setCall(call);
@@ -34,6 +34,8 @@ import org.red5.server.api.service.IServiceCall;
 import org.red5.server.api.stream.IClientStream;
 import org.red5.server.exception.ClientDetailsException;
 import org.red5.server.net.ICommand;
+import org.red5.server.net.protocol.AMF3Output;
+import org.red5.server.net.protocol.AMFOutput;
 import org.red5.server.net.rtmp.RTMPConnection;
 import org.red5.server.net.rtmp.RTMPUtils;
 import org.red5.server.net.rtmp.codec.RTMP.LiveTimestampMapping;
@@ -56,6 +58,7 @@ import org.red5.server.net.rtmp.event.VideoData;
 import org.red5.server.net.rtmp.event.VideoData.FrameType;
 import org.red5.server.net.rtmp.message.Constants;
 import org.red5.server.net.rtmp.message.Header;
+import org.red5.server.net.rtmp.message.MediaBufferArena;
 import org.red5.server.net.rtmp.message.Packet;
 import org.red5.server.net.rtmp.message.SharedObjectTypeMapping;
 import org.red5.server.net.rtmp.status.Status;
@@ -64,6 +67,7 @@ import org.red5.server.net.rtmp.status.StatusObject;
 import org.red5.server.service.Call;
 import org.red5.server.so.ISharedObjectEvent;
 import org.red5.server.so.ISharedObjectMessage;
+import org.red5.server.statistics.LatencyStats;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -105,10 +109,15 @@ public class RTMPProtocolEncoder implements Constants, IEventEncoder {
 	 * @throws Exception    Any decoding exception
 	 */
 	public IoBuffer encode(Object message) throws Exception {
+		final long start = LatencyStats.isEnabled() ? System.nanoTime() : 0;
 		try {
 			return encodePacket((Packet) message);
 		} catch (Exception e) {
 			log.error("Error encoding", e);
+		} finally {
+			if (start != 0) {
+				LatencyStats.ENCODE.record(System.nanoTime() - start);
+			}
 		}
 		return null;
 	}
@@ -154,7 +163,10 @@ public class RTMPProtocolEncoder implements Constants, IEventEncoder {
 				int chunkHeaderSize = 7;
 				int numChunks = (int) Math.ceil(dataLen / (float) chunkSize);
 				int bufSize = dataLen + headerSize + (numChunks > 0 ? (numChunks - 1) * chunkHeaderSize : 0);
-				out = IoBuffer.allocate(bufSize, false);
+				out = MediaBufferArena.allocateBuffer(bufSize);
+				if (out == null) {
+					out = IoBuffer.allocate(bufSize, false);
+				}
 				// encode the header
 				encodeHeader(header, lastHeader, out);
 				if (numChunks == 1) {
@@ -608,8 +620,8 @@ public class RTMPProtocolEncoder implements Constants, IEventEncoder {
 	 */
 	private void doEncodeSharedObject(ISharedObjectMessage so, IoBuffer out) {
 		final Encoding encoding = Red5.getConnectionLocal().getEncoding();
-		final Output output = new org.red5.io.amf.Output(out);
-		final Output amf3output = new org.red5.io.amf3.Output(out);
+		final Output output = new AMFOutput(out);
+		final Output amf3output = new AMF3Output(out);
 		output.putString(so.getName());
 		// SO version
 		out.putInt(so.getVersion());
@@ -749,7 +761,7 @@ public class RTMPProtocolEncoder implements Constants, IEventEncoder {
 	 */
 	protected void encodeCommand(IoBuffer out, ICommand command) {
 		// TODO: tidy up here
-		Output output = new org.red5.io.amf.Output(out);
+		Output output = new AMFOutput(out);
 		final IServiceCall call = command.getCall();
 		final boolean isPending = (call.getStatus() == Call.STATUS_PENDING);
 		log.debug("Call: {} pending: {}", call, isPending);
@@ -767,12 +779,12 @@ public class RTMPProtocolEncoder implements Constants, IEventEncoder {
 		}
 		if (call.getServiceName() == null && "connect".equals(call.getServiceMethodName())) {
 			// response to initial connect, always use AMF0
-			output = new org.red5.io.amf.Output(out);
+			output = new AMFOutput(out);
 		} else {
 			if (Red5.getConnectionLocal().getEncoding() == Encoding.AMF3) {
-				output = new org.red5.io.amf3.Output(out);
+				output = new AMF3Output(out);
 			} else {
-				output = new org.red5.io.amf.Output(out);
+				output = new AMFOutput(out);
 			}
 		}
 		if (!isPending && (command instanceof Invoke)) {
@@ -812,6 +824,29 @@ public class RTMPProtocolEncoder implements Constants, IEventEncoder {
 		}
 	}
 
+	/**
+	 * Serializes call arguments once for sending them to many connections. The result is written as is in place
+	 * of the arguments by {@link #encodeCommand(IoBuffer, ICommand)}, so it must be duplicated for each call.
+	 *
+	 * @param args arguments
+	 * @param encoding object encoding of the receiving connections
+	 * @return read-only buffer holding the serialized arguments
+	 */
+	public static ByteBuffer encodeArguments(Object[] args, Encoding encoding) {
+		IoBuffer out = IoBuffer.allocate(256);
+		out.setAutoExpand(true);
+		Output output = (encoding == Encoding.AMF3) ? new AMF3Output(out) : new AMFOutput(out);
+		for (Object element : args) {
+			if (element instanceof ByteBuffer) {
+				out.put(((ByteBuffer) element).duplicate());
+			} else {
+				Serializer.serialize(output, element);
+			}
+		}
+		out.flip();
+		return out.buf().asReadOnlyBuffer();
+	}
+
 	/** {@inheritDoc} */
 	public IoBuffer encodePing(Ping ping) {
 		int len;
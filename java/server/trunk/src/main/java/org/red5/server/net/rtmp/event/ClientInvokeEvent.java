@@ -1,8 +1,11 @@
 package org.red5.server.net.rtmp.event;
 
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 
+import org.red5.server.api.IConnection.Encoding;
 import org.red5.server.api.service.IPendingServiceCallback;
+import org.red5.server.net.rtmp.codec.RTMPProtocolEncoder;
 
 /**
  * Represents an invoke to be executed on a connected client.
@@ -14,6 +17,11 @@ public class ClientInvokeEvent extends BaseEvent {
 	private final String method;
 	private final Object[] params;
 	private final IPendingServiceCallback callback;
+
+	/**
+	 * Params serialized with AMF0 and AMF3, shared by all receiving connections
+	 */
+	private volatile ByteBuffer amf0Params, amf3Params;
 	
 	public ClientInvokeEvent(String method, Object[] params, IPendingServiceCallback callback) {
 		super(Type.CLIENT_INVOKE);
@@ -50,6 +58,31 @@ public class ClientInvokeEvent extends BaseEvent {
 		return params;
 	}
 
+	/**
+	 * Returns the params serialized for the given encoding, so that the event is serialized once no matter how
+	 * many connections it is sent to. Params are passed as they are if there is a callback, since it gets to see
+	 * the call.
+	 * 
+	 * @param encoding object encoding of the receiving connection
+	 * @return params to pass to the call
+	 */
+	public Object[] getParams(Encoding encoding) {
+		if (callback != null || params == null || params.length == 0) {
+			return params;
+		}
+		ByteBuffer buf = (encoding == Encoding.AMF3) ? amf3Params : amf0Params;
+		if (buf == null) {
+			// serializing twice in a race is harmless
+			buf = RTMPProtocolEncoder.encodeArguments(params, encoding);
+			if (encoding == Encoding.AMF3) {
+				amf3Params = buf;
+			} else {
+				amf0Params = buf;
+			}
+		}
+		return new Object[] { buf.duplicate() };
+	}
+
 	/**
 	 * @return the callback
 	 */
@@ -1,7 +1,11 @@
 package org.red5.server.net.rtmp.event;
 
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 
+import org.red5.server.api.IConnection.Encoding;
+import org.red5.server.net.rtmp.codec.RTMPProtocolEncoder;
+
 /**
  * Represents an notify to be executed on a connected client.
  * 
@@ -11,6 +15,11 @@ public class ClientNotifyEvent extends BaseEvent {
 
 	private final String method;
 	private final Object[] params;
+
+	/**
+	 * Params serialized with AMF0 and AMF3, shared by all receiving connections
+	 */
+	private volatile ByteBuffer amf0Params, amf3Params;
 	
 	public ClientNotifyEvent(String method, Object[] params) {
 		super(Type.CLIENT_NOTIFY);
@@ -46,6 +55,30 @@ public class ClientNotifyEvent extends BaseEvent {
 		return params;
 	}
 
+	/**
+	 * Returns the params serialized for the given encoding, so that the event is serialized once no matter how
+	 * many connections it is sent to.
+	 * 
+	 * @param encoding object encoding of the receiving connection
+	 * @return params to pass to the call
+	 */
+	public Object[] getParams(Encoding encoding) {
+		if (params == null || params.length == 0) {
+			return params;
+		}
+		ByteBuffer buf = (encoding == Encoding.AMF3) ? amf3Params : amf0Params;
+		if (buf == null) {
+			// serializing twice in a race is harmless
+			buf = RTMPProtocolEncoder.encodeArguments(params, encoding);
+			if (encoding == Encoding.AMF3) {
+				amf3Params = buf;
+			} else {
+				amf0Params = buf;
+			}
+		}
+		return new Object[] { buf.duplicate() };
+	}
+
 	/* (non-Javadoc)
 	 * @see java.lang.Object#toString()
 	 */
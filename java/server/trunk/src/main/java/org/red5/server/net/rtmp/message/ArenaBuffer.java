@@ -0,0 +1,140 @@
+/*
+ * RED5 Open Source Flash Server - http://code.google.com/p/red5/
+ *
+ * Copyright 2006-2013 by respective authors (see below). All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.red5.server.net.rtmp.message;
+
+import java.nio.ByteBuffer;
+
+import org.apache.mina.core.buffer.AbstractIoBuffer;
+import org.apache.mina.core.buffer.IoBuffer;
+
+/**
+ * Buffer backed by a chunk of a {@link MediaBufferArena}. The buffer and each buffer derived from it by
+ * <tt>duplicate</tt>, <tt>slice</tt> or <tt>asReadOnlyBuffer</tt> hold their own reference on the chunk, which
+ * goes back to the arena once every one of them was freed or collected.
+ * <br />
+ * Calling {@link #free()} when done with a buffer makes its chunk available again without waiting for the garbage
+ * collector; the buffer must not be used afterwards. A buffer that grows beyond its chunk moves to memory of the
+ * default allocator and gives up its reference.
+ *
+ * @author The Red5 Project
+ */
+public final class ArenaBuffer extends AbstractIoBuffer {
+
+	private final MediaBufferArena arena;
+
+	private final MediaBufferArena.Chunk chunk;
+
+	private ByteBuffer buf;
+
+	/**
+	 * Reference on the chunk, null once released
+	 */
+	private MediaBufferArena.ViewReference reference;
+
+	ArenaBuffer(MediaBufferArena arena, MediaBufferArena.Chunk chunk, ByteBuffer buf) {
+		super(IoBuffer.getAllocator(), buf.capacity());
+		this.arena = arena;
+		this.chunk = chunk;
+		this.buf = buf;
+		reference = arena.track(this, chunk, true);
+	}
+
+	private ArenaBuffer(ArenaBuffer parent, ByteBuffer buf) {
+		super(parent);
+		this.arena = parent.arena;
+		this.chunk = parent.chunk;
+		this.buf = buf;
+		synchronized (parent) {
+			// a parent which moved out of its chunk has nothing to share
+			if (parent.reference != null) {
+				chunk.retain();
+				reference = arena.track(this, chunk, false);
+			}
+		}
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public ByteBuffer buf() {
+		return buf;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	protected void buf(ByteBuffer newBuf) {
+		ByteBuffer oldBuf = buf;
+		buf = newBuf;
+		if (newBuf != oldBuf) {
+			// the content was copied to a larger buffer
+			free();
+		}
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	protected IoBuffer duplicate0() {
+		return new ArenaBuffer(this, buf.duplicate());
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	protected IoBuffer slice0() {
+		return new ArenaBuffer(this, buf.slice());
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	protected IoBuffer asReadOnlyBuffer0() {
+		return new ArenaBuffer(this, buf.asReadOnlyBuffer());
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public boolean hasArray() {
+		return false;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public byte[] array() {
+		throw new UnsupportedOperationException();
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public int arrayOffset() {
+		throw new UnsupportedOperationException();
+	}
+
+	/**
+	 * Releases the reference of this buffer on its chunk. Freeing a buffer more than once has no effect.
+	 */
+	@Override
+	public void free() {
+		MediaBufferArena.ViewReference released;
+		synchronized (this) {
+			released = reference;
+			reference = null;
+		}
+		if (released != null) {
+			arena.release(released);
+		}
+	}
+
+}
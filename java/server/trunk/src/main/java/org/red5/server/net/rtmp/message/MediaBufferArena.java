@@ -0,0 +1,492 @@
+/*
+ * RED5 Open Source Flash Server - http://code.google.com/p/red5/
+ *
+ * Copyright 2006-2013 by respective authors (see below). All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.red5.server.net.rtmp.message;
+
+import java.lang.ref.PhantomReference;
+import java.lang.ref.ReferenceQueue;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.mina.core.buffer.IoBuffer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Off-heap memory for media payloads. Direct memory is reserved in slabs, each slab is cut into chunks of one
+ * power of two size between 256 bytes and the slab size, and chunks are handed out as {@link ArenaBuffer}s. The
+ * Java heap only holds the small buffer objects, so payloads queued for slow clients or kept for recording do
+ * not add to the old generation the collector has to walk.
+ * <br />
+ * Chunks are reference counted: a buffer and every buffer derived from it hold a reference, released by
+ * {@link IoBuffer#free()} or, as a fallback, once the buffer object was collected. The latter is counted as a
+ * leak when it happens to a buffer handed out by {@link #allocate(int)}; with <tt>trackAllocations</tt> set the
+ * place of the allocation is logged as well. The memory reserved never exceeds the capacity, requests that do not
+ * fit are left to the caller, which allocates on the heap as before.
+ * 
+ * @author The Red5 Project
+ */
+public class MediaBufferArena {
+
+	private static final Logger log = LoggerFactory.getLogger(MediaBufferArena.class);
+
+	private static volatile MediaBufferArena instance;
+
+	/**
+	 * Size of the smallest chunk as a power of two
+	 */
+	private static final int MIN_CHUNK_SHIFT = 8;
+
+	/**
+	 * Milliseconds between two warnings about leaked buffers
+	 */
+	private static final long LEAK_WARNING_INTERVAL = 60000;
+
+	/**
+	 * Bytes of direct memory the arena may reserve
+	 */
+	private long capacity = 256L * 1024 * 1024;
+
+	/**
+	 * Bytes per slab, a power of two
+	 */
+	private int slabSize = 1024 * 1024;
+
+	/**
+	 * Whether the place of each allocation is recorded for leak reports
+	 */
+	private boolean trackAllocations;
+
+	private SizeClass[] sizeClasses;
+
+	private final List<Slab> slabs = new CopyOnWriteArrayList<Slab>();
+
+	private final Set<ViewReference> references = Collections.newSetFromMap(new ConcurrentHashMap<ViewReference, Boolean>());
+
+	private final ReferenceQueue<ArenaBuffer> collected = new ReferenceQueue<ArenaBuffer>();
+
+	private final AtomicLong reserved = new AtomicLong();
+
+	private final AtomicLong used = new AtomicLong();
+
+	private final AtomicLong allocations = new AtomicLong();
+
+	private final AtomicLong fallbacks = new AtomicLong();
+
+	private final AtomicLong leaks = new AtomicLong();
+
+	private final AtomicLong collectedViews = new AtomicLong();
+
+	private volatile long lastLeakWarning;
+
+	/**
+	 * @return the running arena or null if media payloads are kept on the heap
+	 */
+	public static MediaBufferArena getInstance() {
+		return instance;
+	}
+
+	/**
+	 * Allocates a buffer from the running arena.
+	 * 
+	 * @param size buffer capacity
+	 * @return buffer or null if there is no arena or it has no room
+	 */
+	public static IoBuffer allocateBuffer(int size) {
+		MediaBufferArena arena = instance;
+		return arena != null ? arena.allocate(size) : null;
+	}
+
+	/**
+	 * Frees the given buffer if it belongs to an arena; other buffers are left alone since their owners may still
+	 * use them.
+	 * 
+	 * @param buffer buffer which is no longer used
+	 */
+	public static void release(IoBuffer buffer) {
+		if (buffer instanceof ArenaBuffer) {
+			buffer.free();
+		}
+	}
+
+	public void setCapacity(long capacity) {
+		this.capacity = capacity;
+	}
+
+	public long getCapacity() {
+		return capacity;
+	}
+
+	public void setSlabSize(int slabSize) {
+		this.slabSize = slabSize;
+	}
+
+	public int getSlabSize() {
+		return slabSize;
+	}
+
+	public void setTrackAllocations(boolean trackAllocations) {
+		this.trackAllocations = trackAllocations;
+	}
+
+	public boolean isTrackAllocations() {
+		return trackAllocations;
+	}
+
+	/**
+	 * Sets up the size classes and makes the arena available to the server.
+	 */
+	public void init() {
+		// round the slab size up to a power of two
+		int shift = MIN_CHUNK_SHIFT;
+		while ((1 << shift) < slabSize && shift < 30) {
+			shift++;
+		}
+		slabSize = 1 << shift;
+		sizeClasses = new SizeClass[shift - MIN_CHUNK_SHIFT + 1];
+		for (int i = 0; i < sizeClasses.length; i++) {
+			sizeClasses[i] = new SizeClass(1 << (MIN_CHUNK_SHIFT + i));
+		}
+		if (capacity >= slabSize) {
+			log.info("Media buffer arena of {} bytes in slabs of {} bytes", capacity, slabSize);
+			instance = this;
+		} else {
+			log.info("Media buffer arena disabled, payloads are kept on the heap");
+		}
+	}
+
+	/**
+	 * Stops handing out buffers. Buffers in use stay valid, the slabs are reclaimed by the collector once the last
+	 * of them is gone.
+	 */
+	public void destroy() {
+		if (instance == this) {
+			instance = null;
+		}
+		reclaim();
+		if (used.get() > 0) {
+			log.info("Media buffer arena stopped with {} bytes in use", used.get());
+		}
+	}
+
+	/**
+	 * Allocates a buffer positioned at zero with the limit at the given size. The capacity is that of the chunk, a
+	 * power of two, so an auto expanding buffer filled up to the size does not grow out of the arena.
+	 * 
+	 * @param size buffer size
+	 * @return buffer or null if the size is not served by the arena or the capacity is exhausted
+	 */
+	public IoBuffer allocate(int size) {
+		reclaim();
+		if (size <= 0 || size > slabSize) {
+			fallbacks.incrementAndGet();
+			return null;
+		}
+		SizeClass sizeClass = sizeClasses[getSizeClass(size)];
+		Chunk chunk = sizeClass.free.poll();
+		if (chunk == null) {
+			chunk = grow(sizeClass);
+			if (chunk == null) {
+				fallbacks.incrementAndGet();
+				return null;
+			}
+		}
+		chunk.refs.set(1);
+		chunk.allocated = System.currentTimeMillis();
+		used.addAndGet(sizeClass.size);
+		allocations.incrementAndGet();
+		ByteBuffer buf = chunk.memory.duplicate();
+		buf.limit(size);
+		return new ArenaBuffer(this, chunk, buf);
+	}
+
+	/**
+	 * Returns the chunks of collected buffers to the arena. This is done on every allocation.
+	 */
+	public void reclaim() {
+		ViewReference reference;
+		while ((reference = (ViewReference) collected.poll()) != null) {
+			if (references.remove(reference)) {
+				if (reference.root) {
+					long count = leaks.incrementAndGet();
+					if (reference.site != null) {
+						log.warn("Media buffer of {} bytes was not freed", reference.chunk.sizeClass.size, reference.site);
+					} else {
+						long now = System.currentTimeMillis();
+						if (now - lastLeakWarning > LEAK_WARNING_INTERVAL) {
+							lastLeakWarning = now;
+							log.warn("{} media buffers were not freed so far, enable trackAllocations to find out where they are allocated", count);
+						}
+					}
+				} else {
+					collectedViews.incrementAndGet();
+				}
+				reference.chunk.release();
+			}
+		}
+	}
+
+	/**
+	 * Logs the chunks held for longer than the given time along with the place of their allocation if known.
+	 * 
+	 * @param minAge age in milliseconds
+	 * @return number of chunks held longer
+	 */
+	public int reportLeaks(long minAge) {
+		reclaim();
+		long now = System.currentTimeMillis();
+		int count = 0;
+		for (Slab slab : slabs) {
+			int held = 0;
+			for (Chunk chunk : slab.chunks) {
+				if (chunk.refs.get() > 0 && now - chunk.allocated > minAge) {
+					held++;
+				}
+			}
+			if (held > 0) {
+				log.warn("Slab of {} byte chunks has {} of {} chunks held for more than {} ms", new Object[] { slab.sizeClass.size, held, slab.chunks.length, minAge });
+				count += held;
+			}
+		}
+		if (trackAllocations) {
+			for (ViewReference reference : references) {
+				if (reference.root && reference.site != null && now - reference.chunk.allocated > minAge) {
+					log.warn("Media buffer of {} bytes held for {} ms", new Object[] { reference.chunk.sizeClass.size, now - reference.chunk.allocated, reference.site });
+				}
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * @return bytes of direct memory reserved in slabs
+	 */
+	public long getReserved() {
+		return reserved.get();
+	}
+
+	/**
+	 * @return bytes of the chunks in use
+	 */
+	public long getUsed() {
+		return used.get();
+	}
+
+	/**
+	 * @return number of slabs reserved
+	 */
+	public int getSlabCount() {
+		return slabs.size();
+	}
+
+	/**
+	 * @return number of buffers handed out
+	 */
+	public long getAllocations() {
+		return allocations.get();
+	}
+
+	/**
+	 * @return number of requests left to the heap
+	 */
+	public long getFallbacks() {
+		return fallbacks.get();
+	}
+
+	/**
+	 * @return number of buffers reclaimed from the collector instead of being freed
+	 */
+	public long getLeaks() {
+		return leaks.get();
+	}
+
+	/**
+	 * @return number of views, from <tt>duplicate</tt>, <tt>slice</tt> or <tt>asReadOnlyBuffer</tt>, reclaimed from the
+	 *         collector instead of being freed
+	 */
+	public long getCollectedViews() {
+		return collectedViews.get();
+	}
+
+	ViewReference track(ArenaBuffer buffer, Chunk chunk, boolean root) {
+		Throwable site = root && trackAllocations ? new Throwable("Allocated at") : null;
+		ViewReference reference = new ViewReference(buffer, collected, chunk, root, site);
+		references.add(reference);
+		return reference;
+	}
+
+	void release(ViewReference reference) {
+		if (references.remove(reference)) {
+			reference.clear();
+			reference.chunk.release();
+		}
+	}
+
+	private void recycle(Chunk chunk) {
+		used.addAndGet(-chunk.sizeClass.size);
+		chunk.memory.clear();
+		chunk.sizeClass.free.offer(chunk);
+	}
+
+	/**
+	 * Reserves a new slab for the given size class.
+	 * 
+	 * @return first chunk of the slab or null if the capacity is reached
+	 */
+	private Chunk grow(SizeClass sizeClass) {
+		synchronized (sizeClass) {
+			// another thread may have grown the class meanwhile
+			Chunk chunk = sizeClass.free.poll();
+			if (chunk != null) {
+				return chunk;
+			}
+			long total;
+			do {
+				total = reserved.get();
+				if (total + slabSize > capacity) {
+					return null;
+				}
+			} while (!reserved.compareAndSet(total, total + slabSize));
+			ByteBuffer memory;
+			try {
+				memory = ByteBuffer.allocateDirect(slabSize);
+			} catch (OutOfMemoryError e) {
+				log.warn("Direct memory exhausted at {} bytes reserved, raise -XX:MaxDirectMemorySize or lower the arena capacity", total);
+				reserved.addAndGet(-slabSize);
+				return null;
+			}
+			Slab slab = new Slab(sizeClass, memory, slabSize / sizeClass.size);
+			slabs.add(slab);
+			log.debug("Reserved slab {} for chunks of {} bytes", slabs.size(), sizeClass.size);
+			for (int i = 1; i < slab.chunks.length; i++) {
+				sizeClass.free.offer(slab.chunks[i]);
+			}
+			return slab.chunks[0];
+		}
+	}
+
+	private static int getSizeClass(int size) {
+		int shift = 32 - Integer.numberOfLeadingZeros(size - 1);
+		return shift <= MIN_CHUNK_SHIFT ? 0 : shift - MIN_CHUNK_SHIFT;
+	}
+
+	/**
+	 * Free chunks of one size.
+	 */
+	private static final class SizeClass {
+
+		final int size;
+
+		final ConcurrentLinkedQueue<Chunk> free = new ConcurrentLinkedQueue<Chunk>();
+
+		SizeClass(int size) {
+			this.size = size;
+		}
+
+	}
+
+	/**
+	 * Direct memory cut into chunks of one size.
+	 */
+	private final class Slab {
+
+		final SizeClass sizeClass;
+
+		final Chunk[] chunks;
+
+		Slab(SizeClass sizeClass, ByteBuffer memory, int count) {
+			this.sizeClass = sizeClass;
+			chunks = new Chunk[count];
+			for (int i = 0; i < count; i++) {
+				memory.limit((i + 1) * sizeClass.size).position(i * sizeClass.size);
+				chunks[i] = new Chunk(sizeClass, memory.slice());
+			}
+		}
+
+	}
+
+	/**
+	 * Part of a slab handed out as one buffer.
+	 */
+	final class Chunk {
+
+		final SizeClass sizeClass;
+
+		final ByteBuffer memory;
+
+		final AtomicInteger refs = new AtomicInteger();
+
+		/**
+		 * Time the chunk was handed out
+		 */
+		volatile long allocated;
+
+		Chunk(SizeClass sizeClass, ByteBuffer memory) {
+			this.sizeClass = sizeClass;
+			this.memory = memory;
+		}
+
+		void retain() {
+			refs.incrementAndGet();
+		}
+
+		void release() {
+			int count = refs.decrementAndGet();
+			if (count == 0) {
+				recycle(this);
+			} else if (count < 0) {
+				log.error("Media buffer chunk of {} bytes released more often than retained", sizeClass.size);
+			}
+		}
+
+	}
+
+	/**
+	 * Reference of one buffer on its chunk, enqueued once the buffer was collected.
+	 */
+	static final class ViewReference extends PhantomReference<ArenaBuffer> {
+
+		final Chunk chunk;
+
+		/**
+		 * Whether the buffer was handed out by the arena rather than derived from another buffer
+		 */
+		final boolean root;
+
+		/**
+		 * Place of the allocation if tracked
+		 */
+		final Throwable site;
+
+		ViewReference(ArenaBuffer buffer, ReferenceQueue<ArenaBuffer> queue, Chunk chunk, boolean root, Throwable site) {
+			super(buffer, queue);
+			this.chunk = chunk;
+			this.root = root;
+			this.site = site;
+		}
+
+	}
+
+}
@@ -54,6 +54,11 @@ public class Packet implements Externalizable {
 	 */
 	private IoBuffer data;
 
+	/**
+	 * Time the packet was written to the session, 0 if latencies are not recorded
+	 */
+	private long writeTime;
+
 	public Packet() {
 		log.trace("ctor");
 	}
@@ -65,7 +70,13 @@ public class Packet implements Externalizable {
 	public Packet(Header header) {
 		log.trace("Header: {}", header);
 		this.header = header;
-		data = IoBuffer.allocate(header.getSize()).setAutoExpand(true);
+		IoBuffer buf = null;
+		byte dataType = header.getDataType();
+		if (dataType == Constants.TYPE_AUDIO_DATA || dataType == Constants.TYPE_VIDEO_DATA) {
+			// keep media payloads off the heap if possible
+			buf = MediaBufferArena.allocateBuffer(header.getSize());
+		}
+		data = (buf != null ? buf : IoBuffer.allocate(header.getSize())).setAutoExpand(true);
 	}
 
 	/**
@@ -150,6 +161,20 @@ public class Packet implements Externalizable {
 		return data != null;
 	}
 
+	/**
+	 * @return time the packet was written to the session in nanoseconds, 0 if unknown
+	 */
+	public long getWriteTime() {
+		return writeTime;
+	}
+
+	/**
+	 * @param writeTime time the packet was written to the session in nanoseconds
+	 */
+	public void setWriteTime(long writeTime) {
+		this.writeTime = writeTime;
+	}
+
 	/**
 	 * Clears the data buffer.
 	 */
@@ -18,10 +18,14 @@
 
 package org.red5.server.net.rtmpe;
 
+import java.nio.ByteBuffer;
+
 import javax.crypto.Cipher;
+import javax.crypto.ShortBufferException;
 
 import org.apache.mina.core.buffer.IoBuffer;
 import org.apache.mina.core.filterchain.IoFilterAdapter;
+import org.apache.mina.core.session.AttributeKey;
 import org.apache.mina.core.session.IoSession;
 import org.apache.mina.core.write.WriteRequest;
 import org.apache.mina.core.write.WriteRequestWrapper;
@@ -31,11 +35,16 @@ import org.red5.server.net.rtmp.RTMPHandshake;
 import org.red5.server.net.rtmp.RTMPMinaConnection;
 import org.red5.server.net.rtmp.codec.RTMP;
 import org.red5.server.net.rtmp.message.Constants;
+import org.red5.server.net.rtmp.message.MediaBufferArena;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
  * RTMPE IO filter
+ * <br />
+ * Received data is decrypted in place, the read buffer is handed on as is. Written data is encrypted into heap
+ * buffers kept per session and reused once MINA reports them sent, so a steady stream of writes does not
+ * allocate. The ciphers and the buffers are kept in a {@link CipherState} on the session.
  * 
  * @author Peter Thomas (ptrthomas@gmail.com)
  * @author Paul Gregoire (mondain@gmail.com)
@@ -44,15 +53,84 @@ public class RTMPEIoFilter extends IoFilterAdapter {
 
 	private static final Logger log = LoggerFactory.getLogger(RTMPEIoFilter.class);
 
+	/**
+	 * Session attribute holding the cipher state
+	 */
+	public static final AttributeKey RTMPE_CIPHER_STATE = new AttributeKey(RTMPEIoFilter.class, "cipherState");
+
+	/**
+	 * Adds the ciphers of a completed encrypted handshake to the session.
+	 * 
+	 * @param session session
+	 * @param cipherIn cipher for received data
+	 * @param cipherOut cipher for written data
+	 * @param rtmp protocol state of the connection
+	 */
+	public static void setCiphers(IoSession session, Cipher cipherIn, Cipher cipherOut, RTMP rtmp) {
+		session.setAttribute(RTMPConnection.RTMPE_CIPHER_IN, cipherIn);
+		session.setAttribute(RTMPConnection.RTMPE_CIPHER_OUT, cipherOut);
+		session.setAttribute(RTMPE_CIPHER_STATE, new CipherState(cipherIn, cipherOut, rtmp));
+	}
+
+	/**
+	 * Removes the ciphers from the session.
+	 * 
+	 * @param session session
+	 */
+	public static void removeCiphers(IoSession session) {
+		session.removeAttribute(RTMPConnection.RTMPE_CIPHER_IN);
+		session.removeAttribute(RTMPConnection.RTMPE_CIPHER_OUT);
+		session.removeAttribute(RTMPE_CIPHER_STATE);
+	}
+
 	@Override
 	public void messageReceived(NextFilter nextFilter, IoSession session, Object obj) throws Exception {
-		String sessionId = (String) session.getAttribute(RTMPConnection.RTMP_SESSION_ID);
-		log.trace("Session id: {}", sessionId);
-		RTMPMinaConnection conn = (RTMPMinaConnection) RTMPConnManager.getInstance().getConnectionBySessionId(sessionId);		
-		RTMP rtmp = conn.getState();
+		CipherState state = (CipherState) session.getAttribute(RTMPE_CIPHER_STATE);
+		if (state == null || session.containsAttribute(RTMPConnection.RTMP_HANDSHAKE)) {
+			state = checkHandshake(session, obj);
+		}
+		if (state != null) { //may want to verify handshake is complete as well
+			// assume message is an IoBuffer
+			IoBuffer message = (IoBuffer) obj;
+			RTMP rtmp = state.rtmp;
+			if (rtmp.getState() == RTMP.STATE_HANDSHAKE) {
+				// ensure there are enough bytes to skip
+				if (message.limit() > Constants.HANDSHAKE_SIZE) {
+					//skip the first 1536
+					message.skip(Constants.HANDSHAKE_SIZE);
+					// TODO verify reply, for now just set to connected
+					rtmp.setState(RTMP.STATE_CONNECTED);
+				} else {
+					log.warn("There may be a network issue on this RTMPE connection: {}", session);
+					return;
+				}
+			}
+			log.debug("Decrypting buffer: {}", message);
+			// the read buffer belongs to this session alone, decrypt it where it is
+			state.decrypt(message);
+			log.debug("Decrypted buffer: {}", message);
+			nextFilter.messageReceived(session, message);
+		} else {
+			log.trace("Not decrypting message received: {}", obj);
+			nextFilter.messageReceived(session, obj);
+		}
+	}
+
+	/**
+	 * Follows the handshake until the ciphers are known.
+	 * 
+	 * @param session session
+	 * @param obj message received
+	 * @return cipher state once encrypted communication has started, null until then or if not encrypted
+	 */
+	private CipherState checkHandshake(IoSession session, Object obj) {
 		//if there is a handshake on the session, ensure the type has been set
 		if (session.containsAttribute(RTMPConnection.RTMP_HANDSHAKE)) {
 			log.trace("Handshake exists on the session");
+			String sessionId = (String) session.getAttribute(RTMPConnection.RTMP_SESSION_ID);
+			log.trace("Session id: {}", sessionId);
+			RTMPMinaConnection conn = (RTMPMinaConnection) RTMPConnManager.getInstance().getConnectionBySessionId(sessionId);
+			RTMP rtmp = conn.getState();
 			//get the handshake from the session
 			RTMPHandshake handshake = (RTMPHandshake) session.getAttribute(RTMPConnection.RTMP_HANDSHAKE);
 			int handshakeType = handshake.getHandshakeType();
@@ -91,67 +169,36 @@ public class RTMPEIoFilter extends IoFilterAdapter {
 					session.removeAttribute(RTMPConnection.RTMP_HANDSHAKE);
 					log.debug("Using encrypted communications");
 					//make sure they are not already on the session
-					if (session.containsAttribute(RTMPConnection.RTMPE_CIPHER_IN)) {
+					if (session.containsAttribute(RTMPE_CIPHER_STATE)) {
 						log.debug("Ciphers already exist on the session");
 					} else {
 						log.debug("Adding ciphers to the session");
-						session.setAttribute(RTMPConnection.RTMPE_CIPHER_IN, handshake.getCipherIn());
-						session.setAttribute(RTMPConnection.RTMPE_CIPHER_OUT, handshake.getCipherOut());
-					}					
+						setCiphers(session, handshake.getCipherIn(), handshake.getCipherOut(), rtmp);
+					}
 				}
 			}
 		}
-		Cipher cipher = (Cipher) session.getAttribute(RTMPConnection.RTMPE_CIPHER_IN);
-		if (cipher != null) { //may want to verify handshake is complete as well
-			// assume message is an IoBuffer
-			IoBuffer message = (IoBuffer) obj;
-			if (rtmp.getState() == RTMP.STATE_HANDSHAKE) {
-				// ensure there are enough bytes to skip
-				if (message.limit() > Constants.HANDSHAKE_SIZE) {
-    				//skip the first 1536
-    				byte[] handshakeReply = new byte[Constants.HANDSHAKE_SIZE];
-    				message.get(handshakeReply);
-    				// TODO verify reply, for now just set to connected
-    				rtmp.setState(RTMP.STATE_CONNECTED);
-				} else {
-					log.warn("There may be a network issue on this RTMPE connection: {}", conn);
-					return;
-				}
-			}
-			log.debug("Decrypting buffer: {}", message);
-			byte[] encrypted = new byte[message.remaining()];
-			message.get(encrypted);
-			message.clear();
-			message.free();
-			byte[] plain = cipher.update(encrypted);
-			IoBuffer messageDecrypted = IoBuffer.wrap(plain);
-			log.debug("Decrypted buffer: {}", messageDecrypted);
-			nextFilter.messageReceived(session, messageDecrypted);
-		} else {
-			log.trace("Not decrypting message received: {}", obj);
-			nextFilter.messageReceived(session, obj);
-		}
+		return (CipherState) session.getAttribute(RTMPE_CIPHER_STATE);
 	}
 
 	@Override
 	public void filterWrite(NextFilter nextFilter, IoSession session, WriteRequest request) throws Exception {
-		Cipher cipher = (Cipher) session.getAttribute(RTMPConnection.RTMPE_CIPHER_OUT);
-		if (cipher != null) { //may want to verify handshake is complete as well
+		CipherState state = (CipherState) session.getAttribute(RTMPE_CIPHER_STATE);
+		if (state != null) { //may want to verify handshake is complete as well
 			IoBuffer message = (IoBuffer) request.getMessage();
 			if (!message.hasRemaining()) {
 				// Ignore empty buffers
 				log.debug("Buffer was empty");
 			} else {
 				log.debug("Encrypting buffer: {}", message);
-				byte[] plain = new byte[message.remaining()];
-				message.get(plain);
-				message.clear();
-				message.free();
-				//encrypt and write
-				byte[] encrypted = cipher.update(plain);
-				IoBuffer messageEncrypted = IoBuffer.wrap(encrypted);
-				log.debug("Encrypted buffer: {}", messageEncrypted);
-				nextFilter.filterWrite(session, new EncryptedWriteRequest(request, messageEncrypted));
+				// the key stream has to be applied in the order the buffers are queued
+				synchronized (state) {
+					//encrypt and write
+					IoBuffer messageEncrypted = state.encrypt(message);
+					message.free();
+					log.debug("Encrypted buffer: {}", messageEncrypted);
+					nextFilter.filterWrite(session, new EncryptedWriteRequest(request, messageEncrypted));
+				}
 			}
 		} else {
 			log.trace("Not encrypting write request");
@@ -159,6 +206,25 @@ public class RTMPEIoFilter extends IoFilterAdapter {
 		}
 	}
 
+	@Override
+	public void messageSent(NextFilter nextFilter, IoSession session, WriteRequest request) throws Exception {
+		if (request instanceof EncryptedWriteRequest) {
+			EncryptedWriteRequest encryptedRequest = (EncryptedWriteRequest) request;
+			CipherState state = (CipherState) session.getAttribute(RTMPE_CIPHER_STATE);
+			if (state != null) {
+				state.release(encryptedRequest.encryptedMessage);
+			}
+			nextFilter.messageSent(session, encryptedRequest.getParentRequest());
+		} else {
+			// encoded data written in the clear is done with
+			Object message = request.getMessage();
+			if (message instanceof IoBuffer) {
+				MediaBufferArena.release((IoBuffer) message);
+			}
+			nextFilter.messageSent(session, request);
+		}
+	}
+
 	private static class EncryptedWriteRequest extends WriteRequestWrapper {
 		private final IoBuffer encryptedMessage;
 
@@ -173,4 +239,80 @@ public class RTMPEIoFilter extends IoFilterAdapter {
 		}
 	}
 
+	/**
+	 * Ciphers of an encrypted session and the buffers written data is encrypted into.
+	 */
+	public static final class CipherState {
+
+		/**
+		 * Number of sent buffers kept for reuse
+		 */
+		private static final int POOL_SIZE = 4;
+
+		/**
+		 * Smallest buffer allocated for written data
+		 */
+		private static final int MIN_BUFFER_SIZE = 4096;
+
+		private final Cipher cipherIn;
+
+		private final Cipher cipherOut;
+
+		private final RTMP rtmp;
+
+		private final IoBuffer[] pool = new IoBuffer[POOL_SIZE];
+
+		private int pooled;
+
+		CipherState(Cipher cipherIn, Cipher cipherOut, RTMP rtmp) {
+			this.cipherIn = cipherIn;
+			this.cipherOut = cipherOut;
+			this.rtmp = rtmp;
+		}
+
+		/**
+		 * Decrypts the remaining bytes of a buffer in place.
+		 */
+		void decrypt(IoBuffer buffer) throws ShortBufferException {
+			int length = buffer.remaining();
+			if (buffer.hasArray()) {
+				byte[] array = buffer.array();
+				int offset = buffer.arrayOffset() + buffer.position();
+				cipherIn.update(array, offset, length, array, offset);
+			} else {
+				ByteBuffer buf = buffer.buf();
+				cipherIn.update(buf.duplicate(), buf.duplicate());
+			}
+		}
+
+		/**
+		 * Encrypts the remaining bytes of a buffer into a pooled one, the source is consumed.
+		 */
+		IoBuffer encrypt(IoBuffer buffer) throws ShortBufferException {
+			IoBuffer encrypted = acquire(buffer.remaining());
+			cipherOut.update(buffer.buf(), encrypted.buf());
+			return encrypted.flip();
+		}
+
+		private synchronized IoBuffer acquire(int length) {
+			for (int i = pooled - 1; i >= 0; i--) {
+				IoBuffer buffer = pool[i];
+				if (buffer.capacity() >= length) {
+					pool[i] = pool[--pooled];
+					pool[pooled] = null;
+					buffer.clear();
+					return buffer;
+				}
+			}
+			return IoBuffer.allocate(Math.max(length, MIN_BUFFER_SIZE), false);
+		}
+
+		synchronized void release(IoBuffer buffer) {
+			if (pooled < POOL_SIZE) {
+				pool[pooled++] = buffer;
+			}
+		}
+
+	}
+
 }
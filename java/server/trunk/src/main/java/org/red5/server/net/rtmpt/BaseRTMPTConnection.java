@@ -33,6 +33,7 @@ import org.red5.server.net.rtmp.RTMPConnection;
 import org.red5.server.net.rtmp.codec.RTMP;
 import org.red5.server.net.rtmp.codec.RTMPProtocolDecoder;
 import org.red5.server.net.rtmp.codec.RTMPProtocolEncoder;
+import org.red5.server.net.rtmp.message.MediaBufferArena;
 import org.red5.server.net.rtmp.message.Packet;
 import org.red5.server.net.rtmpt.codec.RTMPTProtocolDecoder;
 import org.red5.server.net.rtmpt.codec.RTMPTProtocolEncoder;
@@ -196,6 +197,10 @@ public abstract class BaseRTMPTConnection extends RTMPConnection {
 		if (closing || state.getState() == RTMP.STATE_DISCONNECTED) {
 			// connection is being closed, don't send any new packets
 			log.debug("No write completed due to connection disconnecting");
+			if (packet.getMessage() != null) {
+				// the event will not reach the encoder which releases it
+				packet.getMessage().release();
+			}
 		} else {
 			IoBuffer data = null;
 			try {
@@ -208,6 +213,8 @@ public abstract class BaseRTMPTConnection extends RTMPConnection {
 					// add to pending
 					log.debug("Adding outgoing message packet");
 					PendingData pendingData = new PendingData(data, packet);
+					// payload has been copied, hand the encoded buffer back
+					MediaBufferArena.release(data);
 					try {
 						int attempt = 0;
 						while (!pendingOutMessages.offer(pendingData, maxQueueOfferTime, TimeUnit.MILLISECONDS)) {
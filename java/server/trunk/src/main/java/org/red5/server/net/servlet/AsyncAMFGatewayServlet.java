@@ -0,0 +1,420 @@
+/*
+ * RED5 Open Source Flash Server - http://code.google.com/p/red5/
+ *
+ * Copyright 2006-2013 by respective authors (see below). All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.red5.server.net.servlet;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletRequestWrapper;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpSession;
+
+import org.red5.server.api.IContext;
+import org.red5.server.api.Red5;
+import org.red5.server.api.scope.IGlobalScope;
+import org.red5.server.api.scope.IScope;
+import org.red5.server.api.service.IServiceInvoker;
+import org.red5.server.net.remoting.RemotingConnection;
+import org.red5.server.net.remoting.message.RemotingCall;
+import org.red5.server.net.remoting.message.RemotingPacket;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+/**
+ * Remoting gateway that runs the calls of a batch concurrently. The request is suspended using Servlet 3.0
+ * asynchronous processing, every call of the batch is handed to a bounded executor and the response is written
+ * by the thread finishing the last call, in the order of the request. A batch thus takes about as long as its
+ * slowest call instead of the sum of all calls.
+ * <br />
+ * Calls of a batch must not depend on each other, since they may run in any order; a failed call does not stop
+ * the others. The servlet has to be declared with <tt>async-supported</tt>, otherwise it falls back to the
+ * sequential behavior of {@link AMFGatewayServlet}.
+ * <br />
+ * Init parameters: <tt>threads</tt> (executor size, default 16), <tt>queueSize</tt> (calls waiting for a
+ * thread before the calling thread runs them itself, default 256) and <tt>timeout</tt> (milliseconds before a
+ * batch is abandoned, default 30000).
+ *
+ * @author The Red5 Project
+ */
+public class AsyncAMFGatewayServlet extends AMFGatewayServlet {
+
+	private static final long serialVersionUID = -2937566463452383441L;
+
+	/**
+	 * Executor for remoting calls
+	 */
+	protected transient ExecutorService executor;
+
+	/**
+	 * Time in milliseconds before a batch is abandoned
+	 */
+	protected long timeout = 30000;
+
+	/** {@inheritDoc} */
+	@Override
+	public void init() throws ServletException {
+		int threads = getIntParameter("threads", 16);
+		int queueSize = getIntParameter("queueSize", 256);
+		timeout = getIntParameter("timeout", 30000);
+		executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(queueSize), new CustomizableThreadFactory(
+				"RemotingExecutor-"), new ThreadPoolExecutor.CallerRunsPolicy());
+		((ThreadPoolExecutor) executor).allowCoreThreadTimeOut(true);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void destroy() {
+		if (executor != null) {
+			executor.shutdownNow();
+		}
+		super.destroy();
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	protected void serviceAMF(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
+		if (!req.isAsyncSupported()) {
+			super.serviceAMF(req, resp);
+			return;
+		}
+		log.debug("Servicing AMF asynchronously");
+		RemotingConnection conn = null;
+		try {
+			RemotingPacket packet = decodeRequest(req);
+			if (packet == null) {
+				log.error("Packet should not be null");
+				return;
+			}
+			final IGlobalScope global = getGlobalScope(req);
+			final IContext context = global.getContext();
+			final IScope scope = context.resolveScope(global, packet.getScopePath());
+			// calls may outlive the request when the batch times out, the container recycles it on completion
+			conn = new RemotingConnection(new DetachedRequest(req), scope, packet);
+			AsyncContext async = req.startAsync(req, resp);
+			async.setTimeout(timeout);
+			new Batch(async, conn, context.getServiceInvoker(), scope, packet).start();
+		} catch (Exception e) {
+			log.error("Error handling remoting call", e);
+			resp.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+			if (conn != null) {
+				conn.cleanup();
+			}
+		}
+	}
+
+	private int getIntParameter(String name, int defaultValue) {
+		String value = getInitParameter(name);
+		return value != null ? Integer.parseInt(value) : defaultValue;
+	}
+
+	/**
+	 * Copy of the parts of a request a remoting connection reads, taken before the request goes asynchronous.
+	 */
+	static class DetachedRequest extends HttpServletRequestWrapper {
+
+		private final HttpSession session;
+
+		private final String localName;
+
+		private final String remoteAddr;
+
+		private final String remoteHost;
+
+		private final int remotePort;
+
+		private final String contextPath;
+
+		private final String pathInfo;
+
+		private final int contentLength;
+
+		private final Map<String, List<String>> headers = new HashMap<String, List<String>>();
+
+		DetachedRequest(HttpServletRequest request) {
+			super(request);
+			session = request.getSession();
+			localName = request.getLocalName();
+			remoteAddr = request.getRemoteAddr();
+			remoteHost = request.getRemoteHost();
+			remotePort = request.getRemotePort();
+			contextPath = request.getContextPath();
+			pathInfo = request.getPathInfo();
+			contentLength = request.getContentLength();
+			Enumeration<String> names = request.getHeaderNames();
+			if (names != null) {
+				while (names.hasMoreElements()) {
+					String name = names.nextElement();
+					headers.put(name.toLowerCase(), Collections.list(request.getHeaders(name)));
+				}
+			}
+		}
+
+		@Override
+		public HttpSession getSession() {
+			return session;
+		}
+
+		@Override
+		public HttpSession getSession(boolean create) {
+			return session;
+		}
+
+		@Override
+		public String getLocalName() {
+			return localName;
+		}
+
+		@Override
+		public String getRemoteAddr() {
+			return remoteAddr;
+		}
+
+		@Override
+		public String getRemoteHost() {
+			return remoteHost;
+		}
+
+		@Override
+		public int getRemotePort() {
+			return remotePort;
+		}
+
+		@Override
+		public String getContextPath() {
+			return contextPath;
+		}
+
+		@Override
+		public String getPathInfo() {
+			return pathInfo;
+		}
+
+		@Override
+		public int getContentLength() {
+			return contentLength;
+		}
+
+		@Override
+		public String getHeader(String name) {
+			List<String> values = headers.get(name.toLowerCase());
+			return values != null && !values.isEmpty() ? values.get(0) : null;
+		}
+
+		@Override
+		public Enumeration<String> getHeaders(String name) {
+			List<String> values = headers.get(name.toLowerCase());
+			return Collections.enumeration(values != null ? values : Collections.<String> emptyList());
+		}
+
+		@Override
+		public Enumeration<String> getHeaderNames() {
+			return Collections.enumeration(headers.keySet());
+		}
+
+	}
+
+	/**
+	 * Calls of one request. The connection is cleaned up once the response is finished and every call that was
+	 * started has returned; calls which did not start before a timeout are skipped.
+	 */
+	class Batch implements AsyncListener {
+
+		private final AsyncContext async;
+
+		private final RemotingConnection conn;
+
+		private final IServiceInvoker invoker;
+
+		private final IScope scope;
+
+		private final RemotingPacket packet;
+
+		private final AtomicInteger remaining;
+
+		/**
+		 * Users of the connection: one per call plus one for the response
+		 */
+		private final AtomicInteger holds;
+
+		private final List<Task> tasks;
+
+		private final AtomicBoolean done = new AtomicBoolean();
+
+		private volatile boolean passed = true;
+
+		Batch(AsyncContext async, RemotingConnection conn, IServiceInvoker invoker, IScope scope, RemotingPacket packet) {
+			this.async = async;
+			this.conn = conn;
+			this.invoker = invoker;
+			this.scope = scope;
+			this.packet = packet;
+			remaining = new AtomicInteger(packet.getCalls().size());
+			holds = new AtomicInteger(packet.getCalls().size() + 1);
+			tasks = new ArrayList<Task>(packet.getCalls().size());
+		}
+
+		void start() {
+			async.addListener(this);
+			List<RemotingCall> calls = packet.getCalls();
+			if (calls.isEmpty()) {
+				complete();
+				return;
+			}
+			for (RemotingCall call : calls) {
+				tasks.add(new Task(call));
+			}
+			for (Task task : tasks) {
+				executor.execute(task);
+			}
+		}
+
+		private void invoke(RemotingCall call) {
+			Red5.setConnectionLocal(conn);
+			try {
+				if (!done.get() && !invoker.invoke(call, scope)) {
+					passed = false;
+				}
+			} catch (Throwable t) {
+				log.warn("Remoting call failed", t);
+				passed = false;
+			} finally {
+				Red5.setConnectionLocal(null);
+			}
+			if (remaining.decrementAndGet() == 0) {
+				complete();
+			}
+		}
+
+		/**
+		 * Writes the response once all calls are done.
+		 */
+		private void complete() {
+			if (!done.compareAndSet(false, true)) {
+				return;
+			}
+			HttpServletResponse resp = (HttpServletResponse) async.getResponse();
+			// the encoder reads the headers set by the calls from the connection
+			Red5.setConnectionLocal(conn);
+			try {
+				if (passed) {
+					resp.setStatus(HttpServletResponse.SC_OK);
+				} else {
+					log.warn("At least one invocation failed to execute");
+					resp.setStatus(HttpServletResponse.SC_EXPECTATION_FAILED);
+				}
+				resp.setContentType(APPLICATION_AMF);
+				sendResponse(resp, packet);
+			} catch (Exception e) {
+				log.error("Error sending remoting response", e);
+				resp.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+			} finally {
+				Red5.setConnectionLocal(null);
+				async.complete();
+				release();
+			}
+		}
+
+		/**
+		 * Drops one hold on the connection, the last one cleans it up.
+		 */
+		private void release() {
+			if (holds.decrementAndGet() == 0) {
+				conn.cleanup();
+			}
+		}
+
+		/**
+		 * Skips the calls which have not started yet, running calls release the connection when they return.
+		 */
+		private void abandon() {
+			for (Task task : tasks) {
+				if (task.claimed.compareAndSet(false, true)) {
+					release();
+				}
+			}
+		}
+
+		public void onTimeout(AsyncEvent event) throws IOException {
+			if (done.compareAndSet(false, true)) {
+				log.warn("Remoting batch timed out after {} ms", timeout);
+				abandon();
+				((HttpServletResponse) async.getResponse()).setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+				async.complete();
+				release();
+			}
+		}
+
+		public void onError(AsyncEvent event) throws IOException {
+			if (done.compareAndSet(false, true)) {
+				log.warn("Remoting batch failed", event.getThrowable());
+				abandon();
+				release();
+			}
+		}
+
+		public void onComplete(AsyncEvent event) throws IOException {
+		}
+
+		public void onStartAsync(AsyncEvent event) throws IOException {
+		}
+
+		/**
+		 * One call of the batch, run at most once.
+		 */
+		private class Task implements Runnable {
+
+			private final RemotingCall call;
+
+			private final AtomicBoolean claimed = new AtomicBoolean();
+
+			Task(RemotingCall call) {
+				this.call = call;
+			}
+
+			public void run() {
+				if (!claimed.compareAndSet(false, true)) {
+					return;
+				}
+				try {
+					invoke(call);
+				} finally {
+					release();
+				}
+			}
+
+		}
+
+	}
+
+}
@@ -0,0 +1,134 @@
+/*
+ * RED5 Open Source Flash Server - http://code.google.com/p/red5/
+ *
+ * Copyright 2006-2013 by respective authors (see below). All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.red5.server.net.servlet;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Collection;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.red5.server.net.rtmp.RTMPConnManager;
+import org.red5.server.net.rtmp.message.MediaBufferArena;
+import org.red5.server.statistics.LatencyHistogram;
+import org.red5.server.statistics.LatencyStats;
+import org.red5.server.statistics.StatisticsSampler;
+import org.red5.server.statistics.StatisticsSeries;
+
+/**
+ * Exposes the latency histograms, connection counts, media arena usage and the sampled scope, stream and shared
+ * object statistics in the Prometheus text format.
+ * 
+ * @author The Red5 Project
+ */
+public class MetricsServlet extends HttpServlet {
+
+	private static final long serialVersionUID = -1370561582834453214L;
+
+	/** {@inheritDoc} */
+	@Override
+	protected void doGet(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
+		resp.setContentType("text/plain; version=0.0.4");
+		resp.setCharacterEncoding("UTF-8");
+		PrintWriter out = resp.getWriter();
+		out.print("# HELP red5_rtmp_connections Open RTMP connections\n");
+		out.print("# TYPE red5_rtmp_connections gauge\n");
+		out.print("red5_rtmp_connections " + RTMPConnManager.getInstance().getAllConnections().size() + '\n');
+		out.print("# HELP red5_latency_seconds Time spent in each processing stage\n");
+		out.print("# TYPE red5_latency_seconds histogram\n");
+		for (LatencyHistogram histogram : LatencyStats.getHistograms()) {
+			LatencyHistogram.Snapshot snapshot = histogram.getSnapshot();
+			String stage = "stage=\"" + histogram.getName() + '"';
+			long cumulative = 0;
+			for (int i = 0; i < LatencyHistogram.BUCKETS - 1; i++) {
+				cumulative += snapshot.getBucketCount(i);
+				out.print("red5_latency_seconds_bucket{" + stage + ",le=\"" + LatencyHistogram.getBound(i) / 1e9 + "\"} " + cumulative + '\n');
+			}
+			out.print("red5_latency_seconds_bucket{" + stage + ",le=\"+Inf\"} " + snapshot.getCount() + '\n');
+			out.print("red5_latency_seconds_sum{" + stage + "} " + snapshot.getSum() / 1e9 + '\n');
+			out.print("red5_latency_seconds_count{" + stage + "} " + snapshot.getCount() + '\n');
+		}
+		MediaBufferArena arena = MediaBufferArena.getInstance();
+		if (arena != null) {
+			out.print("# HELP red5_media_arena_bytes Off-heap memory for media payloads\n");
+			out.print("# TYPE red5_media_arena_bytes gauge\n");
+			out.print("red5_media_arena_bytes{state=\"reserved\"} " + arena.getReserved() + '\n');
+			out.print("red5_media_arena_bytes{state=\"used\"} " + arena.getUsed() + '\n');
+			out.print("# TYPE red5_media_arena_fallbacks counter\n");
+			out.print("red5_media_arena_fallbacks " + arena.getFallbacks() + '\n');
+			out.print("# HELP red5_media_arena_leaks Media buffers reclaimed from the garbage collector instead of being freed\n");
+			out.print("# TYPE red5_media_arena_leaks counter\n");
+			out.print("red5_media_arena_leaks " + arena.getLeaks() + '\n');
+			out.print("# HELP red5_media_arena_collected_views Views of media buffers reclaimed from the garbage collector instead of being freed\n");
+			out.print("# TYPE red5_media_arena_collected_views counter\n");
+			out.print("red5_media_arena_collected_views " + arena.getCollectedViews() + '\n');
+		}
+		StatisticsSampler sampler = StatisticsSampler.getInstance();
+		if (sampler != null) {
+			printSeries(out, sampler.getSeries().values());
+		}
+		out.flush();
+	}
+
+	/**
+	 * Prints the last sampled values of each scope, stream and shared object along with the rates of the values
+	 * that only grow.
+	 */
+	private void printSeries(PrintWriter out, Collection<StatisticsSeries> series) {
+		for (StatisticsSeries.Type type : StatisticsSeries.Type.values()) {
+			String prefix = "red5_" + type.name().toLowerCase() + '_';
+			String[] fields = type.getFields();
+			for (int i = 0; i < fields.length; i++) {
+				String metric = prefix + toSnakeCase(fields[i]);
+				boolean cumulative = type.isCumulative(i);
+				out.print("# TYPE " + metric + (cumulative ? " counter\n" : " gauge\n"));
+				for (StatisticsSeries s : series) {
+					StatisticsSeries.Point last = s.getLast();
+					if (s.getType() == type && last != null) {
+						out.print(metric + "{name=\"" + s.getName() + "\"} " + last.getValue(i) + '\n');
+					}
+				}
+				if (cumulative) {
+					out.print("# TYPE " + metric + "_per_second gauge\n");
+					for (StatisticsSeries s : series) {
+						if (s.getType() == type && s.getLast() != null) {
+							out.print(metric + "_per_second{name=\"" + s.getName() + "\"} " + s.getRate(fields[i]) + '\n');
+						}
+					}
+				}
+			}
+		}
+	}
+
+	private static String toSnakeCase(String name) {
+		StringBuilder sb = new StringBuilder();
+		for (char c : name.toCharArray()) {
+			if (Character.isUpperCase(c)) {
+				sb.append('_').append(Character.toLowerCase(c));
+			} else {
+				sb.append(c);
+			}
+		}
+		return sb.toString();
+	}
+
+}
@@ -139,6 +139,16 @@ public class BroadcastScope extends BasicScope implements IBroadcastScope, IPipe
 		return pipe.unsubscribe(consumer);
 	}
 
+	/**
+	 * Tells whether a message or pipe connection event comes from this scope; both carry the pipe of the scope
+	 * rather than the scope itself.
+	 * @param source         Pipe passed along with a message or source of an event
+	 * @return               <code>true</code> if the source is the pipe of this scope, <code>false</code> otherwise
+	 */
+	public boolean isSource(Object source) {
+		return pipe == source;
+	}
+
 	/**
 	 * Getter for pipe consumers
 	 * @return    Pipe consumers
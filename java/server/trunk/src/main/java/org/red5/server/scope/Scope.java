@@ -29,7 +29,6 @@ import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
-import java.util.concurrent.CopyOnWriteArraySet;
 
 import javax.management.MBeanServer;
 import javax.management.ObjectName;
@@ -102,9 +101,14 @@ public class Scope extends BasicScope implements IScope, IScopeStatistics, Scope
 	private final ConcurrentScopeSet children;
 
 	/**
-	 * Connected clients map
+	 * Connected clients and the connection each joined with
 	 */
-	private final CopyOnWriteArraySet<IClient> clients;
+	private final ConcurrentMap<IClient, IConnection> clients;
+
+	/**
+	 * Connections of the connected clients, maintained on connect and disconnect
+	 */
+	private final Set<IConnection> connections = Collections.newSetFromMap(new ConcurrentHashMap<IConnection, Boolean>());
 
 	/**
 	 * Storage for scope attributes
@@ -179,7 +183,7 @@ public class Scope extends BasicScope implements IScope, IScopeStatistics, Scope
 	public Scope() {
 		super(null, ScopeType.UNDEFINED, null, false);
 		children = new ConcurrentScopeSet();
-		clients = new CopyOnWriteArraySet<IClient>();
+		clients = new ConcurrentHashMap<IClient, IConnection>();
 	}
 
 	/**
@@ -191,7 +195,7 @@ public class Scope extends BasicScope implements IScope, IScopeStatistics, Scope
 	public Scope(Builder builder) {
 		super(builder.parent, builder.type, builder.name, builder.persistent);
 		children = new ConcurrentScopeSet();
-		clients = new CopyOnWriteArraySet<IClient>();
+		clients = new ConcurrentHashMap<IClient, IConnection>();
 	}
 
 	/**
@@ -278,8 +282,9 @@ public class Scope extends BasicScope implements IScope, IScopeStatistics, Scope
 				return false;
 			}
 			// add the client and event listener
-			if (clients.add(client) && addEventListener(conn)) {
+			if (clients.putIfAbsent(client, conn) == null && addEventListener(conn)) {
 				log.debug("Added client");
+				connections.add(conn);
 				// increment conn stats
 				connectionStats.increment();
 				// get connected scope
@@ -348,6 +353,7 @@ public class Scope extends BasicScope implements IScope, IScopeStatistics, Scope
 		final IClient client = conn.getClient();
 		if (client == null) {
 			// early bail out
+			connections.remove(conn);
 			removeEventListener(conn);
 			connectionStats.decrement();
 			if (hasParent()) {
@@ -355,8 +361,9 @@ public class Scope extends BasicScope implements IScope, IScopeStatistics, Scope
 			}
 			return;
 		}
-		// remove it if it exists
-		if (clients.remove(client)) {
+		// remove it if it exists and was joined with this connection
+		if (clients.remove(client, conn)) {
+			connections.remove(conn);
 			IScopeHandler handler = getHandler();
 			if (handler != null) {
 				try {
@@ -390,8 +397,7 @@ public class Scope extends BasicScope implements IScope, IScopeStatistics, Scope
 	/** {@inheritDoc} */
 	@Override
 	public void dispatchEvent(IEvent event) {
-		Set<IConnection> conns = getClientConnections();
-		for (IConnection conn : conns) {
+		for (IConnection conn : connections) {
 			try {
 				conn.dispatchEvent(event);
 			} catch (RuntimeException e) {
@@ -500,7 +506,7 @@ public class Scope extends BasicScope implements IScope, IScopeStatistics, Scope
 	 * @return Set of clients bound to scope
 	 */
 	public Set<IClient> getClients() {
-		return clients;
+		return clients.keySet();
 	}
 
 	/** {@inheritDoc} */
@@ -513,52 +519,19 @@ public class Scope extends BasicScope implements IScope, IScopeStatistics, Scope
 
 	/** {@inheritDoc} */
 	public Set<IConnection> getClientConnections() {
-		Set<IConnection> result = new HashSet<IConnection>(3);
-		log.debug("Client count: {}", clients.size());
-		for (IClient cli : clients) {
-			Set<IConnection> set = cli.getConnections();
-			log.debug("Client connection count: {}", set.size());
-			if (set.size() > 1) {
-				log.warn("Client connections exceeded expected single count; size: {}", set.size());
-			}
-			for (IConnection conn : set) {
-				result.add(conn);
-			}
-		}
-		return result;
+		return Collections.unmodifiableSet(connections);
 	}
 
 	/** {@inheritDoc} */
 	@Deprecated
 	public Set<IConnection> lookupConnections(IClient client) {
-		HashSet<IConnection> result = new HashSet<IConnection>(1);
-		if (clients.contains(client)) {
-			for (IClient cli : clients) {
-				if (cli.equals(client)) {
-					Set<IConnection> set = cli.getConnections();
-					if (set.size() > 1) {
-						log.warn("Client connections exceeded expected single count; size: {}", set.size());
-					}
-					result.add(set.iterator().next());
-					break;
-				}
-			}
-		}
-		return result;
+		IConnection conn = clients.get(client);
+		return conn != null ? Collections.singleton(conn) : Collections.<IConnection> emptySet();
 	}
 
 	/** {@inheritDoc} */
 	public IConnection lookupConnection(IClient client) {
-		for (IClient cli : clients) {
-			if (cli.equals(client)) {
-				Set<IConnection> set = cli.getConnections();
-				if (set.size() > 1) {
-					log.warn("Client connections exceeded expected single count; size: {}", set.size());
-				}
-				return set.iterator().next();
-			}
-		}
-		return null;
+		return clients.get(client);
 	}
 
 	/**
@@ -21,6 +21,7 @@ package org.red5.server.scope;
 import java.util.Arrays;
 
 import org.apache.commons.lang3.StringUtils;
+import org.red5.server.LoaderBase;
 import org.red5.server.api.scope.IGlobalScope;
 import org.red5.server.api.scope.IScope;
 import org.red5.server.api.scope.IScopeResolver;
@@ -95,6 +96,10 @@ public class ScopeResolver implements IScopeResolver {
 					// skip empty path elements
 					continue;
 				}
+				if (scope == root && root instanceof IGlobalScope && !scope.hasChildScope(child)) {
+					// start the application if it is started on its first connection
+					LoaderBase.awaitApplication('/' + child);
+				}
 				if (scope.hasChildScope(child)) {
 					scope = scope.getScope(child);
 				} else if (!scope.equals(root)) {
@@ -18,7 +18,6 @@
 
 package org.red5.server.scope;
 
-import java.util.Set;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 import javax.servlet.ServletContext;
@@ -228,11 +227,9 @@ public class WebScope extends Scope implements ServletContextAware, WebScopeMXBe
 		keepOnDisconnect = false;
 		uninit();
 		// disconnect all clients before unregistering
-		Set<IConnection> conns = getClientConnections();
-		for (IConnection conn : conns) {
+		for (IConnection conn : getClientConnections()) {
 			conn.close();
 		}
-		conns.clear();
 		//
 		if (hostnames != null && hostnames.length > 0) {
 			for (String element : hostnames) {
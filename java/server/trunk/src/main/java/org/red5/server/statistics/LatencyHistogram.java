@@ -0,0 +1,258 @@
+/*
+ * RED5 Open Source Flash Server - http://code.google.com/p/red5/
+ *
+ * Copyright 2006-2013 by respective authors (see below). All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.red5.server.statistics;
+
+import java.lang.ref.WeakReference;
+import java.util.Iterator;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.red5.server.jmx.mxbeans.LatencyHistogramMXBean;
+
+/**
+ * Histogram of latencies with power of two buckets from 1 microsecond to about 33 seconds. Every thread
+ * records into its own counters without locking or contention; readers sum up the counters of all threads.
+ * Counts of threads that ended are folded into a shared total when the histogram is read.
+ * 
+ * @author The Red5 Project
+ */
+public class LatencyHistogram implements LatencyHistogramMXBean {
+
+	/**
+	 * Number of buckets; the bound of bucket <tt>i</tt> is 2^i microseconds, the last one is unbounded
+	 */
+	public static final int BUCKETS = 27;
+
+	private static final int SUM = BUCKETS;
+
+	private static final int MAX = BUCKETS + 1;
+
+	private final String name;
+
+	private final CopyOnWriteArrayList<Recorder> recorders = new CopyOnWriteArrayList<Recorder>();
+
+	private final ThreadLocal<Recorder> recorder = new ThreadLocal<Recorder>() {
+		@Override
+		protected Recorder initialValue() {
+			Recorder r = new Recorder();
+			recorders.add(r);
+			return r;
+		}
+	};
+
+	/**
+	 * Counts of ended threads
+	 */
+	private final long[] retired = new long[BUCKETS + 2];
+
+	public LatencyHistogram(String name) {
+		this.name = name;
+	}
+
+	/**
+	 * Records a latency.
+	 * 
+	 * @param nanos latency in nanoseconds
+	 */
+	public void record(long nanos) {
+		recorder.get().record(nanos);
+	}
+
+	/**
+	 * Returns the bucket of a latency.
+	 * 
+	 * @param nanos latency in nanoseconds
+	 * @return bucket index
+	 */
+	static int getBucket(long nanos) {
+		long micros = nanos / 1000;
+		if (micros <= 1) {
+			return 0;
+		}
+		return Math.min(64 - Long.numberOfLeadingZeros(micros - 1), BUCKETS - 1);
+	}
+
+	/**
+	 * Returns the upper bound of a bucket.
+	 * 
+	 * @param bucket bucket index
+	 * @return bound in nanoseconds, {@link Long#MAX_VALUE} for the last bucket
+	 */
+	public static long getBound(int bucket) {
+		return bucket < BUCKETS - 1 ? (1L << bucket) * 1000 : Long.MAX_VALUE;
+	}
+
+	/**
+	 * Sums up the counters of all threads.
+	 * 
+	 * @return snapshot
+	 */
+	public Snapshot getSnapshot() {
+		long[] values;
+		synchronized (retired) {
+			for (Iterator<Recorder> it = recorders.iterator(); it.hasNext();) {
+				Recorder r = it.next();
+				if (r.owner.get() == null || !r.owner.get().isAlive()) {
+					r.addTo(retired);
+					recorders.remove(r);
+				}
+			}
+			values = retired.clone();
+		}
+		for (Recorder r : recorders) {
+			r.addTo(values);
+		}
+		return new Snapshot(values);
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public long getCount() {
+		return getSnapshot().getCount();
+	}
+
+	public double getMeanMicros() {
+		return getSnapshot().getMean() / 1000d;
+	}
+
+	public double getMedianMicros() {
+		return getSnapshot().getPercentile(0.5) / 1000d;
+	}
+
+	public double get99thPercentileMicros() {
+		return getSnapshot().getPercentile(0.99) / 1000d;
+	}
+
+	public double get999thPercentileMicros() {
+		return getSnapshot().getPercentile(0.999) / 1000d;
+	}
+
+	public double getMaxMicros() {
+		return getSnapshot().getMax() / 1000d;
+	}
+
+	/**
+	 * Counters of one thread, written by that thread only.
+	 */
+	private static final class Recorder {
+
+		private final WeakReference<Thread> owner = new WeakReference<Thread>(Thread.currentThread());
+
+		private final AtomicLongArray values = new AtomicLongArray(BUCKETS + 2);
+
+		void record(long nanos) {
+			if (nanos < 0) {
+				return;
+			}
+			// single writer, an ordered store is enough
+			int bucket = getBucket(nanos);
+			values.lazySet(bucket, values.get(bucket) + 1);
+			values.lazySet(SUM, values.get(SUM) + nanos);
+			if (nanos > values.get(MAX)) {
+				values.lazySet(MAX, nanos);
+			}
+		}
+
+		void addTo(long[] target) {
+			for (int i = 0; i < MAX; i++) {
+				target[i] += values.get(i);
+			}
+			target[MAX] = Math.max(target[MAX], values.get(MAX));
+		}
+
+	}
+
+	/**
+	 * Counts of a histogram at one point in time.
+	 */
+	public static final class Snapshot {
+
+		private final long[] values;
+
+		private final long count;
+
+		Snapshot(long[] values) {
+			this.values = values;
+			long c = 0;
+			for (int i = 0; i < BUCKETS; i++) {
+				c += values[i];
+			}
+			count = c;
+		}
+
+		/**
+		 * @param bucket bucket index
+		 * @return number of latencies in the bucket
+		 */
+		public long getBucketCount(int bucket) {
+			return values[bucket];
+		}
+
+		public long getCount() {
+			return count;
+		}
+
+		/**
+		 * @return sum of all latencies in nanoseconds
+		 */
+		public long getSum() {
+			return values[SUM];
+		}
+
+		/**
+		 * @return largest latency in nanoseconds
+		 */
+		public long getMax() {
+			return values[MAX];
+		}
+
+		/**
+		 * @return mean latency in nanoseconds
+		 */
+		public double getMean() {
+			return count > 0 ? (double) values[SUM] / count : 0;
+		}
+
+		/**
+		 * Returns the bound of the bucket holding the given percentile, which overestimates it by at most a factor of
+		 * two.
+		 * 
+		 * @param quantile quantile between 0 and 1
+		 * @return latency in nanoseconds
+		 */
+		public long getPercentile(double quantile) {
+			if (count == 0) {
+				return 0;
+			}
+			long rank = (long) Math.ceil(quantile * count);
+			long seen = 0;
+			for (int i = 0; i < BUCKETS; i++) {
+				seen += values[i];
+				if (seen >= rank) {
+					return Math.min(getBound(i), values[MAX]);
+				}
+			}
+			return values[MAX];
+		}
+
+	}
+
+}
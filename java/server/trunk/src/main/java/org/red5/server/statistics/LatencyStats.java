@@ -0,0 +1,121 @@
+/*
+ * RED5 Open Source Flash Server - http://code.google.com/p/red5/
+ *
+ * Copyright 2006-2013 by respective authors (see below). All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.red5.server.statistics;
+
+import java.lang.management.ManagementFactory;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+
+import org.red5.server.jmx.mxbeans.LatencyHistogramMXBean;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Latencies of the stages a message passes between socket read and socket write. Instrumented code checks
+ * {@link #isEnabled()} before taking the time.
+ * 
+ * @author The Red5 Project
+ */
+public class LatencyStats {
+
+	private static final Logger log = LoggerFactory.getLogger(LatencyStats.class);
+
+	/**
+	 * Decoding of received chunks
+	 */
+	public static final LatencyHistogram DECODE = new LatencyHistogram("decode");
+
+	/**
+	 * Time received messages wait for a connection executor thread
+	 */
+	public static final LatencyHistogram QUEUE_WAIT = new LatencyHistogram("queue_wait");
+
+	/**
+	 * Handling of received messages
+	 */
+	public static final LatencyHistogram HANDLER = new LatencyHistogram("handler");
+
+	/**
+	 * Pushing a stream message to all consumers of a pipe
+	 */
+	public static final LatencyHistogram FANOUT = new LatencyHistogram("fanout");
+
+	/**
+	 * Encoding of messages to send
+	 */
+	public static final LatencyHistogram ENCODE = new LatencyHistogram("encode");
+
+	/**
+	 * Time from writing a message to the session until it was sent
+	 */
+	public static final LatencyHistogram WRITE_QUEUE = new LatencyHistogram("write_queue");
+
+	private static final LatencyHistogram[] histograms = { DECODE, QUEUE_WAIT, HANDLER, FANOUT, ENCODE, WRITE_QUEUE };
+
+	private static volatile boolean enabled = true;
+
+	public static boolean isEnabled() {
+		return enabled;
+	}
+
+	public static LatencyHistogram[] getHistograms() {
+		return histograms;
+	}
+
+	public void setEnabled(boolean enabled) {
+		LatencyStats.enabled = enabled;
+	}
+
+	/**
+	 * Registers the histograms with JMX.
+	 */
+	public void init() {
+		MBeanServer mbs = ManagementFactory.getPlatformMBeanServer();
+		for (LatencyHistogram histogram : histograms) {
+			try {
+				ObjectName oName = new ObjectName("org.red5.server:type=Latency,name=" + histogram.getName());
+				if (!mbs.isRegistered(oName)) {
+					mbs.registerMBean(new StandardMBean(histogram, LatencyHistogramMXBean.class, true), oName);
+				}
+			} catch (Exception e) {
+				log.warn("Error on jmx registration", e);
+			}
+		}
+	}
+
+	/**
+	 * Unregisters the histograms from JMX.
+	 */
+	public void destroy() {
+		MBeanServer mbs = ManagementFactory.getPlatformMBeanServer();
+		for (LatencyHistogram histogram : histograms) {
+			try {
+				ObjectName oName = new ObjectName("org.red5.server:type=Latency,name=" + histogram.getName());
+				if (mbs.isRegistered(oName)) {
+					mbs.unregisterMBean(oName);
+				}
+			} catch (Exception e) {
+				log.warn("Error on jmx unregistration", e);
+			}
+		}
+	}
+
+}
@@ -0,0 +1,238 @@
+/*
+ * RED5 Open Source Flash Server - http://code.google.com/p/red5/
+ *
+ * Copyright 2006-2013 by respective authors (see below). All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.red5.server.statistics;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.red5.server.api.IServer;
+import org.red5.server.api.scope.IBasicScope;
+import org.red5.server.api.scope.IBroadcastScope;
+import org.red5.server.api.scope.IGlobalScope;
+import org.red5.server.api.scope.IScope;
+import org.red5.server.api.scope.ScopeType;
+import org.red5.server.api.so.ISharedObject;
+import org.red5.server.api.statistics.IClientBroadcastStreamStatistics;
+import org.red5.server.api.statistics.IScopeStatistics;
+import org.red5.server.api.statistics.ISharedObjectStatistics;
+import org.red5.server.api.stream.IClientBroadcastStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+/**
+ * Samples the statistics of all scopes, published streams and shared objects on a fixed interval into
+ * {@link StatisticsSeries}. Dashboards read the series instead of walking the live scope tree, and get rates such
+ * as joins or bytes per second that the counters alone do not provide.
+ * <br />
+ * Series of objects that are gone are dropped on the next sampling.
+ * 
+ * @author The Red5 Project
+ */
+public class StatisticsSampler {
+
+	private static final Logger log = LoggerFactory.getLogger(StatisticsSampler.class);
+
+	private static volatile StatisticsSampler instance;
+
+	private IServer server;
+
+	/**
+	 * Milliseconds between two samplings
+	 */
+	private long interval = 5000;
+
+	/**
+	 * Points kept per series
+	 */
+	private int capacity = 120;
+
+	private ScheduledExecutorService executor;
+
+	private final ConcurrentMap<String, StatisticsSeries> series = new ConcurrentHashMap<String, StatisticsSeries>();
+
+	private long round;
+
+	/**
+	 * @return the running sampler or null if none is configured
+	 */
+	public static StatisticsSampler getInstance() {
+		return instance;
+	}
+
+	public void setServer(IServer server) {
+		this.server = server;
+	}
+
+	public void setInterval(long interval) {
+		this.interval = interval;
+	}
+
+	public long getInterval() {
+		return interval;
+	}
+
+	public void setCapacity(int capacity) {
+		this.capacity = capacity;
+	}
+
+	public int getCapacity() {
+		return capacity;
+	}
+
+	/**
+	 * Starts sampling.
+	 */
+	public void init() {
+		executor = Executors.newSingleThreadScheduledExecutor(new CustomizableThreadFactory("StatisticsSampler-"));
+		executor.scheduleWithFixedDelay(new Runnable() {
+			public void run() {
+				try {
+					sample();
+				} catch (Throwable t) {
+					log.warn("Sampling statistics failed", t);
+				}
+			}
+		}, interval, interval, TimeUnit.MILLISECONDS);
+		instance = this;
+	}
+
+	/**
+	 * Stops sampling.
+	 */
+	public void destroy() {
+		if (instance == this) {
+			instance = null;
+		}
+		if (executor != null) {
+			executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * @return all series by name
+	 */
+	public Map<String, StatisticsSeries> getSeries() {
+		return Collections.unmodifiableMap(series);
+	}
+
+	/**
+	 * Returns the series of a scope.
+	 * 
+	 * @param path scope path including the scope name, for example <tt>/default/live</tt>
+	 * @return series or null if the scope was not sampled
+	 */
+	public StatisticsSeries getScopeSeries(String path) {
+		return series.get(getKey(StatisticsSeries.Type.SCOPE, path));
+	}
+
+	/**
+	 * Returns the series of a published stream.
+	 * 
+	 * @param path path of the scope the stream is published in
+	 * @param name stream name
+	 * @return series or null if the stream was not sampled
+	 */
+	public StatisticsSeries getStreamSeries(String path, String name) {
+		return series.get(getKey(StatisticsSeries.Type.STREAM, path + '/' + name));
+	}
+
+	/**
+	 * Returns the series of a shared object.
+	 * 
+	 * @param path path of the scope of the shared object
+	 * @param name shared object name
+	 * @return series or null if the shared object was not sampled
+	 */
+	public StatisticsSeries getSharedObjectSeries(String path, String name) {
+		return series.get(getKey(StatisticsSeries.Type.SHARED_OBJECT, path + '/' + name));
+	}
+
+	/**
+	 * Takes one sample of every scope, stream and shared object.
+	 */
+	public void sample() {
+		long now = System.currentTimeMillis();
+		round++;
+		Iterator<IGlobalScope> globals = server.getGlobalScopes();
+		while (globals != null && globals.hasNext()) {
+			sample(globals.next(), now);
+		}
+		// drop the series of everything that is gone
+		for (Iterator<StatisticsSeries> it = series.values().iterator(); it.hasNext();) {
+			if (it.next().round != round) {
+				it.remove();
+			}
+		}
+	}
+
+	private void sample(IScope scope, long now) {
+		String path = scope.getPath() + '/' + scope.getName();
+		IScopeStatistics stats = scope.getStatistics();
+		add(StatisticsSeries.Type.SCOPE, path, new StatisticsSeries.Point(now, stats.getActiveConnections(), stats.getActiveSubscopes(),
+				stats.getTotalConnections()));
+		for (String name : scope.getBasicScopeNames(ScopeType.BROADCAST)) {
+			IBroadcastScope broadcastScope = scope.getBroadcastScope(name);
+			IClientBroadcastStream stream = broadcastScope != null ? broadcastScope.getClientBroadcastStream() : null;
+			if (stream != null) {
+				IClientBroadcastStreamStatistics streamStats = stream.getStatistics();
+				add(StatisticsSeries.Type.STREAM, path + '/' + name, new StatisticsSeries.Point(now, streamStats.getActiveSubscribers(),
+						streamStats.getTotalSubscribers(), streamStats.getBytesReceived()));
+			}
+		}
+		for (String name : scope.getBasicScopeNames(ScopeType.SHARED_OBJECT)) {
+			IBasicScope so = scope.getBasicScope(ScopeType.SHARED_OBJECT, name);
+			if (so instanceof ISharedObject) {
+				ISharedObjectStatistics soStats = ((ISharedObject) so).getStatistics();
+				add(StatisticsSeries.Type.SHARED_OBJECT, path + '/' + name, new StatisticsSeries.Point(now, soStats.getActiveListeners(),
+						soStats.getTotalListeners(), soStats.getTotalChanges(), soStats.getTotalSends()));
+			}
+		}
+		for (ScopeType type : new ScopeType[] { ScopeType.APPLICATION, ScopeType.ROOM }) {
+			for (String name : scope.getBasicScopeNames(type)) {
+				IBasicScope child = scope.getBasicScope(type, name);
+				if (child instanceof IScope) {
+					sample((IScope) child, now);
+				}
+			}
+		}
+	}
+
+	private void add(StatisticsSeries.Type type, String name, StatisticsSeries.Point point) {
+		String key = getKey(type, name);
+		StatisticsSeries s = series.get(key);
+		if (s == null) {
+			s = new StatisticsSeries(type, name, capacity);
+			series.put(key, s);
+		}
+		s.add(point);
+		s.round = round;
+	}
+
+	private static String getKey(StatisticsSeries.Type type, String name) {
+		return type.name() + ':' + name;
+	}
+
+}
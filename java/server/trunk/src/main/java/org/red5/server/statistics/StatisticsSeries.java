@@ -0,0 +1,200 @@
+/*
+ * RED5 Open Source Flash Server - http://code.google.com/p/red5/
+ *
+ * Copyright 2006-2013 by respective authors (see below). All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.red5.server.statistics;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Time series of the statistics of one scope, stream or shared object, sampled by the {@link StatisticsSampler}.
+ * Keeps the last <tt>capacity</tt> points in a ring; rates are derived from the last two points.
+ * 
+ * @author The Red5 Project
+ */
+public class StatisticsSeries {
+
+	/**
+	 * Kind of sampled object and the values of its points.
+	 */
+	public enum Type {
+
+		SCOPE(2, "connections", "subscopes", "totalConnections"),
+
+		STREAM(1, "subscribers", "totalSubscribers", "bytesReceived"),
+
+		SHARED_OBJECT(1, "listeners", "totalListeners", "changes", "sends");
+
+		/**
+		 * Number of leading values that are current numbers, the others only grow
+		 */
+		private final int gauges;
+
+		private final String[] fields;
+
+		private Type(int gauges, String... fields) {
+			this.gauges = gauges;
+			this.fields = fields;
+		}
+
+		public String[] getFields() {
+			return fields.clone();
+		}
+
+		/**
+		 * @param index value index
+		 * @return true if the value only grows, so that its rate is meaningful
+		 */
+		public boolean isCumulative(int index) {
+			return index >= gauges;
+		}
+
+		/**
+		 * Returns the index of a value within the points of this type.
+		 * 
+		 * @param field value name
+		 * @return index or -1 if the type has no such value
+		 */
+		public int indexOf(String field) {
+			for (int i = 0; i < fields.length; i++) {
+				if (fields[i].equals(field)) {
+					return i;
+				}
+			}
+			return -1;
+		}
+
+	}
+
+	private final Type type;
+
+	private final String name;
+
+	private final Point[] points;
+
+	/**
+	 * Index the next point is written to
+	 */
+	private int next;
+
+	private int size;
+
+	/**
+	 * Sampling round the series was last updated in
+	 */
+	volatile long round;
+
+	public StatisticsSeries(Type type, String name, int capacity) {
+		this.type = type;
+		this.name = name;
+		this.points = new Point[capacity];
+	}
+
+	public Type getType() {
+		return type;
+	}
+
+	/**
+	 * @return scope path, with the stream or shared object name appended for those
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Adds a point, replacing the oldest one once the ring is full.
+	 * 
+	 * @param point point
+	 */
+	public synchronized void add(Point point) {
+		points[next] = point;
+		next = (next + 1) % points.length;
+		if (size < points.length) {
+			size++;
+		}
+	}
+
+	/**
+	 * @return points from oldest to newest
+	 */
+	public synchronized List<Point> getPoints() {
+		List<Point> list = new ArrayList<Point>(size);
+		for (int i = 0; i < size; i++) {
+			list.add(points[(next - size + i + points.length) % points.length]);
+		}
+		return Collections.unmodifiableList(list);
+	}
+
+	/**
+	 * @return newest point or null if none was sampled yet
+	 */
+	public synchronized Point getLast() {
+		return size > 0 ? points[(next - 1 + points.length) % points.length] : null;
+	}
+
+	/**
+	 * Returns the change of a value per second between the last two points, for example joins per second from
+	 * <tt>totalConnections</tt> or bytes per second from <tt>bytesReceived</tt>.
+	 * 
+	 * @param field value name
+	 * @return rate per second, 0 if fewer than two points were sampled
+	 */
+	public synchronized double getRate(String field) {
+		int index = type.indexOf(field);
+		if (index == -1 || size < 2) {
+			return 0;
+		}
+		Point last = points[(next - 1 + points.length) % points.length];
+		Point previous = points[(next - 2 + points.length) % points.length];
+		long elapsed = last.getTime() - previous.getTime();
+		return elapsed > 0 ? (last.getValue(index) - previous.getValue(index)) * 1000d / elapsed : 0;
+	}
+
+	/**
+	 * Values sampled at one time.
+	 */
+	public static final class Point {
+
+		private final long time;
+
+		private final long[] values;
+
+		public Point(long time, long... values) {
+			this.time = time;
+			this.values = values;
+		}
+
+		/**
+		 * @return sampling time in milliseconds
+		 */
+		public long getTime() {
+			return time;
+		}
+
+		public long getValue(int index) {
+			return values[index];
+		}
+
+		public long[] getValues() {
+			return values.clone();
+		}
+
+	}
+
+}
@@ -0,0 +1,117 @@
+/*
+ * RED5 Open Source Flash Server - http://code.google.com/p/red5/
+ *
+ * Copyright 2006-2013 by respective authors (see below). All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.red5.server.stream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Rendition selection for a single subscriber of an {@link AbrGroup}. The controller is consulted once per
+ * keyframe interval with the current state of the connection.
+ * <p>
+ * The subscriber is moved one rendition down as soon as the connection shows congestion: too many video messages
+ * queued, a growing backlog of bytes the client has not acknowledged, or a high round trip time. It is moved one
+ * rendition up again after a number of consecutive intervals without any backlog.
+ *
+ * @author The Red5 Project
+ */
+public class AbrController {
+
+	private static final Logger log = LoggerFactory.getLogger(AbrController.class);
+
+	private final AbrGroup group;
+
+	/**
+	 * Rendition currently played
+	 */
+	private int index;
+
+	/**
+	 * Unacknowledged bytes seen at the previous check
+	 */
+	private long lastUnacknowledged = -1;
+
+	/**
+	 * Consecutive healthy intervals
+	 */
+	private int healthy;
+
+	public AbrController(AbrGroup group, int index) {
+		this.group = group;
+		this.index = index;
+	}
+
+	/**
+	 * Returns the rendition the subscriber should be playing.
+	 *
+	 * @param pendingVideos video messages queued on the connection
+	 * @param unacknowledged bytes written to the connection but not yet acknowledged by the client
+	 * @param roundTripTime last measured round trip time in milliseconds
+	 * @return rendition index, equal to {@link #getIndex()} if no switch is needed
+	 */
+	public int evaluate(long pendingVideos, long unacknowledged, int roundTripTime) {
+		if (index >= group.size()) {
+			// the rendition was removed from the group
+			return group.size() - 1;
+		}
+		long growth = lastUnacknowledged == -1 ? 0 : unacknowledged - lastUnacknowledged;
+		lastUnacknowledged = unacknowledged;
+		int maxRoundTripTime = group.getMaxRoundTripTime();
+		boolean congested = pendingVideos > group.getMaxPendingVideoFrames() || (growth > 0 && unacknowledged > group.getMaxUnacknowledgedBytes())
+				|| (maxRoundTripTime > 0 && roundTripTime > maxRoundTripTime);
+		if (congested) {
+			healthy = 0;
+			if (index < group.size() - 1) {
+				log.debug("Congestion in group {} - pending: {} unacknowledged: {} growth: {} rtt: {}", new Object[] { group.getName(), pendingVideos, unacknowledged, growth,
+						roundTripTime });
+				return index + 1;
+			}
+		} else if (pendingVideos <= 1 && growth <= 0) {
+			if (++healthy >= group.getUpSwitchInterval() && index > 0) {
+				return index - 1;
+			}
+		} else {
+			healthy = 0;
+		}
+		return index;
+	}
+
+	/**
+	 * Records a completed switch.
+	 *
+	 * @param index rendition now played
+	 */
+	public void switched(int index) {
+		this.index = index;
+		healthy = 0;
+		lastUnacknowledged = -1;
+	}
+
+	/**
+	 * @return rendition currently played
+	 */
+	public int getIndex() {
+		return index;
+	}
+
+	public AbrGroup getGroup() {
+		return group;
+	}
+
+}
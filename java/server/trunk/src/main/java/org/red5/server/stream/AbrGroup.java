@@ -0,0 +1,205 @@
+/*
+ * RED5 Open Source Flash Server - http://code.google.com/p/red5/
+ *
+ * Copyright 2006-2013 by respective authors (see below). All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.red5.server.stream;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Adaptive bitrate group; a set of live renditions published under their own names and played under one
+ * logical name. Subscribers of the logical name are moved between renditions by the server depending on how
+ * well their connection keeps up.
+ * <br />
+ * Switching happens at keyframes, so the renditions must share a timeline and have aligned keyframes, as
+ * produced by a multi-bitrate encoder publishing all renditions at once.
+ *
+ * @author The Red5 Project
+ */
+public class AbrGroup {
+
+	/**
+	 * Logical name subscribers play
+	 */
+	private final String name;
+
+	/**
+	 * Renditions, highest bitrate first
+	 */
+	private volatile List<Rendition> renditions = Collections.emptyList();
+
+	/**
+	 * Number of pending video messages above which the subscriber is moved down
+	 */
+	private int maxPendingVideoFrames = 10;
+
+	/**
+	 * Number of bytes written but not yet acknowledged by the client above which the subscriber is moved down
+	 * if the backlog is still growing
+	 */
+	private long maxUnacknowledgedBytes = 1024 * 1024;
+
+	/**
+	 * Round trip time in milliseconds above which the subscriber is moved down, 0 to ignore
+	 */
+	private int maxRoundTripTime = 1000;
+
+	/**
+	 * Number of consecutive healthy keyframe intervals required before the subscriber is moved up
+	 */
+	private int upSwitchInterval = 5;
+
+	public AbrGroup(String name) {
+		this.name = name;
+	}
+
+	/**
+	 * Adds a rendition to the group.
+	 *
+	 * @param streamName name the rendition is published under
+	 * @param bitrate bitrate of the rendition in kbit/s, used for ordering only
+	 */
+	public void addRendition(String streamName, int bitrate) {
+		synchronized (this) {
+			List<Rendition> list = new ArrayList<Rendition>(renditions);
+			int index = 0;
+			while (index < list.size() && list.get(index).bitrate >= bitrate) {
+				index++;
+			}
+			list.add(index, new Rendition(streamName, bitrate));
+			renditions = Collections.unmodifiableList(list);
+		}
+	}
+
+	/**
+	 * Removes a rendition from the group.
+	 *
+	 * @param streamName name the rendition is published under
+	 * @return true if the rendition was part of the group
+	 */
+	public boolean removeRendition(String streamName) {
+		synchronized (this) {
+			int index = indexOf(streamName);
+			if (index != -1) {
+				List<Rendition> list = new ArrayList<Rendition>(renditions);
+				list.remove(index);
+				renditions = Collections.unmodifiableList(list);
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @param index rendition index, 0 being the highest bitrate
+	 * @return name the rendition is published under
+	 */
+	public String getStreamName(int index) {
+		return renditions.get(index).streamName;
+	}
+
+	/**
+	 * @param index rendition index, 0 being the highest bitrate
+	 * @return bitrate of the rendition in kbit/s
+	 */
+	public int getBitrate(int index) {
+		return renditions.get(index).bitrate;
+	}
+
+	/**
+	 * @param streamName name the rendition is published under
+	 * @return rendition index or -1 if not part of the group
+	 */
+	public int indexOf(String streamName) {
+		List<Rendition> list = renditions;
+		for (int i = 0; i < list.size(); i++) {
+			if (list.get(i).streamName.equals(streamName)) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * @return number of renditions
+	 */
+	public int size() {
+		return renditions.size();
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public int getMaxPendingVideoFrames() {
+		return maxPendingVideoFrames;
+	}
+
+	public void setMaxPendingVideoFrames(int maxPendingVideoFrames) {
+		this.maxPendingVideoFrames = maxPendingVideoFrames;
+	}
+
+	public long getMaxUnacknowledgedBytes() {
+		return maxUnacknowledgedBytes;
+	}
+
+	public void setMaxUnacknowledgedBytes(long maxUnacknowledgedBytes) {
+		this.maxUnacknowledgedBytes = maxUnacknowledgedBytes;
+	}
+
+	public int getMaxRoundTripTime() {
+		return maxRoundTripTime;
+	}
+
+	public void setMaxRoundTripTime(int maxRoundTripTime) {
+		this.maxRoundTripTime = maxRoundTripTime;
+	}
+
+	public int getUpSwitchInterval() {
+		return upSwitchInterval;
+	}
+
+	public void setUpSwitchInterval(int upSwitchInterval) {
+		this.upSwitchInterval = upSwitchInterval;
+	}
+
+	@Override
+	public String toString() {
+		return "AbrGroup [name=" + name + ", renditions=" + renditions + "]";
+	}
+
+	private final static class Rendition {
+
+		final String streamName;
+
+		final int bitrate;
+
+		Rendition(String streamName, int bitrate) {
+			this.streamName = streamName;
+			this.bitrate = bitrate;
+		}
+
+		@Override
+		public String toString() {
+			return streamName + "@" + bitrate;
+		}
+
+	}
+
+}
@@ -0,0 +1,144 @@
+/*
+ * RED5 Open Source Flash Server - http://code.google.com/p/red5/
+ *
+ * Copyright 2006-2013 by respective authors (see below). All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.red5.server.stream;
+
+import org.apache.mina.core.buffer.IoBuffer;
+import org.red5.server.net.rtmp.event.Aggregate;
+import org.red5.server.net.rtmp.event.AudioData;
+import org.red5.server.net.rtmp.event.IRTMPEvent;
+import org.red5.server.net.rtmp.event.VideoData;
+import org.red5.server.net.rtmp.message.Constants;
+import org.red5.server.stream.message.RTMPMessage;
+
+/**
+ * Packs consecutive audio and video messages of a subscriber into one aggregate message, so that a whole window
+ * of tags costs one RTMP header, one encoder pass and one write. Each part is laid out as an FLV tag: type, size,
+ * timestamp, stream id, data and the back pointer.
+ * <br />
+ * A part is accepted as long as it starts within <tt>duration</tt> milliseconds of the first part and the
+ * aggregate stays within <tt>size</tt> bytes.
+ * 
+ * @author The Red5 Project
+ */
+public class AggregateBuilder {
+
+	/**
+	 * Bytes added to each part: the tag header and the back pointer
+	 */
+	private static final int PART_OVERHEAD = 11 + 4;
+
+	private final int duration;
+
+	private final int size;
+
+	private IoBuffer buffer;
+
+	private RTMPMessage first;
+
+	private int firstTimestamp;
+
+	private int parts;
+
+	/**
+	 * @param duration window in milliseconds
+	 * @param size maximum aggregate size in bytes
+	 */
+	public AggregateBuilder(int duration, int size) {
+		this.duration = duration;
+		this.size = size;
+	}
+
+	/**
+	 * Returns whether the message can be part of an aggregate at all.
+	 * 
+	 * @param message message
+	 * @return true for audio and video
+	 */
+	public static boolean isAggregatable(RTMPMessage message) {
+		IRTMPEvent body = message.getBody();
+		return (body instanceof AudioData || body instanceof VideoData) && ((IStreamData<?>) body).getData() != null;
+	}
+
+	/**
+	 * Adds a message if it fits into the window. The data of an added message is copied, so apart from the first
+	 * one, which {@link #build()} may hand back, the caller may release it.
+	 * 
+	 * @param message audio or video message
+	 * @return true if added, false if the aggregate has to be sent first
+	 */
+	public boolean add(RTMPMessage message) {
+		IRTMPEvent body = message.getBody();
+		IoBuffer data = ((IStreamData<?>) body).getData();
+		int timestamp = body.getTimestamp();
+		int length = data.remaining();
+		if (parts > 0) {
+			if (timestamp < firstTimestamp || timestamp - firstTimestamp >= duration || buffer.position() + length + PART_OVERHEAD > size) {
+				return false;
+			}
+		} else {
+			first = message;
+			firstTimestamp = timestamp;
+			buffer = IoBuffer.allocate(Math.max(length + PART_OVERHEAD, Math.min(size, 4096)));
+			buffer.setAutoExpand(true);
+		}
+		buffer.put(body.getDataType());
+		buffer.putMediumInt(length);
+		// lower 24 bits of the timestamp followed by the upper 8 bits
+		buffer.putMediumInt(timestamp & 0xffffff);
+		buffer.put((byte) (timestamp >>> 24));
+		// stream id is always 0
+		buffer.putMediumInt(0);
+		buffer.put(data.asReadOnlyBuffer());
+		buffer.putInt(length + 11);
+		parts++;
+		return true;
+	}
+
+	/**
+	 * @return number of parts added since the last build
+	 */
+	public int getParts() {
+		return parts;
+	}
+
+	/**
+	 * Returns the message to send for the parts added and resets the builder. A single part is returned as it
+	 * was added, there is nothing to save by wrapping it.
+	 * 
+	 * @return message or null if nothing was added
+	 */
+	public RTMPMessage build() {
+		RTMPMessage message = null;
+		if (parts == 1) {
+			message = first;
+			buffer.free();
+		} else if (parts > 1) {
+			Aggregate aggregate = new Aggregate(buffer.flip());
+			aggregate.setDataType(Constants.TYPE_AGGREGATE);
+			aggregate.setTimestamp(firstTimestamp);
+			message = RTMPMessage.build(aggregate);
+		}
+		buffer = null;
+		first = null;
+		parts = 0;
+		return message;
+	}
+
+}
@@ -44,6 +44,7 @@ import org.red5.server.api.Red5;
 import org.red5.server.api.event.IEvent;
 import org.red5.server.api.event.IEventDispatcher;
 import org.red5.server.api.event.IEventListener;
+import org.red5.server.api.scope.IBroadcastScope;
 import org.red5.server.api.scope.IScope;
 import org.red5.server.api.statistics.IClientBroadcastStreamStatistics;
 import org.red5.server.api.statistics.support.StatisticsCounter;
@@ -57,6 +58,7 @@ import org.red5.server.messaging.IConsumer;
 import org.red5.server.messaging.IFilter;
 import org.red5.server.messaging.IMessage;
 import org.red5.server.messaging.IMessageComponent;
+import org.red5.server.messaging.IMessageInput;
 import org.red5.server.messaging.IMessageOutput;
 import org.red5.server.messaging.IPipe;
 import org.red5.server.messaging.IPipeConnectionListener;
@@ -179,6 +181,41 @@ public class ClientBroadcastStream extends AbstractClientStream implements IClie
 	 */
 	private boolean registerJMX = true;
 
+	/**
+	 * Length of the time-shift window in seconds, 0 disables time-shifting
+	 */
+	private int timeShiftDuration;
+
+	/**
+	 * Size of the time-shift ring file in bytes
+	 */
+	private int timeShiftBufferSize = 64 * 1024 * 1024;
+
+	/**
+	 * Time-shift buffer for subscribers playing behind the live edge
+	 */
+	private volatile TimeShiftBuffer timeShiftBuffer;
+
+	/**
+	 * Thinned rendition mode, one of none, keyframes, reference_frames or audio_only
+	 */
+	private String thinningMode = "none";
+
+	/**
+	 * Whether or not the thinned rendition keeps the audio
+	 */
+	private boolean thinningAudio = true;
+
+	/**
+	 * Suffix appended to the published name to form the name of the thinned rendition
+	 */
+	private String thinningSuffix = "_thin";
+
+	/**
+	 * Producer of the thinned rendition
+	 */
+	private volatile StreamThinner streamThinner;
+
 	/**
 	 * Check and send notification if necessary
 	 * @param event          Event
@@ -222,6 +259,21 @@ public class ClientBroadcastStream extends AbstractClientStream implements IClie
 		if (!listeners.isEmpty()) {
 			listeners.clear();
 		}
+		// unpublish the thinned rendition
+		if (streamThinner != null) {
+			removeStreamListener(streamThinner);
+			IBroadcastScope bsScope = streamThinner.getScope();
+			if (bsScope != null && bsScope.getClientBroadcastStream() == this) {
+				bsScope.setClientBroadcastStream(null);
+			}
+			streamThinner.disconnect();
+			streamThinner = null;
+		}
+		// release the time-shift ring
+		if (timeShiftBuffer != null) {
+			timeShiftBuffer.close();
+			timeShiftBuffer = null;
+		}
 		// deregister with jmx
 		unregisterJMX();
 	}
@@ -460,6 +512,100 @@ public class ClientBroadcastStream extends AbstractClientStream implements IClie
 		this.automaticRecording = automaticRecording;
 	}
 
+	/**
+	 * @return length of the time-shift window in seconds
+	 */
+	public int getTimeShiftDuration() {
+		return timeShiftDuration;
+	}
+
+	/**
+	 * Enables time-shifted playback of this stream. Subscribers may then play at a negative start of up to
+	 * this many seconds behind the live edge.
+	 * 
+	 * @param timeShiftDuration length of the time-shift window in seconds, 0 to disable
+	 */
+	public void setTimeShiftDuration(int timeShiftDuration) {
+		this.timeShiftDuration = timeShiftDuration;
+	}
+
+	/**
+	 * @return size of the time-shift ring file in bytes
+	 */
+	public int getTimeShiftBufferSize() {
+		return timeShiftBufferSize;
+	}
+
+	/**
+	 * @param timeShiftBufferSize size of the time-shift ring file in bytes
+	 */
+	public void setTimeShiftBufferSize(int timeShiftBufferSize) {
+		this.timeShiftBufferSize = timeShiftBufferSize;
+	}
+
+	/**
+	 * Returns the time-shift buffer of this stream.
+	 * 
+	 * @return buffer or null if time-shifting is not enabled
+	 */
+	public TimeShiftBuffer getTimeShiftBuffer() {
+		return timeShiftBuffer;
+	}
+
+	/**
+	 * @return thinned rendition mode
+	 */
+	public String getThinningMode() {
+		return thinningMode;
+	}
+
+	/**
+	 * Enables a thinned rendition of this stream, published as the stream name plus the thinning suffix. Modes are
+	 * keyframes, reference_frames (H.264 non-reference frames are dropped) and audio_only; none disables it.
+	 * 
+	 * @param thinningMode thinned rendition mode
+	 */
+	public void setThinningMode(String thinningMode) {
+		this.thinningMode = thinningMode;
+	}
+
+	/**
+	 * @return whether or not the thinned rendition keeps the audio
+	 */
+	public boolean isThinningAudio() {
+		return thinningAudio;
+	}
+
+	/**
+	 * @param thinningAudio whether or not the thinned rendition keeps the audio
+	 */
+	public void setThinningAudio(boolean thinningAudio) {
+		this.thinningAudio = thinningAudio;
+	}
+
+	/**
+	 * @return suffix of the thinned rendition name
+	 */
+	public String getThinningSuffix() {
+		return thinningSuffix;
+	}
+
+	/**
+	 * @param thinningSuffix suffix of the thinned rendition name
+	 */
+	public void setThinningSuffix(String thinningSuffix) {
+		this.thinningSuffix = thinningSuffix;
+	}
+
+	/**
+	 * Returns the producer of the thinned rendition of this stream.
+	 * 
+	 * @return thinner or null if thinning is not enabled
+	 */
+	public StreamThinner getStreamThinner() {
+		return streamThinner;
+	}
+
 	/**
 	 * @param registerJMX the registerJMX to set
 	 */
@@ -831,6 +977,14 @@ public class ClientBroadcastStream extends AbstractClientStream implements IClie
 		// We send the start messages before the first packet is received.
 		// This is required so FME actually starts publishing.
 		sendStartNotifications(Red5.getConnectionLocal());
+		// fill the time-shift ring if enabled
+		if (timeShiftDuration > 0 && timeShiftBuffer == null) {
+			startTimeShift();
+		}
+		// publish the thinned rendition if enabled
+		if (StringUtils.isNotBlank(thinningMode) && !"none".equalsIgnoreCase(thinningMode) && streamThinner == null) {
+			startThinning();
+		}
 		// force recording if set
 		if (automaticRecording) {
 			log.debug("Starting automatic recording of {}", publishedName);
@@ -842,6 +996,55 @@ public class ClientBroadcastStream extends AbstractClientStream implements IClie
 		}
 	}
 
+	/**
+	 * Creates the time-shift ring and registers it as a stream listener.
+	 */
+	private void startTimeShift() {
+		try {
+			File file = File.createTempFile("timeshift-", ".ring");
+			TimeShiftBuffer buffer = new TimeShiftBuffer(file, timeShiftBufferSize, timeShiftDuration * 1000);
+			buffer.open();
+			timeShiftBuffer = buffer;
+			addStreamListener(buffer);
+			log.debug("Time-shift enabled for {} window: {}s", publishedName, timeShiftDuration);
+		} catch (IOException e) {
+			log.warn("Time-shift buffer could not be created for {}", publishedName, e);
+		}
+	}
+
+	/**
+	 * Creates the thinned rendition, registers it as a stream listener and publishes it in a broadcast scope of its
+	 * own. Subscribers of the rendition get their metadata and decoder configurations from this stream.
+	 */
+	private void startThinning() {
+		StreamThinner.Mode mode;
+		try {
+			mode = StreamThinner.Mode.valueOf(thinningMode.trim().toUpperCase());
+		} catch (IllegalArgumentException e) {
+			log.warn("Unknown thinning mode: {}", thinningMode);
+			return;
+		}
+		String name = publishedName + thinningSuffix;
+		IProviderService providerService = (IProviderService) getScope().getContext().getBean(IProviderService.BEAN_NAME);
+		IMessageInput msgIn = providerService.getLiveProviderInput(getScope(), name, true);
+		if (msgIn instanceof IBroadcastScope) {
+			IBroadcastScope bsScope = (IBroadcastScope) msgIn;
+			if (bsScope.getClientBroadcastStream() != null && bsScope.getClientBroadcastStream() != this) {
+				log.warn("Thinned rendition {} is already published by another stream", name);
+				return;
+			}
+			StreamThinner thinner = new StreamThinner(mode, thinningAudio);
+			if (thinner.connect(bsScope)) {
+				bsScope.setClientBroadcastStream(this);
+				streamThinner = thinner;
+				addStreamListener(thinner);
+				log.debug("Thinned rendition {} of {} mode: {}", new Object[] { name, publishedName, mode });
+			} else {
+				log.warn("Thinned rendition {} could not be published", name);
+			}
+		}
+	}
+
 	/** {@inheritDoc} */
 	public void stop() {
 		log.info("Stream stop: {}", publishedName);
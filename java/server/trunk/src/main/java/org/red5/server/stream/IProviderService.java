@@ -121,5 +121,33 @@ public interface IProviderService extends IScopeService {
 	 * @return <tt>true</tt> if unregister successfully.
 	 */
 	boolean unregisterBroadcastStream(IScope scope, String name, IBroadcastStream stream);
+
+	/**
+	 * Register an adaptive bitrate group to a scope. Subscribers playing the name of the group are served
+	 * one of its renditions.
+	 * 
+	 * @param scope         Scope
+	 * @param group         Group to register
+	 * @return <tt>true</tt> if register successfully, <tt>false</tt> if a group of that name exists.
+	 */
+	boolean registerAbrGroup(IScope scope, AbrGroup group);
+
+	/**
+	 * Get an adaptive bitrate group.
+	 * 
+	 * @param scope         Scope
+	 * @param name          Name of the group
+	 * @return <tt>null</tt> if not found.
+	 */
+	AbrGroup getAbrGroup(IScope scope, String name);
+
+	/**
+	 * Unregister an adaptive bitrate group from a scope. Current subscribers keep playing their rendition.
+	 * 
+	 * @param scope         Scope
+	 * @param name          Name of the group
+	 * @return <tt>true</tt> if unregister successfully.
+	 */
+	boolean unregisterAbrGroup(IScope scope, String name);
 	
 }
@@ -19,7 +19,9 @@
 package org.red5.server.stream;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.atomic.AtomicBoolean;
@@ -32,6 +34,7 @@ import org.red5.codec.IVideoStreamCodec;
 import org.red5.codec.StreamCodecInfo;
 import org.red5.io.amf.Output;
 import org.red5.logging.Red5LoggerFactory;
+import org.red5.server.api.IConnection;
 import org.red5.server.api.scheduling.IScheduledJob;
 import org.red5.server.api.scheduling.ISchedulingService;
 import org.red5.server.api.scope.IBroadcastScope;
@@ -54,6 +57,7 @@ import org.red5.server.messaging.IPipe;
 import org.red5.server.messaging.IPipeConnectionListener;
 import org.red5.server.messaging.IProvider;
 import org.red5.server.messaging.IPushableConsumer;
+import org.red5.server.messaging.InMemoryPullPullPipe;
 import org.red5.server.messaging.OOBControlMessage;
 import org.red5.server.messaging.PipeConnectionEvent;
 import org.red5.server.net.rtmp.event.Aggregate;
@@ -68,9 +72,11 @@ import org.red5.server.net.rtmp.message.Header;
 import org.red5.server.net.rtmp.status.Status;
 import org.red5.server.net.rtmp.status.StatusCodes;
 import org.red5.server.net.rtmpt.RTMPTConnection;
+import org.red5.server.scope.BroadcastScope;
 import org.red5.server.stream.message.RTMPMessage;
 import org.red5.server.stream.message.ResetMessage;
 import org.red5.server.stream.message.StatusMessage;
+import org.red5.server.stream.provider.TimeShiftProvider;
 import org.slf4j.Logger;
 
 /**
@@ -137,6 +143,33 @@ public final class PlayEngine implements IFilter, IPushableConsumer, IPipeConnec
 	 */
 	private int underrunTrigger = 10;
 
+	/**
+	 * Window in ms within which audio and video messages are packed into one aggregate message, 0 to send them
+	 * one by one.
+	 */
+	private int aggregateDuration = 0;
+
+	/**
+	 * Maximum size in bytes of an aggregate message.
+	 */
+	private int aggregateSize = 65536;
+
+	/**
+	 * Client buffer in ms from which live messages are aggregated as well, 0 to aggregate VOD only. Aggregating
+	 * delays live messages by up to the aggregation window.
+	 */
+	private int aggregateLiveBuffer = 0;
+
+	/**
+	 * Aggregate being filled for a live stream, guarded by liveAggregateLock
+	 */
+	private AggregateBuilder liveAggregate;
+
+	/**
+	 * Lock between the publisher thread filling the live aggregate and the thread closing or seeking the stream
+	 */
+	private final Object liveAggregateLock = new Object();
+
 	/**
 	 * threshold for number of pending video frames
 	 */
@@ -210,10 +243,47 @@ public final class PlayEngine implements IFilter, IPushableConsumer, IPipeConnec
 	private boolean sendBlankAudio;
 
 	/**
-	 * decision: 0 for Live, 1 for File, 2 for Wait, 3 for N/A
+	 * decision: 0 for Live, 1 for File, 2 for Wait, 3 for N/A, 4 for Time-shifted live
 	 */
 	private int playDecision = 3;
 
+	/**
+	 * Source timestamp of the last time-shifted message sent, used to skip duplicates after joining the live pipe
+	 */
+	private int liveEdgeTimestamp = -1;
+
+	/**
+	 * Live input subscribed to while time-shifted playback catches up with it
+	 */
+	private volatile IMessageInput liveSwitchIn;
+
+	/**
+	 * Messages of the live input held back until the time-shift buffer was read up to the first of them, also the
+	 * lock of the switch to live
+	 */
+	private final List<RTMPMessage> liveBacklog = new ArrayList<RTMPMessage>();
+
+	/**
+	 * Rendition selection when playing an adaptive bitrate group
+	 */
+	private volatile AbrController abrController;
+
+	/**
+	 * Lock between the publisher threads of the renditions pushing to this subscriber; the rendition left behind by
+	 * a switch may still be sending when the new one takes over
+	 */
+	private final Object abrLock = new Object();
+
+	/**
+	 * Input of the rendition being switched to, until its first keyframe arrives
+	 */
+	private volatile IMessageInput abrSwitchIn;
+
+	/**
+	 * Index of the rendition being switched to
+	 */
+	private int abrSwitchIndex;
+
 	/**
 	 * List of pending operations
 	 */
@@ -270,6 +340,18 @@ public final class PlayEngine implements IFilter, IPushableConsumer, IPipeConnec
 		this.underrunTrigger = underrunTrigger;
 	}
 
+	public void setAggregateDuration(int aggregateDuration) {
+		this.aggregateDuration = aggregateDuration;
+	}
+
+	public void setAggregateSize(int aggregateSize) {
+		this.aggregateSize = aggregateSize;
+	}
+
+	public void setAggregateLiveBuffer(int aggregateLiveBuffer) {
+		this.aggregateLiveBuffer = aggregateLiveBuffer;
+	}
+
 	void setMessageOut(IMessageOutput msgOut) {
 		this.msgOut = msgOut;
 	}
@@ -333,12 +415,12 @@ public final class PlayEngine implements IFilter, IPushableConsumer, IPipeConnec
 		// If -1, plays only a live stream. 
 		// If 0 or a positive number, plays a recorded stream, beginning start seconds in.
 		//
-		// -2: live then recorded, -1: live, >=0: recorded
+		// -2: live then recorded, -1: live, >=0: recorded, <=-3: live starting start seconds behind the live edge
 		int type = (int) (item.getStart() / 1000);
 		log.debug("Type {}", type);
 		// see if it's a published stream
 		IScope thisScope = subscriberStream.getScope();
-		final String itemName = item.getName();
+		final String itemName = resolveAbrGroup(thisScope, item.getName());
 		//check for input and type
 		IProviderService.INPUT_TYPE sourceType = providerService.lookupProviderInput(thisScope, itemName, type);
 
@@ -369,10 +451,18 @@ public final class PlayEngine implements IFilter, IPushableConsumer, IPipeConnec
 			default:
 				if (isFileStream) {
 					playDecision = 1;
+				} else if (isPublishedStream && type < -2) {
+					// time-shift if the stream keeps a buffer, otherwise join at the live edge
+					if (getTimeShiftBuffer(thisScope, itemName) != null) {
+						playDecision = 4;
+					} else {
+						log.debug("No time-shift buffer for {}, playing live", itemName);
+						playDecision = 0;
+					}
 				}
 				break;
 		}
-		log.debug("Play decision is {} (0=Live, 1=File, 2=Wait, 3=N/A)", playDecision);
+		log.debug("Play decision is {} (0=Live, 1=File, 2=Wait, 3=N/A, 4=Time-shift)", playDecision);
 		IMessage msg = null;
 		currentItem = item;
 		long itemLength = item.getLength();
@@ -461,6 +551,18 @@ public final class PlayEngine implements IFilter, IPushableConsumer, IPipeConnec
 					throw new IOException(String.format("Subscribe to %s failed", itemName));
 				}
 				break;
+			case 4:
+				IPipe pipe = new InMemoryPullPullPipe();
+				pipe.subscribe(new TimeShiftProvider(getTimeShiftBuffer(thisScope, itemName), (int) -item.getStart()), null);
+				msgIn = pipe;
+				if (msgIn.subscribe(this, null)) {
+					//execute the processes to get time-shifted playback setup
+					msg = playTimeShift(withReset, thisScope, itemName);
+				} else {
+					log.error("Input source subscribe failed");
+					throw new IOException(String.format("Subscribe to %s failed", itemName));
+				}
+				break;
 			default:
 				sendStreamNotFoundStatus(currentItem);
 				throw new StreamNotFoundException(itemName);
@@ -508,92 +610,104 @@ public final class PlayEngine implements IFilter, IPushableConsumer, IPipeConnec
 		subscriberStream.setState(StreamState.PLAYING);
 		streamOffset = 0;
 		streamStartTS = -1;
+		liveEdgeTimestamp = -1;
 		if (msgIn != null) {
 			// get the stream so that we can grab any metadata and decoder configs
 			IBroadcastStream stream = (IBroadcastStream) ((IBroadcastScope) msgIn).getClientBroadcastStream();
 			// prevent an NPE when a play list is created and then immediately flushed
 			if (stream != null) {
-				Notify metaData = stream.getMetaData();
-				//check for metadata to send
-				if (metaData != null) {
-					log.debug("Metadata is available");
-					RTMPMessage metaMsg = RTMPMessage.build(metaData, 0);
+				sendStreamConfiguration(stream, true);
+			}
+		} else {
+			throw new IOException("Message input pipe is null");
+		}
+	}
+
+	/**
+	 * Sends the metadata and decoder configurations of a live stream and optionally its most recent keyframe.
+	 * 
+	 * @param stream live stream
+	 * @param withKeyFrame whether or not to send the cached keyframe
+	 * @throws IOException
+	 */
+	private final void sendStreamConfiguration(IBroadcastStream stream, boolean withKeyFrame) throws IOException {
+		Notify metaData = stream.getMetaData();
+		//check for metadata to send
+		if (metaData != null) {
+			log.debug("Metadata is available");
+			RTMPMessage metaMsg = RTMPMessage.build(metaData, 0);
+			try {
+				msgOut.pushMessage(metaMsg);
+			} catch (IOException e) {
+				log.warn("Error sending metadata", e);
+			}
+		} else {
+			log.debug("No metadata available");
+		}
+
+		IStreamCodecInfo codecInfo = stream.getCodecInfo();
+		log.debug("Codec info: {}", codecInfo);
+		if (codecInfo instanceof StreamCodecInfo) {
+			StreamCodecInfo info = (StreamCodecInfo) codecInfo;
+			IVideoStreamCodec videoCodec = info.getVideoCodec();
+			log.debug("Video codec: {}", videoCodec);
+			if (videoCodec != null) {
+				//check for decoder configuration to send
+				IoBuffer config = videoCodec.getDecoderConfiguration();
+				if (config != null) {
+					log.debug("Decoder configuration is available for {}", videoCodec.getName());
+					//log.debug("Dump:\n{}", Hex.encodeHex(config.array()));
+					VideoData conf = new VideoData(config.asReadOnlyBuffer());
+					log.trace("Configuration ts: {}", conf.getTimestamp());
+					RTMPMessage confMsg = RTMPMessage.build(conf);
 					try {
-						msgOut.pushMessage(metaMsg);
-					} catch (IOException e) {
-						log.warn("Error sending metadata", e);
+						log.debug("Pushing decoder configuration");
+						msgOut.pushMessage(confMsg);
+					} finally {
+						conf.release();
 					}
-				} else {
-					log.debug("No metadata available");
 				}
-
-				IStreamCodecInfo codecInfo = stream.getCodecInfo();
-				log.debug("Codec info: {}", codecInfo);
-				if (codecInfo instanceof StreamCodecInfo) {
-					StreamCodecInfo info = (StreamCodecInfo) codecInfo;
-					IVideoStreamCodec videoCodec = info.getVideoCodec();
-					log.debug("Video codec: {}", videoCodec);
-					if (videoCodec != null) {
-						//check for decoder configuration to send
-						IoBuffer config = videoCodec.getDecoderConfiguration();
-						if (config != null) {
-							log.debug("Decoder configuration is available for {}", videoCodec.getName());
-							//log.debug("Dump:\n{}", Hex.encodeHex(config.array()));
-							VideoData conf = new VideoData(config.asReadOnlyBuffer());
-							log.trace("Configuration ts: {}", conf.getTimestamp());
-							RTMPMessage confMsg = RTMPMessage.build(conf);
-							try {
-								log.debug("Pushing decoder configuration");
-								msgOut.pushMessage(confMsg);
-							} finally {
-								conf.release();
-							}
-						}
-						//check for a keyframe to send
-						IoBuffer keyFrame = videoCodec.getKeyframe();
-						if (keyFrame != null) {
-							log.debug("Keyframe is available");
-							VideoData video = new VideoData(keyFrame.asReadOnlyBuffer());
-							log.trace("Keyframe ts: {}", video.getTimestamp());
-							//log.debug("Dump:\n{}", Hex.encodeHex(keyFrame.array()));
-							RTMPMessage videoMsg = RTMPMessage.build(video);
-							try {
-								log.debug("Pushing keyframe");
-								msgOut.pushMessage(videoMsg);
-							} finally {
-								video.release();
-							}
-						}
-					} else {
-						log.debug("Could not initialize stream output, videoCodec is null");
+				//check for a keyframe to send
+				IoBuffer keyFrame = withKeyFrame ? videoCodec.getKeyframe() : null;
+				if (keyFrame != null) {
+					log.debug("Keyframe is available");
+					VideoData video = new VideoData(keyFrame.asReadOnlyBuffer());
+					log.trace("Keyframe ts: {}", video.getTimestamp());
+					//log.debug("Dump:\n{}", Hex.encodeHex(keyFrame.array()));
+					RTMPMessage videoMsg = RTMPMessage.build(video);
+					try {
+						log.debug("Pushing keyframe");
+						msgOut.pushMessage(videoMsg);
+					} finally {
+						video.release();
 					}
-					// SplitmediaLabs - begin AAC fix
-					IAudioStreamCodec audioCodec = info.getAudioCodec();
-					log.debug("Audio codec: {}", audioCodec);
-					if (audioCodec != null) {
-						//check for decoder configuration to send
-						IoBuffer config = audioCodec.getDecoderConfiguration();
-						if (config != null) {
-							log.debug("Decoder configuration is available for {}", audioCodec.getName());
-							//log.debug("Dump:\n{}", Hex.encodeHex(config.array()));
-							AudioData conf = new AudioData(config.asReadOnlyBuffer());
-							log.trace("Configuration ts: {}", conf.getTimestamp());
-							RTMPMessage confMsg = RTMPMessage.build(conf);
-							try {
-								log.debug("Pushing decoder configuration");
-								msgOut.pushMessage(confMsg);
-							} finally {
-								conf.release();
-							}
-						}
-					} else {
-						log.debug("No decoder configuration available, audioCodec is null");
+				}
+			} else {
+				log.debug("Could not initialize stream output, videoCodec is null");
+			}
+			// SplitmediaLabs - begin AAC fix
+			IAudioStreamCodec audioCodec = info.getAudioCodec();
+			log.debug("Audio codec: {}", audioCodec);
+			if (audioCodec != null) {
+				//check for decoder configuration to send
+				IoBuffer config = audioCodec.getDecoderConfiguration();
+				if (config != null) {
+					log.debug("Decoder configuration is available for {}", audioCodec.getName());
+					//log.debug("Dump:\n{}", Hex.encodeHex(config.array()));
+					AudioData conf = new AudioData(config.asReadOnlyBuffer());
+					log.trace("Configuration ts: {}", conf.getTimestamp());
+					RTMPMessage confMsg = RTMPMessage.build(conf);
+					try {
+						log.debug("Pushing decoder configuration");
+						msgOut.pushMessage(confMsg);
+					} finally {
+						conf.release();
 					}
 				}
-			}			
-		} else {
-			throw new IOException("Message input pipe is null");
-		}		
+			} else {
+				log.debug("No decoder configuration available, audioCodec is null");
+			}
+		}
 	}
 
 	/**
@@ -645,6 +759,261 @@ public final class PlayEngine implements IFilter, IPushableConsumer, IPipeConnec
 		return msg;
 	}
 
+	/**
+	 * Performs the processes needed for time-shifted live streams. The metadata and decoder configurations of the
+	 * live stream are sent, the video itself starts at a keyframe read from the time-shift buffer.
+	 * 
+	 * @param withReset whether or not to perform reset on the stream
+	 * @param scope scope of the live stream
+	 * @param itemName name of the live stream
+	 * @return message for the consumer
+	 * @throws IOException
+	 */
+	private final IMessage playTimeShift(boolean withReset, IScope scope, String itemName) throws IOException {
+		//change state
+		subscriberStream.setState(StreamState.PLAYING);
+		streamOffset = 0;
+		streamStartTS = -1;
+		liveEdgeTimestamp = -1;
+		if (withReset) {
+			releasePendingMessage();
+		}
+		IBroadcastScope broadcastScope = scope.getBroadcastScope(itemName);
+		if (broadcastScope != null && broadcastScope.getClientBroadcastStream() != null) {
+			sendStreamConfiguration(broadcastScope.getClientBroadcastStream(), false);
+		}
+		IMessage msg = msgIn.pullMessage();
+		if (msg instanceof RTMPMessage) {
+			liveEdgeTimestamp = ((RTMPMessage) msg).getBody().getTimestamp();
+		}
+		return msg;
+	}
+
+	/**
+	 * Returns the time-shift buffer of a live stream.
+	 * 
+	 * @param scope scope of the live stream
+	 * @param itemName name of the live stream
+	 * @return buffer or null if the stream does not exist or is not time-shift enabled
+	 */
+	private TimeShiftBuffer getTimeShiftBuffer(IScope scope, String itemName) {
+		IBroadcastScope broadcastScope = scope.getBroadcastScope(itemName);
+		if (broadcastScope != null && broadcastScope.getClientBroadcastStream() instanceof ClientBroadcastStream) {
+			return ((ClientBroadcastStream) broadcastScope.getClientBroadcastStream()).getTimeShiftBuffer();
+		}
+		return null;
+	}
+
+	/**
+	 * Starts moving a time-shifted subscriber which has caught up with the live edge over to the live pipe. The live
+	 * pipe is subscribed to right away, its messages are held back until the switch completes.
+	 */
+	private void switchTimeShiftToLive() {
+		if (liveSwitchIn != null) {
+			// waiting for the first live message
+			return;
+		}
+		String itemName = abrController != null ? abrController.getGroup().getStreamName(abrController.getIndex()) : currentItem.getName();
+		IMessageInput liveIn = providerService.getLiveProviderInput(subscriberStream.getScope(), itemName, false);
+		if (liveIn == null) {
+			log.debug("Live stream {} is gone, stopping time-shifted playback", itemName);
+			runDeferredStop();
+			return;
+		}
+		log.debug("Time-shifted playback of {} reached the live edge", itemName);
+		// tags published from now on are held back, the ones published before are read from the buffer
+		liveSwitchIn = liveIn;
+		liveIn.subscribe(this, null);
+	}
+
+	/**
+	 * Completes the switch from time-shifted playback to the live stream once the buffer was read past the first
+	 * live message held back. Since the buffer is appended after the live pipe is pushed to, every tag published
+	 * before that message is in the buffer by then; held back tags already sent from the buffer are skipped.
+	 * 
+	 * @param pulled message just read from the buffer or null if there was none
+	 * @return true if the switch was completed and the pulled message is to be dropped
+	 */
+	private boolean completeLiveSwitch(IMessage pulled) throws IOException {
+		synchronized (liveBacklog) {
+			if (liveBacklog.isEmpty()) {
+				return false;
+			}
+			if (pulled instanceof RTMPMessage && ((RTMPMessage) pulled).getBody().getTimestamp() <= liveBacklog.get(0).getBody().getTimestamp()) {
+				return false;
+			}
+			if (pullAndPush != null) {
+				subscriberStream.cancelJob(pullAndPush);
+				pullAndPush = null;
+			}
+			msgIn.unsubscribe(this);
+			msgIn = liveSwitchIn;
+			playDecision = 0;
+			pullMode = false;
+			videoFrameDropper.reset();
+			// live messages pushed meanwhile wait for the lock, so they follow the ones held back
+			for (RTMPMessage message : liveBacklog) {
+				try {
+					pushLiveMessage(message);
+				} finally {
+					message.getBody().release();
+				}
+			}
+			liveBacklog.clear();
+			liveSwitchIn = null;
+			return true;
+		}
+	}
+
+	/**
+	 * Holds back a message of the live input while time-shifted playback catches up with it.
+	 * 
+	 * @param pipe pipe which delivered the message
+	 * @param message message
+	 * @return true if the message was held back
+	 */
+	private boolean holdLiveMessage(IPipe pipe, RTMPMessage message) {
+		synchronized (liveBacklog) {
+			if (isFrom(pipe, liveSwitchIn)) {
+				// the publisher releases the event once it was pushed
+				message.getBody().retain();
+				liveBacklog.add(message);
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Drops a pending switch to the live stream.
+	 */
+	private void cancelLiveSwitch() {
+		synchronized (liveBacklog) {
+			IMessageInput in = liveSwitchIn;
+			if (in != null) {
+				liveSwitchIn = null;
+				in.unsubscribe(this);
+			}
+			for (RTMPMessage message : liveBacklog) {
+				message.getBody().release();
+			}
+			liveBacklog.clear();
+		}
+	}
+
+	/**
+	 * Looks up an adaptive bitrate group of the given name and picks the rendition to start with.
+	 * 
+	 * @param scope scope of the stream
+	 * @param name name to play
+	 * @return name of the rendition to play or the given name if it is not a group
+	 */
+	private String resolveAbrGroup(IScope scope, String name) {
+		synchronized (abrLock) {
+			cancelAbrSwitch();
+			abrController = null;
+		}
+		AbrGroup group = providerService.getAbrGroup(scope, name);
+		if (group == null || group.size() == 0) {
+			return name;
+		}
+		// start at the lowest published rendition, the controller moves up once the connection proves stable
+		int index = group.size() - 1;
+		while (index > 0 && scope.getBroadcastScope(group.getStreamName(index)) == null) {
+			index--;
+		}
+		if (scope.getBroadcastScope(group.getStreamName(index)) == null) {
+			index = group.size() - 1;
+		}
+		abrController = new AbrController(group, index);
+		log.debug("Playing rendition {} of ABR group {}", group.getStreamName(index), name);
+		return group.getStreamName(index);
+	}
+
+	/**
+	 * Asks the ABR controller whether the subscriber should move to another rendition, and if so subscribes to it.
+	 * The current rendition keeps playing until a keyframe of the new one arrives.
+	 */
+	private void checkAbrSwitch() {
+		IConnection conn = subscriberStream.getConnection();
+		long unacknowledged = conn.getWrittenBytes() - conn.getClientBytesRead();
+		int index = abrController.evaluate(pendingVideoMessages(), unacknowledged, conn.getLastPingTime());
+		if (index != abrController.getIndex() && index >= 0) {
+			String name = abrController.getGroup().getStreamName(index);
+			IMessageInput in = providerService.getLiveProviderInput(subscriberStream.getScope(), name, false);
+			if (in != null) {
+				log.debug("Switching to rendition {} of ABR group {}", name, abrController.getGroup().getName());
+				abrSwitchIndex = index;
+				abrSwitchIn = in;
+				in.subscribe(this, null);
+			} else {
+				log.debug("Rendition {} is not published", name);
+			}
+		}
+	}
+
+	/**
+	 * Completes a pending rendition switch if the given message of the new rendition is a keyframe.
+	 * 
+	 * @param body message received from the rendition being switched to
+	 * @return true if the switch was completed and the message should be sent
+	 */
+	private boolean completeAbrSwitch(IRTMPEvent body) throws IOException {
+		if (!isKeyFrame(body)) {
+			return false;
+		}
+		IMessageInput previous = msgIn;
+		msgIn = abrSwitchIn;
+		abrSwitchIn = null;
+		abrController.switched(abrSwitchIndex);
+		if (previous != null) {
+			previous.unsubscribe(this);
+		}
+		// the new rendition comes with its own decoder configuration
+		IBroadcastStream stream = ((IBroadcastScope) msgIn).getClientBroadcastStream();
+		if (stream != null) {
+			sendStreamConfiguration(stream, false);
+		}
+		videoFrameDropper.reset();
+		sendTransitionStatus();
+		return true;
+	}
+
+	/**
+	 * Drops a pending rendition switch.
+	 */
+	private void cancelAbrSwitch() {
+		synchronized (abrLock) {
+			IMessageInput in = abrSwitchIn;
+			if (in != null) {
+				abrSwitchIn = null;
+				in.unsubscribe(this);
+			}
+		}
+	}
+
+	/**
+	 * @param source pipe which delivered a message or event
+	 * @param in input
+	 * @return true if the source belongs to the given input
+	 */
+	private static boolean isFrom(Object source, IMessageInput in) {
+		return in != null && (in == source || (in instanceof BroadcastScope && ((BroadcastScope) in).isSource(source)));
+	}
+
+	/**
+	 * @param body event
+	 * @return true if the event is a video keyframe carrying a picture
+	 */
+	private static boolean isKeyFrame(IRTMPEvent body) {
+		if (body instanceof VideoData && ((VideoData) body).getFrameType() == FrameType.KEYFRAME) {
+			IoBuffer data = ((VideoData) body).getData();
+			// skip AVC sequence headers
+			return data == null || data.limit() < 2 || (data.get(0) & 0x0f) != 7 || data.get(1) != 0;
+		}
+		return false;
+	}
+
 	/**
 	 * Connects to the data provider.
 	 * 
@@ -756,6 +1125,8 @@ public final class PlayEngine implements IFilter, IPushableConsumer, IPipeConnec
 					msgIn.unsubscribe(this);
 					msgIn = null;
 				}
+				cancelAbrSwitch();
+				cancelLiveSwitch();
 				subscriberStream.onChange(StreamState.STOPPED, currentItem);
 				clearWaitJobs();
 				cancelDeferredStop();
@@ -800,6 +1171,8 @@ public final class PlayEngine implements IFilter, IPushableConsumer, IPipeConnec
 				msgIn.unsubscribe(this);
 				msgIn = null;
 			}
+			cancelAbrSwitch();
+			cancelLiveSwitch();
 			subscriberStream.setState(StreamState.CLOSED);
 			clearWaitJobs();
 			releasePendingMessage();
@@ -985,6 +1358,9 @@ public final class PlayEngine implements IFilter, IPushableConsumer, IPipeConnec
 				break;
 		}
 		RTMPMessage messageOut = RTMPMessage.build(event);
+		if (playDecision == 4) {
+			liveEdgeTimestamp = event.getTimestamp();
+		}
 		//get the current timestamp from the message
 		int ts = messageOut.getBody().getTimestamp();
 		if (log.isTraceEnabled()) {
@@ -999,7 +1375,7 @@ public final class PlayEngine implements IFilter, IPushableConsumer, IPipeConnec
 			messageOut.getBody().setTimestamp(0);
 		}
 		//relative timestamp adjustment for live streams
-		if (playDecision == 0 && streamStartTS > 0) {
+		if ((playDecision == 0 || playDecision == 4) && streamStartTS > 0) {
 			//subtract the offset time of when the stream started playing for the client
 			ts -= streamStartTS;
 			messageOut.getBody().setTimestamp(ts);
@@ -1019,6 +1395,80 @@ public final class PlayEngine implements IFilter, IPushableConsumer, IPipeConnec
 		doPushMessage(messageOut);
 	}
 
+	/**
+	 * Sends a message pulled from a VOD provider, packed with the audio and video messages following it within
+	 * the aggregation window. A message that does not fit is kept as pending message for the next run.
+	 * 
+	 * @param message message that is okay to send
+	 * @throws IOException
+	 */
+	private void sendPulledMessage(RTMPMessage message) throws IOException {
+		if (aggregateDuration > 0 && AggregateBuilder.isAggregatable(message)) {
+			AggregateBuilder builder = new AggregateBuilder(aggregateDuration, aggregateSize);
+			builder.add(message);
+			IMessage msg;
+			while ((msg = msgIn.pullMessage()) != null) {
+				if (msg instanceof RTMPMessage) {
+					RTMPMessage next = (RTMPMessage) msg;
+					if (checkSendMessageEnabled(next)) {
+						// Adjust timestamp when playing lists
+						IRTMPEvent body = next.getBody();
+						body.setTimestamp(body.getTimestamp() + timestampOffset);
+						if (AggregateBuilder.isAggregatable(next) && builder.add(next)) {
+							releaseMessage(next);
+						} else {
+							pendingMessage = next;
+							break;
+						}
+					}
+				}
+			}
+			RTMPMessage aggregate = builder.build();
+			if (aggregate != message) {
+				releaseMessage(message);
+				message = aggregate;
+			}
+		}
+		sendMessage(message);
+		releaseMessage(message);
+	}
+
+	/**
+	 * Sends a live message. With a large enough client buffer audio and video are collected into aggregates,
+	 * which go out once the next message does not fit anymore.
+	 * 
+	 * @param message live message
+	 */
+	private void sendLiveMessage(RTMPMessage message) {
+		boolean aggregate = aggregateDuration > 0 && aggregateLiveBuffer > 0 && subscriberStream.getClientBufferDuration() >= aggregateLiveBuffer
+				&& AggregateBuilder.isAggregatable(message);
+		RTMPMessage flushed = null;
+		synchronized (liveAggregateLock) {
+			AggregateBuilder builder = liveAggregate;
+			if (aggregate) {
+				if (builder == null) {
+					builder = new AggregateBuilder(aggregateDuration, aggregateSize);
+					liveAggregate = builder;
+				}
+				if (!builder.add(message)) {
+					flushed = builder.build();
+					// a new window always takes the message
+					builder.add(message);
+				}
+				message = null;
+			} else if (builder != null && builder.getParts() > 0) {
+				flushed = builder.build();
+			}
+		}
+		// only the publisher thread gets here, sending outside of the lock keeps the order
+		if (flushed != null) {
+			sendMessage(flushed);
+		}
+		if (message != null) {
+			sendMessage(message);
+		}
+	}
+
 	/**
 	 * Send clear ping. Lets client know that stream has no more data to
 	 * send.
@@ -1311,7 +1761,7 @@ public final class PlayEngine implements IFilter, IPushableConsumer, IPipeConnec
 	public void onPipeConnectionEvent(PipeConnectionEvent event) {
 		switch (event.getType()) {
 			case PipeConnectionEvent.PROVIDER_CONNECT_PUSH:
-				if (event.getProvider() != this) {
+				if (event.getProvider() != this && !isFrom(event.getSource(), abrSwitchIn)) {
 					if (waiting) {
 						if (waitLiveJob != null) {
 							schedulingService.removeScheduledJob(waitLiveJob);
@@ -1323,7 +1773,13 @@ public final class PlayEngine implements IFilter, IPushableConsumer, IPipeConnec
 				}
 				break;
 			case PipeConnectionEvent.PROVIDER_DISCONNECT:
-				if (pullMode) {
+				if (isFrom(event.getSource(), abrSwitchIn)) {
+					// the rendition we were about to switch to went away
+					cancelAbrSwitch();
+				} else if (isFrom(event.getSource(), liveSwitchIn)) {
+					// time-shifted playback goes on, and stops at the end of the buffer
+					cancelLiveSwitch();
+				} else if (pullMode) {
 					sendStopStatus(currentItem);
 				} else {
 					sendUnpublishedStatus(currentItem);
@@ -1335,7 +1791,8 @@ public final class PlayEngine implements IFilter, IPushableConsumer, IPipeConnec
 				}
 				break;
 			case PipeConnectionEvent.CONSUMER_CONNECT_PUSH:
-				if (event.getConsumer() == this) {
+				// time-shifted playback is pulled until the switch to live completes
+				if (event.getConsumer() == this && !isFrom(event.getSource(), liveSwitchIn)) {
 					pullMode = false;
 				}
 				break;
@@ -1346,82 +1803,116 @@ public final class PlayEngine implements IFilter, IPushableConsumer, IPipeConnec
 	/** {@inheritDoc} */
 	public void pushMessage(IPipe pipe, IMessage message) throws IOException {
 		if (message instanceof RTMPMessage) {
-			RTMPMessage rtmpMessage = (RTMPMessage) message;
-			IRTMPEvent body = rtmpMessage.getBody();
-			if (body instanceof IStreamData) {
-				// the subscriber paused 
-				if (subscriberStream.getState() == StreamState.PAUSED) {
-					log.debug("Dropping packet because we are paused");
-					videoFrameDropper.dropPacket(rtmpMessage);
+			if (liveSwitchIn != null && holdLiveMessage(pipe, (RTMPMessage) message)) {
+				return;
+			}
+			if (abrController != null) {
+				synchronized (abrLock) {
+					if (!isFrom(pipe, msgIn)) {
+						// while switching renditions wait for a keyframe of the new one, drop anything else
+						if (abrController == null || !isFrom(pipe, abrSwitchIn) || !completeAbrSwitch(((RTMPMessage) message).getBody())) {
+							return;
+						}
+					}
+					pushLiveMessage((RTMPMessage) message);
+				}
+			} else {
+				pushLiveMessage((RTMPMessage) message);
+			}
+		} else if (message instanceof ResetMessage) {
+			sendReset();
+		} else {
+			msgOut.pushMessage(message);
+		}
+	}
+
+	/**
+	 * Sends a message of the live stream unless the subscriber does not want it or cannot keep up.
+	 * 
+	 * @param rtmpMessage message
+	 */
+	private void pushLiveMessage(RTMPMessage rtmpMessage) throws IOException {
+		IRTMPEvent body = rtmpMessage.getBody();
+		if (body instanceof IStreamData) {
+			// the subscriber paused 
+			if (subscriberStream.getState() == StreamState.PAUSED) {
+				log.debug("Dropping packet because we are paused");
+				videoFrameDropper.dropPacket(rtmpMessage);
+				return;
+			}
+			// skip what was already sent from the time-shift buffer
+			if (liveEdgeTimestamp != -1) {
+				if (body.getTimestamp() <= liveEdgeTimestamp) {
+					log.trace("Dropping packet already sent from the time-shift buffer");
 					return;
 				}
-				if (body instanceof VideoData) {
-					if (msgIn instanceof IBroadcastScope) {
-						IBroadcastStream stream = (IBroadcastStream) ((IBroadcastScope) msgIn).getClientBroadcastStream();
-						if (stream != null && stream.getCodecInfo() != null) {
-							IVideoStreamCodec videoCodec = stream.getCodecInfo().getVideoCodec();
-							//dont try to drop frames if video codec is null - related to SN-77
-							if (videoCodec != null && videoCodec.canDropFrames()) {
-								if (!receiveVideo) {
-									// The client disabled video or the app doesn't have enough bandwidth
-									// allowed for this stream.
-									log.debug("Dropping packet because we cant receive video or token acquire failed");
-									videoFrameDropper.dropPacket(rtmpMessage);
-									return;
-								}
-								// Only check for frame dropping if the codec supports it
-								long pendingVideos = pendingVideoMessages();
-								if (!videoFrameDropper.canSendPacket(rtmpMessage, pendingVideos)) {
-									// Drop frame as it depends on other frames that were dropped before.
-									log.debug("Dropping packet because frame dropper says we cant send it");
-									return;
-								}
-								// increment the number of times we had pending video frames sequentially
-								if (pendingVideos > 1) {
-									numSequentialPendingVideoFrames++;
-								} else {
-									// reset number of sequential pending frames if 1 or 0 are pending.
-									numSequentialPendingVideoFrames = 0;
-								}
-								if (pendingVideos > maxPendingVideoFramesThreshold || numSequentialPendingVideoFrames > maxSequentialPendingVideoFrames) {
-									log.debug("Pending: {} Threshold: {} Sequential: {}", new Object[] { pendingVideos, maxPendingVideoFramesThreshold,
-											numSequentialPendingVideoFrames });
-									// We drop because the client has insufficient bandwidth.
-									long now = System.currentTimeMillis();
-									if (bufferCheckInterval > 0 && now >= nextCheckBufferUnderrun) {
-										// Notify client about frame dropping (keyframe)
-										sendInsufficientBandwidthStatus(currentItem);
-										nextCheckBufferUnderrun = now + bufferCheckInterval;
-									}
-									videoFrameDropper.dropPacket(rtmpMessage);
-									return;
+				liveEdgeTimestamp = -1;
+			}
+			if (body instanceof VideoData) {
+				if (abrController != null && abrSwitchIn == null && playDecision == 0 && isKeyFrame(body)) {
+					checkAbrSwitch();
+				}
+				if (msgIn instanceof IBroadcastScope) {
+					IBroadcastStream stream = (IBroadcastStream) ((IBroadcastScope) msgIn).getClientBroadcastStream();
+					if (stream != null && stream.getCodecInfo() != null) {
+						IVideoStreamCodec videoCodec = stream.getCodecInfo().getVideoCodec();
+						//dont try to drop frames if video codec is null - related to SN-77
+						if (videoCodec != null && videoCodec.canDropFrames()) {
+							if (!receiveVideo) {
+								// The client disabled video or the app doesn't have enough bandwidth
+								// allowed for this stream.
+								log.debug("Dropping packet because we cant receive video or token acquire failed");
+								videoFrameDropper.dropPacket(rtmpMessage);
+								return;
+							}
+							// Only check for frame dropping if the codec supports it
+							long pendingVideos = pendingVideoMessages();
+							if (!videoFrameDropper.canSendPacket(rtmpMessage, pendingVideos)) {
+								// Drop frame as it depends on other frames that were dropped before.
+								log.debug("Dropping packet because frame dropper says we cant send it");
+								return;
+							}
+							// increment the number of times we had pending video frames sequentially
+							if (pendingVideos > 1) {
+								numSequentialPendingVideoFrames++;
+							} else {
+								// reset number of sequential pending frames if 1 or 0 are pending.
+								numSequentialPendingVideoFrames = 0;
+							}
+							if (pendingVideos > maxPendingVideoFramesThreshold || numSequentialPendingVideoFrames > maxSequentialPendingVideoFrames) {
+								log.debug("Pending: {} Threshold: {} Sequential: {}", new Object[] { pendingVideos, maxPendingVideoFramesThreshold,
+										numSequentialPendingVideoFrames });
+								// We drop because the client has insufficient bandwidth.
+								long now = System.currentTimeMillis();
+								if (bufferCheckInterval > 0 && now >= nextCheckBufferUnderrun) {
+									// Notify client about frame dropping (keyframe)
+									sendInsufficientBandwidthStatus(currentItem);
+									nextCheckBufferUnderrun = now + bufferCheckInterval;
 								}
+								videoFrameDropper.dropPacket(rtmpMessage);
+								return;
 							}
 						}
 					}
-				} else if (body instanceof AudioData) {
-					if (!receiveAudio && sendBlankAudio) {
-						// Send blank audio packet to reset player
-						sendBlankAudio = false;
-						body = new AudioData();
-						if (lastMessageTs > 0) {
-							body.setTimestamp(lastMessageTs);
-						} else {
-							body.setTimestamp(0);
-						}
-						rtmpMessage = RTMPMessage.build(body);
-					} else if (!receiveAudio) {
-						return;
+				}
+			} else if (body instanceof AudioData) {
+				if (!receiveAudio && sendBlankAudio) {
+					// Send blank audio packet to reset player
+					sendBlankAudio = false;
+					body = new AudioData();
+					if (lastMessageTs > 0) {
+						body.setTimestamp(lastMessageTs);
+					} else {
+						body.setTimestamp(0);
 					}
+					rtmpMessage = RTMPMessage.build(body);
+				} else if (!receiveAudio) {
+					return;
 				}
-				sendMessage(rtmpMessage);
-			} else {
-				throw new RuntimeException(String.format("Expected IStreamData but got %s (type %s)", body.getClass(), body.getDataType()));
 			}
-		} else if (message instanceof ResetMessage) {
-			sendReset();
+			sendLiveMessage(rtmpMessage);
 		} else {
-			msgOut.pushMessage(message);
+			throw new RuntimeException(String.format("Expected IStreamData but got %s (type %s)", body.getClass(), body.getDataType()));
 		}
 	}
 
@@ -1441,6 +1932,23 @@ public final class PlayEngine implements IFilter, IPushableConsumer, IPipeConnec
 		}
 	}
 
+	/**
+	 * Check whether the client has as much unacknowledged data in flight as the send window of the connection allows
+	 * @return          True if no more data should be pulled
+	 */
+	private boolean isSendWindowFull() {
+		OOBControlMessage windowRequest = new OOBControlMessage();
+		windowRequest.setTarget("ConnectionConsumer");
+		windowRequest.setServiceName("writeDelta");
+		msgOut.sendOOBControlMessage(this, windowRequest);
+		Long[] result = (Long[]) windowRequest.getResult();
+		if (result != null && result[1] > 0 && result[0] >= result[1]) {
+			log.trace("Send window full - in flight: {} window: {}", result[0], result[1]);
+			return true;
+		}
+		return false;
+	}
+
 	/**
 	 * Get number of pending messages to be sent
 	 * @return          Number of pending messages
@@ -1528,12 +2036,24 @@ public final class PlayEngine implements IFilter, IPushableConsumer, IPipeConnec
 	 */
 	private void releasePendingMessage() {
 		if (pendingMessage != null) {
-			IRTMPEvent body = pendingMessage.getBody();
-			if (body instanceof IStreamData && ((IStreamData<?>) body).getData() != null) {
-				((IStreamData<?>) body).getData().free();
-			}
+			releaseMessage(pendingMessage);
 			pendingMessage = null;
 		}
+		synchronized (liveAggregateLock) {
+			liveAggregate = null;
+		}
+	}
+
+	/**
+	 * Releases the data of a message body, if it has any.
+	 * 
+	 * @param message message to release
+	 */
+	private static void releaseMessage(RTMPMessage message) {
+		IRTMPEvent body = message.getBody();
+		if (body instanceof IStreamData && ((IStreamData<?>) body).getData() != null) {
+			((IStreamData<?>) body).getData().free();
+		}
 	}
 
 	/**
@@ -1767,11 +2287,16 @@ public final class PlayEngine implements IFilter, IPushableConsumer, IPipeConnec
 					}
 					// receive then send if message is data (not audio or video)
 					if (subscriberStream.getState() == StreamState.PLAYING && pullMode) {
+						if (isSendWindowFull()) {
+							// wait until the client acknowledged more of the data in flight
+							return;
+						}
 						if (pendingMessage != null) {
 							IRTMPEvent body = pendingMessage.getBody();
 							if (okayToSendMessage(body)) {
-								sendMessage(pendingMessage);
-								releasePendingMessage();
+								RTMPMessage message = pendingMessage;
+								pendingMessage = null;
+								sendPulledMessage(message);
 							} else {
 								return;
 							}
@@ -1779,6 +2304,10 @@ public final class PlayEngine implements IFilter, IPushableConsumer, IPipeConnec
 							IMessage msg = null;
 							do {
 								msg = msgIn.pullMessage();
+								if (liveSwitchIn != null && completeLiveSwitch(msg)) {
+									// the live stream has taken over
+									break;
+								}
 								if (msg != null) {
 									if (msg instanceof RTMPMessage) {
 										RTMPMessage rtmpMessage = (RTMPMessage) msg;
@@ -1788,8 +2317,7 @@ public final class PlayEngine implements IFilter, IPushableConsumer, IPipeConnec
 											body.setTimestamp(body.getTimestamp() + timestampOffset);
 											if (okayToSendMessage(body)) {
 												log.trace("ts: {}", rtmpMessage.getBody().getTimestamp());
-												sendMessage(rtmpMessage);
-												((IStreamData<?>) body).getData().free();
+												sendPulledMessage(rtmpMessage);
 											} else {
 												pendingMessage = rtmpMessage;
 											}
@@ -1797,6 +2325,9 @@ public final class PlayEngine implements IFilter, IPushableConsumer, IPipeConnec
 											break;
 										}
 									}
+								} else if (playDecision == 4) {
+									// time-shifted playback caught up with the live stream
+									switchTimeShiftToLive();
 								} else {
 									// No more packets to send
 									log.debug("Ran out of packets");
@@ -115,6 +115,21 @@ public class PlaylistSubscriberStream extends AbstractClientStream implements IP
 	 */
 	protected int underrunTrigger = 10;
 
+	/**
+	 * Window in ms within which audio and video are sent as one aggregate message, 0 to disable.
+	 */
+	protected int aggregateDuration = 0;
+
+	/**
+	 * Maximum size in bytes of an aggregate message.
+	 */
+	protected int aggregateSize = 65536;
+
+	/**
+	 * Client buffer in ms from which live streams are aggregated as well, 0 for VOD only.
+	 */
+	protected int aggregateLiveBuffer = 0;
+
 	/**
 	 * Timestamp this stream was created.
 	 */
@@ -161,6 +176,34 @@ public class PlaylistSubscriberStream extends AbstractClientStream implements IP
 		this.underrunTrigger = underrunTrigger;
 	}
 
+	/**
+	 * Set the window within which consecutive audio and video messages are packed into one
+	 * aggregate message. Set to <code>0</code> to disable.
+	 * 
+	 * @param aggregateDuration window in ms
+	 */
+	public void setAggregateDuration(int aggregateDuration) {
+		this.aggregateDuration = aggregateDuration;
+	}
+
+	/**
+	 * @param aggregateSize maximum size in bytes of an aggregate message
+	 */
+	public void setAggregateSize(int aggregateSize) {
+		this.aggregateSize = aggregateSize;
+	}
+
+	/**
+	 * Set the client buffer from which live streams are aggregated too. Aggregation delays live
+	 * messages by up to the aggregation window, so this only pays off for viewers buffering well
+	 * beyond it. Set to <code>0</code> to aggregate VOD only.
+	 * 
+	 * @param aggregateLiveBuffer client buffer in ms
+	 */
+	public void setAggregateLiveBuffer(int aggregateLiveBuffer) {
+		this.aggregateLiveBuffer = aggregateLiveBuffer;
+	}
+
 	/** {@inheritDoc} */
 	public void start() {
 		//ensure the play engine exists
@@ -198,6 +241,10 @@ public class PlaylistSubscriberStream extends AbstractClientStream implements IP
 		engine.setBufferCheckInterval(bufferCheckInterval);
 		//set underrun trigger
 		engine.setUnderrunTrigger(underrunTrigger);
+		//set aggregation of audio and video
+		engine.setAggregateDuration(aggregateDuration);
+		engine.setAggregateSize(aggregateSize);
+		engine.setAggregateLiveBuffer(aggregateLiveBuffer);
 		// Start playback engine
 		engine.start();
 		// Notify subscribers on start
@@ -0,0 +1,93 @@
+/*
+ * RED5 Open Source Flash Server - http://code.google.com/p/red5/
+ * 
+ * Copyright 2006-2013 by respective authors (see below). All rights reserved.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.red5.server.stream;
+
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+/**
+ * Paces the playout of server-side streams. A small pool of pacing threads is shared by all channels; each
+ * channel has at most one pending emission at a time, due at a deadline on the monotonic clock
+ * ({@link System#nanoTime()}). Unlike a Quartz job per tag this creates no trigger or job detail objects and is
+ * not subject to the misfire handling and millisecond resolution of the scheduler.
+ * 
+ * @author The Red5 Project
+ */
+public class PlayoutEngine {
+
+	private static final Logger log = LoggerFactory.getLogger(PlayoutEngine.class);
+
+	public static final String BEAN_NAME = "playoutEngine";
+
+	/**
+	 * Number of pacing threads
+	 */
+	private int threads = 2;
+
+	private volatile ScheduledThreadPoolExecutor executor;
+
+	public void setThreads(int threads) {
+		this.threads = threads;
+	}
+
+	/**
+	 * Starts the pacing threads.
+	 */
+	public synchronized void init() {
+		if (executor == null) {
+			log.debug("Starting playout engine with {} pacing threads", threads);
+			CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("PlayoutEngine-");
+			threadFactory.setDaemon(true);
+			threadFactory.setThreadPriority(Thread.MAX_PRIORITY);
+			executor = new ScheduledThreadPoolExecutor(threads, threadFactory);
+		}
+	}
+
+	/**
+	 * Stops the pacing threads, dropping all pending emissions.
+	 */
+	public synchronized void destroy() {
+		if (executor != null) {
+			executor.shutdownNow();
+			executor = null;
+		}
+	}
+
+	/**
+	 * Schedules an emission.
+	 * 
+	 * @param task emission
+	 * @param delay delay in nanoseconds
+	 * @return future to cancel the emission with
+	 * @throws IllegalStateException if the engine is not running
+	 */
+	public Future<?> schedule(Runnable task, long delay) {
+		ScheduledThreadPoolExecutor exec = executor;
+		if (exec == null) {
+			throw new IllegalStateException("Playout engine is not running");
+		}
+		return exec.schedule(task, delay, TimeUnit.NANOSECONDS);
+	}
+
+}
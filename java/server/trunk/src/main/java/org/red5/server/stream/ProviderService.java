@@ -46,6 +46,20 @@ public class ProviderService implements IProviderService {
 
 	private static final Logger log = Red5LoggerFactory.getLogger(ProviderService.class);
 
+	/**
+	 * Prefix of the scope attributes holding adaptive bitrate groups
+	 */
+	private static final String ABR_GROUP_PREFIX = "_abrgroup.";
+
+	/**
+	 * Cache of resolved VOD files, may be null
+	 */
+	private StreamFileCache fileCache;
+
+	public void setFileCache(StreamFileCache fileCache) {
+		this.fileCache = fileCache;
+	}
+
 	/** {@inheritDoc} */
 	public INPUT_TYPE lookupProviderInput(IScope scope, String name, int type) {
 		INPUT_TYPE result = INPUT_TYPE.NOT_FOUND;
@@ -98,12 +112,20 @@ public class ProviderService implements IProviderService {
 	/** {@inheritDoc} */
 	public IMessageInput getVODProviderInput(IScope scope, String name) {
 		log.debug("getVODProviderInput - scope: {} name: {}", scope, name);
-		File file = getVODProviderFile(scope, name);
+		File file;
+		IStreamableFileService service = null;
+		if (fileCache != null) {
+			StreamFileCache.Entry entry = getCachedStreamFile(scope, name);
+			file = entry.getFile();
+			service = entry.getService();
+		} else {
+			file = getVODProviderFile(scope, name);
+		}
 		if (file == null) {
 			return null;
 		}
 		IPipe pipe = new InMemoryPullPullPipe();
-		pipe.subscribe(new FileProvider(scope, file), null);
+		pipe.subscribe(new FileProvider(scope, file, service), null);
 		return pipe;
 	}
 
@@ -168,7 +190,49 @@ public class ProviderService implements IProviderService {
 		return scope.getBasicScope(ScopeType.BROADCAST, name) == null;
 	}
 
+	/** {@inheritDoc} */
+	public boolean registerAbrGroup(IScope scope, AbrGroup group) {
+		log.debug("Registering ABR group: {} scope: {}", group, scope);
+		String key = ABR_GROUP_PREFIX + group.getName();
+		if (scope.hasAttribute(key)) {
+			return false;
+		}
+		return scope.setAttribute(key, group);
+	}
+
+	/** {@inheritDoc} */
+	public AbrGroup getAbrGroup(IScope scope, String name) {
+		return (AbrGroup) scope.getAttribute(ABR_GROUP_PREFIX + name);
+	}
+
+	/** {@inheritDoc} */
+	public boolean unregisterAbrGroup(IScope scope, String name) {
+		log.debug("Unregistering ABR group: {} scope: {}", name, scope);
+		return scope.removeAttribute(ABR_GROUP_PREFIX + name);
+	}
+
 	private File getStreamFile(IScope scope, String name) {
+		if (fileCache == null) {
+			return resolveStreamFile(scope, name);
+		}
+		return getCachedStreamFile(scope, name).getFile();
+	}
+
+	private StreamFileCache.Entry getCachedStreamFile(IScope scope, String name) {
+		StreamFileCache.Entry entry = fileCache.get(scope, name);
+		if (entry == null) {
+			File file = resolveStreamFile(scope, name);
+			IStreamableFileService service = null;
+			if (file != null) {
+				IStreamableFileFactory factory = (IStreamableFileFactory) ScopeUtils.getScopeService(scope, IStreamableFileFactory.class);
+				service = factory.getService(file);
+			}
+			entry = fileCache.put(scope, name, file, service);
+		}
+		return entry;
+	}
+
+	private File resolveStreamFile(IScope scope, String name) {
 		IStreamableFileFactory factory = (IStreamableFileFactory) ScopeUtils.getScopeService(scope, IStreamableFileFactory.class);
 		if (name.indexOf(':') == -1 && name.indexOf('.') == -1) {
 			// Default to .flv files if no prefix and no extension is given.
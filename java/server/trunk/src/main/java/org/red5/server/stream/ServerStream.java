@@ -25,6 +25,7 @@ import java.util.HashMap;
 import java.util.Map;
 import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.Future;
 
 import org.apache.mina.core.buffer.IoBuffer;
 import org.red5.codec.IAudioStreamCodec;
@@ -75,7 +76,15 @@ public class ServerStream extends AbstractStream implements IServerStream, IFilt
  
 	private static final Logger log = LoggerFactory.getLogger(ServerStream.class);
 
-	private static final long WAIT_THRESHOLD = 0;
+	/**
+	 * Messages due within this many nanoseconds are pushed right away
+	 */
+	private static final long WAIT_THRESHOLD = 1000000L;
+
+	/**
+	 * Lateness in nanoseconds beyond which the playout clock is moved instead of catching up in a burst
+	 */
+	private static final long MAX_DRIFT = 1000000000L;
 
 	/**
 	 * Stream published name
@@ -148,9 +157,14 @@ public class ServerStream extends AbstractStream implements IServerStream, IFilt
 	private volatile String liveJobName;
 
 	/**
-	 * VOD scheduled job name
+	 * Paces the VOD playout
 	 */
-	private volatile String vodJobName;
+	private PlayoutEngine playoutEngine;
+
+	/**
+	 * Pending VOD emission
+	 */
+	private volatile PlayoutTask vodTask;
 
 	/**
 	 * VOD start timestamp
@@ -158,10 +172,25 @@ public class ServerStream extends AbstractStream implements IServerStream, IFilt
 	private long vodStartTS;
 
 	/**
-	 * Server start timestamp
+	 * Server start time in nanoseconds on the monotonic clock
 	 */
 	private long serverStartTS;
 
+	/**
+	 * Deadline of the last pushed message in nanoseconds
+	 */
+	private long lastDeadline;
+
+	/**
+	 * Interval between the last two pushed messages in nanoseconds
+	 */
+	private long lastInterval;
+
+	/**
+	 * Time the next item continues the playout at, 0 unless an item just ended
+	 */
+	private long nextItemStart;
+
 	/**
 	 * Next msg's timestamp
 	 */
@@ -440,6 +469,11 @@ public class ServerStream extends AbstractStream implements IServerStream, IFilt
 			// publish this server-side stream
 			providerService.registerBroadcastStream(scope, publishedName, this);
 			scheduler = (ISchedulingService) context.getBean(ISchedulingService.BEAN_NAME);
+			if (context.hasBean(PlayoutEngine.BEAN_NAME)) {
+				playoutEngine = (PlayoutEngine) context.getBean(PlayoutEngine.BEAN_NAME);
+			} else {
+				log.info("No {} bean defined, pacing {} with the scheduling service", PlayoutEngine.BEAN_NAME, publishedName);
+			}
 		} catch (NullPointerException npe) {
 			log.warn("Context beans were not available; this is ok during unit testing", npe);
 		}
@@ -457,9 +491,10 @@ public class ServerStream extends AbstractStream implements IServerStream, IFilt
 				scheduler.removeScheduledJob(liveJobName);
 				liveJobName = null;
 			}
-			if (vodJobName != null) {
-				scheduler.removeScheduledJob(vodJobName);
-				vodJobName = null;
+			PlayoutTask task = vodTask;
+			if (task != null) {
+				vodTask = null;
+				task.cancel();
 			}
 			if (msgIn != null) {
 				msgIn.unsubscribe(this);
@@ -467,6 +502,7 @@ public class ServerStream extends AbstractStream implements IServerStream, IFilt
 			}
 			if (nextRTMPMessage != null) {
 				nextRTMPMessage.getBody().release();
+				nextRTMPMessage = null;
 			}
 			stopRecording();
 			setState(StreamState.STOPPED);
@@ -500,7 +536,7 @@ public class ServerStream extends AbstractStream implements IServerStream, IFilt
 			case PAUSED:
 				setState(StreamState.PLAYING);
 				vodStartTS = 0;
-				serverStartTS = System.currentTimeMillis();
+				serverStartTS = System.nanoTime();
 				scheduleNextMessage();
 		}
 	}
@@ -658,7 +694,14 @@ public class ServerStream extends AbstractStream implements IServerStream, IFilt
 	protected void startBroadcastVOD() {
 		nextRTMPMessage = null;
 		vodStartTS = 0;
-		serverStartTS = System.currentTimeMillis();
+		long now = System.nanoTime();
+		if (nextItemStart != 0 && Math.abs(nextItemStart - now) < MAX_DRIFT) {
+			// continue the timeline of the previous item without a gap
+			serverStartTS = nextItemStart;
+		} else {
+			serverStartTS = now;
+		}
+		nextItemStart = 0;
 		IStreamAwareScopeHandler handler = getStreamAwareHandler();
 		if (handler != null) {
 			if (recordingListener != null && recordingListener.get().isRecording()) {
@@ -716,55 +759,64 @@ public class ServerStream extends AbstractStream implements IServerStream, IFilt
 	}
 
 	/**
-	 * Pull the next message from IMessageInput and schedule it for push according to the timestamp.
+	 * Pull the next messages from IMessageInput, push those that are due and schedule the first one that is not
+	 * on the playout engine. Deadlines are derived from the timestamps relative to the start of the item, so
+	 * late emissions do not accumulate.
 	 */
 	protected void scheduleNextMessage() {
 		boolean first = (nextRTMPMessage == null);
-		long delta = 0L;
-		do {
+		while (true) {
 			nextRTMPMessage = getNextRTMPMessage();
-			if (nextRTMPMessage != null) {
-				IRTMPEvent rtmpEvent = nextRTMPMessage.getBody();
-				// filter all non-AV messages
-				if (rtmpEvent instanceof VideoData || rtmpEvent instanceof AudioData) {
-					rtmpEvent = nextRTMPMessage.getBody();
-					nextTS = rtmpEvent.getTimestamp();
-					if (first) {
-						vodStartTS = nextTS;
-						first = false;
-					}
-					delta = nextTS - vodStartTS - (System.currentTimeMillis() - serverStartTS);
-					if (delta < WAIT_THRESHOLD) {
-						if (doPushMessage()) {
-							if (state != StreamState.PLAYING) {
-								// Stream is not playing, don't load more messages
-								nextRTMPMessage = null;
-							}
-						} else {
-							nextRTMPMessage = null;
-						}
-					}			
-				}
-			} else {
+			if (nextRTMPMessage == null) {
+				// the next item carries on where this one ended
+				nextItemStart = lastDeadline + lastInterval;
 				onItemEnd();
+				return;
 			}
-		} while (nextRTMPMessage != null || delta < WAIT_THRESHOLD);
-		// start the job all over again
-		vodJobName = scheduler.addScheduledOnceJob(delta, new IScheduledJob() {
-			public void execute(ISchedulingService service) {
-				if (vodJobName != null) {
-					vodJobName = null;
-					if (doPushMessage()) {
-						if (state == StreamState.PLAYING) {
-							scheduleNextMessage();
-						} else {
-							// Stream is paused, don't load more messages
-							nextRTMPMessage = null;
-						}
-					}
-				}
+			IRTMPEvent rtmpEvent = nextRTMPMessage.getBody();
+			// filter all non-AV messages
+			if (!(rtmpEvent instanceof VideoData || rtmpEvent instanceof AudioData)) {
+				rtmpEvent.release();
+				continue;
+			}
+			nextTS = rtmpEvent.getTimestamp();
+			if (first) {
+				vodStartTS = nextTS;
+				first = false;
+			}
+			long delta = getDeadline(nextTS) - System.nanoTime();
+			if (delta < -MAX_DRIFT) {
+				log.debug("Playout of {} is {} ms late, moving the clock", publishedName, -delta / 1000000L);
+				serverStartTS -= delta;
+				delta = 0;
+			}
+			if (delta >= WAIT_THRESHOLD) {
+				PlayoutTask task = new PlayoutTask();
+				vodTask = task;
+				task.schedule(delta);
+				return;
+			}
+			if (!doPushMessage()) {
+				// the item ended
+				nextRTMPMessage = null;
+				return;
 			}
-		});
+			if (state != StreamState.PLAYING) {
+				// Stream is not playing, don't load more messages
+				nextRTMPMessage = null;
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Returns the deadline of a message.
+	 * 
+	 * @param timestamp message timestamp
+	 * @return deadline in nanoseconds on the monotonic clock
+	 */
+	private long getDeadline(long timestamp) {
+		return serverStartTS + (timestamp - vodStartTS) * 1000000L;
 	}
 
 	private boolean doPushMessage() {
@@ -774,11 +826,17 @@ public class ServerStream extends AbstractStream implements IServerStream, IFilt
 			start = 0;
 		}
 		if (currentItem.getLength() >= 0 && nextTS - start > currentItem.getLength()) {
+			nextItemStart = getDeadline(nextTS);
 			onItemEnd();
 			return sent;
 		}
 		if (nextRTMPMessage != null) {
 			sent = true;
+			long deadline = getDeadline(nextTS);
+			if (deadline > lastDeadline && deadline - lastDeadline < MAX_DRIFT) {
+				lastInterval = deadline - lastDeadline;
+			}
+			lastDeadline = deadline;
 			try {
 				pushMessage(nextRTMPMessage);
 			} catch (IOException err) {
@@ -852,7 +910,7 @@ public class ServerStream extends AbstractStream implements IServerStream, IFilt
 		msgIn.sendOOBControlMessage(this, oobCtrlMsg);
 		// Reset properties
 		vodStartTS = 0;
-		serverStartTS = System.currentTimeMillis();
+		serverStartTS = System.nanoTime();
 		if (nextRTMPMessage != null) {
 			try {
 				pushMessage(nextRTMPMessage);
@@ -911,6 +969,62 @@ public class ServerStream extends AbstractStream implements IServerStream, IFilt
 		listeners.remove(listener);
 	}
 
+	/**
+	 * Pending emission of the next message. Runs on the playout engine, or as a once job of the scheduling service
+	 * if the context defines no playout engine.
+	 */
+	private class PlayoutTask implements Runnable, IScheduledJob {
+
+		private volatile Future<?> future;
+
+		private volatile String jobName;
+
+		void schedule(long delay) {
+			if (playoutEngine != null) {
+				future = playoutEngine.schedule(this, delay);
+			} else {
+				jobName = scheduler.addScheduledOnceJob(Math.max(delay / 1000000L, 1), this);
+			}
+		}
+
+		void cancel() {
+			Future<?> f = future;
+			if (f != null) {
+				f.cancel(false);
+			}
+			String name = jobName;
+			if (name != null) {
+				jobName = null;
+				scheduler.removeScheduledJob(name);
+			}
+		}
+
+		public void execute(ISchedulingService service) {
+			jobName = null;
+			run();
+		}
+
+		public void run() {
+			if (vodTask != this) {
+				return;
+			}
+			vodTask = null;
+			try {
+				if (doPushMessage()) {
+					if (state == StreamState.PLAYING) {
+						scheduleNextMessage();
+					} else {
+						// Stream is paused, don't load more messages
+						nextRTMPMessage = null;
+					}
+				}
+			} catch (Throwable t) {
+				log.error("Error in playout of {}", publishedName, t);
+			}
+		}
+
+	}
+
 	/* (non-Javadoc)
 	 * @see java.lang.Object#toString()
 	 */
@@ -919,7 +1033,7 @@ public class ServerStream extends AbstractStream implements IServerStream, IFilt
 		return "ServerStream [publishedName=" + publishedName + ", controller=" + controller + ", defaultController=" + defaultController + ", isRewind=" + isRewind
 				+ ", isRandom=" + isRandom + ", isRepeat=" + isRepeat + ", items=" + items + ", currentItemIndex=" + currentItemIndex + ", currentItem=" + currentItem
 				+ ", providerService=" + providerService + ", scheduler=" + scheduler + ", liveJobName=" + liveJobName
-				+ ", vodJobName=" + vodJobName + ", vodStartTS=" + vodStartTS + ", serverStartTS=" + serverStartTS + ", nextTS=" + nextTS + "]";
+				+ ", vodTask=" + vodTask + ", vodStartTS=" + vodStartTS + ", serverStartTS=" + serverStartTS + ", nextTS=" + nextTS + "]";
 	}
 
 }
@@ -0,0 +1,279 @@
+/*
+ * RED5 Open Source Flash Server - http://code.google.com/p/red5/
+ *
+ * Copyright 2006-2013 by respective authors (see below). All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.red5.server.stream;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+
+import org.red5.server.api.scope.IScope;
+import org.red5.server.api.service.IStreamableFileService;
+import org.red5.server.jmx.mxbeans.StreamFileCacheMXBean;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Cache of VOD stream names resolved to files and the services handling them, so that playing a name does not
+ * stat the content store each time. Names that did not resolve are remembered for <tt>negativeTtl</tt>
+ * milliseconds.
+ * <br />
+ * Every <tt>checkInterval</tt> milliseconds the modification times of the directories holding cached files are
+ * compared with the ones seen when the files were cached; a directory that changed, because a file was added,
+ * removed or renamed in it, drops its entries. Recordings drop the entries of their directory when they finish.
+ * 
+ * @author The Red5 Project
+ */
+public class StreamFileCache implements StreamFileCacheMXBean {
+
+	private static final Logger log = LoggerFactory.getLogger(StreamFileCache.class);
+
+	public static final String BEAN_NAME = "streamFileCache";
+
+	/**
+	 * Time in milliseconds names that did not resolve are remembered
+	 */
+	private long negativeTtl = 5000;
+
+	/**
+	 * Time in milliseconds between directory checks
+	 */
+	private long checkInterval = 2000;
+
+	/**
+	 * Number of entries above which the cache is cleared
+	 */
+	private int maxEntries = 10000;
+
+	/**
+	 * Entries by scope path and name
+	 */
+	private final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<String, Entry>();
+
+	/**
+	 * Modification times of the directories holding cached files
+	 */
+	private final ConcurrentMap<File, Long> directories = new ConcurrentHashMap<File, Long>();
+
+	private final AtomicLong lastCheck = new AtomicLong();
+
+	private final AtomicLong hits = new AtomicLong();
+
+	private final AtomicLong misses = new AtomicLong();
+
+	private ObjectName objectName;
+
+	public void init() {
+		MBeanServer mbs = ManagementFactory.getPlatformMBeanServer();
+		try {
+			objectName = new ObjectName("org.red5.server:type=StreamFileCache");
+			mbs.registerMBean(new StandardMBean(this, StreamFileCacheMXBean.class, true), objectName);
+		} catch (Exception e) {
+			log.warn("Error on jmx registration", e);
+			objectName = null;
+		}
+	}
+
+	public void destroy() {
+		if (objectName != null) {
+			MBeanServer mbs = ManagementFactory.getPlatformMBeanServer();
+			try {
+				mbs.unregisterMBean(objectName);
+			} catch (Exception e) {
+				log.warn("Error on jmx unregistration", e);
+			}
+		}
+		clear();
+	}
+
+	/**
+	 * Returns the cached resolution of a name.
+	 * 
+	 * @param scope scope the name is played in
+	 * @param name stream name
+	 * @return entry, holding a null file if the name did not resolve, or null if not cached
+	 */
+	public Entry get(IScope scope, String name) {
+		checkDirectories();
+		String key = getKey(scope, name);
+		Entry entry = entries.get(key);
+		if (entry != null && entry.file == null && entry.expires < System.currentTimeMillis()) {
+			entries.remove(key, entry);
+			entry = null;
+		}
+		if (entry != null) {
+			hits.incrementAndGet();
+		} else {
+			misses.incrementAndGet();
+		}
+		return entry;
+	}
+
+	/**
+	 * Caches the resolution of a name.
+	 * 
+	 * @param scope scope the name is played in
+	 * @param name stream name
+	 * @param file resolved file or null if the name did not resolve
+	 * @param service service handling the file
+	 * @return new entry
+	 */
+	public Entry put(IScope scope, String name, File file, IStreamableFileService service) {
+		if (entries.size() >= maxEntries) {
+			log.debug("Stream file cache full, clearing");
+			entries.clear();
+		}
+		if (file != null) {
+			File dir = file.getParentFile();
+			if (dir != null && !directories.containsKey(dir)) {
+				directories.putIfAbsent(dir, dir.lastModified());
+			}
+		}
+		Entry entry = new Entry(file, service, file == null ? System.currentTimeMillis() + negativeTtl : 0);
+		entries.put(getKey(scope, name), entry);
+		return entry;
+	}
+
+	/**
+	 * Drops the entries a new or changed file may affect.
+	 * 
+	 * @param file file
+	 */
+	public void fileChanged(File file) {
+		log.debug("File changed: {}", file);
+		File dir = file.getParentFile();
+		for (Iterator<Entry> it = entries.values().iterator(); it.hasNext();) {
+			Entry entry = it.next();
+			if (entry.file == null || (dir != null && dir.equals(entry.file.getParentFile()))) {
+				it.remove();
+			}
+		}
+		if (dir != null && directories.containsKey(dir)) {
+			directories.put(dir, dir.lastModified());
+		}
+	}
+
+	private void checkDirectories() {
+		long now = System.currentTimeMillis();
+		long last = lastCheck.get();
+		if (now - last < checkInterval || !lastCheck.compareAndSet(last, now)) {
+			return;
+		}
+		for (Map.Entry<File, Long> dir : directories.entrySet()) {
+			long modified = dir.getKey().lastModified();
+			if (modified != dir.getValue().longValue()) {
+				log.debug("Directory changed: {}", dir.getKey());
+				directories.put(dir.getKey(), modified);
+				for (Iterator<Entry> it = entries.values().iterator(); it.hasNext();) {
+					Entry entry = it.next();
+					if (entry.file != null && dir.getKey().equals(entry.file.getParentFile())) {
+						it.remove();
+					}
+				}
+			}
+		}
+	}
+
+	private static String getKey(IScope scope, String name) {
+		return scope.getPath() + '/' + scope.getName() + '/' + name;
+	}
+
+	public void setNegativeTtl(long negativeTtl) {
+		this.negativeTtl = negativeTtl;
+	}
+
+	public long getNegativeTtl() {
+		return negativeTtl;
+	}
+
+	public void setCheckInterval(long checkInterval) {
+		this.checkInterval = checkInterval;
+	}
+
+	public void setMaxEntries(int maxEntries) {
+		this.maxEntries = maxEntries;
+	}
+
+	public long getHits() {
+		return hits.get();
+	}
+
+	public long getMisses() {
+		return misses.get();
+	}
+
+	public double getHitRatio() {
+		long h = hits.get();
+		long total = h + misses.get();
+		return total > 0 ? (double) h / total : 0;
+	}
+
+	public int getSize() {
+		return entries.size();
+	}
+
+	public void clear() {
+		entries.clear();
+		directories.clear();
+	}
+
+	/**
+	 * Resolution of a name.
+	 */
+	public static final class Entry {
+
+		private final File file;
+
+		private final IStreamableFileService service;
+
+		/**
+		 * Expiry time of a negative entry
+		 */
+		private final long expires;
+
+		Entry(File file, IStreamableFileService service, long expires) {
+			this.file = file;
+			this.service = service;
+			this.expires = expires;
+		}
+
+		/**
+		 * @return resolved file or null if the name did not resolve
+		 */
+		public File getFile() {
+			return file;
+		}
+
+		/**
+		 * @return service handling the file
+		 */
+		public IStreamableFileService getService() {
+			return service;
+		}
+
+	}
+
+}
@@ -0,0 +1,277 @@
+/*
+ * RED5 Open Source Flash Server - http://code.google.com/p/red5/
+ *
+ * Copyright 2006-2013 by respective authors (see below). All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.red5.server.stream;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.mina.core.buffer.IoBuffer;
+import org.red5.codec.VideoCodec;
+import org.red5.io.IoConstants;
+import org.red5.server.api.scope.IBroadcastScope;
+import org.red5.server.api.stream.IBroadcastStream;
+import org.red5.server.api.stream.IStreamListener;
+import org.red5.server.api.stream.IStreamPacket;
+import org.red5.server.messaging.IMessageComponent;
+import org.red5.server.messaging.IPipe;
+import org.red5.server.messaging.IProvider;
+import org.red5.server.messaging.OOBControlMessage;
+import org.red5.server.net.rtmp.event.Aggregate;
+import org.red5.server.net.rtmp.event.IRTMPEvent;
+import org.red5.server.net.rtmp.message.Constants;
+import org.red5.server.stream.message.RTMPMessage;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Stream listener which derives a lower bandwidth rendition from a live stream without decoding it. Video is
+ * reduced to keyframes, or to keyframes and H.264 reference frames, and audio may be dropped altogether. The
+ * result is pushed into a broadcast scope of its own, so the rendition is fed once from the source and fanned out
+ * to any number of subscribers playing its name.
+ * <br />
+ * Decoder configurations, video info frames and data messages are always passed on. Since keyframes are kept the
+ * thinned rendition has the same keyframe positions as the source and may be added to an {@link AbrGroup}.
+ *
+ * @author The Red5 Project
+ */
+public class StreamThinner implements IStreamListener, IProvider {
+
+	private static final Logger log = LoggerFactory.getLogger(StreamThinner.class);
+
+	/**
+	 * What is left of the source stream.
+	 */
+	public enum Mode {
+		/** Keyframes only */
+		KEYFRAMES,
+		/** Keyframes and frames other frames may reference, only non-reference frames are dropped */
+		REFERENCE_FRAMES,
+		/** Audio only */
+		AUDIO_ONLY;
+	}
+
+	private final Mode mode;
+
+	/**
+	 * Whether or not audio is passed on in the video modes
+	 */
+	private final boolean audio;
+
+	/**
+	 * Scope the rendition is published in
+	 */
+	private volatile IBroadcastScope scope;
+
+	/**
+	 * Size of the NAL unit length prefix, taken from the AVC decoder configuration
+	 */
+	private int nalLengthSize = 4;
+
+	private final AtomicLong bytesReceived = new AtomicLong();
+
+	private final AtomicLong bytesForwarded = new AtomicLong();
+
+	/**
+	 * @param mode what is left of the source stream
+	 * @param audio whether or not audio is passed on in the video modes
+	 */
+	public StreamThinner(Mode mode, boolean audio) {
+		this.mode = mode;
+		this.audio = audio || mode == Mode.AUDIO_ONLY;
+	}
+
+	/**
+	 * Publishes the rendition in the given scope.
+	 *
+	 * @param scope broadcast scope of the rendition
+	 * @return true if the scope accepted this provider
+	 */
+	public boolean connect(IBroadcastScope scope) {
+		if (scope.subscribe(this, null)) {
+			this.scope = scope;
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Stops publishing the rendition, subscribers are told that it was unpublished.
+	 */
+	public void disconnect() {
+		IBroadcastScope current = scope;
+		if (current != null) {
+			scope = null;
+			current.unsubscribe(this);
+		}
+	}
+
+	/** {@inheritDoc} */
+	public void packetReceived(IBroadcastStream stream, IStreamPacket packet) {
+		IBroadcastScope current = scope;
+		if (current == null || !(packet instanceof IRTMPEvent)) {
+			return;
+		}
+		IoBuffer data = packet.getData();
+		if (data != null) {
+			bytesReceived.addAndGet(data.limit());
+		}
+		try {
+			if (packet instanceof Aggregate) {
+				for (IRTMPEvent part : ((Aggregate) packet).getParts()) {
+					forward(current, part);
+				}
+			} else {
+				forward(current, (IRTMPEvent) packet);
+			}
+		} catch (IOException e) {
+			log.warn("Exception pushing to thinned rendition {}", current.getName(), e);
+		}
+	}
+
+	/**
+	 * Pushes the event on unless it is thinned out. The event is shared with the source subscribers, not copied.
+	 */
+	private void forward(IBroadcastScope current, IRTMPEvent event) throws IOException {
+		if (accept(event.getDataType(), ((IStreamPacket) event).getData())) {
+			IoBuffer data = ((IStreamPacket) event).getData();
+			if (data != null) {
+				bytesForwarded.addAndGet(data.limit());
+			}
+			current.pushMessage(RTMPMessage.build(event, event.getTimestamp()));
+		}
+	}
+
+	/**
+	 * Decides whether or not a tag is part of the rendition.
+	 *
+	 * @param dataType tag data type
+	 * @param data tag body
+	 * @return true if the tag is passed on
+	 */
+	protected boolean accept(byte dataType, IoBuffer data) {
+		switch (dataType) {
+			case Constants.TYPE_AUDIO_DATA:
+				return audio;
+			case Constants.TYPE_VIDEO_DATA:
+				return mode != Mode.AUDIO_ONLY && acceptVideo(data);
+			default:
+				// metadata and cue points
+				return true;
+		}
+	}
+
+	private boolean acceptVideo(IoBuffer data) {
+		if (data == null || data.limit() == 0) {
+			return false;
+		}
+		int first = data.get(0) & 0xff;
+		int frameType = (first & IoConstants.MASK_VIDEO_FRAMETYPE) >> 4;
+		boolean avc = (first & IoConstants.MASK_VIDEO_CODEC) == VideoCodec.AVC.getId();
+		if (avc && data.limit() > 1) {
+			byte packetType = data.get(1);
+			if (packetType == IoConstants.AVC_PACKET_TYPE_SEQUENCE_HEADER) {
+				// lengthSizeMinusOne of the decoder configuration record
+				if (data.limit() > 9) {
+					nalLengthSize = (data.get(9) & 0x03) + 1;
+				}
+				return true;
+			} else if (packetType == IoConstants.AVC_PACKET_TYPE_END_OF_SEQUENCE) {
+				return true;
+			}
+		}
+		switch (frameType) {
+			case IoConstants.FLAG_FRAMETYPE_KEYFRAME:
+			case IoConstants.FLAG_FRAMETYPE_INFO:
+				return true;
+			case IoConstants.FLAG_FRAMETYPE_DISPOSABLE:
+				return false;
+			default:
+				if (mode == Mode.KEYFRAMES) {
+					return false;
+				}
+				return !avc || isReferenceFrame(data, 5, nalLengthSize);
+		}
+	}
+
+	/**
+	 * Returns whether or not an AVC frame carries a slice which other frames may reference, ie. one with a non-zero
+	 * nal_ref_idc. Frames which cannot be parsed are treated as reference frames.
+	 *
+	 * @param data tag body
+	 * @param offset position of the first NAL unit length
+	 * @param lengthSize size of the NAL unit length prefix in bytes
+	 * @return false only if the frame is known to be a non-reference frame
+	 */
+	static boolean isReferenceFrame(IoBuffer data, int offset, int lengthSize) {
+		int pos = offset;
+		int limit = data.limit();
+		while (pos + lengthSize < limit) {
+			int length = 0;
+			for (int i = 0; i < lengthSize; i++) {
+				length = (length << 8) | (data.get(pos + i) & 0xff);
+			}
+			pos += lengthSize;
+			if (length <= 0 || length > limit - pos) {
+				break;
+			}
+			int header = data.get(pos) & 0xff;
+			int nalType = header & 0x1f;
+			// coded slices, the first one decides for the whole picture
+			if (nalType >= 1 && nalType <= 5) {
+				return (header & 0x60) != 0;
+			}
+			pos += length;
+		}
+		return true;
+	}
+
+	/** {@inheritDoc} */
+	public void onOOBControlMessage(IMessageComponent source, IPipe pipe, OOBControlMessage oobCtrlMsg) {
+	}
+
+	/**
+	 * @return scope the rendition is published in or null if not connected
+	 */
+	public IBroadcastScope getScope() {
+		return scope;
+	}
+
+	/**
+	 * @return rendition mode
+	 */
+	public Mode getMode() {
+		return mode;
+	}
+
+	/**
+	 * @return bytes received from the source
+	 */
+	public long getBytesReceived() {
+		return bytesReceived.get();
+	}
+
+	/**
+	 * @return bytes pushed to the rendition
+	 */
+	public long getBytesForwarded() {
+		return bytesForwarded.get();
+	}
+
+}
@@ -0,0 +1,446 @@
+/*
+ * RED5 Open Source Flash Server - http://code.google.com/p/red5/
+ *
+ * Copyright 2006-2013 by respective authors (see below). All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.red5.server.stream;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.apache.mina.core.buffer.IoBuffer;
+import org.red5.server.api.stream.IBroadcastStream;
+import org.red5.server.api.stream.IStreamListener;
+import org.red5.server.api.stream.IStreamPacket;
+import org.red5.server.net.rtmp.event.Aggregate;
+import org.red5.server.net.rtmp.event.AudioData;
+import org.red5.server.net.rtmp.event.IRTMPEvent;
+import org.red5.server.net.rtmp.event.Notify;
+import org.red5.server.net.rtmp.event.VideoData;
+import org.red5.server.net.rtmp.message.Constants;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Stream listener which keeps the most recent part of a live stream in a fixed size, memory-mapped ring file.
+ * Along with the tags a keyframe index is maintained so that time-shifted subscribers may start at any keyframe
+ * within the window and read forward until they reach the live edge.
+ * <br />
+ * Records are addressed by a logical position which grows monotonically; the physical offset within the ring
+ * is the logical position modulo the capacity. Each record consists of the data type (1 byte), the timestamp
+ * (4 bytes), the body length (4 bytes) and the body itself.
+ *
+ * @author The Red5 Project
+ */
+public class TimeShiftBuffer implements IStreamListener {
+
+	private static final Logger log = LoggerFactory.getLogger(TimeShiftBuffer.class);
+
+	/**
+	 * Size of the per-record header: data type, timestamp and body length
+	 */
+	private static final int HEADER_SIZE = 9;
+
+	/**
+	 * Ring file
+	 */
+	private final File file;
+
+	/**
+	 * Size of the ring in bytes
+	 */
+	private final int capacity;
+
+	/**
+	 * Length of the window in milliseconds
+	 */
+	private final int duration;
+
+	private RandomAccessFile raf;
+
+	private MappedByteBuffer ring;
+
+	private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+	/**
+	 * Logical position where the next record will be written
+	 */
+	private long head;
+
+	/**
+	 * Logical position of the oldest record still held in the ring
+	 */
+	private long tail;
+
+	/**
+	 * Timestamp of the most recent record
+	 */
+	private volatile int latestTimestamp = -1;
+
+	/**
+	 * Keyframe index, oldest first
+	 */
+	private final ArrayDeque<KeyFrame> keyFrames = new ArrayDeque<KeyFrame>();
+
+	private volatile boolean closed;
+
+	/**
+	 * Creates a time-shift buffer backed by the given file.
+	 *
+	 * @param file ring file, will be created or truncated
+	 * @param capacity size of the ring in bytes
+	 * @param duration length of the window in milliseconds
+	 */
+	public TimeShiftBuffer(File file, int capacity, int duration) {
+		this.file = file;
+		this.capacity = capacity;
+		this.duration = duration;
+	}
+
+	/**
+	 * Creates and maps the ring file.
+	 *
+	 * @throws IOException if the file cannot be created or mapped
+	 */
+	public void open() throws IOException {
+		log.debug("Opening time-shift ring: {} capacity: {} duration: {}", new Object[] { file, capacity, duration });
+		raf = new RandomAccessFile(file, "rw");
+		raf.setLength(capacity);
+		ring = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+	}
+
+	/**
+	 * Unmaps and removes the ring file. Cursors still open will return no more events.
+	 */
+	public void close() {
+		lock.writeLock().lock();
+		try {
+			if (!closed) {
+				closed = true;
+				keyFrames.clear();
+				ring = null;
+				if (raf != null) {
+					try {
+						raf.close();
+					} catch (IOException e) {
+						log.warn("Exception closing ring file", e);
+					}
+					raf = null;
+				}
+				if (file.exists() && !file.delete()) {
+					// the mapping may still be held until the buffer is collected
+					file.deleteOnExit();
+				}
+			}
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/** {@inheritDoc} */
+	public void packetReceived(IBroadcastStream stream, IStreamPacket packet) {
+		IoBuffer data = packet.getData();
+		if (data != null) {
+			append(packet.getDataType(), packet.getTimestamp(), data);
+		}
+	}
+
+	/**
+	 * Appends a tag to the ring, evicting the oldest records when either the size or the time window is exceeded.
+	 *
+	 * @param dataType tag data type
+	 * @param timestamp tag timestamp
+	 * @param data tag body, read from zero up to its limit
+	 */
+	public void append(byte dataType, int timestamp, IoBuffer data) {
+		final int bodySize = data.limit();
+		final int recordSize = HEADER_SIZE + bodySize;
+		if (recordSize > capacity) {
+			log.warn("Tag of {} bytes does not fit into a time-shift ring of {} bytes", bodySize, capacity);
+			return;
+		}
+		lock.writeLock().lock();
+		try {
+			if (closed) {
+				return;
+			}
+			// evict by size
+			while (head + recordSize - tail > capacity) {
+				evict();
+			}
+			// evict by time
+			while (tail < head && timestamp - getInt(tail + 1) > duration) {
+				evict();
+			}
+			ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+			header.put(dataType);
+			header.putInt(timestamp);
+			header.putInt(bodySize);
+			header.flip();
+			put(head, header);
+			ByteBuffer body = data.buf().duplicate();
+			body.clear();
+			body.limit(bodySize);
+			put(head + HEADER_SIZE, body);
+			if (isKeyFrame(dataType, data)) {
+				keyFrames.addLast(new KeyFrame(head, timestamp));
+			}
+			head += recordSize;
+			if (timestamp > latestTimestamp) {
+				latestTimestamp = timestamp;
+			}
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Removes the oldest record along with any keyframe index entries pointing into it.
+	 */
+	private void evict() {
+		tail += HEADER_SIZE + getInt(tail + 5);
+		Iterator<KeyFrame> it = keyFrames.iterator();
+		while (it.hasNext() && it.next().position < tail) {
+			it.remove();
+		}
+	}
+
+	/**
+	 * Returns a cursor starting at the last keyframe at or before the given timestamp. When the window does not
+	 * reach back that far the cursor starts at the oldest keyframe; if there are no keyframes at all (audio only)
+	 * it starts at the oldest record.
+	 *
+	 * @param timestamp stream timestamp to start at
+	 * @return cursor
+	 */
+	public Cursor cursor(int timestamp) {
+		lock.readLock().lock();
+		try {
+			return new Cursor(findPosition(timestamp));
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Must be called holding the lock.
+	 */
+	private long findPosition(int timestamp) {
+		long position = -1;
+		for (KeyFrame keyFrame : keyFrames) {
+			if (keyFrame.timestamp > timestamp && position != -1) {
+				break;
+			}
+			position = keyFrame.position;
+		}
+		return position != -1 ? position : tail;
+	}
+
+	/**
+	 * @return timestamp of the most recent tag or -1 when empty
+	 */
+	public int getLatestTimestamp() {
+		return latestTimestamp;
+	}
+
+	/**
+	 * @return timestamp of the oldest tag or -1 when empty
+	 */
+	public int getOldestTimestamp() {
+		lock.readLock().lock();
+		try {
+			return tail < head ? getInt(tail + 1) : -1;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * @return number of keyframes in the window
+	 */
+	public int getKeyFrameCount() {
+		lock.readLock().lock();
+		try {
+			return keyFrames.size();
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * @return length of the window in milliseconds
+	 */
+	public int getDuration() {
+		return duration;
+	}
+
+	/**
+	 * @return size of the ring in bytes
+	 */
+	public int getCapacity() {
+		return capacity;
+	}
+
+	/**
+	 * Copies the source into the ring at the given logical position, wrapping at the end of the ring.
+	 */
+	private void put(long position, ByteBuffer src) {
+		int offset = (int) (position % capacity);
+		int first = Math.min(src.remaining(), capacity - offset);
+		ByteBuffer dst = ring.duplicate();
+		dst.position(offset);
+		int limit = src.limit();
+		src.limit(src.position() + first);
+		dst.put(src);
+		src.limit(limit);
+		if (src.hasRemaining()) {
+			dst.position(0);
+			dst.put(src);
+		}
+	}
+
+	/**
+	 * Copies from the ring at the given logical position into the destination, wrapping at the end of the ring.
+	 */
+	private void get(long position, byte[] dst) {
+		int offset = (int) (position % capacity);
+		int first = Math.min(dst.length, capacity - offset);
+		ByteBuffer src = ring.duplicate();
+		src.position(offset);
+		src.get(dst, 0, first);
+		if (first < dst.length) {
+			src.position(0);
+			src.get(dst, first, dst.length - first);
+		}
+	}
+
+	private int getInt(long position) {
+		int value = 0;
+		for (int i = 0; i < 4; i++) {
+			value = (value << 8) | (ring.get((int) ((position + i) % capacity)) & 0xff);
+		}
+		return value;
+	}
+
+	private static boolean isKeyFrame(byte dataType, IoBuffer data) {
+		if (dataType != Constants.TYPE_VIDEO_DATA || data.limit() == 0) {
+			return false;
+		}
+		byte flags = data.get(0);
+		if ((flags & 0xf0) != 0x10) {
+			return false;
+		}
+		// an AVC sequence header is flagged as keyframe but carries no picture
+		return (flags & 0x0f) != 7 || data.limit() < 2 || data.get(1) != 0;
+	}
+
+	/**
+	 * Read position of a single time-shifted subscriber.
+	 */
+	public final class Cursor {
+
+		private long position;
+
+		private Cursor(long position) {
+			this.position = position;
+		}
+
+		/**
+		 * Reads the next tag.
+		 *
+		 * @return event or null when the cursor has reached the live edge or the buffer was closed
+		 */
+		public IRTMPEvent next() {
+			lock.readLock().lock();
+			try {
+				if (closed || position >= head) {
+					return null;
+				}
+				if (position < tail) {
+					// the writer overtook this reader, skip ahead to the oldest keyframe
+					log.debug("Time-shift reader fell out of the window, skipping {} bytes", (tail - position));
+					position = keyFrames.isEmpty() ? tail : keyFrames.peekFirst().position;
+				}
+				byte dataType = ring.get((int) (position % capacity));
+				int timestamp = getInt(position + 1);
+				byte[] body = new byte[getInt(position + 5)];
+				get(position + HEADER_SIZE, body);
+				position += HEADER_SIZE + body.length;
+				IRTMPEvent event;
+				IoBuffer buffer = IoBuffer.wrap(body);
+				switch (dataType) {
+					case Constants.TYPE_AGGREGATE:
+						event = new Aggregate(buffer);
+						break;
+					case Constants.TYPE_AUDIO_DATA:
+						event = new AudioData(buffer);
+						break;
+					case Constants.TYPE_VIDEO_DATA:
+						event = new VideoData(buffer);
+						break;
+					default:
+						event = new Notify(buffer);
+						break;
+				}
+				event.setTimestamp(timestamp);
+				return event;
+			} finally {
+				lock.readLock().unlock();
+			}
+		}
+
+		/**
+		 * Moves the cursor to the last keyframe at or before the given timestamp.
+		 *
+		 * @param timestamp stream timestamp
+		 * @return timestamp of the record the cursor now points at or -1 if the buffer is empty
+		 */
+		public int seek(int timestamp) {
+			lock.readLock().lock();
+			try {
+				position = findPosition(timestamp);
+				return position < head ? getInt(position + 1) : -1;
+			} finally {
+				lock.readLock().unlock();
+			}
+		}
+
+	}
+
+	/**
+	 * Keyframe index entry.
+	 */
+	private final static class KeyFrame {
+
+		final long position;
+
+		final int timestamp;
+
+		KeyFrame(long position, int timestamp) {
+			this.position = position;
+			this.timestamp = timestamp;
+		}
+
+	}
+
+}
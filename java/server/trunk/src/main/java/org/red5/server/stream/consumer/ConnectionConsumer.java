@@ -255,12 +255,10 @@ public class ConnectionConsumer implements IPushableConsumer, IPipeConnectionLis
 					oobCtrlMsg.setResult(0L);
 				}
 			} else if ("writeDelta".equals(serviceName)) {
-				//TODO: Revisit the max stream value later
-				long maxStream = 120 * 1024;
 				// Return the current delta between sent bytes and bytes the client
-				// reported to have received, and the interval the client should use
-				// for generating BytesRead messages (half of the allowed bandwidth).
-				oobCtrlMsg.setResult(new Long[] { conn.getWrittenBytes() - conn.getClientBytesRead(), maxStream / 2 });
+				// reported to have received, and the number of bytes that may be
+				// unacknowledged (0 if not limited).
+				oobCtrlMsg.setResult(new Long[] { conn.getUnacknowledgedBytes(), conn.getSendWindowSize() });
 			} else if ("chunkSize".equals(serviceName)) {
 				int newSize = (Integer) oobCtrlMsg.getServiceParamMap().get("chunkSize");
 				if (newSize != chunkSize) {
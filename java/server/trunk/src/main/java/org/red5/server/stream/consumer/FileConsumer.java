@@ -36,6 +36,7 @@ import org.apache.mina.core.buffer.IoBuffer;
 import org.red5.io.IStreamableFile;
 import org.red5.io.ITag;
 import org.red5.io.ITagWriter;
+import org.red5.io.flv.IFLV;
 import org.red5.io.flv.impl.Tag;
 import org.red5.server.api.scope.IScope;
 import org.red5.server.api.service.IStreamableFileService;
@@ -54,6 +55,7 @@ import org.red5.server.net.rtmp.event.VideoData;
 import org.red5.server.net.rtmp.event.VideoData.FrameType;
 import org.red5.server.net.rtmp.message.Constants;
 import org.red5.server.stream.IStreamData;
+import org.red5.server.stream.StreamFileCache;
 import org.red5.server.stream.StreamableFileFactory;
 import org.red5.server.stream.message.RTMPMessage;
 import org.red5.server.stream.message.ResetMessage;
@@ -160,6 +162,16 @@ public class FileConsumer implements Constants, IPushableConsumer, IPipeConnecti
 	 */
 	private boolean delayWrite = false;
 
+	/**
+	 * Whether recordings are written in a single pass, see {@link SinglePassFLVWriter}
+	 */
+	private boolean singlePass = false;
+
+	/**
+	 * Bytes reserved for the metadata of single pass recordings
+	 */
+	private int metaDataSize = SinglePassFLVWriter.DEFAULT_METADATA_SIZE;
+
 	/**
 	 * Tracks the last timestamp written to prevent backwards time stamped data.
 	 */
@@ -424,7 +436,11 @@ public class FileConsumer implements Constants, IPushableConsumer, IPipeConnecti
 			IStreamableFileService service = factory.getService(file);
 			IStreamableFile flv = service.getStreamableFile(file);
 			if (mode == null || mode.equals(IClientStream.MODE_RECORD)) {
-				writer = flv.getWriter();
+				if (singlePass && flv instanceof IFLV) {
+					writer = new SinglePassFLVWriter(file, flv, metaDataSize);
+				} else {
+					writer = flv.getWriter();
+				}
 				//write the decoder config tag if it exists
 				if (videoConfigurationTag != null) {
 					writer.writeTag(videoConfigurationTag);
@@ -471,6 +487,10 @@ public class FileConsumer implements Constants, IPushableConsumer, IPipeConnecti
 			//close the writer
 			writer.close();
 			writer = null;
+			// the recording may now resolve for playback
+			if (file != null && scope != null && scope.getContext().hasBean(StreamFileCache.BEAN_NAME)) {
+				((StreamFileCache) scope.getContext().getBean(StreamFileCache.BEAN_NAME)).fileChanged(file);
+			}
 		}
 		// clear file ref
 		file = null;
@@ -716,6 +736,34 @@ public class FileConsumer implements Constants, IPushableConsumer, IPipeConnecti
 		this.delayWrite = delayWrite;
 	}
 
+	/**
+	 * Whether recordings are written in a single pass.
+	 * 
+	 * @return true if the single pass writer is used for new FLV recordings
+	 */
+	public boolean isSinglePass() {
+		return singlePass;
+	}
+
+	/**
+	 * Sets whether new FLV recordings are written in a single pass, with the metadata reserved at the head of
+	 * the file, instead of through a side file copied on close. Appending is not affected.
+	 * 
+	 * @param singlePass true to use the single pass writer
+	 */
+	public void setSinglePass(boolean singlePass) {
+		this.singlePass = singlePass;
+	}
+
+	/**
+	 * Sets the bytes reserved for the metadata of single pass recordings.
+	 * 
+	 * @param metaDataSize size of the onMetaData body
+	 */
+	public void setMetaDataSize(int metaDataSize) {
+		this.metaDataSize = metaDataSize;
+	}
+
 	/**
 	 * @return the schedulerThreadSize
 	 */
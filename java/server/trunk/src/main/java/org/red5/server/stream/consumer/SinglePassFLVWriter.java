@@ -0,0 +1,406 @@
+/*
+ * RED5 Open Source Flash Server - http://code.google.com/p/red5/
+ *
+ * Copyright 2006-2013 by respective authors (see below). All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.red5.server.stream.consumer;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.mina.core.buffer.IoBuffer;
+import org.red5.codec.AudioCodec;
+import org.red5.io.IStreamableFile;
+import org.red5.io.ITag;
+import org.red5.io.ITagWriter;
+import org.red5.io.amf.Input;
+import org.red5.io.amf.Output;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * FLV writer that writes every tag once, straight into the final file. A fixed size <tt>onMetaData</tt> tag is
+ * reserved behind the file header and filled in place on close with the duration, the codecs and a keyframe
+ * index, padded to the reserved size; closing therefore takes the same time no matter how long the recording
+ * is. Tags are written from their own buffers with gathering writes, only the tag header and the trailing
+ * tag size go through buffers owned by the writer.
+ * <br />
+ * If the keyframe index does not fit the reserved slot, every other entry is dropped until it does. The
+ * <tt>onMetaData</tt> tags of the stream are ignored and <tt>onCuePoint</tt> tags are written through, like
+ * the FLV writer of red5-io does. Appending is not supported.
+ *
+ * @author The Red5 Project
+ */
+public class SinglePassFLVWriter implements ITagWriter {
+
+	private static final Logger log = LoggerFactory.getLogger(SinglePassFLVWriter.class);
+
+	/**
+	 * Length of the flv header and first previous tag size
+	 */
+	private static final int HEADER_LENGTH = 9 + 4;
+
+	private static final int TAG_HEADER_LENGTH = 11;
+
+	/**
+	 * Default size of the onMetaData body, at most 65535 bytes
+	 */
+	public static final int DEFAULT_METADATA_SIZE = 16384;
+
+	private final String filePath;
+
+	private final IStreamableFile flv;
+
+	private final int metaDataSize;
+
+	private RandomAccessFile file;
+
+	private FileChannel channel;
+
+	private final ByteBuffer tagHeader = ByteBuffer.allocateDirect(TAG_HEADER_LENGTH);
+
+	private final ByteBuffer tagSize = ByteBuffer.allocateDirect(4);
+
+	private final ByteBuffer[] tagBuffers = new ByteBuffer[3];
+
+	private volatile long bytesWritten;
+
+	private int duration;
+
+	private int videoCodecId = -1;
+
+	private int audioCodecId = -1;
+
+	private int soundRate;
+
+	private int soundSize;
+
+	private boolean soundType;
+
+	private long videoDataSize;
+
+	private long audioDataSize;
+
+	/**
+	 * Keyframe times in seconds
+	 */
+	private List<Double> keyFrameTimes = new ArrayList<Double>();
+
+	/**
+	 * File positions of the keyframe tags
+	 */
+	private List<Double> keyFramePositions = new ArrayList<Double>();
+
+	/**
+	 * Creates a writer with the default metadata size.
+	 *
+	 * @param file file to write, truncated if it exists
+	 * @param flv streamable file returned by {@link #getFile()}
+	 * @throws IOException if the file could not be opened
+	 */
+	public SinglePassFLVWriter(File file, IStreamableFile flv) throws IOException {
+		this(file, flv, DEFAULT_METADATA_SIZE);
+	}
+
+	/**
+	 * Creates a writer.
+	 *
+	 * @param file file to write, truncated if it exists
+	 * @param flv streamable file returned by {@link #getFile()}
+	 * @param metaDataSize bytes reserved for the onMetaData body, between 1024 and 65535
+	 * @throws IOException if the file could not be opened
+	 */
+	public SinglePassFLVWriter(File file, IStreamableFile flv, int metaDataSize) throws IOException {
+		this.filePath = file.getAbsolutePath();
+		this.flv = flv;
+		this.metaDataSize = Math.min(Math.max(metaDataSize, 1024), 65535);
+		log.debug("Writing to: {}", filePath);
+		this.file = new RandomAccessFile(file, "rw");
+		this.file.setLength(0);
+		channel = this.file.getChannel();
+		writeHeader();
+	}
+
+	/**
+	 * Writes the file header and the placeholder of the metadata tag.
+	 */
+	public void writeHeader() throws IOException {
+		ByteBuffer buf = ByteBuffer.allocate(HEADER_LENGTH + TAG_HEADER_LENGTH + metaDataSize + 4);
+		putHeader(buf);
+		// filled on close
+		buf.put(encodeMetaData());
+		buf.putInt(TAG_HEADER_LENGTH + metaDataSize);
+		buf.flip();
+		writeFully(buf, 0);
+		bytesWritten = buf.limit();
+		channel.position(bytesWritten);
+	}
+
+	private void putHeader(ByteBuffer buf) {
+		buf.put((byte) 'F').put((byte) 'L').put((byte) 'V').put((byte) 0x01);
+		buf.put((byte) ((audioCodecId != -1 ? 0x04 : 0) | (videoCodecId != -1 ? 0x01 : 0)));
+		buf.putInt(9);
+		buf.putInt(0);
+		putTagHeader(buf, ITag.TYPE_METADATA, metaDataSize, 0);
+	}
+
+	private static void putTagHeader(ByteBuffer buf, byte dataType, int bodySize, int timestamp) {
+		buf.put(dataType);
+		buf.put((byte) (bodySize >>> 16)).put((byte) (bodySize >>> 8)).put((byte) bodySize);
+		buf.put((byte) (timestamp >>> 16)).put((byte) (timestamp >>> 8)).put((byte) timestamp).put((byte) (timestamp >>> 24));
+		// stream id
+		buf.put((byte) 0).put((byte) 0).put((byte) 0);
+	}
+
+	/** {@inheritDoc} */
+	public synchronized boolean writeTag(ITag tag) throws IOException {
+		if (channel == null) {
+			throw new IOException("FLV write channel has been closed", new ClosedChannelException());
+		}
+		byte dataType = tag.getDataType();
+		IoBuffer body = tag.getBody();
+		int bodySize = body != null ? body.remaining() : 0;
+		if (dataType == ITag.TYPE_METADATA && bodySize > 0) {
+			Input input = new Input(body.duplicate());
+			input.readDataType();
+			String metaType = input.readString(String.class);
+			if (!"onCuePoint".equals(metaType)) {
+				log.debug("Metadata tag {} ignored", metaType);
+				return true;
+			}
+		}
+		int timestamp = tag.getTimestamp();
+		if (bodySize > 0) {
+			int first = body.get(body.position()) & 0xff;
+			if (dataType == ITag.TYPE_AUDIO) {
+				audioDataSize += bodySize;
+				if (audioCodecId == -1) {
+					setAudioCodec(first);
+				}
+			} else if (dataType == ITag.TYPE_VIDEO) {
+				videoDataSize += bodySize;
+				if (videoCodecId == -1) {
+					videoCodecId = first & ITag.MASK_VIDEO_CODEC;
+					log.debug("Video codec id: {}", videoCodecId);
+				}
+				if ((first & ITag.MASK_VIDEO_FRAMETYPE) >> 4 == ITag.FLAG_FRAMETYPE_KEYFRAME) {
+					keyFrameTimes.add(timestamp / 1000d);
+					keyFramePositions.add((double) bytesWritten);
+				}
+			}
+		}
+		tagHeader.clear();
+		putTagHeader(tagHeader, dataType, bodySize, timestamp);
+		tagHeader.flip();
+		tagSize.clear();
+		tagSize.putInt(TAG_HEADER_LENGTH + bodySize).flip();
+		tagBuffers[0] = tagHeader;
+		tagBuffers[1] = bodySize > 0 ? body.buf().duplicate() : ByteBuffer.allocate(0);
+		tagBuffers[2] = tagSize;
+		long total = TAG_HEADER_LENGTH + bodySize + 4;
+		long written = 0;
+		while (written < total) {
+			written += channel.write(tagBuffers);
+		}
+		tagBuffers[1] = null;
+		bytesWritten += total;
+		duration = Math.max(duration, timestamp);
+		return true;
+	}
+
+	private void setAudioCodec(int id) {
+		audioCodecId = (id & ITag.MASK_SOUND_FORMAT) >> 4;
+		log.debug("Audio codec id: {}", audioCodecId);
+		if (audioCodecId == AudioCodec.AAC.getId()) {
+			// the player takes channels and sample rate from the AAC bit stream
+			soundRate = 44100;
+			soundSize = 16;
+			soundType = true;
+		} else if (audioCodecId == AudioCodec.SPEEX.getId()) {
+			soundRate = 16000;
+			soundSize = 16;
+			soundType = false;
+		} else {
+			switch ((id & ITag.MASK_SOUND_RATE) >> 2) {
+				case ITag.FLAG_RATE_5_5_KHZ:
+					soundRate = 5500;
+					break;
+				case ITag.FLAG_RATE_11_KHZ:
+					soundRate = 11000;
+					break;
+				case ITag.FLAG_RATE_22_KHZ:
+					soundRate = 22000;
+					break;
+				case ITag.FLAG_RATE_44_KHZ:
+					soundRate = 44100;
+					break;
+			}
+			soundSize = (id & ITag.MASK_SOUND_SIZE) >> 1 == ITag.FLAG_SIZE_16_BIT ? 16 : 8;
+			soundType = (id & ITag.MASK_SOUND_TYPE) > 0;
+		}
+	}
+
+	/** {@inheritDoc} */
+	public boolean writeTag(byte type, IoBuffer data) throws IOException {
+		return false;
+	}
+
+	/** {@inheritDoc} */
+	public synchronized boolean writeStream(byte[] b) {
+		try {
+			ByteBuffer buf = ByteBuffer.wrap(b);
+			while (buf.hasRemaining()) {
+				channel.write(buf);
+			}
+			bytesWritten += b.length;
+			return true;
+		} catch (IOException e) {
+			log.error("", e);
+		}
+		return false;
+	}
+
+	/**
+	 * Encodes the onMetaData body padded to the reserved size.
+	 */
+	private byte[] encodeMetaData() {
+		double seconds = duration / 1000d;
+		Map<Object, Object> params = new LinkedHashMap<Object, Object>();
+		params.put("server", "Red5");
+		params.put("creationdate", new Date().toString());
+		params.put("duration", seconds);
+		params.put("filesize", (double) bytesWritten);
+		if (videoCodecId != -1) {
+			params.put("videocodecid", videoCodecId);
+			params.put("videodatarate", seconds > 0 ? 8 * videoDataSize / 1024 / seconds : 0d);
+		} else {
+			params.put("novideocodec", 0);
+		}
+		if (audioCodecId != -1) {
+			params.put("audiocodecid", audioCodecId);
+			params.put("audiosamplerate", soundRate);
+			params.put("audiosamplesize", soundSize);
+			params.put("stereo", soundType);
+			params.put("audiodatarate", seconds > 0 ? 8 * audioDataSize / 1024 / seconds : 0d);
+		} else {
+			params.put("noaudiocodec", 0);
+		}
+		params.put("canSeekToEnd", true);
+		Map<Object, Object> keyFrames = new LinkedHashMap<Object, Object>();
+		params.put("keyframes", keyFrames);
+		params.put("padding", "");
+		IoBuffer buf;
+		while (true) {
+			if (keyFrameTimes.isEmpty()) {
+				params.remove("keyframes");
+			}
+			keyFrames.put("times", keyFrameTimes);
+			keyFrames.put("filepositions", keyFramePositions);
+			buf = encode(params);
+			if (buf.limit() <= metaDataSize || keyFrameTimes.isEmpty()) {
+				break;
+			}
+			// keep every other keyframe until the index fits
+			keyFrameTimes = thin(keyFrameTimes);
+			keyFramePositions = thin(keyFramePositions);
+		}
+		// the empty padding value is already counted, the rest is filled with spaces
+		char[] padding = new char[metaDataSize - buf.limit()];
+		Arrays.fill(padding, ' ');
+		params.put("padding", new String(padding));
+		buf = encode(params);
+		byte[] body = new byte[metaDataSize];
+		buf.get(body);
+		return body;
+	}
+
+	private static IoBuffer encode(Map<Object, Object> params) {
+		IoBuffer buf = IoBuffer.allocate(1024);
+		buf.setAutoExpand(true);
+		Output out = new Output(buf);
+		out.writeString("onMetaData");
+		out.writeMap(params);
+		buf.flip();
+		return buf;
+	}
+
+	private static List<Double> thin(List<Double> list) {
+		List<Double> result = new ArrayList<Double>(list.size() / 2 + 1);
+		for (int i = 0; i < list.size(); i += 2) {
+			result.add(list.get(i));
+		}
+		return result;
+	}
+
+	private void writeFully(ByteBuffer buf, long position) throws IOException {
+		while (buf.hasRemaining()) {
+			position += channel.write(buf, position);
+		}
+	}
+
+	/**
+	 * Fills in the header flags and the metadata, then closes the file.
+	 */
+	public synchronized void close() {
+		if (channel == null) {
+			return;
+		}
+		try {
+			ByteBuffer buf = ByteBuffer.allocate(HEADER_LENGTH + TAG_HEADER_LENGTH + metaDataSize);
+			putHeader(buf);
+			buf.put(encodeMetaData());
+			buf.flip();
+			writeFully(buf, 0);
+		} catch (IOException e) {
+			log.error("IO error on close", e);
+		} finally {
+			try {
+				file.close();
+			} catch (IOException e) {
+				log.error("", e);
+			}
+			channel = null;
+			log.debug("{} closed", filePath);
+		}
+	}
+
+	/** {@inheritDoc} */
+	public IStreamableFile getFile() {
+		return flv;
+	}
+
+	/** {@inheritDoc} */
+	public int getOffset() {
+		return 0;
+	}
+
+	/** {@inheritDoc} */
+	public long getBytesWritten() {
+		return bytesWritten;
+	}
+
+}
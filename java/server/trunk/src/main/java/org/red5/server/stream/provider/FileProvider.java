@@ -78,6 +78,11 @@ public class FileProvider implements IPassive, ISeekableProvider, IPullableProvi
 	 */
 	private File file;
 
+	/**
+	 * Service handling the file, looked up on init if null
+	 */
+	private IStreamableFileService service;
+
 	/**
 	 * Consumer pipe
 	 */
@@ -108,6 +113,17 @@ public class FileProvider implements IPassive, ISeekableProvider, IPullableProvi
 		this.file = file;
 	}
 
+	/**
+	 * Create file provider for given file and scope
+	 * @param scope            Scope
+	 * @param file             File
+	 * @param service          Service handling the file, null to look it up
+	 */
+	public FileProvider(IScope scope, File file, IStreamableFileService service) {
+		this(scope, file);
+		this.service = service;
+	}
+
 	/**
 	 * Setter for start position
 	 *
@@ -226,8 +242,10 @@ public class FileProvider implements IPassive, ISeekableProvider, IPullableProvi
 	 * Initializes file provider. Creates streamable file factory and service, seeks to start position
 	 */
 	private void init() throws IOException {
-		IStreamableFileFactory factory = (IStreamableFileFactory) ScopeUtils.getScopeService(scope, IStreamableFileFactory.class, StreamableFileFactory.class);
-		IStreamableFileService service = factory.getService(file);
+		if (service == null) {
+			IStreamableFileFactory factory = (IStreamableFileFactory) ScopeUtils.getScopeService(scope, IStreamableFileFactory.class, StreamableFileFactory.class);
+			service = factory.getService(file);
+		}
 		if (service == null) {
 			log.error("No service found for {}", file.getAbsolutePath());
 			return;
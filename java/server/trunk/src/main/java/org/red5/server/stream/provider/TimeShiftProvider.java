@@ -0,0 +1,182 @@
+/*
+ * RED5 Open Source Flash Server - http://code.google.com/p/red5/
+ *
+ * Copyright 2006-2013 by respective authors (see below). All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.red5.server.stream.provider;
+
+import java.io.IOException;
+
+import org.red5.server.messaging.IMessage;
+import org.red5.server.messaging.IMessageComponent;
+import org.red5.server.messaging.IPassive;
+import org.red5.server.messaging.IPipe;
+import org.red5.server.messaging.IPipeConnectionListener;
+import org.red5.server.messaging.IPullableProvider;
+import org.red5.server.messaging.OOBControlMessage;
+import org.red5.server.messaging.PipeConnectionEvent;
+import org.red5.server.net.rtmp.event.IRTMPEvent;
+import org.red5.server.net.rtmp.message.Constants;
+import org.red5.server.stream.ISeekableProvider;
+import org.red5.server.stream.IStreamTypeAwareProvider;
+import org.red5.server.stream.TimeShiftBuffer;
+import org.red5.server.stream.message.RTMPMessage;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Pullable provider reading from the time-shift buffer of a live stream. The provider returns <tt>null</tt>
+ * once it has caught up with the live edge, at which point the consumer is expected to switch to the live pipe.
+ * <br />
+ * Seek positions are relative to the first tag returned by this provider, which matches the zero based
+ * timeline the subscriber sees.
+ */
+public class TimeShiftProvider implements IPassive, ISeekableProvider, IPullableProvider, IPipeConnectionListener, IStreamTypeAwareProvider {
+
+	private static final Logger log = LoggerFactory.getLogger(TimeShiftProvider.class);
+
+	/**
+	 * Class name
+	 */
+	public static final String KEY = TimeShiftProvider.class.getName();
+
+	/**
+	 * Time-shift buffer of the live stream
+	 */
+	private final TimeShiftBuffer buffer;
+
+	/**
+	 * Milliseconds behind the live edge to start at
+	 */
+	private final int offset;
+
+	/**
+	 * Consumer pipe
+	 */
+	private IPipe pipe;
+
+	/**
+	 * Read position
+	 */
+	private TimeShiftBuffer.Cursor cursor;
+
+	/**
+	 * Stream timestamp of the first tag returned
+	 */
+	private int baseTimestamp = -1;
+
+	/**
+	 * Whether or not video was seen
+	 */
+	private boolean hasVideo;
+
+	/**
+	 * Create a time-shift provider
+	 *
+	 * @param buffer time-shift buffer to read from
+	 * @param offset milliseconds behind the live edge to start at
+	 */
+	public TimeShiftProvider(TimeShiftBuffer buffer, int offset) {
+		this.buffer = buffer;
+		this.offset = offset;
+	}
+
+	/** {@inheritDoc} */
+	public boolean hasVideo() {
+		return hasVideo || buffer.getKeyFrameCount() > 0;
+	}
+
+	/** {@inheritDoc} */
+	public IMessage pullMessage(IPipe pipe) throws IOException {
+		if (this.pipe == pipe) {
+			if (cursor == null) {
+				cursor = buffer.cursor(buffer.getLatestTimestamp() - offset);
+			}
+			IRTMPEvent event = cursor.next();
+			if (event != null) {
+				if (baseTimestamp == -1) {
+					baseTimestamp = event.getTimestamp();
+					log.debug("Time-shifted playback starts at {} (live edge {})", baseTimestamp, buffer.getLatestTimestamp());
+				}
+				if (event.getDataType() == Constants.TYPE_VIDEO_DATA) {
+					hasVideo = true;
+				}
+				return RTMPMessage.build(event);
+			}
+		}
+		return null;
+	}
+
+	/** {@inheritDoc} */
+	public IMessage pullMessage(IPipe pipe, long wait) throws IOException {
+		return pullMessage(pipe);
+	}
+
+	/** {@inheritDoc} */
+	public void onPipeConnectionEvent(PipeConnectionEvent event) {
+		switch (event.getType()) {
+			case PipeConnectionEvent.PROVIDER_CONNECT_PULL:
+				if (pipe == null) {
+					pipe = (IPipe) event.getSource();
+				}
+				break;
+			case PipeConnectionEvent.PROVIDER_DISCONNECT:
+				if (pipe == event.getSource()) {
+					pipe = null;
+					cursor = null;
+				}
+				break;
+			case PipeConnectionEvent.CONSUMER_DISCONNECT:
+				if (pipe == event.getSource()) {
+					cursor = null;
+				}
+				break;
+			default:
+		}
+	}
+
+	/** {@inheritDoc} */
+	public void onOOBControlMessage(IMessageComponent source, IPipe pipe, OOBControlMessage oobCtrlMsg) {
+		String serviceName = oobCtrlMsg.getServiceName();
+		String target = oobCtrlMsg.getTarget();
+		log.debug("onOOBControlMessage - service name: {} target: {}", serviceName, target);
+		if (serviceName != null) {
+			if (ISeekableProvider.KEY.equals(target)) {
+				if ("seek".equals(serviceName)) {
+					Integer position = (Integer) oobCtrlMsg.getServiceParamMap().get("position");
+					oobCtrlMsg.setResult(seek(position.intValue()));
+				}
+			} else if (IStreamTypeAwareProvider.KEY.equals(target)) {
+				if ("hasVideo".equals(serviceName)) {
+					oobCtrlMsg.setResult(hasVideo());
+				}
+			}
+		}
+	}
+
+	/** {@inheritDoc} */
+	public int seek(int ts) {
+		log.trace("Seek ts: {}", ts);
+		if (cursor == null || baseTimestamp == -1) {
+			// nothing read yet, the position is relative to the starting point
+			cursor = buffer.cursor(buffer.getLatestTimestamp() - offset + ts);
+			return ts;
+		}
+		int found = cursor.seek(baseTimestamp + ts);
+		return found == -1 ? ts : found - baseTimestamp;
+	}
+
+}
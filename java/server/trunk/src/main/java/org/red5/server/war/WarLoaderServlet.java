@@ -35,6 +35,7 @@ import org.red5.server.Context;
 import org.red5.server.MappingStrategy;
 import org.red5.server.Server;
 import org.red5.server.api.Red5;
+import org.red5.server.net.protocol.ClassDescriptor;
 import org.red5.server.scope.GlobalScope;
 import org.red5.server.scope.ScopeResolver;
 import org.red5.server.scope.WebScope;
@@ -202,6 +203,7 @@ public class WarLoaderServlet extends ContextLoaderListener {
 				}
 				// clear the AMF output cache
 				Output.destroyCache();
+				ClassDescriptor.clearCache();
 				// stop the logger
 				try {
 					((LoggerContext) LoggerFactory.getILoggerFactory()).stop();
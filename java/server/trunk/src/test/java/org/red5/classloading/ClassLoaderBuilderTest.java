@@ -0,0 +1,115 @@
+/*
+ * RED5 Open Source Flash Server - http://code.google.com/p/red5/
+ *
+ * Copyright 2006-2013 by respective authors (see below). All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.red5.classloading;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Builds the class loader of a war twice and checks that its libraries are unpacked only once.
+ */
+public class ClassLoaderBuilderTest {
+
+	private File root;
+
+	private File war;
+
+	private String previousRoot;
+
+	private ClassLoader previousLoader;
+
+	@Before
+	public void setUp() throws Exception {
+		root = File.createTempFile("red5-", ".root");
+		root.delete();
+		root.mkdirs();
+		war = new File(root, "app.war");
+		JarOutputStream out = new JarOutputStream(new FileOutputStream(war));
+		out.putNextEntry(new JarEntry("WEB-INF/classes/app.properties"));
+		out.write("name=app".getBytes("US-ASCII"));
+		out.putNextEntry(new JarEntry("WEB-INF/lib/lib.jar"));
+		out.write(new byte[512]);
+		out.close();
+		previousRoot = System.getProperty("red5.root");
+		System.setProperty("red5.root", root.getAbsolutePath());
+		previousLoader = Thread.currentThread().getContextClassLoader();
+	}
+
+	@After
+	public void tearDown() {
+		if (previousRoot != null) {
+			System.setProperty("red5.root", previousRoot);
+		} else {
+			System.clearProperty("red5.root");
+		}
+		Thread.currentThread().setContextClassLoader(previousLoader);
+		delete(root);
+	}
+
+	@Test
+	public void testLibCache() throws Exception {
+		File lib = unpackedLib();
+		Assert.assertEquals(new File(new File(root, "work"), "lib-cache"), lib.getParentFile().getParentFile());
+		Assert.assertEquals(512, lib.length());
+		// the next start reuses the library
+		lib.setLastModified(1000);
+		Assert.assertEquals(lib, unpackedLib());
+		Assert.assertEquals(1000, lib.lastModified());
+		// a new version of the war is unpacked again, replacing the old one
+		war.setLastModified(war.lastModified() + 60000);
+		File next = unpackedLib();
+		Assert.assertFalse(lib.getParentFile().equals(next.getParentFile()));
+		Assert.assertTrue(next.exists());
+		Assert.assertFalse(lib.getParentFile().exists());
+	}
+
+	/**
+	 * @return library of the war the class loader loads from
+	 */
+	private File unpackedLib() throws Exception {
+		URLClassLoader loader = (URLClassLoader) ClassLoaderBuilder.build(war, ClassLoaderBuilder.USE_WAR_LIB, previousLoader);
+		for (URL url : loader.getURLs()) {
+			if (url.getPath().endsWith("lib.jar")) {
+				return new File(url.toURI());
+			}
+		}
+		Assert.fail("Library not on the class path");
+		return null;
+	}
+
+	private static void delete(File file) {
+		File[] files = file.listFiles();
+		if (files != null) {
+			for (File child : files) {
+				delete(child);
+			}
+		}
+		file.delete();
+	}
+
+}
@@ -0,0 +1,187 @@
+/*
+ * RED5 Open Source Flash Server - http://code.google.com/p/red5/
+ *
+ * Copyright 2006-2013 by respective authors (see below). All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.red5.server;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+import org.red5.server.api.scope.IGlobalScope;
+import org.red5.server.api.scope.IScope;
+import org.red5.server.api.scope.ScopeType;
+import org.red5.server.scope.ScopeResolver;
+
+/**
+ * Starts applications on their first connection, with connections arriving at the same time.
+ */
+public class LoaderBaseTest {
+
+	private static final String PATH = "/lazyApp";
+
+	private final AtomicInteger runs = new AtomicInteger();
+
+	private final CountDownLatch release = new CountDownLatch(1);
+
+	private volatile String launcherThread;
+
+	private volatile boolean started;
+
+	@After
+	public void tearDown() {
+		release.countDown();
+		LoaderBase.removeRed5ApplicationContext(PATH);
+	}
+
+	@Test
+	public void testConcurrentFirstConnects() throws Exception {
+		LoaderBase.addLazyApplication(PATH, new Launcher(false));
+		final CountDownLatch connected = new CountDownLatch(8);
+		final AtomicInteger deferred = new AtomicInteger();
+		List<Thread> connects = new ArrayList<Thread>();
+		for (int i = 0; i < 8; i++) {
+			Thread connect = new Thread() {
+				public void run() {
+					boolean later = LoaderBase.activateApplication(PATH, new Runnable() {
+						public void run() {
+							connected.countDown();
+						}
+					});
+					if (later) {
+						deferred.incrementAndGet();
+					} else {
+						connected.countDown();
+					}
+				}
+			};
+			connect.start();
+			connects.add(connect);
+		}
+		// the connects return while the application is still starting
+		for (Thread connect : connects) {
+			connect.join(2000);
+			Assert.assertFalse(connect.isAlive());
+		}
+		Assert.assertFalse(started);
+		Assert.assertEquals(8, deferred.get());
+		release.countDown();
+		Assert.assertTrue(connected.await(2, TimeUnit.SECONDS));
+		Assert.assertTrue(started);
+		Assert.assertEquals(1, runs.get());
+		Assert.assertEquals("Launcher:" + PATH, launcherThread);
+		// later connects find it started
+		Assert.assertFalse(LoaderBase.activateApplication(PATH, new Runnable() {
+			public void run() {
+			}
+		}));
+		Assert.assertTrue(LoaderBase.awaitApplication(PATH));
+		Assert.assertEquals(1, runs.get());
+	}
+
+	@Test
+	public void testRetryAfterFailure() throws Exception {
+		release.countDown();
+		LoaderBase.addLazyApplication(PATH, new Launcher(true));
+		Assert.assertFalse(LoaderBase.awaitApplication(PATH));
+		// the connection after the failure tries again
+		long end = System.currentTimeMillis() + 2000;
+		while (!LoaderBase.awaitApplication(PATH)) {
+			Assert.assertTrue("Not started again", System.currentTimeMillis() < end);
+			Thread.sleep(10);
+		}
+		Assert.assertTrue(started);
+		Assert.assertEquals(2, runs.get());
+	}
+
+	@Test
+	public void testResolveScope() throws Exception {
+		release.countDown();
+		LoaderBase.addLazyApplication(PATH, new Launcher(false));
+		// any lookup of the application starts it, not only an RTMP connect
+		IScope scope = new ScopeResolver().resolveScope(global(), "lazyApp/room");
+		Assert.assertTrue(started);
+		Assert.assertEquals(ScopeType.ROOM, scope.getType());
+		Assert.assertEquals(1, runs.get());
+	}
+
+	/**
+	 * @return global scope in which the application scope exists once the application is started
+	 */
+	private IGlobalScope global() {
+		final IScope room = (IScope) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { IScope.class }, new InvocationHandler() {
+			public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+				if ("getType".equals(method.getName())) {
+					return ScopeType.ROOM;
+				} else if ("hasChildScope".equals(method.getName())) {
+					return "room".equals(args[0]);
+				} else if ("getScope".equals(method.getName())) {
+					return proxy;
+				}
+				return null;
+			}
+		});
+		return (IGlobalScope) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { IGlobalScope.class }, new InvocationHandler() {
+			public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+				if ("getType".equals(method.getName())) {
+					return ScopeType.GLOBAL;
+				} else if ("hasChildScope".equals(method.getName())) {
+					return started && "lazyApp".equals(args[0]);
+				} else if ("getScope".equals(method.getName())) {
+					return started ? room : null;
+				} else if ("equals".equals(method.getName())) {
+					return proxy == args[0];
+				}
+				return null;
+			}
+		});
+	}
+
+	/**
+	 * Starts the application once released, failing on its first run if asked to.
+	 */
+	private class Launcher implements Runnable {
+
+		private final boolean failFirst;
+
+		Launcher(boolean failFirst) {
+			this.failFirst = failFirst;
+		}
+
+		public void run() {
+			launcherThread = Thread.currentThread().getName();
+			try {
+				release.await(5, TimeUnit.SECONDS);
+			} catch (InterruptedException e) {
+			}
+			if (runs.incrementAndGet() == 1 && failFirst) {
+				throw new RuntimeException("Failed to load webapplication context class");
+			}
+			started = true;
+		}
+
+	}
+
+}
@@ -0,0 +1,91 @@
+/*
+ * RED5 Open Source Flash Server - http://code.google.com/p/red5/
+ *
+ * Copyright 2006-2013 by respective authors (see below). All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.red5.server.api.statistics.support;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class StatisticsCounterTest {
+
+	@Test
+	public void testCounts() {
+		StatisticsCounter counter = new StatisticsCounter();
+		counter.increment();
+		counter.increment();
+		counter.decrement();
+		counter.increment();
+		counter.increment();
+		counter.decrement();
+		Assert.assertEquals(2, counter.getCurrent());
+		Assert.assertEquals(4, counter.getTotal());
+		Assert.assertEquals(3, counter.getMax());
+	}
+
+	@Test
+	public void testThreads() throws Exception {
+		final StatisticsCounter counter = new StatisticsCounter();
+		Thread[] threads = new Thread[8];
+		for (int t = 0; t < threads.length; t++) {
+			threads[t] = new Thread() {
+				public void run() {
+					for (int i = 0; i < 10000; i++) {
+						counter.increment();
+						counter.decrement();
+					}
+					counter.increment();
+				}
+			};
+			threads[t].start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		Assert.assertEquals(8, counter.getCurrent());
+		Assert.assertEquals(80008, counter.getTotal());
+		Assert.assertTrue(counter.getMax() >= 8);
+		Assert.assertTrue(counter.getMax() <= 16);
+	}
+
+	@Test
+	public void testMaxBetweenReads() throws Exception {
+		final StatisticsCounter counter = new StatisticsCounter();
+		// join on one thread and leave on another, the peak is never seen by a read
+		Thread joins = new Thread() {
+			public void run() {
+				for (int i = 0; i < 5; i++) {
+					counter.increment();
+				}
+			}
+		};
+		joins.start();
+		joins.join();
+		Thread leaves = new Thread() {
+			public void run() {
+				for (int i = 0; i < 5; i++) {
+					counter.decrement();
+				}
+			}
+		};
+		leaves.start();
+		leaves.join();
+		Assert.assertEquals(0, counter.getCurrent());
+		Assert.assertEquals(5, counter.getMax());
+	}
+
+}
@@ -0,0 +1,244 @@
+/*
+ * RED5 Open Source Flash Server - http://code.google.com/p/red5/
+ *
+ * Copyright 2006-2013 by respective authors (see below). All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.red5.server.messaging;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import org.apache.mina.core.buffer.IoBuffer;
+import org.junit.Assert;
+import org.junit.Test;
+import org.red5.compatibility.flex.messaging.messages.AsyncMessage;
+import org.red5.compatibility.flex.messaging.messages.AsyncMessageExt;
+import org.red5.server.api.IConnection.Encoding;
+import org.red5.server.net.rtmp.Channel;
+import org.red5.server.net.rtmp.RTMPConnection;
+import org.red5.server.net.rtmp.codec.RTMPProtocolEncoder;
+import org.red5.server.net.rtmp.event.FlexMessage;
+import org.red5.server.net.rtmp.event.IRTMPEvent;
+import org.red5.server.net.rtmp.message.Packet;
+
+public class MessageDestinationTest {
+
+	@Test
+	public void testSubtopicMatching() {
+		Assert.assertTrue(matches("news.sports", "news.sports"));
+		Assert.assertFalse(matches("news.sports", "news.sports.soccer"));
+		Assert.assertTrue(matches("news.*.soccer", "news.sports.soccer"));
+		Assert.assertFalse(matches("news.*.soccer", "news.sports.tennis"));
+		Assert.assertTrue(matches("news.*", "news.sports"));
+		Assert.assertTrue(matches("news.*", "news.sports.soccer"));
+		Assert.assertFalse(matches("news.*", "news"));
+		Assert.assertTrue(matches("*", "weather"));
+	}
+
+	@Test
+	public void testSubscriptions() {
+		MessageDestination destination = new MessageDestination();
+		Assert.assertTrue(destination.subscribe("client1", null, "news.sports", null));
+		Assert.assertFalse(destination.subscribe("client1", null, "news.sports", null));
+		Assert.assertTrue(destination.subscribe("client1", null, "news.*", "priority > 1"));
+		Assert.assertTrue(destination.subscribe("client2", null, null, null));
+		Assert.assertEquals(2, destination.getSubscriberCount());
+		Assert.assertFalse(destination.unsubscribe("client1", "news.*", null));
+		Assert.assertTrue(destination.unsubscribe("client1", "news.*", "priority > 1"));
+		Assert.assertTrue(destination.unsubscribe("client1", "news.sports", null));
+		Assert.assertFalse(destination.isSubscribed("client1"));
+		Assert.assertTrue(destination.unsubscribe("client2"));
+		Assert.assertEquals(0, destination.getSubscriberCount());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testInvalidSelector() {
+		new MessageDestination().subscribe("client1", null, null, "priority >");
+	}
+
+	@Test
+	public void testParseSubscription() {
+		String[] subscription = MessageDestination.parseSubscription("news.sports_;_priority > 1");
+		Assert.assertEquals("news.sports", subscription[0]);
+		Assert.assertEquals("priority > 1", subscription[1]);
+		subscription = MessageDestination.parseSubscription("_;_");
+		Assert.assertNull(subscription[0]);
+		Assert.assertNull(subscription[1]);
+	}
+
+	@Test
+	public void testPublishAMF0() {
+		assertPublish(new AsyncMessage(), Encoding.AMF0);
+	}
+
+	@Test
+	public void testPublishAMF3() {
+		assertPublish(new AsyncMessage(), Encoding.AMF3);
+	}
+
+	@Test
+	public void testPublishExternalizable() {
+		AsyncMessageExt msg = new AsyncMessageExt();
+		// the client id of the producer is already cached as a GUID, like in a message read from the wire
+		fill(msg, clientId());
+		RTMPProtocolEncoder.encodeArguments(new Object[] { msg }, Encoding.AMF3);
+		assertPublish(msg, Encoding.AMF3);
+	}
+
+	@Test
+	public void testPublishFallback() {
+		AsyncMessage msg = new AsyncMessage();
+		MessageDestination destination = new MessageDestination();
+		PushConnection conn = new PushConnection(Encoding.AMF3);
+		// ids of other clients can not be written into the serialized message
+		destination.subscribe("short-id", conn, "news.sports", null);
+		fill(msg, "producer");
+		Assert.assertEquals(1, destination.publish(msg));
+		Assert.assertEquals(1, conn.pushed.size());
+		Object[] args = conn.pushed.get(0).getCall().getArguments();
+		Assert.assertEquals(1, args.length);
+		assertBytes(expected(msg, "short-id", Encoding.AMF3), args);
+		Assert.assertEquals("producer", msg.getClientId());
+	}
+
+	/**
+	 * Publishes a message to consumers on connections of an encoding and checks that each receives the bytes of the
+	 * message serialized with its own client id.
+	 */
+	private static void assertPublish(AsyncMessage msg, Encoding encoding) {
+		MessageDestination destination = new MessageDestination();
+		Map<String, PushConnection> consumers = new HashMap<String, PushConnection>();
+		for (int i = 0; i < 3; i++) {
+			PushConnection conn = new PushConnection(encoding);
+			String clientId = clientId();
+			destination.subscribe(clientId, conn, i == 0 ? "news.*" : "news.sports", null);
+			consumers.put(clientId, conn);
+		}
+		String producer = msg.getClientId() != null ? msg.getClientId() : clientId();
+		fill(msg, producer);
+		Assert.assertEquals(3, destination.publish(msg));
+		Assert.assertEquals(producer, msg.getClientId());
+		for (Map.Entry<String, PushConnection> consumer : consumers.entrySet()) {
+			List<FlexMessage> pushed = consumer.getValue().pushed;
+			Assert.assertEquals(1, pushed.size());
+			Assert.assertEquals("receive", pushed.get(0).getCall().getServiceMethodName());
+			Object[] args = pushed.get(0).getCall().getArguments();
+			// only the client id is written per consumer
+			Assert.assertEquals(3, args.length);
+			assertBytes(expected(msg, consumer.getKey(), encoding), args);
+		}
+		// the message is written with the client id of the producer again
+		ByteBuffer restored = RTMPProtocolEncoder.encodeArguments(new Object[] { msg }, encoding);
+		assertBytes(expected(msg, producer, encoding), new Object[] { restored });
+	}
+
+	/**
+	 * @return serialized message as a consumer with the client id would get it serialized for it alone
+	 */
+	private static byte[] expected(AsyncMessage msg, String clientId, Encoding encoding) {
+		AsyncMessage copy = msg instanceof AsyncMessageExt ? new AsyncMessageExt() : new AsyncMessage();
+		fill(copy, clientId);
+		return toBytes(RTMPProtocolEncoder.encodeArguments(new Object[] { copy }, encoding));
+	}
+
+	private static void assertBytes(byte[] expected, Object[] args) {
+		IoBuffer joined = IoBuffer.allocate(expected.length).setAutoExpand(true);
+		for (Object arg : args) {
+			joined.put(((ByteBuffer) arg).duplicate());
+		}
+		joined.flip();
+		Assert.assertArrayEquals(expected, toBytes(joined.buf()));
+	}
+
+	private static byte[] toBytes(ByteBuffer buf) {
+		byte[] bytes = new byte[buf.remaining()];
+		buf.duplicate().get(bytes);
+		return bytes;
+	}
+
+	private static void fill(AsyncMessage msg, String clientId) {
+		Map<String, Object> headers = new HashMap<String, Object>();
+		headers.put(MessageDestination.SUBTOPIC_HEADER, "news.sports");
+		msg.setHeaders(headers);
+		msg.setClientId(clientId);
+		msg.setMessageId("5B7F4B8D-E1C3-2A4E-0B62-74A13C9C7F10");
+		msg.setCorrelationId("0C6D3A9E-27F1-4B85-9E40-D1A2F3B4C5D6");
+		msg.setDestination("chat");
+		msg.setTimestamp(1234567890L);
+		msg.setBody("hello");
+	}
+
+	private static String clientId() {
+		return UUID.randomUUID().toString().toUpperCase();
+	}
+
+	private static boolean matches(String pattern, String subtopic) {
+		return MessageDestination.matches(pattern.split("\\."), subtopic.split("\\."));
+	}
+
+	/**
+	 * Connected connection keeping the messages pushed to it.
+	 */
+	private static class PushConnection extends RTMPConnection {
+
+		final List<FlexMessage> pushed = new ArrayList<FlexMessage>();
+
+		private final Encoding encoding;
+
+		PushConnection(Encoding encoding) {
+			super(PERSISTENT);
+			this.encoding = encoding;
+		}
+
+		@Override
+		public boolean isConnected() {
+			return true;
+		}
+
+		@Override
+		public Encoding getEncoding() {
+			return encoding;
+		}
+
+		@Override
+		public Channel getChannel(int channelId) {
+			return new Channel(this, channelId) {
+				@Override
+				public void write(IRTMPEvent event) {
+					pushed.add((FlexMessage) event);
+				}
+			};
+		}
+
+		@Override
+		public void write(Packet out) {
+		}
+
+		@Override
+		public void writeRaw(IoBuffer out) {
+		}
+
+		@Override
+		protected void onInactive() {
+		}
+
+	}
+
+}
@@ -0,0 +1,92 @@
+/*
+ * RED5 Open Source Flash Server - http://code.google.com/p/red5/
+ *
+ * Copyright 2006-2013 by respective authors (see below). All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.red5.server.messaging;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class MessageSelectorTest {
+
+	@Test
+	public void testComparison() {
+		Map<String, Object> headers = headers();
+		Assert.assertTrue(matches("symbol = 'RED5'", headers));
+		Assert.assertFalse(matches("symbol <> 'RED5'", headers));
+		Assert.assertTrue(matches("price > 10 AND price <= 12.5", headers));
+		Assert.assertTrue(matches("volume >= 1000 OR price < 0", headers));
+		Assert.assertTrue(matches("NOT (price < 10)", headers));
+		Assert.assertTrue(matches("urgent = TRUE", headers));
+		Assert.assertTrue(matches("price > -1 AND volume = 1.2E3", headers));
+	}
+
+	@Test
+	public void testUnknown() {
+		Map<String, Object> headers = headers();
+		// comparisons with missing headers are unknown, so are their negations
+		Assert.assertFalse(matches("missing = 1", headers));
+		Assert.assertFalse(matches("NOT (missing = 1)", headers));
+		Assert.assertTrue(matches("missing = 1 OR symbol = 'RED5'", headers));
+		Assert.assertFalse(matches("missing = 1 AND symbol = 'RED5'", headers));
+		Assert.assertTrue(matches("missing IS NULL", headers));
+		Assert.assertTrue(matches("symbol IS NOT NULL", headers));
+		Assert.assertFalse(matches("symbol = 'RED5'", null));
+	}
+
+	@Test
+	public void testInAndLike() {
+		Map<String, Object> headers = headers();
+		Assert.assertTrue(matches("symbol IN ('ADBE', 'RED5')", headers));
+		Assert.assertTrue(matches("symbol NOT IN ('ADBE')", headers));
+		Assert.assertTrue(matches("symbol LIKE 'RE_5'", headers));
+		Assert.assertTrue(matches("symbol LIKE 'R%'", headers));
+		Assert.assertFalse(matches("symbol LIKE 'R'", headers));
+		headers.put("path", "100%_done");
+		Assert.assertTrue(matches("path LIKE '100!%!_%' ESCAPE '!'", headers));
+		Assert.assertFalse(matches("symbol LIKE '100!%%' ESCAPE '!'", headers));
+	}
+
+	@Test
+	public void testInvalid() {
+		for (String expression : new String[] { "symbol =", "(price > 1", "price > 1 price", "symbol LIKE 1", "'a' = 'b" }) {
+			try {
+				MessageSelector.compile(expression);
+				Assert.fail("Compiled " + expression);
+			} catch (IllegalArgumentException e) {
+				// expected
+			}
+		}
+	}
+
+	private static boolean matches(String expression, Map<String, Object> headers) {
+		return MessageSelector.compile(expression).matches(headers);
+	}
+
+	private static Map<String, Object> headers() {
+		Map<String, Object> headers = new HashMap<String, Object>();
+		headers.put("symbol", "RED5");
+		headers.put("price", 11.5);
+		headers.put("volume", 1200);
+		headers.put("urgent", Boolean.TRUE);
+		return headers;
+	}
+
+}
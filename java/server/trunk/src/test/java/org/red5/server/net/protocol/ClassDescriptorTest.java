@@ -0,0 +1,217 @@
+/*
+ * RED5 Open Source Flash Server - http://code.google.com/p/red5/
+ *
+ * Copyright 2006-2013 by respective authors (see below). All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.red5.server.net.protocol;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.mina.core.buffer.IoBuffer;
+import org.junit.Assert;
+import org.junit.Test;
+import org.red5.annotations.DontSerialize;
+import org.red5.io.object.Deserializer;
+import org.red5.io.object.Input;
+import org.red5.io.object.Serializer;
+
+public class ClassDescriptorTest {
+
+	@Test
+	public void testDescriptor() {
+		ClassDescriptor descriptor = ClassDescriptor.getDescriptor(Item.class);
+		Assert.assertSame(descriptor, ClassDescriptor.getDescriptor(Item.class));
+		Assert.assertTrue(descriptor.isBean());
+		Assert.assertEquals(Item.class.getName(), descriptor.getClassName());
+		// class and the hidden property are skipped
+		Assert.assertEquals(3, descriptor.getProperties().length);
+		for (ClassDescriptor.Property property : descriptor.getProperties()) {
+			Assert.assertFalse("secret".equals(property.getName()));
+		}
+	}
+
+	@Test
+	public void testAMF0() {
+		IoBuffer buf = IoBuffer.allocate(256);
+		buf.setAutoExpand(true);
+		Serializer.serialize(new AMFOutput(buf), payload());
+		buf.flip();
+		check(Deserializer.<Object> deserialize(new AMFInput(buf), Object.class));
+	}
+
+	@Test
+	public void testAMF3() {
+		IoBuffer buf = IoBuffer.allocate(256);
+		buf.setAutoExpand(true);
+		Serializer.serialize(new AMF3Output(buf), payload());
+		buf.flip();
+		check(Deserializer.<Object> deserialize(new AMF3Input(buf), Object.class));
+	}
+
+	@Test
+	public void testReadableByBase() {
+		IoBuffer buf = IoBuffer.allocate(256);
+		buf.setAutoExpand(true);
+		Serializer.serialize(new AMF3Output(buf), payload());
+		buf.flip();
+		Input input = new org.red5.io.amf3.Input(buf);
+		check(Deserializer.<Object> deserialize(input, Object.class));
+	}
+
+	@Test
+	public void testClearCache() throws Exception {
+		ClassDescriptor server = ClassDescriptor.getDescriptor(Item.class);
+		// the same class as seen by an application
+		ClassLoader loader = new ApplicationLoader();
+		Class<?> clazz = loader.loadClass(Item.class.getName());
+		Assert.assertNotSame(Item.class, clazz);
+		ClassDescriptor descriptor = ClassDescriptor.getDescriptor(clazz);
+		// resolved on a server thread and on a thread of the application
+		ClassDescriptor.putClass("app.Item", clazz);
+		Thread thread = Thread.currentThread();
+		ClassLoader previous = thread.getContextClassLoader();
+		thread.setContextClassLoader(loader);
+		try {
+			ClassDescriptor.putClass("app.Item", clazz);
+			ClassDescriptor.clearCache(loader);
+			Assert.assertNull(ClassDescriptor.getClass("app.Item"));
+		} finally {
+			thread.setContextClassLoader(previous);
+		}
+		Assert.assertNull(ClassDescriptor.getClass("app.Item"));
+		Assert.assertNotSame(descriptor, ClassDescriptor.getDescriptor(clazz));
+		// the classes of the server stay cached
+		Assert.assertSame(server, ClassDescriptor.getDescriptor(Item.class));
+		ClassDescriptor.clearCache(loader);
+	}
+
+	private static Object payload() {
+		Map<String, Object> map = new HashMap<String, Object>();
+		Item item = new Item();
+		item.setName("first");
+		item.setCount(3);
+		item.setSecret("hidden");
+		List<Object> list = new ArrayList<Object>();
+		list.add(item);
+		list.add(item);
+		map.put("items", list);
+		map.put("code", "NetConnection.Call.Success");
+		return map;
+	}
+
+	@SuppressWarnings("unchecked")
+	private static void check(Object result) {
+		Map<String, Object> map = (Map<String, Object>) result;
+		Assert.assertEquals("NetConnection.Call.Success", map.get("code"));
+		Object items = map.get("items");
+		List<Object> list = items instanceof Object[] ? Arrays.asList((Object[]) items) : (List<Object>) items;
+		Assert.assertEquals(2, list.size());
+		Item item = (Item) list.get(0);
+		Assert.assertEquals("first", item.getName());
+		Assert.assertEquals(3, item.getCount());
+		Assert.assertNull(item.getSecret());
+		// written once, then referenced
+		Assert.assertSame(item, list.get(1));
+	}
+
+	public static class Item {
+
+		private String name;
+
+		private int count;
+
+		private String secret;
+
+		private List<String> tags = new ArrayList<String>();
+
+		public String getName() {
+			return name;
+		}
+
+		public void setName(String name) {
+			this.name = name;
+		}
+
+		public int getCount() {
+			return count;
+		}
+
+		public void setCount(int count) {
+			this.count = count;
+		}
+
+		@DontSerialize
+		public String getSecret() {
+			return secret;
+		}
+
+		public void setSecret(String secret) {
+			this.secret = secret;
+		}
+
+		public List<String> getTags() {
+			return tags;
+		}
+
+		public void setTags(List<String> tags) {
+			this.tags = tags;
+		}
+
+	}
+
+	/**
+	 * Class loader of an application, defining its own copy of {@link Item}.
+	 */
+	private static class ApplicationLoader extends ClassLoader {
+
+		ApplicationLoader() {
+			super(ClassDescriptorTest.class.getClassLoader());
+		}
+
+		@Override
+		protected synchronized Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+			if (!Item.class.getName().equals(name)) {
+				return super.loadClass(name, resolve);
+			}
+			Class<?> clazz = findLoadedClass(name);
+			if (clazz == null) {
+				try {
+					InputStream in = getParent().getResourceAsStream(name.replace('.', '/') + ".class");
+					ByteArrayOutputStream out = new ByteArrayOutputStream();
+					byte[] chunk = new byte[4096];
+					int read;
+					while ((read = in.read(chunk)) != -1) {
+						out.write(chunk, 0, read);
+					}
+					in.close();
+					byte[] bytes = out.toByteArray();
+					clazz = defineClass(name, bytes, 0, bytes.length);
+				} catch (Exception e) {
+					throw new ClassNotFoundException(name, e);
+				}
+			}
+			return clazz;
+		}
+
+	}
+
+}
@@ -0,0 +1,71 @@
+/*
+ * RED5 Open Source Flash Server - http://code.google.com/p/red5/
+ *
+ * Copyright 2006-2013 by respective authors (see below). All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.red5.server.net.rtmp;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class SendWindowTest {
+
+	@Test
+	public void testNotEnforcedBeforeAcknowledgement() {
+		SendWindow window = new SendWindow();
+		window.setAckWindow(1000);
+		Assert.assertEquals(0, window.getSize());
+		Assert.assertFalse(window.isFull(100000));
+	}
+
+	@Test
+	public void testWindow() {
+		SendWindow window = new SendWindow();
+		window.setAckWindow(1000);
+		Assert.assertEquals(1000, window.acknowledge(1000));
+		Assert.assertEquals(2000, window.getSize());
+		Assert.assertFalse(window.isFull(2999));
+		Assert.assertTrue(window.isFull(3000));
+		window.acknowledge(2000);
+		Assert.assertFalse(window.isFull(3000));
+		Assert.assertEquals(1000, window.getInFlight(3000));
+	}
+
+	@Test
+	public void testPeerBandwidth() {
+		SendWindow window = new SendWindow();
+		window.setAckWindow(1000);
+		window.acknowledge(1000);
+		window.setPeerBandwidth(1500);
+		Assert.assertEquals(1500, window.getSize());
+		// would stall, the client acknowledges every 1000 bytes only
+		window.setPeerBandwidth(500);
+		Assert.assertEquals(2000, window.getSize());
+	}
+
+	@Test
+	public void testSequenceWrap() {
+		SendWindow window = new SendWindow();
+		window.acknowledge(0xFFFFFF00);
+		Assert.assertEquals(0xFFFFFF00L, window.getAcknowledged());
+		// repeated acknowledgements do not move back
+		window.acknowledge(0xFFFFF000);
+		Assert.assertEquals(0xFFFFFF00L, window.getAcknowledged());
+		window.acknowledge(0x100);
+		Assert.assertEquals(0x100000100L, window.getAcknowledged());
+	}
+
+}
@@ -18,10 +18,18 @@
 
 package org.red5.server.net.rtmp.codec;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.fail;
 
+import java.nio.ByteBuffer;
+
+import org.apache.mina.core.buffer.IoBuffer;
 import org.junit.Ignore;
 import org.junit.Test;
+import org.red5.io.object.Serializer;
+import org.red5.server.api.IConnection.Encoding;
+import org.red5.server.net.protocol.AMFOutput;
+import org.red5.server.net.rtmp.event.ClientNotifyEvent;
 
 /**
  * Created initially to address 
@@ -61,6 +69,25 @@ public class RTMPProtocolEncoderTest {
 		fail("Not yet implemented");
 	}
 
+	@Test
+	public void testEncodeArguments() {
+		Object[] args = new Object[] { "hello", Integer.valueOf(42), Boolean.TRUE };
+		IoBuffer expected = IoBuffer.allocate(64);
+		expected.setAutoExpand(true);
+		AMFOutput output = new AMFOutput(expected);
+		for (Object arg : args) {
+			Serializer.serialize(output, arg);
+		}
+		expected.flip();
+		ClientNotifyEvent event = ClientNotifyEvent.build("update", args);
+		ByteBuffer first = (ByteBuffer) event.getParams(Encoding.AMF0)[0];
+		ByteBuffer second = (ByteBuffer) event.getParams(Encoding.AMF0)[0];
+		assertEquals(expected.buf(), first);
+		// each connection reads its own view of the shared buffer
+		first.position(first.limit());
+		assertEquals(expected.buf(), second);
+	}
+
 	@Ignore @Test
 	public void testEncodeAudioData() {
 		fail("Not yet implemented");
@@ -0,0 +1,244 @@
+/*
+ * RED5 Open Source Flash Server - http://code.google.com/p/red5/
+ *
+ * Copyright 2006-2013 by respective authors (see below). All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.red5.server.net.rtmp.message;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.mina.core.buffer.IoBuffer;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.red5.server.api.Red5;
+import org.red5.server.net.rtmp.Channel;
+import org.red5.server.net.rtmp.RTMPConnection;
+import org.red5.server.net.rtmp.codec.RTMPProtocolDecoder;
+import org.red5.server.net.rtmp.codec.RTMPProtocolEncoder;
+import org.red5.server.net.rtmp.event.IRTMPEvent;
+import org.red5.server.stream.consumer.ConnectionConsumer;
+import org.red5.server.stream.message.RTMPMessage;
+
+public class MediaBufferArenaTest {
+
+	private MediaBufferArena arena;
+
+	@Before
+	public void setUp() {
+		arena = new MediaBufferArena();
+		arena.setCapacity(1024 * 1024);
+		arena.setSlabSize(64 * 1024);
+		arena.init();
+	}
+
+	@After
+	public void tearDown() {
+		arena.destroy();
+	}
+
+	@Test
+	public void testAllocateAndFree() {
+		IoBuffer buf = arena.allocate(1000);
+		Assert.assertTrue(buf instanceof ArenaBuffer);
+		Assert.assertTrue(buf.isDirect());
+		Assert.assertEquals(1024, buf.capacity());
+		Assert.assertEquals(1000, buf.limit());
+		buf.putInt(42).flip();
+		Assert.assertEquals(42, buf.getInt());
+		Assert.assertEquals(1024, arena.getUsed());
+		Assert.assertEquals(64 * 1024, arena.getReserved());
+		buf.free();
+		// freeing twice has no effect
+		buf.free();
+		Assert.assertEquals(0, arena.getUsed());
+		Assert.assertEquals(0, arena.getLeaks());
+	}
+
+	@Test
+	public void testViewsKeepChunk() {
+		IoBuffer buf = arena.allocate(100);
+		buf.put((byte) 7).flip();
+		IoBuffer view = buf.asReadOnlyBuffer();
+		IoBuffer slice = buf.getSlice(0, 1);
+		buf.free();
+		Assert.assertEquals(256, arena.getUsed());
+		Assert.assertEquals(7, view.get(0));
+		view.free();
+		Assert.assertEquals(256, arena.getUsed());
+		slice.free();
+		Assert.assertEquals(0, arena.getUsed());
+	}
+
+	@Test
+	public void testFallback() {
+		Assert.assertNull(arena.allocate(64 * 1024 + 1));
+		Assert.assertNull(arena.allocate(0));
+		LinkedList<IoBuffer> buffers = new LinkedList<IoBuffer>();
+		IoBuffer buf;
+		while ((buf = arena.allocate(64 * 1024)) != null) {
+			buffers.add(buf);
+		}
+		Assert.assertEquals(16, buffers.size());
+		Assert.assertEquals(arena.getCapacity(), arena.getReserved());
+		Assert.assertEquals(3, arena.getFallbacks());
+		buffers.remove().free();
+		Assert.assertNotNull(arena.allocate(64 * 1024));
+	}
+
+	@Test
+	public void testExpandLeavesArena() {
+		IoBuffer buf = arena.allocate(16).setAutoExpand(true);
+		buf.put(new byte[300]);
+		Assert.assertEquals(0, arena.getUsed());
+		Assert.assertEquals(300, buf.position());
+		// views of the moved buffer do not hold the chunk it gave up
+		buf.flip();
+		buf.asReadOnlyBuffer().free();
+		buf.free();
+		Assert.assertEquals(0, arena.getUsed());
+		Assert.assertNotNull(arena.allocate(16));
+		Assert.assertEquals(256, arena.getUsed());
+	}
+
+	@Test
+	public void testFillStaysInArena() {
+		// a packet buffer is filled up to the size of the message
+		IoBuffer buf = arena.allocate(1792).setAutoExpand(true);
+		buf.put(new byte[1792]).flip();
+		Assert.assertEquals(2048, arena.getUsed());
+		IoBuffer view = buf.asReadOnlyBuffer();
+		buf.free();
+		Assert.assertEquals(2048, arena.getUsed());
+		view.free();
+		Assert.assertEquals(0, arena.getUsed());
+	}
+
+	@Test
+	public void testLostBufferIsReclaimed() throws InterruptedException {
+		arena.allocate(1000).asReadOnlyBuffer();
+		Assert.assertTrue(awaitUnused());
+		Assert.assertEquals(1, arena.getLeaks());
+		Assert.assertEquals(1, arena.getCollectedViews());
+	}
+
+	/**
+	 * Runs a long mix of audio and video payloads through the path of a live stream: each payload is decoded into
+	 * an arena buffer, fanned out to three subscribers and encoded for two of them, whose sockets hold a window of
+	 * encoded messages; the third subscriber has lost its connection. Checks that the direct memory reserved stops
+	 * growing once the working set is covered and that every buffer and view is freed without the collector.
+	 */
+	@Test
+	public void testSoak() throws InterruptedException {
+		Random random = new Random(42);
+		LinkedList<IoBuffer> socket = new LinkedList<IoBuffer>();
+		List<ConnectionConsumer> subscribers = new ArrayList<ConnectionConsumer>();
+		for (int i = 0; i < 3; i++) {
+			EncodingConnection conn = new EncodingConnection(socket);
+			Channel channel = new Channel(i < 2 ? conn : null, 3);
+			subscribers.add(new ConnectionConsumer(conn, channel, channel, channel));
+		}
+		RTMPProtocolDecoder decoder = new RTMPProtocolDecoder();
+		byte[] payload = new byte[32 * 1024];
+		long reservedAtHalf = 0;
+		int rounds = 200000;
+		for (int i = 0; i < rounds; i++) {
+			boolean video = random.nextBoolean();
+			int size = random.nextInt(video ? 32 * 1024 : 512) + 1;
+			Header header = new Header();
+			header.setDataType(video ? Constants.TYPE_VIDEO_DATA : Constants.TYPE_AUDIO_DATA);
+			header.setSize(size);
+			Packet packet = new Packet(header);
+			payload[0] = (byte) (video ? 0x27 : 0xaf);
+			packet.getData().put(payload, 0, size).flip();
+			IRTMPEvent event = video ? decoder.decodeVideoData(packet.getData()) : decoder.decodeAudioData(packet.getData());
+			event.setSourceType(Constants.SOURCE_TYPE_LIVE);
+			event.setTimestamp(i);
+			packet.clearData();
+			RTMPMessage message = RTMPMessage.build(event);
+			for (ConnectionConsumer subscriber : subscribers) {
+				subscriber.pushMessage(null, message);
+			}
+			// the publisher is done with the event
+			event.release();
+			while (socket.size() > 20) {
+				MediaBufferArena.release(socket.remove());
+			}
+			if (i % 20000 == 0) {
+				System.gc();
+			}
+			if (i == rounds / 2) {
+				reservedAtHalf = arena.getReserved();
+			}
+			Assert.assertTrue(arena.getReserved() <= arena.getCapacity());
+		}
+		Assert.assertEquals(reservedAtHalf, arena.getReserved());
+		for (IoBuffer sent : socket) {
+			MediaBufferArena.release(sent);
+		}
+		socket.clear();
+		Assert.assertEquals(0, arena.getUsed());
+		Assert.assertEquals(0, arena.getLeaks());
+		Assert.assertEquals(0, arena.getCollectedViews());
+	}
+
+	private boolean awaitUnused() throws InterruptedException {
+		for (int i = 0; i < 50 && arena.getUsed() > 0; i++) {
+			System.gc();
+			Thread.sleep(20);
+			arena.reclaim();
+		}
+		return arena.getUsed() == 0;
+	}
+
+	/**
+	 * Connection encoding what it is asked to write into the socket window of the test.
+	 */
+	private static class EncodingConnection extends RTMPConnection {
+
+		private final RTMPProtocolEncoder encoder = new RTMPProtocolEncoder();
+
+		private final LinkedList<IoBuffer> socket;
+
+		EncodingConnection(LinkedList<IoBuffer> socket) {
+			super(PERSISTENT);
+			this.socket = socket;
+		}
+
+		@Override
+		public void write(Packet out) {
+			Red5.setConnectionLocal(this);
+			IoBuffer data = encoder.encodePacket(out);
+			if (data != null) {
+				socket.add(data);
+			}
+		}
+
+		@Override
+		public void writeRaw(IoBuffer out) {
+		}
+
+		@Override
+		protected void onInactive() {
+		}
+
+	}
+
+}
@@ -0,0 +1,248 @@
+/*
+ * RED5 Open Source Flash Server - http://code.google.com/p/red5/
+ *
+ * Copyright 2006-2013 by respective authors (see below). All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.red5.server.net.servlet;
+
+import static org.junit.Assert.*;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpSession;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.red5.server.api.Red5;
+import org.red5.server.api.scope.IScope;
+import org.red5.server.api.service.IServiceCall;
+import org.red5.server.api.service.IServiceInvoker;
+import org.red5.server.net.remoting.RemotingConnection;
+import org.red5.server.net.remoting.message.RemotingCall;
+import org.red5.server.net.remoting.message.RemotingPacket;
+
+public class AsyncAMFGatewayServletTest {
+
+	private static final int THREADS = 4;
+
+	private Servlet servlet;
+
+	private Exchange exchange;
+
+	private HttpSession session;
+
+	@Before
+	public void setUp() {
+		servlet = new Servlet();
+		servlet.executor = Executors.newFixedThreadPool(THREADS);
+		exchange = new Exchange();
+		session = (HttpSession) proxy(HttpSession.class, exchange);
+	}
+
+	@After
+	public void tearDown() {
+		servlet.executor.shutdownNow();
+	}
+
+	@Test
+	public void testInvoke() throws Exception {
+		// every call waits for all the others to start, which only works if they overlap
+		Invoker invoker = new Invoker(3, null);
+		batch(invoker, "a", "b", "c").start();
+		assertTrue(exchange.completed.await(5, TimeUnit.SECONDS));
+		assertEquals(HttpServletResponse.SC_OK, exchange.status);
+		assertEquals(1, servlet.responses);
+		assertEquals(3, invoker.invoked.size());
+		assertEquals(3, invoker.overlapped);
+		// the task finishing the batch drops its hold right after the response
+		servlet.executor.shutdown();
+		assertTrue(servlet.executor.awaitTermination(5, TimeUnit.SECONDS));
+		assertNull(exchange.attributes.get("red5.client"));
+	}
+
+	@Test
+	public void testTimeout() throws Exception {
+		CountDownLatch unblock = new CountDownLatch(1);
+		Invoker invoker = new Invoker(THREADS, unblock);
+		String[] methods = new String[THREADS + 1];
+		for (int i = 0; i < methods.length; i++) {
+			methods[i] = "call" + i;
+		}
+		AsyncAMFGatewayServlet.Batch batch = batch(invoker, methods);
+		batch.start();
+		// all threads are busy, the last call waits in the queue
+		assertTrue(invoker.started.await(5, TimeUnit.SECONDS));
+		batch.onTimeout(null);
+		assertEquals(0, exchange.completed.getCount());
+		assertEquals(HttpServletResponse.SC_SERVICE_UNAVAILABLE, exchange.status);
+		// the container recycles the request once the exchange is complete
+		exchange.recycled = true;
+		// the running calls still own the connection
+		assertNotNull(exchange.attributes.get("red5.client"));
+		unblock.countDown();
+		servlet.executor.shutdown();
+		assertTrue(servlet.executor.awaitTermination(5, TimeUnit.SECONDS));
+		assertNull(exchange.attributes.get("red5.client"));
+		assertEquals(THREADS, invoker.invoked.size());
+		assertEquals(THREADS, invoker.addresses.size());
+		for (String address : invoker.addresses) {
+			assertEquals("127.0.0.1", address);
+		}
+		assertEquals(0, servlet.responses);
+	}
+
+	private AsyncAMFGatewayServlet.Batch batch(IServiceInvoker invoker, String... methods) {
+		List<RemotingCall> calls = new ArrayList<RemotingCall>();
+		for (String method : methods) {
+			calls.add(new RemotingCall("service", method, null, null, false, false));
+		}
+		RemotingPacket packet = new RemotingPacket(new HashMap<String, Object>(), calls);
+		HttpServletRequest req = (HttpServletRequest) proxy(HttpServletRequest.class, exchange);
+		RemotingConnection conn = new RemotingConnection(new AsyncAMFGatewayServlet.DetachedRequest(req), null, packet);
+		AsyncContext async = (AsyncContext) proxy(AsyncContext.class, exchange);
+		return servlet.new Batch(async, conn, invoker, null, packet);
+	}
+
+	private Object proxy(Class<?> type, InvocationHandler handler) {
+		return Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { type }, handler);
+	}
+
+	private class Servlet extends AsyncAMFGatewayServlet {
+
+		private static final long serialVersionUID = 1L;
+
+		volatile int responses;
+
+		@Override
+		protected void sendResponse(HttpServletResponse resp, RemotingPacket packet) throws Exception {
+			responses++;
+		}
+
+	}
+
+	/**
+	 * Request, response, session and async context of one exchange.
+	 */
+	private class Exchange implements InvocationHandler {
+
+		final Map<String, Object> attributes = Collections.synchronizedMap(new HashMap<String, Object>());
+
+		final CountDownLatch completed = new CountDownLatch(1);
+
+		volatile int status;
+
+		volatile boolean recycled;
+
+		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+			if (recycled && proxy instanceof HttpServletRequest) {
+				throw new IllegalStateException("Request used after it was recycled");
+			}
+			String name = method.getName();
+			if ("getSession".equals(name)) {
+				return session;
+			} else if ("getId".equals(name)) {
+				return "session";
+			} else if ("getRemoteAddr".equals(name) || "getRemoteHost".equals(name)) {
+				return "127.0.0.1";
+			} else if ("getHeaderNames".equals(name)) {
+				return Collections.enumeration(Collections.<String> emptyList());
+			} else if ("getAttribute".equals(name)) {
+				return attributes.get(args[0]);
+			} else if ("setAttribute".equals(name)) {
+				attributes.put((String) args[0], args[1]);
+			} else if ("removeAttribute".equals(name)) {
+				attributes.remove(args[0]);
+			} else if ("getResponse".equals(name)) {
+				return proxy(HttpServletResponse.class, this);
+			} else if ("setStatus".equals(name)) {
+				status = (Integer) args[0];
+			} else if ("complete".equals(name)) {
+				completed.countDown();
+			} else if ("hashCode".equals(name)) {
+				return System.identityHashCode(proxy);
+			} else if ("equals".equals(name)) {
+				return proxy == args[0];
+			} else if (method.getReturnType() == int.class) {
+				return 0;
+			} else if (method.getReturnType() == boolean.class) {
+				return false;
+			}
+			return null;
+		}
+
+	}
+
+	private static class Invoker implements IServiceInvoker {
+
+		final List<String> invoked = new ArrayList<String>();
+
+		final List<String> addresses = new ArrayList<String>();
+
+		final CountDownLatch started;
+
+		final CountDownLatch unblock;
+
+		volatile int overlapped;
+
+		Invoker(int concurrent, CountDownLatch unblock) {
+			started = new CountDownLatch(concurrent);
+			this.unblock = unblock;
+		}
+
+		public boolean invoke(IServiceCall call, IScope scope) {
+			synchronized (invoked) {
+				invoked.add(call.getServiceMethodName());
+			}
+			started.countDown();
+			try {
+				if (started.await(5, TimeUnit.SECONDS)) {
+					synchronized (this) {
+						overlapped++;
+					}
+				}
+				if (unblock != null) {
+					unblock.await(5, TimeUnit.SECONDS);
+				}
+			} catch (InterruptedException e) {
+			}
+			String address = Red5.getConnectionLocal().getRemoteAddress();
+			synchronized (invoked) {
+				addresses.add(address);
+			}
+			return true;
+		}
+
+		public boolean invoke(IServiceCall call, Object service) {
+			return invoke(call, (IScope) null);
+		}
+
+	}
+
+}
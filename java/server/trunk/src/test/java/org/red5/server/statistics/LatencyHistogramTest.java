@@ -0,0 +1,76 @@
+/*
+ * RED5 Open Source Flash Server - http://code.google.com/p/red5/
+ *
+ * Copyright 2006-2013 by respective authors (see below). All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.red5.server.statistics;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class LatencyHistogramTest {
+
+	@Test
+	public void testBuckets() {
+		Assert.assertEquals(0, LatencyHistogram.getBucket(500));
+		Assert.assertEquals(0, LatencyHistogram.getBucket(1000));
+		Assert.assertEquals(1, LatencyHistogram.getBucket(2000));
+		Assert.assertEquals(2, LatencyHistogram.getBucket(3000));
+		Assert.assertEquals(10, LatencyHistogram.getBucket(1024000));
+		Assert.assertEquals(LatencyHistogram.BUCKETS - 1, LatencyHistogram.getBucket(Long.MAX_VALUE));
+	}
+
+	@Test
+	public void testPercentiles() {
+		LatencyHistogram histogram = new LatencyHistogram("test");
+		for (int i = 0; i < 99; i++) {
+			histogram.record(1000);
+		}
+		histogram.record(1000000);
+		LatencyHistogram.Snapshot snapshot = histogram.getSnapshot();
+		Assert.assertEquals(100, snapshot.getCount());
+		Assert.assertEquals(99 * 1000 + 1000000, snapshot.getSum());
+		Assert.assertEquals(1000, snapshot.getPercentile(0.5));
+		Assert.assertEquals(1000, snapshot.getPercentile(0.99));
+		// bucket bound of 1024 us, capped at the largest latency seen
+		Assert.assertEquals(1000000, snapshot.getPercentile(0.999));
+		Assert.assertEquals(1000000, snapshot.getMax());
+	}
+
+	@Test
+	public void testThreads() throws Exception {
+		final LatencyHistogram histogram = new LatencyHistogram("test");
+		Thread[] threads = new Thread[4];
+		for (int t = 0; t < threads.length; t++) {
+			threads[t] = new Thread() {
+				public void run() {
+					for (int i = 0; i < 1000; i++) {
+						histogram.record(5000);
+					}
+				}
+			};
+			threads[t].start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		histogram.record(5000);
+		// counts of ended threads are kept
+		Assert.assertEquals(4001, histogram.getSnapshot().getCount());
+		Assert.assertEquals(4001, histogram.getSnapshot().getCount());
+	}
+
+}
@@ -0,0 +1,55 @@
+/*
+ * RED5 Open Source Flash Server - http://code.google.com/p/red5/
+ *
+ * Copyright 2006-2013 by respective authors (see below). All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.red5.server.statistics;
+
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class StatisticsSeriesTest {
+
+	@Test
+	public void testRing() {
+		StatisticsSeries series = new StatisticsSeries(StatisticsSeries.Type.SCOPE, "/default/live", 3);
+		Assert.assertNull(series.getLast());
+		for (int i = 1; i <= 5; i++) {
+			series.add(new StatisticsSeries.Point(i * 1000, i, 0, i * 10));
+		}
+		List<StatisticsSeries.Point> points = series.getPoints();
+		Assert.assertEquals(3, points.size());
+		Assert.assertEquals(3000, points.get(0).getTime());
+		Assert.assertEquals(5000, points.get(2).getTime());
+		Assert.assertSame(points.get(2), series.getLast());
+	}
+
+	@Test
+	public void testRate() {
+		StatisticsSeries series = new StatisticsSeries(StatisticsSeries.Type.STREAM, "/default/live/stream", 10);
+		series.add(new StatisticsSeries.Point(1000, 1, 1, 0));
+		Assert.assertEquals(0, series.getRate("bytesReceived"), 0);
+		series.add(new StatisticsSeries.Point(3000, 4, 5, 500000));
+		Assert.assertEquals(250000, series.getRate("bytesReceived"), 0);
+		Assert.assertEquals(2, series.getRate("totalSubscribers"), 0);
+		Assert.assertEquals(0, series.getRate("unknown"), 0);
+		Assert.assertFalse(StatisticsSeries.Type.STREAM.isCumulative(0));
+		Assert.assertTrue(StatisticsSeries.Type.STREAM.isCumulative(2));
+	}
+
+}
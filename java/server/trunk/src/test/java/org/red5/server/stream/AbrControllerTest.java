@@ -0,0 +1,89 @@
+/*
+ * RED5 Open Source Flash Server - http://code.google.com/p/red5/
+ *
+ * Copyright 2006-2013 by respective authors (see below). All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.red5.server.stream;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class AbrControllerTest {
+
+	private AbrGroup group;
+
+	@Before
+	public void setUp() {
+		group = new AbrGroup("live");
+		group.addRendition("live_500", 500);
+		group.addRendition("live_1500", 1500);
+		group.addRendition("live_250", 250);
+		group.setUpSwitchInterval(3);
+	}
+
+	@Test
+	public void testOrdering() {
+		Assert.assertEquals(3, group.size());
+		Assert.assertEquals("live_1500", group.getStreamName(0));
+		Assert.assertEquals("live_250", group.getStreamName(2));
+		Assert.assertEquals(1, group.indexOf("live_500"));
+		Assert.assertTrue(group.removeRendition("live_500"));
+		Assert.assertEquals(-1, group.indexOf("live_500"));
+	}
+
+	@Test
+	public void testDownOnPendingVideos() {
+		AbrController controller = new AbrController(group, 0);
+		Assert.assertEquals(0, controller.evaluate(2, 0, 50));
+		Assert.assertEquals(1, controller.evaluate(group.getMaxPendingVideoFrames() + 1, 0, 50));
+	}
+
+	@Test
+	public void testDownOnGrowingBacklog() {
+		AbrController controller = new AbrController(group, 1);
+		long backlog = group.getMaxUnacknowledgedBytes() + 1;
+		// a large but shrinking backlog is fine
+		Assert.assertEquals(1, controller.evaluate(0, backlog * 2, 50));
+		Assert.assertEquals(1, controller.evaluate(0, backlog, 50));
+		Assert.assertEquals(2, controller.evaluate(0, backlog + 1000, 50));
+	}
+
+	@Test
+	public void testDownOnRoundTripTime() {
+		AbrController controller = new AbrController(group, 1);
+		Assert.assertEquals(2, controller.evaluate(0, 0, group.getMaxRoundTripTime() + 1));
+		controller.switched(2);
+		// nothing lower than the lowest rendition
+		Assert.assertEquals(2, controller.evaluate(0, 0, group.getMaxRoundTripTime() + 1));
+	}
+
+	@Test
+	public void testUpAfterStableIntervals() {
+		AbrController controller = new AbrController(group, 2);
+		Assert.assertEquals(2, controller.evaluate(0, 0, 50));
+		Assert.assertEquals(2, controller.evaluate(1, 0, 50));
+		// a backlog resets the count
+		Assert.assertEquals(2, controller.evaluate(3, 0, 50));
+		Assert.assertEquals(2, controller.evaluate(0, 0, 50));
+		Assert.assertEquals(2, controller.evaluate(0, 0, 50));
+		Assert.assertEquals(1, controller.evaluate(0, 0, 50));
+		controller.switched(1);
+		Assert.assertEquals(1, controller.getIndex());
+		Assert.assertEquals(1, controller.evaluate(0, 0, 50));
+	}
+
+}
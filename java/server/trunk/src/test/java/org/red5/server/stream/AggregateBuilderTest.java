@@ -0,0 +1,107 @@
+/*
+ * RED5 Open Source Flash Server - http://code.google.com/p/red5/
+ *
+ * Copyright 2006-2013 by respective authors (see below). All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.red5.server.stream;
+
+import java.util.List;
+
+import org.apache.mina.core.buffer.IoBuffer;
+import org.junit.Assert;
+import org.junit.Test;
+import org.red5.server.net.rtmp.event.Aggregate;
+import org.red5.server.net.rtmp.event.AudioData;
+import org.red5.server.net.rtmp.event.IRTMPEvent;
+import org.red5.server.net.rtmp.event.Notify;
+import org.red5.server.net.rtmp.event.VideoData;
+import org.red5.server.net.rtmp.message.Constants;
+import org.red5.server.net.rtmp.message.Header;
+import org.red5.server.stream.message.RTMPMessage;
+
+public class AggregateBuilderTest {
+
+	@Test
+	public void testParts() {
+		AggregateBuilder builder = new AggregateBuilder(100, 65536);
+		Assert.assertTrue(builder.add(message(new VideoData(data(300, 1)), 1000)));
+		Assert.assertTrue(builder.add(message(new AudioData(data(40, 2)), 1010)));
+		Assert.assertTrue(builder.add(message(new VideoData(data(120, 3)), 1040)));
+		RTMPMessage message = builder.build();
+		Assert.assertTrue(message.getBody() instanceof Aggregate);
+		Assert.assertEquals(Constants.TYPE_AGGREGATE, message.getBody().getDataType());
+		Assert.assertEquals(1000, message.getBody().getTimestamp());
+		Assert.assertEquals(300 + 40 + 120 + 3 * 15, ((Aggregate) message.getBody()).getData().limit());
+		Assert.assertEquals(0, builder.getParts());
+		// read it back the way the decoder does
+		Aggregate aggregate = (Aggregate) message.getBody();
+		aggregate.setHeader(new Header());
+		List<IRTMPEvent> parts = aggregate.getParts();
+		Assert.assertEquals(3, parts.size());
+		Assert.assertTrue(parts.get(0) instanceof VideoData);
+		Assert.assertEquals(1000, parts.get(0).getTimestamp());
+		Assert.assertEquals(300, ((VideoData) parts.get(0)).getData().limit());
+		Assert.assertEquals(1, ((VideoData) parts.get(0)).getData().get(0));
+		Assert.assertTrue(parts.get(1) instanceof AudioData);
+		Assert.assertEquals(1010, parts.get(1).getTimestamp());
+		Assert.assertEquals(2, ((AudioData) parts.get(1)).getData().get(0));
+		Assert.assertEquals(1040, parts.get(2).getTimestamp());
+		Assert.assertEquals(120, ((VideoData) parts.get(2)).getData().limit());
+	}
+
+	@Test
+	public void testWindow() {
+		AggregateBuilder builder = new AggregateBuilder(100, 1000);
+		Assert.assertTrue(builder.add(message(new AudioData(data(100, 0)), 0)));
+		// outside of the time window
+		Assert.assertFalse(builder.add(message(new AudioData(data(100, 0)), 100)));
+		// beyond the size
+		Assert.assertFalse(builder.add(message(new VideoData(data(900, 0)), 50)));
+		Assert.assertTrue(builder.add(message(new VideoData(data(500, 0)), 50)));
+		Assert.assertEquals(2, builder.getParts());
+	}
+
+	@Test
+	public void testSinglePart() {
+		AggregateBuilder builder = new AggregateBuilder(100, 65536);
+		RTMPMessage message = message(new VideoData(data(10, 0)), 20);
+		builder.add(message);
+		Assert.assertSame(message, builder.build());
+		Assert.assertNull(builder.build());
+	}
+
+	@Test
+	public void testAggregatable() {
+		Assert.assertTrue(AggregateBuilder.isAggregatable(message(new AudioData(data(1, 0)), 0)));
+		Assert.assertTrue(AggregateBuilder.isAggregatable(message(new VideoData(data(1, 0)), 0)));
+		Assert.assertFalse(AggregateBuilder.isAggregatable(message(new Notify(data(1, 0)), 0)));
+	}
+
+	private static RTMPMessage message(IRTMPEvent event, int timestamp) {
+		event.setTimestamp(timestamp);
+		return RTMPMessage.build(event);
+	}
+
+	private static IoBuffer data(int size, int fill) {
+		IoBuffer data = IoBuffer.allocate(size);
+		for (int i = 0; i < size; i++) {
+			data.put((byte) fill);
+		}
+		return data.flip();
+	}
+
+}
@@ -0,0 +1,341 @@
+/*
+ * RED5 Open Source Flash Server - http://code.google.com/p/red5/
+ *
+ * Copyright 2006-2013 by respective authors (see below). All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.red5.server.stream;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.mina.core.buffer.IoBuffer;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.red5.server.api.IContext;
+import org.red5.server.api.scheduling.IScheduledJob;
+import org.red5.server.api.scheduling.ISchedulingService;
+import org.red5.server.api.scope.IScope;
+import org.red5.server.api.stream.IStreamCapableConnection;
+import org.red5.server.api.stream.ISubscriberStream;
+import org.red5.server.api.stream.StreamState;
+import org.red5.server.api.stream.support.SimplePlayItem;
+import org.red5.server.messaging.IMessage;
+import org.red5.server.messaging.IMessageOutput;
+import org.red5.server.messaging.IProvider;
+import org.red5.server.messaging.OOBControlMessage;
+import org.red5.server.net.rtmp.event.IRTMPEvent;
+import org.red5.server.net.rtmp.event.VideoData;
+import org.red5.server.net.rtmp.message.Constants;
+import org.red5.server.scope.BroadcastScope;
+import org.red5.server.stream.message.RTMPMessage;
+
+/**
+ * Drives a play engine with publishers pushing from their own threads, the way live streams reach subscribers.
+ */
+public class PlayEngineTest {
+
+	private final Map<String, BroadcastScope> published = new HashMap<String, BroadcastScope>();
+
+	private AbrGroup group;
+
+	private Stub providerService;
+
+	private Stub subscriberStream;
+
+	private IScope scope;
+
+	private Output out;
+
+	private PlayEngine engine;
+
+	@Before
+	public void setUp() {
+		group = new AbrGroup("live");
+		group.addRendition("live_1500", 1500);
+		group.addRendition("live_250", 250);
+		group.setUpSwitchInterval(1);
+		providerService = new Stub();
+		providerService.results.put("getAbrGroup", group);
+		providerService.results.put("lookupProviderInput", IProviderService.INPUT_TYPE.LIVE);
+		providerService.results.put("getLiveProviderInput", published);
+		Stub context = new Stub();
+		context.results.put("getBean", proxy(IProviderService.class, providerService));
+		Stub scopeStub = new Stub();
+		scopeStub.results.put("getBroadcastScope", published);
+		scopeStub.results.put("getContext", proxy(IContext.class, context));
+		scope = (IScope) proxy(IScope.class, scopeStub);
+		for (int i = 0; i < group.size(); i++) {
+			published.put(group.getStreamName(i), new BroadcastScope(scope, group.getStreamName(i)));
+		}
+		subscriberStream = new Stub();
+		subscriberStream.results.put("getScope", scope);
+		subscriberStream.results.put("getConnection", proxy(IStreamCapableConnection.class, new Stub()));
+		out = new Output();
+		engine = new PlayEngine.Builder((ISubscriberStream) proxy(ISubscriberStream.class, subscriberStream), (ISchedulingService) proxy(
+				ISchedulingService.class, new Stub()), null, (IProviderService) proxy(IProviderService.class, providerService)).build();
+		engine.setMessageOut(out);
+		engine.start();
+	}
+
+	@Test
+	public void testAbrSwitch() throws Exception {
+		engine.play(SimplePlayItem.build("live", -1000, -1));
+		final BroadcastScope low = published.get("live_250");
+		final BroadcastScope high = published.get("live_1500");
+		Assert.assertTrue(low.getConsumers().contains(engine));
+		// the first keyframe of the lowest rendition finds a healthy connection and starts the switch up
+		low.pushMessage(frame(0, 1));
+		Assert.assertTrue(high.getConsumers().contains(engine));
+		// the old rendition stalls on a slow write while the new one takes over
+		Thread lowPublisher = publish(low, 1);
+		Assert.assertTrue(out.stalled.await(5, TimeUnit.SECONDS));
+		Thread highPublisher = publish(high, 2);
+		lowPublisher.join(10000);
+		highPublisher.join(10000);
+		Assert.assertEquals("Renditions were sent at the same time", 0, out.overlaps.get());
+		Assert.assertFalse(low.getConsumers().contains(engine));
+		Assert.assertTrue(high.getConsumers().contains(engine));
+		// the subscriber moves from one rendition to the other at a keyframe, never back
+		List<int[]> frames = out.frames();
+		int switched = -1;
+		for (int i = 0; i < frames.size(); i++) {
+			if (frames.get(i)[1] == 2) {
+				switched = i;
+				break;
+			}
+		}
+		Assert.assertTrue(switched > 0);
+		Assert.assertEquals(1, frames.get(0)[1]);
+		Assert.assertEquals(1, frames.get(switched)[0]);
+		for (int i = switched; i < frames.size(); i++) {
+			Assert.assertEquals(2, frames.get(i)[1]);
+		}
+	}
+
+	@Test
+	public void testTimeShiftToLive() throws Exception {
+		providerService.results.remove("getAbrGroup");
+		File file = File.createTempFile("timeshift-", ".ring");
+		final TimeShiftBuffer buffer = new TimeShiftBuffer(file, 64 * 1024, 60000);
+		buffer.open();
+		try {
+			BroadcastScope live = new BroadcastScope(scope, "shift");
+			live.setClientBroadcastStream(new ClientBroadcastStream() {
+				public TimeShiftBuffer getTimeShiftBuffer() {
+					return buffer;
+				}
+			});
+			published.put("shift", live);
+			for (int i = 0; i < 10; i++) {
+				publish(live, buffer, i);
+			}
+			engine.play(SimplePlayItem.build("shift", -5000, -1));
+			Assert.assertTrue(engine.isPullMode());
+			// read the buffer up to the live edge, which starts the switch to live
+			for (int i = 0; i < 10; i++) {
+				subscriberStream.job.execute(null);
+			}
+			Assert.assertTrue(live.getConsumers().contains(engine));
+			Assert.assertTrue(engine.isPullMode());
+			// a tag published just before the subscription only made it into the buffer
+			buffer.append(Constants.TYPE_VIDEO_DATA, 100, ((VideoData) frame(10, 1).getBody()).getData());
+			// the ones published after are held back until the buffer was read past them
+			for (int i = 11; i < 15; i++) {
+				publish(live, buffer, i);
+			}
+			for (int i = 0; i < 3; i++) {
+				subscriberStream.job.execute(null);
+			}
+			Assert.assertFalse(engine.isPullMode());
+			for (int i = 15; i < 20; i++) {
+				publish(live, buffer, i);
+			}
+			// every tag is sent once and in order
+			List<int[]> frames = out.frames();
+			Assert.assertEquals(20, frames.size());
+			for (int i = 0; i < frames.size(); i++) {
+				Assert.assertEquals(i, frames.get(i)[2]);
+			}
+		} finally {
+			buffer.close();
+		}
+	}
+
+	/**
+	 * Publishes a frame the way a stream with a time-shift buffer does: the live pipe is pushed to, then the buffer
+	 * is appended.
+	 */
+	private static void publish(BroadcastScope live, TimeShiftBuffer buffer, int index) throws IOException {
+		RTMPMessage message = frame(index, 1);
+		live.pushMessage(message);
+		buffer.append(Constants.TYPE_VIDEO_DATA, message.getBody().getTimestamp(), ((VideoData) message.getBody()).getData());
+	}
+
+	/**
+	 * Starts a publisher pushing frames of the given rendition.
+	 */
+	private Thread publish(final BroadcastScope input, final int rendition) {
+		Thread publisher = new Thread() {
+			public void run() {
+				try {
+					for (int i = 1; i <= 300; i++) {
+						input.pushMessage(frame(i, rendition));
+					}
+				} catch (Exception e) {
+					e.printStackTrace();
+				}
+			}
+		};
+		publisher.start();
+		return publisher;
+	}
+
+	/**
+	 * @return video frame tagged with the given rendition id, every tenth frame is a keyframe
+	 */
+	private static RTMPMessage frame(int index, int rendition) {
+		IoBuffer data = IoBuffer.wrap(new byte[] { (byte) (index % 10 == 0 ? 0x12 : 0x22), (byte) rendition, (byte) index });
+		VideoData video = new VideoData(data);
+		video.setTimestamp(index * 10);
+		return RTMPMessage.build(video);
+	}
+
+	private static Object proxy(Class<?> type, InvocationHandler handler) {
+		return Proxy.newProxyInstance(PlayEngineTest.class.getClassLoader(), new Class<?>[] { type }, handler);
+	}
+
+	/**
+	 * Answers calls from a table of results by method name, a map is looked up with the second argument. The last
+	 * job scheduled is kept to be run by the test.
+	 */
+	private static class Stub implements InvocationHandler {
+
+		final Map<String, Object> results = new HashMap<String, Object>();
+
+		StreamState state = StreamState.UNINIT;
+
+		IScheduledJob job;
+
+		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+			String name = method.getName();
+			Object result = results.get(name);
+			if ("scheduleWithFixedDelay".equals(name)) {
+				job = (IScheduledJob) args[0];
+				return "job";
+			} else if (result instanceof Map) {
+				return ((Map<?, ?>) result).get(args.length > 1 ? args[1] : args[0]);
+			} else if (result != null) {
+				return result;
+			} else if ("getState".equals(name)) {
+				return state;
+			} else if ("setState".equals(name)) {
+				state = (StreamState) args[0];
+			} else if ("hashCode".equals(name)) {
+				return System.identityHashCode(proxy);
+			} else if ("equals".equals(name)) {
+				return proxy == args[0];
+			} else if (method.getReturnType() == boolean.class) {
+				return false;
+			} else if (method.getReturnType() == int.class) {
+				return 0;
+			} else if (method.getReturnType() == long.class) {
+				return 0L;
+			}
+			return null;
+		}
+
+	}
+
+	/**
+	 * Subscriber connection recording the video frames it is sent and whether two threads ever sent at once.
+	 */
+	private static class Output implements IMessageOutput {
+
+		final List<IMessage> messages = new ArrayList<IMessage>();
+
+		final AtomicInteger sending = new AtomicInteger();
+
+		final AtomicInteger overlaps = new AtomicInteger();
+
+		final CountDownLatch stalled = new CountDownLatch(1);
+
+		final CountDownLatch overtaken = new CountDownLatch(1);
+
+		public void pushMessage(IMessage message) throws IOException {
+			if (sending.incrementAndGet() > 1) {
+				overlaps.incrementAndGet();
+				overtaken.countDown();
+			}
+			IRTMPEvent body = message instanceof RTMPMessage ? ((RTMPMessage) message).getBody() : null;
+			if (body instanceof VideoData && ((VideoData) body).getData().get(1) == 1 && ((VideoData) body).getData().get(2) == 3) {
+				// the write of the third frame of the old rendition takes until another sender runs into it
+				stalled.countDown();
+				try {
+					overtaken.await(500, TimeUnit.MILLISECONDS);
+				} catch (InterruptedException e) {
+				}
+			}
+			synchronized (messages) {
+				messages.add(message);
+			}
+			sending.decrementAndGet();
+		}
+
+		/**
+		 * @return whether each video frame sent is a keyframe, its rendition and index
+		 */
+		List<int[]> frames() {
+			List<int[]> frames = new ArrayList<int[]>();
+			synchronized (messages) {
+				for (IMessage message : messages) {
+					if (message instanceof RTMPMessage && ((RTMPMessage) message).getBody() instanceof VideoData) {
+						VideoData video = (VideoData) ((RTMPMessage) message).getBody();
+						frames.add(new int[] { video.getFrameType() == VideoData.FrameType.KEYFRAME ? 1 : 0, video.getData().get(1), video.getData().get(2) });
+					}
+				}
+			}
+			return frames;
+		}
+
+		public boolean subscribe(IProvider provider, Map<String, Object> paramMap) {
+			return true;
+		}
+
+		public boolean unsubscribe(IProvider provider) {
+			return true;
+		}
+
+		public List<IProvider> getProviders() {
+			return new ArrayList<IProvider>();
+		}
+
+		public void sendOOBControlMessage(IProvider provider, OOBControlMessage oobCtrlMsg) {
+		}
+
+	}
+
+}
@@ -0,0 +1,98 @@
+/*
+ * RED5 Open Source Flash Server - http://code.google.com/p/red5/
+ *
+ * Copyright 2006-2013 by respective authors (see below). All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.red5.server.stream;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class PlayoutEngineTest {
+
+	private PlayoutEngine engine;
+
+	@Before
+	public void setUp() {
+		engine = new PlayoutEngine();
+		engine.setThreads(2);
+		engine.init();
+	}
+
+	@After
+	public void tearDown() {
+		engine.destroy();
+	}
+
+	@Test
+	public void testDeadlines() throws Exception {
+		final int count = 20;
+		final long start = System.nanoTime();
+		final long[] emitted = new long[count];
+		final CountDownLatch latch = new CountDownLatch(count);
+		for (int i = 0; i < count; i++) {
+			final int index = i;
+			engine.schedule(new Runnable() {
+				public void run() {
+					emitted[index] = System.nanoTime();
+					latch.countDown();
+				}
+			}, (index + 1) * 5000000L - (System.nanoTime() - start));
+		}
+		Assert.assertTrue(latch.await(5, TimeUnit.SECONDS));
+		for (int i = 0; i < count; i++) {
+			long deadline = start + (i + 1) * 5000000L;
+			Assert.assertTrue("Emitted before its deadline", emitted[i] >= deadline);
+			// generous bound, shared build machines are noisy
+			Assert.assertTrue("Emitted too late", emitted[i] - deadline < 50000000L);
+		}
+	}
+
+	@Test
+	public void testCancel() throws Exception {
+		final List<Integer> runs = new ArrayList<Integer>();
+		Future<?> future = engine.schedule(new Runnable() {
+			public void run() {
+				synchronized (runs) {
+					runs.add(1);
+				}
+			}
+		}, 20000000L);
+		future.cancel(false);
+		Thread.sleep(50);
+		synchronized (runs) {
+			Assert.assertTrue(runs.isEmpty());
+		}
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void testScheduleAfterDestroy() {
+		engine.destroy();
+		engine.schedule(new Runnable() {
+			public void run() {
+			}
+		}, 0);
+	}
+
+}
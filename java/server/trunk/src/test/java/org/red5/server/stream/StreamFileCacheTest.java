@@ -0,0 +1,106 @@
+/*
+ * RED5 Open Source Flash Server - http://code.google.com/p/red5/
+ *
+ * Copyright 2006-2013 by respective authors (see below). All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.red5.server.stream;
+
+import java.io.File;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.red5.server.api.scope.IScope;
+
+public class StreamFileCacheTest {
+
+	private File dir;
+
+	private IScope scope;
+
+	private StreamFileCache cache;
+
+	@Before
+	public void setUp() throws Exception {
+		dir = File.createTempFile("streams", "");
+		dir.delete();
+		dir.mkdirs();
+		scope = (IScope) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { IScope.class }, new InvocationHandler() {
+			public Object invoke(Object proxy, Method method, Object[] args) {
+				return "getName".equals(method.getName()) ? "app" : "";
+			}
+		});
+		cache = new StreamFileCache();
+		cache.setCheckInterval(0);
+	}
+
+	@After
+	public void tearDown() {
+		for (File file : dir.listFiles()) {
+			file.delete();
+		}
+		dir.delete();
+	}
+
+	@Test
+	public void testHit() throws Exception {
+		File file = new File(dir, "a.flv");
+		file.createNewFile();
+		Assert.assertNull(cache.get(scope, "a"));
+		cache.put(scope, "a", file, null);
+		Assert.assertEquals(file, cache.get(scope, "a").getFile());
+		Assert.assertEquals(1, cache.getHits());
+		Assert.assertEquals(1, cache.getMisses());
+		Assert.assertEquals(0.5, cache.getHitRatio(), 0.001);
+	}
+
+	@Test
+	public void testNegativeTtl() throws Exception {
+		cache.setNegativeTtl(50);
+		cache.put(scope, "b", null, null);
+		StreamFileCache.Entry entry = cache.get(scope, "b");
+		Assert.assertNotNull(entry);
+		Assert.assertNull(entry.getFile());
+		Thread.sleep(100);
+		Assert.assertNull(cache.get(scope, "b"));
+	}
+
+	@Test
+	public void testDirectoryChange() throws Exception {
+		File file = new File(dir, "a.flv");
+		file.createNewFile();
+		cache.put(scope, "a", file, null);
+		Assert.assertNotNull(cache.get(scope, "a"));
+		file.delete();
+		// make sure the change is visible on file systems with coarse timestamps
+		dir.setLastModified(dir.lastModified() + 2000);
+		Assert.assertNull(cache.get(scope, "a"));
+	}
+
+	@Test
+	public void testFileChanged() throws Exception {
+		cache.setNegativeTtl(60000);
+		cache.put(scope, "c", null, null);
+		Assert.assertNotNull(cache.get(scope, "c"));
+		cache.fileChanged(new File(dir, "c.flv"));
+		Assert.assertNull(cache.get(scope, "c"));
+	}
+
+}
@@ -0,0 +1,90 @@
+/*
+ * RED5 Open Source Flash Server - http://code.google.com/p/red5/
+ *
+ * Copyright 2006-2013 by respective authors (see below). All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.red5.server.stream;
+
+import org.apache.mina.core.buffer.IoBuffer;
+import org.junit.Assert;
+import org.junit.Test;
+import org.red5.server.net.rtmp.message.Constants;
+
+public class StreamThinnerTest {
+
+	// AVC decoder configuration with 4 byte NAL unit lengths
+	private static final byte[] AVC_CONFIG = { 0x17, 0x00, 0x00, 0x00, 0x00, 0x01, 0x42, 0x00, 0x1e, (byte) 0xff };
+
+	@Test
+	public void testKeyFrames() {
+		StreamThinner thinner = new StreamThinner(StreamThinner.Mode.KEYFRAMES, true);
+		Assert.assertTrue(thinner.accept(Constants.TYPE_VIDEO_DATA, IoBuffer.wrap(AVC_CONFIG)));
+		Assert.assertTrue(thinner.accept(Constants.TYPE_VIDEO_DATA, avc(true, 0x65)));
+		Assert.assertFalse(thinner.accept(Constants.TYPE_VIDEO_DATA, avc(false, 0x41)));
+		Assert.assertFalse(thinner.accept(Constants.TYPE_VIDEO_DATA, avc(false, 0x01)));
+		// sorenson keyframe and interframe
+		Assert.assertTrue(thinner.accept(Constants.TYPE_VIDEO_DATA, IoBuffer.wrap(new byte[] { 0x12, 0x00 })));
+		Assert.assertFalse(thinner.accept(Constants.TYPE_VIDEO_DATA, IoBuffer.wrap(new byte[] { 0x22, 0x00 })));
+		Assert.assertTrue(thinner.accept(Constants.TYPE_AUDIO_DATA, IoBuffer.wrap(new byte[] { (byte) 0xaf, 0x01 })));
+		Assert.assertTrue(thinner.accept(Constants.TYPE_STREAM_METADATA, IoBuffer.wrap(new byte[] { 0x02 })));
+	}
+
+	@Test
+	public void testReferenceFrames() {
+		StreamThinner thinner = new StreamThinner(StreamThinner.Mode.REFERENCE_FRAMES, false);
+		Assert.assertTrue(thinner.accept(Constants.TYPE_VIDEO_DATA, IoBuffer.wrap(AVC_CONFIG)));
+		Assert.assertTrue(thinner.accept(Constants.TYPE_VIDEO_DATA, avc(true, 0x65)));
+		// P slice with nal_ref_idc 2 and B slice with nal_ref_idc 0
+		Assert.assertTrue(thinner.accept(Constants.TYPE_VIDEO_DATA, avc(false, 0x41)));
+		Assert.assertFalse(thinner.accept(Constants.TYPE_VIDEO_DATA, avc(false, 0x01)));
+		// flv disposable interframe
+		Assert.assertFalse(thinner.accept(Constants.TYPE_VIDEO_DATA, IoBuffer.wrap(new byte[] { 0x32, 0x00 })));
+		Assert.assertFalse(thinner.accept(Constants.TYPE_AUDIO_DATA, IoBuffer.wrap(new byte[] { (byte) 0xaf, 0x01 })));
+	}
+
+	@Test
+	public void testAudioOnly() {
+		StreamThinner thinner = new StreamThinner(StreamThinner.Mode.AUDIO_ONLY, false);
+		Assert.assertFalse(thinner.accept(Constants.TYPE_VIDEO_DATA, IoBuffer.wrap(AVC_CONFIG)));
+		Assert.assertFalse(thinner.accept(Constants.TYPE_VIDEO_DATA, avc(true, 0x65)));
+		Assert.assertTrue(thinner.accept(Constants.TYPE_AUDIO_DATA, IoBuffer.wrap(new byte[] { (byte) 0xaf, 0x01 })));
+	}
+
+	@Test
+	public void testReferenceFrameParsing() {
+		// access unit delimiter and SEI ahead of a non-reference slice
+		IoBuffer data = IoBuffer.allocate(32);
+		data.put(new byte[] { 0x27, 0x01, 0x00, 0x00, 0x00 });
+		data.putInt(2).put((byte) 0x09).put((byte) 0xf0);
+		data.putInt(3).put((byte) 0x06).put((byte) 0x05).put((byte) 0x80);
+		data.putInt(3).put((byte) 0x01).put((byte) 0x9a).put((byte) 0x00);
+		data.flip();
+		Assert.assertFalse(StreamThinner.isReferenceFrame(data, 5, 4));
+		// a truncated frame is kept
+		data.limit(16);
+		Assert.assertTrue(StreamThinner.isReferenceFrame(data, 5, 4));
+	}
+
+	private static IoBuffer avc(boolean key, int nalHeader) {
+		IoBuffer data = IoBuffer.allocate(16);
+		data.put((byte) (key ? 0x17 : 0x27)).put((byte) 0x01).put((byte) 0x00).put((byte) 0x00).put((byte) 0x00);
+		data.putInt(3).put((byte) nalHeader).put((byte) 0x88).put((byte) 0x84);
+		data.flip();
+		return data;
+	}
+
+}
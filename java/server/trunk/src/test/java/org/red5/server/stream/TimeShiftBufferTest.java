@@ -0,0 +1,148 @@
+/*
+ * RED5 Open Source Flash Server - http://code.google.com/p/red5/
+ *
+ * Copyright 2006-2013 by respective authors (see below). All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.red5.server.stream;
+
+import java.io.File;
+
+import org.apache.mina.core.buffer.IoBuffer;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.red5.server.net.rtmp.event.AudioData;
+import org.red5.server.net.rtmp.event.IRTMPEvent;
+import org.red5.server.net.rtmp.event.VideoData;
+import org.red5.server.net.rtmp.message.Constants;
+
+public class TimeShiftBufferTest {
+
+	private File file;
+
+	private TimeShiftBuffer buffer;
+
+	@Before
+	public void setUp() throws Exception {
+		file = File.createTempFile("timeshift-", ".ring");
+		// 4k ring holding up to 10 seconds
+		buffer = new TimeShiftBuffer(file, 4096, 10000);
+		buffer.open();
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		buffer.close();
+		Assert.assertFalse(file.exists());
+	}
+
+	@Test
+	public void testReadBack() {
+		buffer.append(Constants.TYPE_VIDEO_DATA, 0, video(true, 100));
+		buffer.append(Constants.TYPE_AUDIO_DATA, 10, audio(50));
+		buffer.append(Constants.TYPE_VIDEO_DATA, 40, video(false, 80));
+		TimeShiftBuffer.Cursor cursor = buffer.cursor(0);
+		IRTMPEvent event = cursor.next();
+		Assert.assertTrue(event instanceof VideoData);
+		Assert.assertEquals(0, event.getTimestamp());
+		Assert.assertEquals(100, ((VideoData) event).getData().limit());
+		event = cursor.next();
+		Assert.assertTrue(event instanceof AudioData);
+		Assert.assertEquals(10, event.getTimestamp());
+		event = cursor.next();
+		Assert.assertEquals(40, event.getTimestamp());
+		// caught up with the live edge
+		Assert.assertNull(cursor.next());
+		buffer.append(Constants.TYPE_AUDIO_DATA, 50, audio(50));
+		Assert.assertEquals(50, cursor.next().getTimestamp());
+	}
+
+	@Test
+	public void testStartsAtKeyFrame() {
+		for (int ts = 0; ts < 3000; ts += 100) {
+			buffer.append(Constants.TYPE_VIDEO_DATA, ts, video(ts % 1000 == 0, 20));
+		}
+		Assert.assertEquals(3, buffer.getKeyFrameCount());
+		// 1.5 seconds behind the live edge starts at the keyframe at 1000
+		IRTMPEvent event = buffer.cursor(buffer.getLatestTimestamp() - 1500).next();
+		Assert.assertEquals(1000, event.getTimestamp());
+		Assert.assertEquals(0x10, ((VideoData) event).getData().get(0) & 0xf0);
+	}
+
+	@Test
+	public void testEvictsBySize() {
+		// each record is 9 + 200 bytes, the ring holds 19 of them
+		for (int ts = 0; ts < 100; ts++) {
+			buffer.append(Constants.TYPE_VIDEO_DATA, ts, video(ts % 10 == 0, 200, (byte) ts));
+		}
+		Assert.assertEquals(99, buffer.getLatestTimestamp());
+		Assert.assertTrue(buffer.getOldestTimestamp() > 80);
+		// data read across the end of the ring must be intact
+		TimeShiftBuffer.Cursor cursor = buffer.cursor(0);
+		IRTMPEvent event;
+		int count = 0;
+		while ((event = cursor.next()) != null) {
+			IoBuffer data = ((VideoData) event).getData();
+			Assert.assertEquals(200, data.limit());
+			Assert.assertEquals((byte) event.getTimestamp(), data.get(199));
+			count++;
+		}
+		Assert.assertTrue(count > 0);
+	}
+
+	@Test
+	public void testEvictsByTime() {
+		for (int ts = 0; ts <= 20000; ts += 1000) {
+			buffer.append(Constants.TYPE_AUDIO_DATA, ts, audio(10));
+		}
+		Assert.assertEquals(10000, buffer.getOldestTimestamp());
+	}
+
+	@Test
+	public void testSlowReaderSkipsAhead() {
+		buffer.append(Constants.TYPE_VIDEO_DATA, 0, video(true, 200));
+		TimeShiftBuffer.Cursor cursor = buffer.cursor(0);
+		for (int ts = 1; ts < 100; ts++) {
+			buffer.append(Constants.TYPE_VIDEO_DATA, ts, video(ts % 10 == 0, 200));
+		}
+		// the first record is long gone, reading resumes at the oldest keyframe
+		IRTMPEvent event = cursor.next();
+		Assert.assertEquals(0, event.getTimestamp() % 10);
+		Assert.assertTrue(event.getTimestamp() >= buffer.getOldestTimestamp());
+	}
+
+	private static IoBuffer video(boolean keyFrame, int size) {
+		return video(keyFrame, size, (byte) 0);
+	}
+
+	private static IoBuffer video(boolean keyFrame, int size, byte value) {
+		IoBuffer data = IoBuffer.allocate(size);
+		// sorenson h.263
+		data.put((byte) (keyFrame ? 0x12 : 0x22));
+		data.fill(value, size - 1);
+		data.flip();
+		return data;
+	}
+
+	private static IoBuffer audio(int size) {
+		IoBuffer data = IoBuffer.allocate(size);
+		data.fill(size);
+		data.flip();
+		return data;
+	}
+
+}
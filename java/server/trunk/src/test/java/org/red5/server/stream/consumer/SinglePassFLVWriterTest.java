@@ -0,0 +1,112 @@
+/*
+ * RED5 Open Source Flash Server - http://code.google.com/p/red5/
+ *
+ * Copyright 2006-2013 by respective authors (see below). All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.red5.server.stream.consumer;
+
+import java.io.File;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.mina.core.buffer.IoBuffer;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.red5.io.ITag;
+import org.red5.io.amf.Input;
+import org.red5.io.flv.impl.FLVReader;
+import org.red5.io.flv.impl.Tag;
+
+public class SinglePassFLVWriterTest {
+
+	private File file;
+
+	@Before
+	public void setUp() throws Exception {
+		file = File.createTempFile("record", ".flv");
+	}
+
+	@After
+	public void tearDown() {
+		file.delete();
+	}
+
+	@Test
+	public void testWrite() throws Exception {
+		SinglePassFLVWriter writer = new SinglePassFLVWriter(file, null);
+		write(writer, 50);
+		writer.close();
+		Assert.assertEquals(writer.getBytesWritten(), file.length());
+		FLVReader reader = new FLVReader(file);
+		ITag tag = reader.readTag();
+		Assert.assertEquals(ITag.TYPE_METADATA, tag.getDataType());
+		Assert.assertEquals(SinglePassFLVWriter.DEFAULT_METADATA_SIZE, tag.getBodySize());
+		Map<?, ?> metaData = readMetaData(tag);
+		Assert.assertEquals(0.98, ((Number) metaData.get("duration")).doubleValue(), 0.001);
+		Assert.assertEquals(2, ((Number) metaData.get("videocodecid")).intValue());
+		Assert.assertEquals(2, ((Number) metaData.get("audiocodecid")).intValue());
+		List<?> times = (List<?>) ((Map<?, ?>) metaData.get("keyframes")).get("times");
+		Assert.assertEquals(3, times.size());
+		int count = 0;
+		while (reader.hasMoreTags()) {
+			tag = reader.readTag();
+			Assert.assertEquals(count * 20, tag.getTimestamp());
+			count++;
+		}
+		reader.close();
+		Assert.assertEquals(50, count);
+	}
+
+	@Test
+	public void testKeyFrameIndexThinned() throws Exception {
+		SinglePassFLVWriter writer = new SinglePassFLVWriter(file, null, 1024);
+		write(writer, 2000);
+		writer.close();
+		FLVReader reader = new FLVReader(file);
+		ITag tag = reader.readTag();
+		Assert.assertEquals(1024, tag.getBodySize());
+		Map<?, ?> metaData = readMetaData(tag);
+		List<?> times = (List<?>) ((Map<?, ?>) metaData.get("keyframes")).get("times");
+		Assert.assertTrue(times.size() < 100);
+		Assert.assertEquals(0, ((Number) times.get(0)).intValue());
+		reader.close();
+	}
+
+	/**
+	 * Writes sorenson video, with a keyframe every 20 tags, and mp3 audio.
+	 */
+	private static void write(SinglePassFLVWriter writer, int count) throws Exception {
+		for (int i = 0; i < count; i++) {
+			IoBuffer body = IoBuffer.allocate(100);
+			boolean video = i % 2 == 0;
+			body.put(video ? (byte) (i % 20 == 0 ? 0x12 : 0x22) : (byte) 0x2e);
+			body.position(body.limit()).flip();
+			Assert.assertTrue(writer.writeTag(new Tag(video ? ITag.TYPE_VIDEO : ITag.TYPE_AUDIO, i * 20, 100, body, 0)));
+		}
+	}
+
+	private static Map<?, ?> readMetaData(ITag tag) {
+		Input input = new Input(tag.getBody());
+		input.readDataType();
+		Assert.assertEquals("onMetaData", input.readString(String.class));
+		input.readDataType();
+		return (Map<?, ?>) input.readMap(null);
+	}
+
+}